@@ -5,7 +5,43 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import ru.levitsky.blackholeeh.benchmark.CorpusSpec;
+import ru.levitsky.blackholeeh.benchmark.PipelineBenchmark;
+import ru.levitsky.blackholeeh.benchmark.SyntheticCorpusGenerator;
+import ru.levitsky.blackholeeh.model.BenchmarkResult;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.CorpusReport;
+import ru.levitsky.blackholeeh.model.DictionaryCheckReport;
+import ru.levitsky.blackholeeh.model.IntegrityReport;
+import ru.levitsky.blackholeeh.model.MergedShardReport;
+import ru.levitsky.blackholeeh.model.ShardSpec;
+import ru.levitsky.blackholeeh.model.SimilarImage;
+import ru.levitsky.blackholeeh.service.CorpusAnalyzer;
+import ru.levitsky.blackholeeh.server.BloomFilterOptions;
+import ru.levitsky.blackholeeh.server.ReferenceBlockServer;
+import ru.levitsky.blackholeeh.server.ReferenceServerOptions;
+import ru.levitsky.blackholeeh.service.BlhoReader;
 import ru.levitsky.blackholeeh.service.FileProcessor;
+import ru.levitsky.blackholeeh.service.ImageReconstructor;
+import ru.levitsky.blackholeeh.service.IntegrityVerifier;
+import ru.levitsky.blackholeeh.service.ShardedIngestion;
+import ru.levitsky.blackholeeh.service.dictionary.ManifestChecker;
+import ru.levitsky.blackholeeh.service.similarity.SimilaritySearch;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+import ru.levitsky.blackholeeh.service.store.LocalPackBlockStore;
+import ru.levitsky.blackholeeh.util.CliArgs;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 @SpringBootApplication
 @RequiredArgsConstructor
@@ -13,16 +49,301 @@ import ru.levitsky.blackholeeh.service.FileProcessor;
 public class BlackholeEhApplication implements CommandLineRunner {
 
     private final FileProcessor fileProcessor;
+    private final CorpusAnalyzer corpusAnalyzer;
+    private final PipelineBenchmark pipelineBenchmark;
+    private final ShardedIngestion shardedIngestion;
+    private final BlhoReader blhoReader;
+    private final ImageReconstructor imageReconstructor;
+    private final ManifestChecker manifestChecker;
+    private final IntegrityVerifier integrityVerifier;
+    private final SimilaritySearch similaritySearch;
 
-    static void main(String[] args) {
+    // public: Spring AOT processing (fast-start profile) looks the method up with Class.getMethod
+    public static void main(String[] args) {
         SpringApplication.run(BlackholeEhApplication.class, args);
     }
 
     @Override
     public void run(String... args) throws Exception {
-        String directory = args.length > 0 ? args[0] : "target/classes/img";
-        log.info("Processing directory: {}", directory);
-        fileProcessor.processDirectory(directory);
+        CliArgs cli = CliArgs.parse(args);
+        switch (cli.positional(0, "")) {
+            case "analyze" -> analyze(cli);
+            case "benchmark" -> benchmark(cli);
+            case "generate-corpus" -> generateCorpus(cli);
+            case "merge-reports" -> mergeReports(cli);
+            case "reconstruct" -> reconstruct(cli);
+            case "check-dictionary" -> checkDictionary(cli);
+            case "verify" -> verify(cli);
+            case "similar-index" -> similarIndex(cli);
+            case "similar" -> similar(cli);
+            case "compact-store" -> compactStore(cli);
+            case "serve" -> serve(cli);
+            default -> process(cli);
+        }
+    }
+
+    /**
+     * Default mode: {@code [directory] [--shard=i/N] [--state-dir=<directory>/.blackhole]} – creates .blho files
+     * and uploads missing blocks. With {@code --shard} the whole tree is walked and only the files of
+     * shard {@code i} of {@code N} are processed, with a journal and report in the state directory.
+     */
+    private void process(CliArgs cli) throws Exception {
+        String directory = cli.positional(0, "target/classes/img");
+        if (cli.hasOption("shard")) {
+            Path root = Path.of(directory);
+            ShardSpec shard = ShardSpec.parse(cli.option("shard", null));
+            Path stateDir = cli.hasOption("state-dir")
+                    ? Path.of(cli.option("state-dir", null))
+                    : ShardedIngestion.defaultStateDirectory(root);
+            log.info("Processing shard {} of directory tree: {}", shard, directory);
+            shardedIngestion.ingest(root, shard, stateDir);
+        } else {
+            log.info("Processing directory: {}", directory);
+            fileProcessor.processDirectory(directory);
+        }
+        log.info("Done");
+    }
+
+    /**
+     * Sharding mode: {@code merge-reports <state directory> [--output=merged.json]} – combines the reports of
+     * all shards and detects blocks uploaded by more than one shard.
+     */
+    private void mergeReports(CliArgs cli) throws Exception {
+        Path stateDir = Path.of(cli.positional(1, "target/classes/img/.blackhole"));
+        String output = cli.option("output", null);
+
+        MergedShardReport report = shardedIngestion.mergeReports(stateDir);
+        shardedIngestion.writeReport(report, output == null ? null : Path.of(output));
+        log.info("Done");
+    }
+
+    /**
+     * Check mode: {@code check-dictionary <directory>} – validates the hash dictionaries and all .blho manifests
+     * below the directory and fails if any manifest references missing ids or an unknown dictionary.
+     */
+    private void checkDictionary(CliArgs cli) throws Exception {
+        Path directory = Path.of(cli.positional(1, "target/classes/img"));
+
+        DictionaryCheckReport report = manifestChecker.check(directory);
+        manifestChecker.printReport(report);
+        if (!report.problems().isEmpty()) {
+            throw new IllegalStateException(report.problems().size() + " inconsistencies found below " + directory);
+        }
+        log.info("Done");
+    }
+
+    /**
+     * Verify mode: {@code verify <directory> [--sample=1.0] [--seed=0] [--parallelism=N]} – recomputes the block
+     * checksums of all (or a sample of the) .blho manifests below the directory over the blocks in the block store
+     * and fails if any image would not be reproduced, naming the failing bands.
+     */
+    private void verify(CliArgs cli) throws Exception {
+        Path directory = Path.of(cli.positional(1, "target/classes/img"));
+
+        IntegrityReport report = integrityVerifier.verify(directory, cli.doubleOption("sample", 1.0),
+                cli.longOption("seed", 0), cli.intOption("parallelism", Runtime.getRuntime().availableProcessors()));
+        integrityVerifier.printReport(report);
+        if (!report.failures().isEmpty()) {
+            throw new IllegalStateException(report.failures().size() + " manifests below " + directory
+                    + " do not match their blocks");
+        }
+        log.info("Done");
+    }
+
+    /**
+     * Similarity mode: {@code similar-index <directory> [--index=<directory>/.blackhole/similarity]} – adds all
+     * .blho manifests below the directory that are not indexed yet to the near-duplicate index.
+     */
+    private void similarIndex(CliArgs cli) throws Exception {
+        Path directory = Path.of(cli.positional(1, "target/classes/img"));
+        Path index = cli.hasOption("index")
+                ? Path.of(cli.option("index", null))
+                : SimilaritySearch.defaultIndexDirectory(directory);
+
+        similaritySearch.index(directory, index);
+        log.info("Done");
+    }
+
+    /**
+     * Similarity mode: {@code similar <file.blho> [--index=<manifest directory>/.blackhole/similarity]
+     * [--threshold=0.5] [--limit=20] [--output=similar.json]} – lists indexed images that share at least
+     * the threshold of the manifest's unique Y blocks.
+     */
+    private void similar(CliArgs cli) throws Exception {
+        String manifestPath = cli.positional(1, null);
+        if (manifestPath == null) {
+            throw new IllegalArgumentException("Usage: similar <file.blho> [--index=...] [--threshold=0.5] [--limit=20]");
+        }
+        Path manifest = Path.of(manifestPath).toAbsolutePath();
+        Path index = cli.hasOption("index")
+                ? Path.of(cli.option("index", null))
+                : SimilaritySearch.defaultIndexDirectory(manifest.getParent());
+        double threshold = cli.doubleOption("threshold", 0.5);
+        String output = cli.option("output", null);
+
+        List<SimilarImage> similar = similaritySearch.findSimilar(manifest, index, threshold,
+                cli.intOption("limit", 20));
+        similaritySearch.writeResults(similar, output == null ? null : Path.of(output));
         log.info("Done");
     }
+
+    /**
+     * Dry-run mode: {@code analyze <directory> [--parallelism=N] [--output=report.json]} –
+     * predicts dedup ratio, manifest size and upload volume without contacting the server.
+     */
+    private void analyze(CliArgs cli) throws Exception {
+        Path directory = Path.of(cli.positional(1, "target/classes/img"));
+        int parallelism = cli.intOption("parallelism", Runtime.getRuntime().availableProcessors());
+        String output = cli.option("output", null);
+
+        CorpusReport report = corpusAnalyzer.analyze(directory, parallelism);
+        corpusAnalyzer.writeReport(report, output == null ? null : Path.of(output));
+        log.info("Done");
+    }
+
+    /**
+     * Restore mode: {@code reconstruct <file.blho> [--output=<file>.restored.png] [--roi=x,y,width,height]
+     * [--scale=1] [--parallelism=N]} – rebuilds the image, a crop and/or a thumbnail from the block store,
+     * fetching only the blocks the region covers. Manifests of JPEG coefficient blocks without {@code --roi}
+     * and {@code --scale} are restored to the original JPEG file ({@code <file>.restored.jpg}) byte for byte.
+     */
+    private void reconstruct(CliArgs cli) throws Exception {
+        String manifestPath = cli.positional(1, null);
+        if (manifestPath == null) {
+            throw new IllegalArgumentException("Usage: reconstruct <file.blho> [--output=...] [--roi=x,y,w,h] [--scale=N]");
+        }
+        Rectangle region = null;
+        if (cli.hasOption("roi")) {
+            String[] parts = cli.option("roi", null).split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Option --roi expects x,y,width,height");
+            }
+            region = new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+        }
+        String basePath = manifestPath.replaceFirst("\\.blho$", "");
+        BlhoFileDataV2 manifest = blhoReader.read(Path.of(manifestPath));
+        if (manifest.hasJpegSegments() && region == null && cli.intOption("scale", 1) == 1) {
+            String output = cli.option("output", basePath + ".restored.jpg");
+            Files.write(Path.of(output), imageReconstructor.restoreJpeg(manifest));
+            log.info("Restored JPEG written to '{}'", output);
+            return;
+        }
+        String output = cli.option("output", basePath + ".restored.png");
+
+        BufferedImage image = imageReconstructor.reconstruct(manifest, region,
+                cli.intOption("scale", 1), cli.intOption("parallelism", Runtime.getRuntime().availableProcessors()));
+        ImageIO.write(image, "png", new File(output));
+        log.info("Reconstructed image written to '{}'", output);
+    }
+
+    /**
+     * Benchmark mode: {@code benchmark [<directory>] [corpus options] [--latency-ms=0] [--jitter-ms=0]
+     * [--error-rate=0.0] [--bandwidth=<bytes/s>] [--fault-seed=0] [--warmup=1] [--iterations=3] [--label=unlabeled]
+     * [--results=benchmark-results.jsonl]} – runs the full pipeline against an embedded reference server.
+     * Without a directory a synthetic corpus is generated into {@code target/benchmark-corpus} first.
+     */
+    private void benchmark(CliArgs cli) throws Exception {
+        CorpusSpec spec = null;
+        Path corpus;
+        if (cli.positionalCount() > 1) {
+            corpus = Path.of(cli.positional(1, null));
+        } else {
+            spec = corpusSpec(cli);
+            corpus = Path.of(cli.option("corpus", "target/benchmark-corpus"));
+            SyntheticCorpusGenerator.generate(spec, corpus);
+        }
+        ReferenceServerOptions serverOptions = new ReferenceServerOptions(
+                0,
+                cli.longOption("latency-ms", 0),
+                cli.longOption("jitter-ms", 0),
+                cli.doubleOption("error-rate", 0.0),
+                cli.longOption("bandwidth", 0),
+                cli.longOption("fault-seed", 0));
+
+        ReferenceBlockServer.useTcpNoDelay();
+        List<BenchmarkResult> results = pipelineBenchmark.run(corpus, spec, serverOptions,
+                cli.option("label", "unlabeled"), cli.intOption("warmup", 1), cli.intOption("iterations", 3));
+        pipelineBenchmark.appendResults(results, Path.of(cli.option("results", "benchmark-results.jsonl")));
+        log.info("Done");
+    }
+
+    /**
+     * Benchmark helper: {@code generate-corpus <directory> [--images=200] [--min-side=64] [--max-side=1024]
+     * [--flat=0.3] [--tiles=0.2] [--near-duplicates=0.1] [--gray=0.25] [--seed=42]} – writes a deterministic
+     * synthetic PNG corpus.
+     */
+    private void generateCorpus(CliArgs cli) throws Exception {
+        SyntheticCorpusGenerator.generate(corpusSpec(cli), Path.of(cli.positional(1, "target/benchmark-corpus")));
+        log.info("Done");
+    }
+
+    private static CorpusSpec corpusSpec(CliArgs cli) {
+        return new CorpusSpec(
+                cli.longOption("seed", 42),
+                cli.intOption("images", 200),
+                cli.intOption("min-side", 64),
+                cli.intOption("max-side", 1024),
+                cli.doubleOption("flat", 0.3),
+                cli.doubleOption("tiles", 0.2),
+                cli.doubleOption("near-duplicates", 0.1),
+                cli.doubleOption("gray", 0.25));
+    }
+
+    /**
+     * Test mode: {@code serve [--port=8081] [--store=memory|<directory>] [--latency-ms=0] [--jitter-ms=0]
+     * [--error-rate=0.0] [--bandwidth=<bytes/s>] [--seed=0] [--filter-bits=10] [--filter-publish-ms=60000]} –
+     * runs the embedded reference block server until the process is stopped. {@code --filter-bits=0} disables
+     * the published Bloom filters.
+     */
+    private void serve(CliArgs cli) throws Exception {
+        ReferenceServerOptions options = new ReferenceServerOptions(
+                cli.intOption("port", 8081),
+                cli.longOption("latency-ms", 0),
+                cli.longOption("jitter-ms", 0),
+                cli.doubleOption("error-rate", 0.0),
+                cli.longOption("bandwidth", 0),
+                cli.longOption("seed", 0));
+        String storeOption = cli.option("store", "memory");
+        BlockStore store = "memory".equals(storeOption)
+                ? new InMemoryBlockStore()
+                : new LocalPackBlockStore(Path.of(storeOption), 10_000);
+
+        int filterBits = cli.intOption("filter-bits", BloomFilterOptions.DEFAULT.bitsPerBlock());
+        BloomFilterOptions filterOptions = filterBits == 0 ? null : new BloomFilterOptions(
+                BloomFilterOptions.DEFAULT.expectedBlocks(), filterBits,
+                cli.longOption("filter-publish-ms", BloomFilterOptions.DEFAULT.publishIntervalMillis()),
+                BloomFilterOptions.DEFAULT.history());
+
+        ReferenceBlockServer.useTcpNoDelay();
+        ReferenceBlockServer server = new ReferenceBlockServer(options, store, filterOptions).start();
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (store instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    log.error("Failed to close block store: {}", e.getMessage());
+                }
+            }
+            log.info("Reference block server stopped: {}", server.stats());
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+
+    /**
+     * Maintenance mode: {@code compact-store <store directory>} – rewrites the live blocks
+     * of a local pack-file store into fresh packs.
+     */
+    private void compactStore(CliArgs cli) throws Exception {
+        Path directory = Path.of(cli.positional(1, "blocks"));
+        try (LocalPackBlockStore store = new LocalPackBlockStore(directory, 0)) {
+            LocalPackBlockStore.CompactionResult result = store.compact();
+            log.info("Compacted '{}': {} -> {} packs, {} -> {} bytes, {} live blocks", directory,
+                    result.packsBefore(), result.packsAfter(), result.bytesBefore(), result.bytesAfter(),
+                    result.liveBlocks());
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package ru.levitsky.blackholeeh.benchmark;
+
+/**
+ * Parameters of a synthetic benchmark corpus. The same spec always produces byte-identical images.
+ *
+ * @param seed               seed of the generator
+ * @param images             number of images to generate
+ * @param minSide            smallest image side in pixels
+ * @param maxSide            largest image side in pixels; sides are distributed log-uniformly in between
+ * @param flatRatio          share (0..1) of each image area covered by flat single-color rectangles
+ * @param tileRatio          probability (0..1) that an 8x8-aligned 32x32 cell is stamped with a tile
+ *                           from a palette shared by the whole corpus
+ * @param nearDuplicateRatio probability (0..1) that an image is a lightly edited copy of an earlier one
+ * @param grayRatio          probability (0..1) that an image is 8-bit grayscale instead of RGB
+ */
+public record CorpusSpec(
+        long seed,
+        int images,
+        int minSide,
+        int maxSide,
+        double flatRatio,
+        double tileRatio,
+        double nearDuplicateRatio,
+        double grayRatio
+) {
+
+    public CorpusSpec {
+        if (images < 1) {
+            throw new IllegalArgumentException("Corpus must contain at least one image: " + images);
+        }
+        if (minSide < 1 || maxSide < minSide) {
+            throw new IllegalArgumentException("Invalid image side range: " + minSide + ".." + maxSide);
+        }
+        requireRatio("flatRatio", flatRatio);
+        requireRatio("tileRatio", tileRatio);
+        requireRatio("nearDuplicateRatio", nearDuplicateRatio);
+        requireRatio("grayRatio", grayRatio);
+    }
+
+    private static void requireRatio(String name, double value) {
+        if (value < 0.0 || value > 1.0) {
+            throw new IllegalArgumentException(name + " must be in range 0..1: " + value);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ru.levitsky.blackholeeh.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import ru.levitsky.blackholeeh.model.BenchmarkResult;
+import ru.levitsky.blackholeeh.model.SequenceOptions;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.model.UploadPolicy;
+import ru.levitsky.blackholeeh.server.ReferenceBlockServer;
+import ru.levitsky.blackholeeh.server.ReferenceServerOptions;
+import ru.levitsky.blackholeeh.service.BlhoWriter;
+import ru.levitsky.blackholeeh.service.BlockClient;
+import ru.levitsky.blackholeeh.service.FileProcessor;
+import ru.levitsky.blackholeeh.service.PipelineMetrics;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end throughput benchmark of the whole {@link FileProcessor} path.
+ * <p>
+ * Every iteration processes the corpus directory exactly like the default CLI mode – decoding, splitting,
+ * writing the .blho manifests, hashing, checking and uploading over HTTP – against a fresh, empty
+ * {@link ReferenceBlockServer} running in the same JVM, and measures:
+ * <ul>
+ *     <li>throughput in images/s and MB/s, and wall-clock time per pipeline stage</li>
+ *     <li>peak heap usage (from the heap memory pools)</li>
+ *     <li>bytes allocated by all threads of the JVM during the run – the pipeline, its worker pools and the
+ *     in-process server – and the resulting allocation rate</li>
+ *     <li>garbage collection count and time</li>
+ * </ul>
+ * Warm-up iterations are run first and not reported. Every measured iteration is appended to a
+ * JSON lines file, one {@link BenchmarkResult} per line, so runs of different commits can be compared.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PipelineBenchmark {
+
+    private final BlhoWriter blhoWriter;
+    private final UploadPolicy uploadPolicy;
+    private final SplitOptions splitOptions;
+    private final SequenceOptions sequenceOptions;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param corpus        directory with the images to process
+     * @param corpusSpec    spec the corpus was generated from, or {@code null} for an existing directory
+     * @param serverOptions fault injection of the reference server; its port is ignored, a free one is used
+     * @param label         label of the measured build, stored with every result
+     * @param warmup        number of unreported warm-up iterations
+     * @param iterations    number of measured iterations
+     * @return the results of the measured iterations
+     * @throws IOException if the corpus cannot be read or the server cannot be started
+     */
+    public List<BenchmarkResult> run(Path corpus, CorpusSpec corpusSpec, ReferenceServerOptions serverOptions,
+                                     String label, int warmup, int iterations) throws IOException {
+        ReferenceServerOptions options = new ReferenceServerOptions(0, serverOptions.latencyMillis(),
+                serverOptions.latencyJitterMillis(), serverOptions.errorRate(),
+                serverOptions.bandwidthBytesPerSecond(), serverOptions.seed());
+
+        for (int i = 1; i <= warmup; i++) {
+            log.info("Benchmark warm-up {}/{}", i, warmup);
+            runIteration(corpus, options);
+        }
+
+        List<BenchmarkResult> results = new ArrayList<>(iterations);
+        for (int i = 1; i <= iterations; i++) {
+            log.info("Benchmark iteration {}/{}", i, iterations);
+            Measurement measurement = runIteration(corpus, options);
+            BenchmarkResult result = toResult(measurement, corpus, corpusSpec, options, label, i);
+            log.info("Iteration {}: {} images, {} ms, {} images/s, {} MB/s, stages {} ms, peak heap {} MB, "
+                            + "allocated {} MB ({} MB/s)",
+                    i, result.files(), result.elapsedMs(),
+                    "%.1f".formatted(result.imagesPerSecond()), "%.2f".formatted(result.megabytesPerSecond()),
+                    result.stageMillis(), result.peakHeapBytes() / (1024 * 1024),
+                    result.allocatedBytes() / (1024 * 1024),
+                    "%.1f".formatted(result.allocationMegabytesPerSecond()));
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Appends the results to a JSON lines file.
+     *
+     * @param results the results to write
+     * @param output  the target file, created if missing
+     * @throws IOException if the file cannot be written
+     */
+    public void appendResults(List<BenchmarkResult> results, Path output) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (BenchmarkResult result : results) {
+            lines.append(objectMapper.writeValueAsString(result)).append('\n');
+        }
+        Files.writeString(output, lines, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        log.info("{} benchmark results appended to '{}'", results.size(), output);
+    }
+
+    private Measurement runIteration(Path corpus, ReferenceServerOptions options) throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        try (ReferenceBlockServer server = new ReferenceBlockServer(options, new InMemoryBlockStore()).start()) {
+            FileProcessor fileProcessor = new FileProcessor(
+                    new BlockClient(new RestTemplate(), server.baseUrl()), blhoWriter, metrics,
+                    uploadPolicy, splitOptions, sequenceOptions);
+
+            // start from a collected heap, so the peak reflects this iteration only
+            System.gc();
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long gcCountBefore = gcCount();
+            long gcTimeBefore = gcTimeMillis();
+            String timestamp = Instant.now().toString();
+            long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+            long start = System.nanoTime();
+
+            fileProcessor.processDirectory(corpus.toString());
+
+            long elapsedNanos = System.nanoTime() - start;
+            long allocated = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+            long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            return new Measurement(timestamp, elapsedNanos, metrics.snapshot(), peakHeap, allocated,
+                    gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore, server.stats());
+        }
+    }
+
+    private static BenchmarkResult toResult(Measurement m, Path corpus, CorpusSpec corpusSpec,
+                                            ReferenceServerOptions options, String label, int iteration) {
+        double seconds = Math.max(m.elapsedNanos(), 1) / 1e9;
+        return new BenchmarkResult(
+                m.timestamp(),
+                label,
+                Runtime.version().toString(),
+                Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().maxMemory(),
+                corpus.toString(),
+                corpusSpec,
+                options.toString(),
+                iteration,
+                m.metrics().files(),
+                m.metrics().sourceBytes(),
+                m.metrics().uploadedBlocks(),
+                m.metrics().uploadedBytes(),
+                m.elapsedNanos() / 1_000_000,
+                m.metrics().files() / seconds,
+                m.metrics().sourceBytes() / (1024.0 * 1024.0) / seconds,
+                m.metrics().stageMillis(),
+                m.peakHeapBytes(),
+                m.allocatedBytes(),
+                m.allocatedBytes() / (1024.0 * 1024.0) / seconds,
+                m.gcCount(),
+                m.gcTimeMs(),
+                m.serverStats().requests(),
+                m.serverStats().bytesIn()
+        );
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    private record Measurement(String timestamp, long elapsedNanos, PipelineMetrics.Snapshot metrics,
+                               long peakHeapBytes, long allocatedBytes, long gcCount, long gcTimeMs,
+                               ReferenceBlockServer.Stats serverStats) {
+    }
+}
@@ -0,0 +1,191 @@
+package ru.levitsky.blackholeeh.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of synthetic PNG corpora for the end-to-end benchmark.
+ * <p>
+ * Every image starts as a noisy gradient (practically no duplicate blocks) and then gets the kinds of
+ * redundancy the pipeline is built to exploit, each controlled by {@link CorpusSpec}:
+ * <ul>
+ *     <li>flat rectangles – identical blocks inside one image</li>
+ *     <li>tiles from a corpus-wide palette – identical blocks across images</li>
+ *     <li>near-duplicates – copies of earlier images with a few small edits</li>
+ *     <li>grayscale images – the luma-only path</li>
+ * </ul>
+ * Images are written as PNG, so the pixels the pipeline reads back are exactly the generated ones.
+ * The output depends on the spec only: the same spec gives byte-identical files on every machine.
+ */
+@Slf4j
+public class SyntheticCorpusGenerator {
+
+    private static final int TILE_SIDE = 32;
+    private static final int TILE_PALETTE_SIZE = 16;
+    private static final int NOISE_AMPLITUDE = 12;
+    private static final int NEAR_DUPLICATE_EDITS = 4;
+
+    private SyntheticCorpusGenerator() {
+    }
+
+    /**
+     * Generates the corpus into {@code directory}, replacing images of the same name.
+     *
+     * @param spec      the corpus parameters
+     * @param directory the target directory, created if missing
+     * @return the generated files in generation order
+     * @throws IOException if an image cannot be written
+     */
+    public static List<Path> generate(CorpusSpec spec, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SplittableRandom random = new SplittableRandom(spec.seed());
+        int[][] tilePalette = createTilePalette(random);
+
+        List<BufferedImage> generated = new ArrayList<>(spec.images());
+        List<Path> files = new ArrayList<>(spec.images());
+        long bytes = 0;
+        for (int i = 0; i < spec.images(); i++) {
+            // every image draws from its own stream, so changing one knob does not reshuffle all other images
+            SplittableRandom imageRandom = random.split();
+            BufferedImage image = !generated.isEmpty() && imageRandom.nextDouble() < spec.nearDuplicateRatio()
+                    ? nearDuplicate(generated.get(imageRandom.nextInt(generated.size())), imageRandom)
+                    : createImage(spec, tilePalette, imageRandom);
+            generated.add(image);
+
+            Path file = directory.resolve("synthetic-%05d.png".formatted(i));
+            ImageIO.write(image, "png", file.toFile());
+            files.add(file);
+            bytes += Files.size(file);
+        }
+        log.info("Generated {} synthetic images ({} KB) in '{}'", files.size(), bytes / 1024, directory);
+        return files;
+    }
+
+    /**
+     * Palette of RGB tiles shared by all images; gray images use the green channel of a tile.
+     */
+    private static int[][] createTilePalette(SplittableRandom random) {
+        int[][] palette = new int[TILE_PALETTE_SIZE][TILE_SIDE * TILE_SIDE];
+        for (int[] tile : palette) {
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = random.nextInt(0x1000000);
+            }
+        }
+        return palette;
+    }
+
+    private static BufferedImage createImage(CorpusSpec spec, int[][] tilePalette, SplittableRandom random) {
+        int width = logUniformSide(spec, random);
+        int height = logUniformSide(spec, random);
+        boolean gray = random.nextDouble() < spec.grayRatio();
+        BufferedImage image = new BufferedImage(width, height,
+                gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        WritableRaster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        int[] pixel = new int[bands];
+
+        // noisy diagonal gradient as the incompressible base layer
+        int[] base = {random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < bands; b++) {
+                    int gradient = base[b] + (x + y) * 128 / (width + height);
+                    pixel[b] = clamp(gradient + random.nextInt(2 * NOISE_AMPLITUDE + 1) - NOISE_AMPLITUDE);
+                }
+                raster.setPixel(x, y, pixel);
+            }
+        }
+
+        // flat rectangles until the requested share of the area is covered (overlaps count twice)
+        long flatTarget = (long) (spec.flatRatio() * width * height);
+        for (long covered = 0; covered < flatTarget; ) {
+            int w = 1 + random.nextInt(Math.max(1, width / 2));
+            int h = 1 + random.nextInt(Math.max(1, height / 2));
+            int x0 = random.nextInt(width - w + 1);
+            int y0 = random.nextInt(height - h + 1);
+            for (int b = 0; b < bands; b++) {
+                pixel[b] = random.nextInt(256);
+            }
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) {
+                    raster.setPixel(x, y, pixel);
+                }
+            }
+            covered += (long) w * h;
+        }
+
+        // palette tiles on the block grid, so every stamped block matches blocks in other images
+        for (int y0 = 0; y0 + TILE_SIDE <= height; y0 += TILE_SIDE) {
+            for (int x0 = 0; x0 + TILE_SIDE <= width; x0 += TILE_SIDE) {
+                if (random.nextDouble() < spec.tileRatio()) {
+                    stampTile(raster, tilePalette[random.nextInt(tilePalette.length)], x0, y0);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static void stampTile(WritableRaster raster, int[] tile, int x0, int y0) {
+        int bands = raster.getNumBands();
+        int[] pixel = new int[bands];
+        for (int y = 0; y < TILE_SIDE; y++) {
+            for (int x = 0; x < TILE_SIDE; x++) {
+                int rgb = tile[y * TILE_SIDE + x];
+                if (bands == 1) {
+                    pixel[0] = (rgb >> 8) & 0xFF;
+                } else {
+                    pixel[0] = (rgb >> 16) & 0xFF;
+                    pixel[1] = (rgb >> 8) & 0xFF;
+                    pixel[2] = rgb & 0xFF;
+                }
+                raster.setPixel(x0 + x, y0 + y, pixel);
+            }
+        }
+    }
+
+    /**
+     * Copy of {@code source} with a few small rectangles inverted, like a retouched or re-exported photo.
+     */
+    private static BufferedImage nearDuplicate(BufferedImage source, SplittableRandom random) {
+        BufferedImage copy = new BufferedImage(source.getColorModel(), source.copyData(null),
+                source.isAlphaPremultiplied(), null);
+        WritableRaster raster = copy.getRaster();
+        int[] pixel = new int[raster.getNumBands()];
+        for (int edit = 0; edit < NEAR_DUPLICATE_EDITS; edit++) {
+            int w = 1 + random.nextInt(Math.min(16, copy.getWidth()));
+            int h = 1 + random.nextInt(Math.min(16, copy.getHeight()));
+            int x0 = random.nextInt(copy.getWidth() - w + 1);
+            int y0 = random.nextInt(copy.getHeight() - h + 1);
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) {
+                    raster.getPixel(x, y, pixel);
+                    for (int b = 0; b < pixel.length; b++) {
+                        pixel[b] = 255 - pixel[b];
+                    }
+                    raster.setPixel(x, y, pixel);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static int logUniformSide(CorpusSpec spec, SplittableRandom random) {
+        double logMin = Math.log(spec.minSide());
+        double logMax = Math.log(spec.maxSide());
+        int side = (int) Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+        return Math.clamp(side, spec.minSide(), spec.maxSide());
+    }
+
+    private static int clamp(int value) {
+        return Math.clamp(value, 0, 255);
+    }
+}
@@ -1,10 +1,29 @@
 package ru.levitsky.blackholeeh.configuration;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.web.client.RestTemplate;
+import ru.levitsky.blackholeeh.model.BandwidthPolicy;
+import ru.levitsky.blackholeeh.model.FsyncPolicy;
+import ru.levitsky.blackholeeh.model.SequenceOptions;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.model.UploadPolicy;
+import ru.levitsky.blackholeeh.service.BandwidthLimiter;
 import ru.levitsky.blackholeeh.service.BlhoWriter;
 import ru.levitsky.blackholeeh.service.BlockClient;
+import ru.levitsky.blackholeeh.service.BlockFilterCache;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.service.store.LocalPackBlockStore;
+import ru.levitsky.blackholeeh.util.StripeParallelism;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static ru.levitsky.blackholeeh.constants.ProjectConstants.BASE_URL;
 
 @Configuration
 public class ClientConfig {
@@ -13,13 +32,117 @@ public class ClientConfig {
         return new RestTemplate();
     }
 
+    /**
+     * Shapes uploads of the {@link BlockClient} to {@code blackhole.upload.bandwidth.bytes-per-second}
+     * ({@code 0} = unlimited) with bursts of up to {@code burst-bytes}; uploads of up to {@code interactive-max-bytes}
+     * go first. Throughput and queue depths are logged every {@code report-interval-seconds} ({@code 0} = never).
+     */
+    @Bean
+    public BandwidthLimiter bandwidthLimiter(
+            @Value("${blackhole.upload.bandwidth.bytes-per-second:0}") long bytesPerSecond,
+            @Value("${blackhole.upload.bandwidth.burst-bytes:1048576}") long burstBytes,
+            @Value("${blackhole.upload.bandwidth.interactive-max-bytes:65536}") long interactiveMaxBytes,
+            @Value("${blackhole.upload.bandwidth.report-interval-seconds:30}") long reportIntervalSeconds) {
+        BandwidthLimiter limiter = new BandwidthLimiter(
+                new BandwidthPolicy(bytesPerSecond, burstBytes, interactiveMaxBytes));
+        if (reportIntervalSeconds > 0) {
+            limiter.reportEvery(Duration.ofSeconds(reportIntervalSeconds));
+        }
+        return limiter;
+    }
+
+    /**
+     * With {@code blackhole.filter.enabled}, existence checks first consult the Bloom filters the server publishes,
+     * cached and memory-mapped in {@code blackhole.filter.cache-dir} and refreshed at most every
+     * {@code refresh-seconds}.
+     */
+    @Bean
+    public BlockClient blockClient(RestTemplate restTemplate, BandwidthLimiter bandwidthLimiter,
+                                   @Value("${blackhole.server.base-url:" + BASE_URL + "}") String baseUrl,
+                                   @Value("${blackhole.filter.enabled:false}") boolean filterEnabled,
+                                   @Value("${blackhole.filter.cache-dir:.blackhole/filters}") String filterDirectory,
+                                   @Value("${blackhole.filter.refresh-seconds:300}") long refreshSeconds) {
+        BlockFilterCache filters = filterEnabled
+                ? new BlockFilterCache(restTemplate, baseUrl, Path.of(filterDirectory),
+                Duration.ofSeconds(refreshSeconds))
+                : null;
+        return new BlockClient(restTemplate, baseUrl, bandwidthLimiter, filters);
+    }
+
+    /**
+     * Block storage used by the pipeline: the remote block server ({@code rest}, default)
+     * or a local pack-file store ({@code local}) for offline ingestion and tests.
+     */
+    @Bean
+    @Primary
+    public BlockStore blockStore(BlockClient blockClient,
+                                 @Value("${blackhole.store.type:rest}") String type,
+                                 @Value("${blackhole.store.local.path:blocks}") String localPath,
+                                 @Value("${blackhole.store.local.sync-every-blocks:10000}") int syncEveryBlocks)
+            throws IOException {
+        return switch (type) {
+            case "rest" -> blockClient;
+            case "local" -> new LocalPackBlockStore(Path.of(localPath), syncEveryBlocks);
+            default -> throw new IllegalArgumentException("Unknown block store type: " + type);
+        };
+    }
+
+    /**
+     * Blocks up to {@code blackhole.upload.put-if-absent-max-bytes} are sent with put-if-absent
+     * instead of check-then-upload; {@code 0} always checks first. {@code put-if-absent-max-bytes-by-type}
+     * overrides the limit per component, e.g. {@code ALPHA=0}.
+     */
+    @Bean
+    public UploadPolicy uploadPolicy(@Value("${blackhole.upload.put-if-absent-max-bytes:64}") int maxBytes,
+                                     @Value("${blackhole.upload.put-if-absent-max-bytes-by-type:}")
+                                     String typeMaxBytes) {
+        return UploadPolicy.parse(maxBytes, typeMaxBytes);
+    }
+
+    /**
+     * Images from {@code blackhole.split.parallel-threshold-pixels} on are split and hashed in stripes of block
+     * rows on {@code blackhole.split.parallelism} threads ({@code 0} for all processors, {@code 1} never).
+     */
+    @Bean
+    public StripeParallelism stripeParallelism(@Value("${blackhole.split.parallelism:0}") int parallelism,
+                                               @Value("${blackhole.split.parallel-threshold-pixels:4194304}")
+                                               long thresholdPixels) {
+        return new StripeParallelism(parallelism, thresholdPixels);
+    }
+
+    /**
+     * With {@code blackhole.split.canonical-orientation}, blocks are stored in canonical flip/rotation,
+     * so mirrored and rotated copies deduplicate. With {@code blackhole.split.jpeg-coefficients}, JPEG files
+     * are split into quantized DCT coefficient blocks and restored bit-exactly.
+     */
+    @Bean
+    public SplitOptions splitOptions(@Value("${blackhole.split.canonical-orientation:false}")
+                                     boolean canonicalOrientation,
+                                     @Value("${blackhole.split.jpeg-coefficients:false}")
+                                     boolean jpegCoefficients,
+                                     StripeParallelism stripeParallelism) {
+        return new SplitOptions(canonicalOrientation, jpegCoefficients, stripeParallelism);
+    }
+
+    /**
+     * With {@code blackhole.sequence.enabled}, directories are processed as frame sequences: blocks unchanged since
+     * the previous frame are not hashed or checked again, and frames between keyframes (every
+     * {@code blackhole.sequence.keyframe-interval} frames) are stored as deltas against the previous frame.
+     */
     @Bean
-    public BlockClient blockClient(RestTemplate restTemplate) {
-        return new BlockClient(restTemplate);
+    public SequenceOptions sequenceOptions(@Value("${blackhole.sequence.enabled:false}") boolean enabled,
+                                           @Value("${blackhole.sequence.keyframe-interval:30}") int keyframeInterval) {
+        return new SequenceOptions(enabled, keyframeInterval);
     }
 
+    /**
+     * Manifest writer; {@code blackhole.manifest.fsync} is {@code none} (default), {@code per-file}
+     * or {@code group-commit[:N]}.
+     */
     @Bean
-    public BlhoWriter blhoWriter() {
-        return new BlhoWriter();
+    public BlhoWriter blhoWriter(HashDictionaryRegistry hashDictionaryRegistry,
+                                 @Value("${blackhole.manifest.fsync:none}") String fsync,
+                                 StripeParallelism stripeParallelism) {
+        return new BlhoWriter(hashDictionaryRegistry, FsyncPolicy.parse(fsync), stripeParallelism);
     }
 }
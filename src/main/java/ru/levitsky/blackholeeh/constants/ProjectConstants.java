@@ -1,7 +1,19 @@
 package ru.levitsky.blackholeeh.constants;
 
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
+
 public final class ProjectConstants {
 
     public static final String BASE_URL = "http://localhost:8081/api/v1/blocks";
     public static final int BATCH_SIZE = 1000;
+
+    /**
+     * Layout of packed U/V blocks produced by the splitter; older layouts stay readable
+     */
+    public static final ChromaPacking CHROMA_PACKING = ChromaPacking.SIGNED_9BIT;
+
+    /**
+     * Number of files a single analyzer fork-join task processes before it stops splitting
+     */
+    public static final int ANALYZER_FILES_PER_TASK = 4;
 }
@@ -15,8 +15,9 @@ import ru.levitsky.blackholeeh.enumeration.BlockType;
  * Each block consists of:
  * <ul>
  *     <li>{@code hash}: SHA-256 hash (or similar) of the block's content, used for deduplication.</li>
- *     <li>{@code data}: Raw bytes of the block (Y, U, or V channel packed data).</li>
- *     <li>{@code type}: Type of the block, indicating which channel it represents (LUMA, CHROMA_CB, CHROMA_CR).</li>
+ *     <li>{@code data}: Raw bytes of the block (Y, U, V or alpha channel packed data).</li>
+ *     <li>{@code type}: Type of the block, indicating which channel it represents (LUMA, CHROMA_CB, CHROMA_CR,
+ *     ALPHA). Gray images only produce LUMA blocks, plus ALPHA blocks if they have an alpha channel.</li>
  * </ul>
  * <p>
  * Validation annotations ensure:
@@ -48,7 +49,8 @@ public class BlockDto {
     private byte[] data;
 
     /**
-     * Type of the block ({@link BlockType#LUMA}, {@link BlockType#CHROMA_CB}, {@link BlockType#CHROMA_CR}).
+     * Type of the block ({@link BlockType#LUMA}, {@link BlockType#CHROMA_CB}, {@link BlockType#CHROMA_CR},
+     * {@link BlockType#ALPHA}).
      */
     @NotNull(message = "Block type must not be null")
     private BlockType type;
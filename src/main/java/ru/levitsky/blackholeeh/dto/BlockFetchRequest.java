@@ -0,0 +1,14 @@
+package ru.levitsky.blackholeeh.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockFetchRequest {
+    private List<String> hashes;
+}
@@ -0,0 +1,17 @@
+package ru.levitsky.blackholeeh.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockPutIfAbsentResponse {
+    /**
+     * hashes of the blocks that were not stored before the request
+     */
+    private List<String> stored;
+}
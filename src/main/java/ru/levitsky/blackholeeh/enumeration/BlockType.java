@@ -8,6 +8,7 @@ package ru.levitsky.blackholeeh.enumeration;
  *     <li>{@link #LUMA} – the luminance (Y) component of the image.</li>
  *     <li>{@link #CHROMA_CB} – the blue-difference chroma (Cb) component.</li>
  *     <li>{@link #CHROMA_CR} – the red-difference chroma (Cr) component.</li>
+ *     <li>{@link #ALPHA} – the optional alpha (transparency) component of RGBA and gray-alpha images.</li>
  * </ul>
  * These types are used for deduplication, hashing, storage, and uploading blocks
  * to the server.
@@ -26,5 +27,10 @@ public enum BlockType {
     /**
      * Red-difference chroma component (Cr)
      */
-    CHROMA_CR
+    CHROMA_CR,
+
+    /**
+     * Alpha component (A)
+     */
+    ALPHA
 }
@@ -0,0 +1,57 @@
+package ru.levitsky.blackholeeh.enumeration;
+
+import java.util.List;
+
+/**
+ * Enum representing the channel layout of a source image.
+ * <p>
+ * The layout determines which block components are produced for every 8x8 block:
+ * <ul>
+ *     <li>{@link #GRAY} – luma only; chroma is identically zero and is never computed, hashed or uploaded.</li>
+ *     <li>{@link #GRAY_ALPHA} – luma and alpha.</li>
+ *     <li>{@link #RGB} – luma and both chroma components.</li>
+ *     <li>{@link #RGBA} – luma, both chroma components and alpha.</li>
+ * </ul>
+ */
+public enum ChannelLayout {
+    /**
+     * Single 8-bit gray channel
+     */
+    GRAY(List.of(BlockType.LUMA)),
+
+    /**
+     * 8-bit gray channel with alpha
+     */
+    GRAY_ALPHA(List.of(BlockType.LUMA, BlockType.ALPHA)),
+
+    /**
+     * Opaque color image
+     */
+    RGB(List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR)),
+
+    /**
+     * Color image with alpha
+     */
+    RGBA(List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR, BlockType.ALPHA));
+
+    private final List<BlockType> components;
+
+    ChannelLayout(List<BlockType> components) {
+        this.components = components;
+    }
+
+    /**
+     * @return block components produced for this layout, in manifest order
+     */
+    public List<BlockType> components() {
+        return components;
+    }
+
+    public boolean hasChroma() {
+        return components.contains(BlockType.CHROMA_CB);
+    }
+
+    public boolean hasAlpha() {
+        return components.contains(BlockType.ALPHA);
+    }
+}
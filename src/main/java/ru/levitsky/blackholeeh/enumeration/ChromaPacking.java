@@ -0,0 +1,54 @@
+package ru.levitsky.blackholeeh.enumeration;
+
+/**
+ * Enum representing the byte layout of packed chroma (U/V) blocks.
+ * <p>
+ * RCT chroma differences {@code r - g} and {@code b - g} are always in range -255..255,
+ * so every sample fits in 9 signed bits:
+ * <ul>
+ *     <li>{@link #INT16_BE} – legacy layout, 64 signed 16-bit big-endian values (128 bytes).</li>
+ *     <li>{@link #SIGNED_9BIT} – 64 two's complement 9-bit values packed MSB-first (72 bytes).</li>
+ * </ul>
+ * The packing is recorded in the .blho metadata; since both layouts have different lengths,
+ * a packed block can also be recognized by its size alone.
+ */
+public enum ChromaPacking {
+    /**
+     * Signed 16-bit big-endian samples, 128 bytes per block
+     */
+    INT16_BE(128),
+
+    /**
+     * Signed 9-bit samples packed MSB-first, 72 bytes per block
+     */
+    SIGNED_9BIT(72);
+
+    private final int packedLength;
+
+    ChromaPacking(int packedLength) {
+        this.packedLength = packedLength;
+    }
+
+    /**
+     * @return size of a packed 8x8 chroma block in bytes
+     */
+    public int packedLength() {
+        return packedLength;
+    }
+
+    /**
+     * Recognizes the packing of a block by its size.
+     *
+     * @param length size of the packed block in bytes
+     * @return the matching packing
+     * @throws IllegalArgumentException if no packing produces blocks of this size
+     */
+    public static ChromaPacking fromPackedLength(int length) {
+        for (ChromaPacking packing : values()) {
+            if (packing.packedLength == length) {
+                return packing;
+            }
+        }
+        throw new IllegalArgumentException("Unknown packed chroma block length: " + length);
+    }
+}
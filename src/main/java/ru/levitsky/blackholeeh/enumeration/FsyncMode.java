@@ -0,0 +1,21 @@
+package ru.levitsky.blackholeeh.enumeration;
+
+/**
+ * When written manifests are forced to stable storage before they are published under their final name.
+ */
+public enum FsyncMode {
+    /**
+     * Never forced; the rename still makes a manifest appear atomically, but a power loss may lose recent ones
+     */
+    NONE,
+
+    /**
+     * Every manifest is forced before its rename, and its directory after it
+     */
+    PER_FILE,
+
+    /**
+     * Manifests are kept under temporary names and forced, renamed and published together in groups
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,31 @@
+package ru.levitsky.blackholeeh.enumeration;
+
+/**
+ * Enum representing the stages of the {@code FileProcessor} pipeline that are timed separately.
+ */
+public enum PipelineStage {
+    /**
+     * Image decoding, padding, RCT and chroma packing
+     */
+    SPLIT,
+
+    /**
+     * Deduplication and writing of the .blho manifest
+     */
+    MANIFEST,
+
+    /**
+     * SHA-256 hashing of the blocks to upload
+     */
+    HASH,
+
+    /**
+     * Asking the block store which blocks are missing
+     */
+    CHECK,
+
+    /**
+     * Validating and uploading the missing blocks
+     */
+    UPLOAD
+}
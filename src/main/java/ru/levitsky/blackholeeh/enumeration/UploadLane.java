@@ -0,0 +1,22 @@
+package ru.levitsky.blackholeeh.enumeration;
+
+/**
+ * Priority lanes of uploads sharing the bandwidth limit, highest priority first.
+ * A lane is only served while all lanes above it have no waiting uploads.
+ */
+public enum UploadLane {
+    /**
+     * Small jobs, e.g. a single image, whose whole upload fits the interactive size limit
+     */
+    INTERACTIVE,
+
+    /**
+     * Y and A blocks of bulk jobs, needed by every preview and crop
+     */
+    FOREGROUND,
+
+    /**
+     * U/V blocks of bulk jobs; gets the capacity left over by the other lanes
+     */
+    BACKFILL
+}
@@ -0,0 +1,49 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.UploadLane;
+
+/**
+ * Token-bucket shaping of block uploads and the assignment of uploads to {@link UploadLane priority lanes}.
+ *
+ * @param bytesPerSecond      sustained upload rate in request body bytes, {@code 0} = unlimited
+ * @param burstBytes          bucket capacity: bytes that may be sent at once after an idle period
+ * @param interactiveMaxBytes uploads of up to this many bytes in total go to the {@link UploadLane#INTERACTIVE} lane
+ */
+public record BandwidthPolicy(long bytesPerSecond, long burstBytes, long interactiveMaxBytes) {
+
+    /**
+     * No shaping; lanes are still assigned for the metrics
+     */
+    public static final BandwidthPolicy UNLIMITED = new BandwidthPolicy(0, 0, 64 * 1024);
+
+    public BandwidthPolicy {
+        if (bytesPerSecond < 0 || burstBytes < 0 || interactiveMaxBytes < 0) {
+            throw new IllegalArgumentException("Bandwidth settings must not be negative");
+        }
+        if (bytesPerSecond > 0 && burstBytes == 0) {
+            throw new IllegalArgumentException("Burst must be positive when the rate is limited");
+        }
+    }
+
+    /**
+     * @return whether uploads are shaped at all
+     */
+    public boolean limited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * @param type       the block component
+     * @param totalBytes request body bytes of the whole upload call, over all its batches
+     * @return the lane all batches of the upload wait in
+     */
+    public UploadLane lane(BlockType type, long totalBytes) {
+        if (totalBytes <= interactiveMaxBytes) {
+            return UploadLane.INTERACTIVE;
+        }
+        return type == BlockType.CHROMA_CB || type == BlockType.CHROMA_CR
+                ? UploadLane.BACKFILL
+                : UploadLane.FOREGROUND;
+    }
+}
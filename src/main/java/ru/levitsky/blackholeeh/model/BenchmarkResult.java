@@ -0,0 +1,63 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.benchmark.CorpusSpec;
+import ru.levitsky.blackholeeh.enumeration.PipelineStage;
+
+import java.util.Map;
+
+/**
+ * One measured iteration of the end-to-end benchmark.<br>
+ * Written as a single JSON line, so results of different commits can be appended to one file and compared.<br>
+ *
+ * @param timestamp                    ISO-8601 start time of the iteration
+ * @param label                        free-form label of the measured build, e.g. the commit id
+ * @param javaVersion                  runtime version
+ * @param availableProcessors          number of CPUs available to the JVM
+ * @param maxHeapBytes                 maximum heap size
+ * @param corpus                       directory of the processed images
+ * @param corpusSpec                   spec of the synthetic corpus, {@code null} for an existing directory
+ * @param serverOptions                fault injection of the reference server as text
+ * @param iteration                    one-based number of the measured iteration
+ * @param files                        number of successfully processed images
+ * @param sourceBytes                  total size of the processed images
+ * @param uploadedBlocks               number of blocks uploaded to the server
+ * @param uploadedBytes                payload bytes of the uploaded blocks
+ * @param elapsedMs                    wall-clock duration of the iteration
+ * @param imagesPerSecond              throughput in images per second
+ * @param megabytesPerSecond           throughput in source megabytes per second
+ * @param stageMillis                  accumulated wall-clock time per pipeline stage
+ * @param peakHeapBytes                peak heap usage during the iteration (including the in-process server)
+ * @param allocatedBytes               bytes allocated by all threads, including the in-process server
+ * @param allocationMegabytesPerSecond allocation rate of all threads
+ * @param gcCount                      number of garbage collections during the iteration
+ * @param gcTimeMs                     accumulated garbage collection time during the iteration
+ * @param serverRequests               number of requests handled by the reference server
+ * @param serverBytesIn                request body bytes received by the reference server
+ */
+public record BenchmarkResult(
+        String timestamp,
+        String label,
+        String javaVersion,
+        int availableProcessors,
+        long maxHeapBytes,
+        String corpus,
+        CorpusSpec corpusSpec,
+        String serverOptions,
+        int iteration,
+        long files,
+        long sourceBytes,
+        long uploadedBlocks,
+        long uploadedBytes,
+        long elapsedMs,
+        double imagesPerSecond,
+        double megabytesPerSecond,
+        Map<PipelineStage, Long> stageMillis,
+        long peakHeapBytes,
+        long allocatedBytes,
+        double allocationMegabytesPerSecond,
+        long gcCount,
+        long gcTimeMs,
+        long serverRequests,
+        long serverBytesIn
+) {
+}
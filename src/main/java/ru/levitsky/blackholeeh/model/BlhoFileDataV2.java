@@ -4,12 +4,18 @@ package ru.levitsky.blackholeeh.model;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Internal data structure representing the contents of a BLHO v2 file.<br>
- * Stores metadata, unique block hashes, and position maps for each Y/U/V component.<br>
+ * Stores metadata, unique block hashes, and position maps for each Y/U/V(/A) component.<br>
+ * Components absent from the {@link ChannelLayout} have empty hash lists and position maps.<br>
+ * For JPEG coefficient blocks, every component has the block count of its own (possibly subsampled) grid.<br>
  */
 @Getter
 @Setter
@@ -27,6 +33,14 @@ public class BlhoFileDataV2 {
      * height of the original image in pixels
      */
     int height;
+    /**
+     * channel layout of the source image
+     */
+    ChannelLayout channelLayout;
+    /**
+     * layout of the packed U/V blocks the chroma hashes were computed over
+     */
+    ChromaPacking chromaPacking;
 
     /**
      * list of SHA-256 hashes for unique Y (luminance) blocks
@@ -42,6 +56,11 @@ public class BlhoFileDataV2 {
      * list of SHA-256 hashes for unique V (chrominance) blocks
      */
     List<byte[]> uniqueVHashes;
+
+    /**
+     * list of SHA-256 hashes for unique A (alpha) blocks
+     */
+    List<byte[]> uniqueAHashes;
     /**
      * map of Y block indices to reconstruct the original layout
      */
@@ -54,6 +73,35 @@ public class BlhoFileDataV2 {
      * map of V block indices to reconstruct the original layout
      */
     List<Integer> vPositionMap;
+    /**
+     * map of A block indices to reconstruct the original layout
+     */
+    List<Integer> aPositionMap;
+    /**
+     * hash function of the hash lists ({@code block_hash} metadata field), {@code null} for manifests that
+     * predate it and hash the bare blocks
+     */
+    String blockHash;
+    /**
+     * per component, the dihedral orientation (0..7) of the block at every position, see
+     * {@link ru.levitsky.blackholeeh.util.image.DihedralUtils}; {@code null} if blocks are stored in natural orientation
+     */
+    Map<BlockType, byte[]> orientations;
+    /**
+     * non-entropy-coded parts of the source JPEG for manifests of quantized DCT coefficient blocks,
+     * see {@link ru.levitsky.blackholeeh.util.jpeg.JpegCoefficients#segments()}; {@code null} for pixel blocks
+     */
+    List<byte[]> jpegSegments;
+    /**
+     * checksums of the block planes per band and for the whole image, {@code null} for manifests that predate them
+     */
+    BlockChecksums checksums;
+    /**
+     * previous frame of a sequence the blocks marked unchanged are taken from, {@code null} for a self-contained
+     * manifest; hash lists, position maps and orientations always cover all positions, see
+     * {@link ru.levitsky.blackholeeh.util.FrameDeltas}
+     */
+    PreviousFrame previousFrame;
 
     /**
      * @return the total number of blocks in the image
@@ -61,4 +109,59 @@ public class BlhoFileDataV2 {
     public int totalBlocks() {
         return yPositionMap.size();
     }
+
+    /**
+     * @param type the block component
+     * @return list of unique hashes of the component
+     */
+    public List<byte[]> uniqueHashes(BlockType type) {
+        return switch (type) {
+            case LUMA -> uniqueYHashes;
+            case CHROMA_CB -> uniqueUHashes;
+            case CHROMA_CR -> uniqueVHashes;
+            case ALPHA -> uniqueAHashes;
+        };
+    }
+
+    /**
+     * @return {@code true} if blocks are stored in canonical orientation and must be transformed back
+     */
+    public boolean hasOrientations() {
+        return orientations != null;
+    }
+
+    /**
+     * @return {@code true} if blocks are quantized DCT coefficients of a JPEG, which is restored from them
+     * and {@link #getJpegSegments()}
+     */
+    public boolean hasJpegSegments() {
+        return jpegSegments != null;
+    }
+
+    /**
+     * @return {@code true} if the manifest carries checksums to verify the blocks against
+     */
+    public boolean hasChecksums() {
+        return checksums != null;
+    }
+
+    /**
+     * @return {@code true} if the manifest is stored as a delta against the previous frame of a sequence
+     */
+    public boolean hasPreviousFrame() {
+        return previousFrame != null;
+    }
+
+    /**
+     * @param type the block component
+     * @return position map of the component
+     */
+    public List<Integer> positionMap(BlockType type) {
+        return switch (type) {
+            case LUMA -> yPositionMap;
+            case CHROMA_CB -> uPositionMap;
+            case CHROMA_CR -> vPositionMap;
+            case ALPHA -> aPositionMap;
+        };
+    }
 }
@@ -0,0 +1,11 @@
+package ru.levitsky.blackholeeh.model;
+
+/**
+ * Checksums of the block planes of an image, stored in its manifest, see
+ * {@link ru.levitsky.blackholeeh.util.BandChecksums}.<br>
+ *
+ * @param image CRC32C over the band checksums
+ * @param bands CRC32C of every band, top to bottom
+ */
+public record BlockChecksums(int image, int[] bands) {
+}
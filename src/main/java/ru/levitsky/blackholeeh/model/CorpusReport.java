@@ -0,0 +1,68 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+
+import java.util.Map;
+
+/**
+ * Result of an offline dry run over an image corpus.<br>
+ * Predicts deduplication ratio, manifest size and upload volume without contacting the block server.<br>
+ *
+ * @param root                 analyzed directory
+ * @param parallelism          number of worker threads used for the analysis
+ * @param filesAnalyzed        number of images successfully split and hashed
+ * @param filesFailed          number of images that could not be read
+ * @param sourceBytes          total size of the analyzed source images
+ * @param pixels               total number of source pixels (without padding)
+ * @param totalBlocks          total number of 8x8 blocks across all images
+ * @param channelLayouts       number of images per detected channel layout
+ * @param components           per-component statistics
+ * @param projectedBlhoBytes   total size of the .blho manifests under the current format
+ * @param projectedUploadBytes payload bytes of all globally unique blocks, i.e. what the server would store
+ *                             when starting from an empty state
+ * @param dedupRatio           share of block payload bytes eliminated by deduplication (0..1)
+ * @param elapsedMs            wall-clock duration of the analysis
+ * @param filesPerSecond       analysis throughput in images per second
+ * @param megabytesPerSecond   analysis throughput in source megabytes per second
+ */
+public record CorpusReport(
+        String root,
+        int parallelism,
+        long filesAnalyzed,
+        long filesFailed,
+        long sourceBytes,
+        long pixels,
+        long totalBlocks,
+        Map<ChannelLayout, Long> channelLayouts,
+        Map<BlockType, ComponentReport> components,
+        long projectedBlhoBytes,
+        long projectedUploadBytes,
+        double dedupRatio,
+        long elapsedMs,
+        double filesPerSecond,
+        double megabytesPerSecond
+) {
+
+    /**
+     * Statistics of a single block component (Y, U, V or A).
+     *
+     * @param totalBlocks           number of blocks of this component across the corpus
+     * @param uniqueWithinImages    sum of per-image unique block counts (what the manifests list)
+     * @param uniqueGlobal          number of distinct blocks across the whole corpus
+     * @param crossImageDuplicates  blocks unique inside their image but already present in another image
+     * @param blockBytes            payload size of a single block
+     * @param uploadBytes           payload bytes of the globally unique blocks
+     * @param entropyBitsPerSample  zero-order Shannon entropy of the component samples
+     */
+    public record ComponentReport(
+            long totalBlocks,
+            long uniqueWithinImages,
+            long uniqueGlobal,
+            long crossImageDuplicates,
+            int blockBytes,
+            long uploadBytes,
+            double entropyBitsPerSample
+    ) {
+    }
+}
@@ -0,0 +1,33 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JPEG image split into its quantized DCT coefficient blocks.<br>
+ * Frame component {@code i} is stored as block component {@code layout.components().get(i)}: Y, Cb and Cr
+ * of a color JPEG, Y of a gray one. Every component has its own block grid, which is smaller for subsampled
+ * chroma; blocks are in row-major order over the grid of stored blocks,
+ * see {@link ru.levitsky.blackholeeh.util.jpeg.JpegFrame#storedBlocks(int)}.<br>
+ *
+ * @param width        width of the original image in pixels
+ * @param height       height of the original image in pixels
+ * @param layout       {@link ChannelLayout#GRAY} or {@link ChannelLayout#RGB}
+ * @param blocks       per component, the coefficient blocks serialized with
+ *                     {@link ru.levitsky.blackholeeh.util.jpeg.JpegCodec#packBlock(short[], int)}
+ * @param jpegSegments the non-entropy-coded parts of the JPEG file: headers, quantization and Huffman tables
+ *                     and scan headers, see {@link ru.levitsky.blackholeeh.util.jpeg.JpegCoefficients#segments()}
+ */
+public record DctImage(int width, int height, ChannelLayout layout, Map<BlockType, List<byte[]>> blocks,
+                       List<byte[]> jpegSegments) {
+
+    /**
+     * @return number of blocks of all components
+     */
+    public int blockCount() {
+        return blocks.values().stream().mapToInt(List::size).sum();
+    }
+}
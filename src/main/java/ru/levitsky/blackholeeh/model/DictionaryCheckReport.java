@@ -0,0 +1,30 @@
+package ru.levitsky.blackholeeh.model;
+
+import java.util.List;
+
+/**
+ * Result of a consistency check of the hash dictionaries and manifests below a directory.<br>
+ *
+ * @param root                 checked directory
+ * @param dictionaries         every dictionary file found below the root
+ * @param manifestsChecked     number of .blho files checked
+ * @param dictionaryManifests  manifests whose hash lists reference dictionary ids
+ * @param problems             one line per inconsistency, empty when everything is consistent
+ */
+public record DictionaryCheckReport(
+        String root,
+        List<DictionaryStatus> dictionaries,
+        long manifestsChecked,
+        long dictionaryManifests,
+        List<String> problems
+) {
+
+    /**
+     * @param path       dictionary file
+     * @param id         id recorded in the dictionary header
+     * @param entries    number of hashes
+     * @param duplicates hashes stored more than once (must be {@code 0})
+     */
+    public record DictionaryStatus(String path, String id, long entries, long duplicates) {
+    }
+}
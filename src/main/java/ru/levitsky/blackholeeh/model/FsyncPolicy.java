@@ -0,0 +1,65 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.FsyncMode;
+
+/**
+ * Durability policy of manifest writes.
+ *
+ * @param mode      when manifests are forced to stable storage
+ * @param groupSize number of manifests forced and published together in {@link FsyncMode#GROUP_COMMIT} mode,
+ *                  {@code 1} otherwise
+ */
+public record FsyncPolicy(FsyncMode mode, int groupSize) {
+
+    public static final FsyncPolicy NONE = new FsyncPolicy(FsyncMode.NONE, 1);
+    public static final FsyncPolicy PER_FILE = new FsyncPolicy(FsyncMode.PER_FILE, 1);
+
+    public static final int DEFAULT_GROUP_SIZE = 32;
+
+    public FsyncPolicy {
+        if (mode == null) {
+            throw new IllegalArgumentException("Fsync mode must be set");
+        }
+        if (groupSize < 1 || (mode != FsyncMode.GROUP_COMMIT && groupSize != 1)) {
+            throw new IllegalArgumentException("Invalid group size " + groupSize + " for fsync mode " + mode);
+        }
+    }
+
+    /**
+     * Parses the {@code blackhole.manifest.fsync} notation.
+     *
+     * @param value {@code none}, {@code per-file}, {@code group-commit} or {@code group-commit:N}
+     * @return the policy; {@code group-commit} without a size groups {@value #DEFAULT_GROUP_SIZE} manifests
+     * @throws IllegalArgumentException if the value is not one of these forms
+     */
+    public static FsyncPolicy parse(String value) {
+        String normalized = value == null ? "" : value.trim().toLowerCase();
+        if (normalized.isEmpty() || normalized.equals("none")) {
+            return NONE;
+        }
+        if (normalized.equals("per-file")) {
+            return PER_FILE;
+        }
+        if (normalized.equals("group-commit")) {
+            return new FsyncPolicy(FsyncMode.GROUP_COMMIT, DEFAULT_GROUP_SIZE);
+        }
+        if (normalized.startsWith("group-commit:")) {
+            try {
+                return new FsyncPolicy(FsyncMode.GROUP_COMMIT,
+                        Integer.parseInt(normalized.substring("group-commit:".length()).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Group size must be a number: " + value);
+            }
+        }
+        throw new IllegalArgumentException("Fsync policy must be none, per-file or group-commit[:N]: " + value);
+    }
+
+    @Override
+    public String toString() {
+        return switch (mode) {
+            case NONE -> "none";
+            case PER_FILE -> "per-file";
+            case GROUP_COMMIT -> "group-commit:" + groupSize;
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package ru.levitsky.blackholeeh.model;
+
+import java.util.List;
+
+/**
+ * Result of verifying .blho manifests below a directory against the block store.<br>
+ *
+ * @param root             checked directory
+ * @param manifests        number of .blho files found
+ * @param verified         manifests whose blocks were fetched and checked (the sample)
+ * @param withoutChecksums sampled manifests that predate checksums and were skipped
+ * @param blocksFetched    unique blocks fetched from the block store
+ * @param elapsedMillis    wall-clock time of the verification
+ * @param failures         one entry per manifest that does not match its blocks, empty when all match
+ */
+public record IntegrityReport(
+        String root,
+        long manifests,
+        long verified,
+        long withoutChecksums,
+        long blocksFetched,
+        long elapsedMillis,
+        List<ManifestFailure> failures
+) {
+
+    /**
+     * @param manifest      the .blho file
+     * @param reason        what failed
+     * @param missingBlocks referenced blocks the block store does not have
+     * @param bands         bands whose checksum does not match, top to bottom
+     */
+    public record ManifestFailure(String manifest, String reason, long missingBlocks, List<BandFailure> bands) {
+    }
+
+    /**
+     * @param band     band index
+     * @param firstRow first pixel row the band covers
+     * @param lastRow  last pixel row the band covers, clipped to the image
+     */
+    public record BandFailure(int band, int firstRow, int lastRow) {
+    }
+}
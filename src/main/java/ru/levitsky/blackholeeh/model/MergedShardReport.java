@@ -0,0 +1,45 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combined result of all shards of a sharded ingestion.<br>
+ * Besides summing the shard counters, the merge cross-checks the journals: blocks uploaded by more than
+ * one shard (both shards found them missing before either upload landed) and files processed by more
+ * than one shard (inconsistent shard counts or a tree that changed between runs).<br>
+ *
+ * @param root                  ingested directory
+ * @param shardCount            total number of shards
+ * @param shardsPresent         indices of the shards that have a report
+ * @param shardsMissing         indices of the shards without a report
+ * @param filesAssigned         number of images assigned to the present shards
+ * @param filesDone             number of images processed successfully
+ * @param filesFailed           images that failed in the last run of their shard
+ * @param sourceBytes           total size of the processed images
+ * @param totalBlocks           total number of 8x8 blocks of the processed images
+ * @param uploadedBlocks        number of block uploads, per component
+ * @param duplicateUploads      uploads of a block that another shard had already uploaded, per component
+ * @param filesInMultipleShards files that appear as done in the journals of more than one shard
+ * @param maxElapsedMs          duration of the slowest shard, i.e. the wall-clock time of a parallel run
+ * @param totalElapsedMs        sum of the durations of all shards
+ */
+public record MergedShardReport(
+        String root,
+        int shardCount,
+        List<Integer> shardsPresent,
+        List<Integer> shardsMissing,
+        long filesAssigned,
+        long filesDone,
+        long filesFailed,
+        long sourceBytes,
+        long totalBlocks,
+        Map<BlockType, Long> uploadedBlocks,
+        Map<BlockType, Long> duplicateUploads,
+        List<String> filesInMultipleShards,
+        long maxElapsedMs,
+        long totalElapsedMs
+) {
+}
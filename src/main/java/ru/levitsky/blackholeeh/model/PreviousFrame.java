@@ -0,0 +1,25 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.Map;
+
+/**
+ * Reference of a frame manifest to the manifest of the previous frame of its sequence.<br>
+ *
+ * @param manifest  file name of the previous frame's .blho file, in the same directory
+ * @param unchanged per component, for every position whether the block is the same as in the previous frame
+ */
+public record PreviousFrame(String manifest, Map<BlockType, boolean[]> unchanged) {
+
+    /**
+     * @return number of positions of the component whose block is the same as in the previous frame
+     */
+    public int unchangedCount(BlockType type) {
+        int count = 0;
+        for (boolean same : unchanged.get(type)) {
+            count += same ? 1 : 0;
+        }
+        return count;
+    }
+}
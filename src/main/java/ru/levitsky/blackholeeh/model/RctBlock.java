@@ -1,4 +1,28 @@
 package ru.levitsky.blackholeeh.model;
 
-public record RctBlock(byte[] y, byte[] uPacked, byte[] vPacked) {
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+/**
+ * Packed components of a single 8x8 block.<br>
+ * Components that are not part of the image {@link ru.levitsky.blackholeeh.enumeration.ChannelLayout}
+ * are {@code null}: grayscale blocks carry no chroma, opaque blocks carry no alpha.<br>
+ */
+public record RctBlock(byte[] y, byte[] uPacked, byte[] vPacked, byte[] alpha) {
+
+    public RctBlock(byte[] y, byte[] uPacked, byte[] vPacked) {
+        this(y, uPacked, vPacked, null);
+    }
+
+    /**
+     * @param type the component to return
+     * @return the packed bytes of the requested component, or {@code null} if the block has no such component
+     */
+    public byte[] component(BlockType type) {
+        return switch (type) {
+            case LUMA -> y;
+            case CHROMA_CB -> uPacked;
+            case CHROMA_CR -> vPacked;
+            case ALPHA -> alpha;
+        };
+    }
 }
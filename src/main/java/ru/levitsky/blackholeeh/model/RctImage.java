@@ -0,0 +1,30 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Image split into padded 8x8 blocks.<br>
+ * Blocks are stored in row-major order over the padded block grid.<br>
+ *
+ * @param width         width of the original image in pixels
+ * @param height        height of the original image in pixels
+ * @param layout        channel layout detected for the source image
+ * @param chromaPacking layout of the packed U/V blocks
+ * @param blocks        blocks in row-major order
+ * @param orientations  per component, the dihedral orientation (0..7) every block is stored in, see
+ *                      {@link ru.levitsky.blackholeeh.util.image.DihedralUtils}; {@code null} for blocks
+ *                      in natural orientation
+ */
+public record RctImage(int width, int height, ChannelLayout layout, ChromaPacking chromaPacking,
+                       List<RctBlock> blocks, Map<BlockType, byte[]> orientations) {
+
+    public RctImage(int width, int height, ChannelLayout layout, ChromaPacking chromaPacking,
+                    List<RctBlock> blocks) {
+        this(width, height, layout, chromaPacking, blocks, null);
+    }
+}
@@ -0,0 +1,29 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A frame of a sequence as the next frame is compared against it.<br>
+ *
+ * @param manifest  file name of the frame's .blho file
+ * @param depth     delta manifests since the last self-contained one, {@code 0} for a keyframe
+ * @param blocks    per component, the block data at every position, as stored
+ * @param data      the complete manifest data of the frame, with hashes and orientations of every position
+ * @param unchanged per component, for every position whether the block is the same as in the frame before;
+ *                  all {@code false} for the first frame
+ * @param confirmed whether the block store confirmed all blocks of the frame as stored; blocks unchanged since
+ *                  an unconfirmed frame are checked again with the next frame
+ */
+public record SequenceFrame(String manifest, int depth, Map<BlockType, List<byte[]>> blocks, BlhoFileDataV2 data,
+                            Map<BlockType, boolean[]> unchanged, boolean confirmed) {
+
+    /**
+     * @return this frame with the outcome of its upload
+     */
+    public SequenceFrame withConfirmed(boolean confirmed) {
+        return new SequenceFrame(manifest, depth, blocks, data, unchanged, confirmed);
+    }
+}
@@ -0,0 +1,27 @@
+package ru.levitsky.blackholeeh.model;
+
+/**
+ * Options of ingesting a directory as a sequence of frames (bursts, timelapses, camera feeds).
+ * <p>
+ * In sequence mode the images of a directory are processed in file name order, and every block is compared
+ * byte by byte with the block at the same position of the previous frame. Unchanged blocks reuse the hash
+ * of the previous frame and are neither hashed nor checked against the block store again; the manifest
+ * references the previous frame and marks them in a "same as previous" bitmap instead of listing them.
+ *
+ * @param enabled          process directories as frame sequences
+ * @param keyframeInterval every {@code keyframeInterval}-th frame is written as a self-contained manifest, which
+ *                         bounds the chain of manifests a reader has to follow; {@code 1} for no delta manifests
+ */
+public record SequenceOptions(boolean enabled, int keyframeInterval) {
+
+    /**
+     * Every image on its own
+     */
+    public static final SequenceOptions DEFAULT = new SequenceOptions(false, 30);
+
+    public SequenceOptions {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of a shard journal: the outcome of a single file.<br>
+ * Journals are append-only JSON lines; a file with a {@link #DONE} entry is skipped when the shard is restarted.<br>
+ *
+ * @param file           path relative to the ingested root, with {@code /} separators
+ * @param status         {@link #DONE} or {@link #FAILED}
+ * @param error          failure message, {@code null} for processed files
+ * @param layout         detected channel layout, {@code null} for failed files
+ * @param blocks         number of 8x8 blocks of the padded image
+ * @param sourceBytes    size of the source image
+ * @param uploadedHashes hashes of the blocks this file uploaded, per component
+ */
+public record ShardJournalEntry(
+        String file,
+        String status,
+        String error,
+        ChannelLayout layout,
+        int blocks,
+        long sourceBytes,
+        Map<BlockType, List<String>> uploadedHashes
+) {
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    public boolean done() {
+        return DONE.equals(status);
+    }
+}
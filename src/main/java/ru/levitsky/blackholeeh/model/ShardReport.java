@@ -0,0 +1,42 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.Map;
+
+/**
+ * Summary of one shard of a sharded ingestion, written next to its journal after every run.<br>
+ * File and block counters cover the whole journal, i.e. include files done by earlier, interrupted runs.<br>
+ *
+ * @param root           ingested directory
+ * @param shardIndex     zero-based index of the shard
+ * @param shardCount     total number of shards
+ * @param journal        file name of the shard journal, relative to the report
+ * @param startedAt      ISO-8601 start time of the last run
+ * @param finishedAt     ISO-8601 end time of the last run
+ * @param filesAssigned  number of images that belong to this shard
+ * @param filesDone      number of images processed successfully
+ * @param filesSkipped   images skipped by the last run because the journal already had them
+ * @param filesFailed    images that failed in the last run
+ * @param sourceBytes    total size of the processed images
+ * @param totalBlocks    total number of 8x8 blocks of the processed images
+ * @param uploadedBlocks number of blocks this shard uploaded, per component
+ * @param elapsedMs      wall-clock duration of the last run
+ */
+public record ShardReport(
+        String root,
+        int shardIndex,
+        int shardCount,
+        String journal,
+        String startedAt,
+        String finishedAt,
+        long filesAssigned,
+        long filesDone,
+        long filesSkipped,
+        long filesFailed,
+        long sourceBytes,
+        long totalBlocks,
+        Map<BlockType, Long> uploadedBlocks,
+        long elapsedMs
+) {
+}
@@ -0,0 +1,82 @@
+package ru.levitsky.blackholeeh.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * One of {@code count} disjoint shards of a directory tree.
+ * <p>
+ * A file belongs to the shard {@code SHA-256(relative path) mod count}. The relative path is taken with
+ * {@code /} separators, so every process and node that sees the same tree – on any OS and any mount point –
+ * assigns every file to exactly one shard without any coordination.
+ *
+ * @param index zero-based shard index
+ * @param count total number of shards
+ */
+public record ShardSpec(int index, int count) {
+
+    public ShardSpec {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        }
+    }
+
+    /**
+     * The single shard that owns everything.
+     */
+    public static ShardSpec all() {
+        return new ShardSpec(0, 1);
+    }
+
+    /**
+     * Parses the {@code --shard} notation.
+     *
+     * @param value {@code i/N}, e.g. {@code 0/4}
+     * @return the shard
+     * @throws IllegalArgumentException if the value is not of the form {@code i/N} with {@code 0 <= i < N}
+     */
+    public static ShardSpec parse(String value) {
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be given as i/N: " + value);
+        }
+        try {
+            return new ShardSpec(Integer.parseInt(value.substring(0, slash).trim()),
+                    Integer.parseInt(value.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be given as i/N: " + value);
+        }
+    }
+
+    /**
+     * @param relativePath path of the file relative to the root of the sharded tree
+     * @return whether this shard is responsible for the file
+     */
+    public boolean owns(Path relativePath) {
+        return count == 1 || shardOf(normalize(relativePath), count) == index;
+    }
+
+    /**
+     * @return the relative path with {@code /} as separator, as used for hashing and in journals
+     */
+    public static String normalize(Path relativePath) {
+        return relativePath.toString().replace(relativePath.getFileSystem().getSeparator(), "/");
+    }
+
+    static int shardOf(String normalizedPath, int count) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalizedPath.getBytes(StandardCharsets.UTF_8));
+            return (int) Long.remainderUnsigned(ByteBuffer.wrap(hash).getLong(), count);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
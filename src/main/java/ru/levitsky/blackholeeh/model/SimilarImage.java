@@ -0,0 +1,12 @@
+package ru.levitsky.blackholeeh.model;
+
+/**
+ * A near-duplicate found in the similarity index.
+ *
+ * @param manifest       path of the .blho manifest of the similar image
+ * @param jaccard        estimated Jaccard similarity of the unique Y block sets
+ * @param sharedFraction estimated share of the query's unique Y blocks that the similar image also has
+ * @param uniqueBlocks   number of unique Y blocks of the similar image
+ */
+public record SimilarImage(String manifest, double jaccard, double sharedFraction, int uniqueBlocks) {
+}
@@ -0,0 +1,28 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.util.StripeParallelism;
+
+/**
+ * Options of splitting images into blocks.
+ *
+ * @param canonicalOrientation store every block in the orientation of its lexicographically smallest
+ *                             flip/rotation, so mirrored and rotated copies deduplicate
+ * @param jpegCoefficients     split JPEG files into their quantized DCT coefficient blocks instead of decoded
+ *                             pixels, so they can be restored bit-exactly; files the codec does not support
+ *                             fall back to pixel blocks
+ * @param stripes              splits large images in parallel stripes of block rows
+ */
+public record SplitOptions(boolean canonicalOrientation, boolean jpegCoefficients, StripeParallelism stripes) {
+
+    /**
+     * Pixel blocks in natural orientation
+     */
+    public static final SplitOptions DEFAULT = new SplitOptions(false, false);
+
+    /**
+     * Options that split every image sequentially
+     */
+    public SplitOptions(boolean canonicalOrientation, boolean jpegCoefficients) {
+        this(canonicalOrientation, jpegCoefficients, StripeParallelism.SEQUENTIAL);
+    }
+}
@@ -0,0 +1,81 @@
+package ru.levitsky.blackholeeh.model;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decides per component how missing blocks reach the block store.
+ * <p>
+ * Checking first sends only hashes and uploads only the missing blocks, but costs a second round trip.
+ * For small blocks – an 8x8 Y or A block is 64 bytes, as long as the hex hash sent to {@code /check} – sending
+ * the blocks right away with a put-if-absent request moves about the same number of bytes in a single round trip.
+ * Components whose blocks are rarely new (e.g. alpha of mostly opaque images) can get their own limit.
+ *
+ * @param putIfAbsentMaxBytes largest block, in bytes, sent with put-if-absent; {@code 0} always checks first
+ * @param typeMaxBytes        limits of single components that replace {@code putIfAbsentMaxBytes} for them
+ */
+public record UploadPolicy(int putIfAbsentMaxBytes, Map<BlockType, Integer> typeMaxBytes) {
+
+    /**
+     * Put-if-absent for 64-byte Y and A blocks, check first for 72-byte packed chroma and larger
+     */
+    public static final UploadPolicy DEFAULT = new UploadPolicy(64);
+
+    public UploadPolicy {
+        if (putIfAbsentMaxBytes < 0) {
+            throw new IllegalArgumentException("Put-if-absent size limit must not be negative: " + putIfAbsentMaxBytes);
+        }
+        typeMaxBytes.forEach((type, maxBytes) -> {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("Put-if-absent size limit of " + type + " must not be negative: "
+                        + maxBytes);
+            }
+        });
+        typeMaxBytes = Map.copyOf(typeMaxBytes);
+    }
+
+    /**
+     * Policy with the same limit for all components.
+     */
+    public UploadPolicy(int putIfAbsentMaxBytes) {
+        this(putIfAbsentMaxBytes, Map.of());
+    }
+
+    /**
+     * Parses the {@code blackhole.upload.put-if-absent-max-bytes-by-type} notation.
+     *
+     * @param putIfAbsentMaxBytes limit of the components without their own
+     * @param typeLimits          comma-separated {@code TYPE=bytes} pairs, e.g. {@code ALPHA=0,CHROMA_CB=72};
+     *                            empty for none
+     * @return the policy
+     * @throws IllegalArgumentException if a pair names no {@link BlockType} or its limit is not a number
+     */
+    public static UploadPolicy parse(int putIfAbsentMaxBytes, String typeLimits) {
+        Map<BlockType, Integer> limits = new EnumMap<>(BlockType.class);
+        if (typeLimits != null && !typeLimits.isBlank()) {
+            for (String pair : typeLimits.split(",")) {
+                String[] parts = pair.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Put-if-absent limit must be TYPE=bytes: " + pair);
+                }
+                try {
+                    limits.put(BlockType.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Put-if-absent limit must be TYPE=bytes: " + pair);
+                }
+            }
+        }
+        return new UploadPolicy(putIfAbsentMaxBytes, limits);
+    }
+
+    /**
+     * @param type        the block component
+     * @param blockLength size of the component's blocks in bytes
+     * @return whether blocks of this component are sent with put-if-absent instead of check-then-upload
+     */
+    public boolean usePutIfAbsent(BlockType type, int blockLength) {
+        return blockLength <= typeMaxBytes.getOrDefault(type, putIfAbsentMaxBytes);
+    }
+}
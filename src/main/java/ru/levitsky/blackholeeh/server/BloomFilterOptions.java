@@ -0,0 +1,33 @@
+package ru.levitsky.blackholeeh.server;
+
+/**
+ * Configuration of the Bloom filters the {@link ReferenceBlockServer} publishes under {@code /filter}.
+ *
+ * @param expectedBlocks        initial number of hashes per component the filters are sized for; a filter that
+ *                              outgrows its size is rebuilt twice as large under a new generation
+ * @param bitsPerBlock          filter bits per hash; 10 gives about 1% false positives
+ * @param publishIntervalMillis interval between published versions; changes in between are batched
+ * @param history               number of versions kept to answer delta requests; older clients get a snapshot
+ */
+public record BloomFilterOptions(
+        long expectedBlocks,
+        int bitsPerBlock,
+        long publishIntervalMillis,
+        int history
+) {
+
+    public static final BloomFilterOptions DEFAULT = new BloomFilterOptions(1 << 20, 10, 60_000, 64);
+
+    public BloomFilterOptions {
+        if (expectedBlocks < 1 || bitsPerBlock < 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter size: " + expectedBlocks + " blocks x "
+                    + bitsPerBlock + " bits");
+        }
+        if (publishIntervalMillis < 1) {
+            throw new IllegalArgumentException("Publish interval must be positive: " + publishIntervalMillis);
+        }
+        if (history < 0) {
+            throw new IllegalArgumentException("History must not be negative: " + history);
+        }
+    }
+}
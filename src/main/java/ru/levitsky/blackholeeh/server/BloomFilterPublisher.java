@@ -0,0 +1,219 @@
+package ru.levitsky.blackholeeh.server;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.util.BloomFilter;
+import ru.levitsky.blackholeeh.util.BloomFilterSnapshot;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes versioned Bloom filters of the stored hashes, one per {@link BlockType}, for clients that check
+ * existence offline.
+ * <p>
+ * Every component has a live filter that stored hashes are added to as they arrive, and a published copy that
+ * clients see. At every publish interval the live words are compared with the published ones; if any changed,
+ * they become the next version and the indices of the changed words are kept in a bounded history, so a client
+ * that is a few versions behind downloads only those words. When a filter holds more hashes than it was sized
+ * for, it is rebuilt twice as large from the store under a new generation, and clients of the old generation
+ * get a full snapshot.
+ * <p>
+ * Generations are random, so a restarted server never continues the versions of a filter a client cached from
+ * an earlier run. Components whose store cannot enumerate its hashes get no filter. Thread-safe.
+ */
+@Slf4j
+public class BloomFilterPublisher implements Closeable {
+
+    private final BloomFilterOptions options;
+    private final BlockStore store;
+    private final Map<BlockType, TypeFilter> filters = new EnumMap<>(BlockType.class);
+
+    private ScheduledExecutorService scheduler;
+
+    public BloomFilterPublisher(BloomFilterOptions options, BlockStore store) {
+        this.options = options;
+        this.store = store;
+    }
+
+    /**
+     * Builds the filters from the stored hashes, publishes their first versions and schedules the later ones.
+     */
+    public synchronized void start() {
+        for (BlockType type : BlockType.values()) {
+            TypeFilter filter = new TypeFilter(type);
+            if (filter.rebuild(options.expectedBlocks())) {
+                filters.put(type, filter);
+            } else {
+                log.warn("Block store cannot enumerate {} hashes, no Bloom filter published", type);
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("bloom-filter-publisher").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::publish, options.publishIntervalMillis(),
+                options.publishIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds newly stored hashes to the live filter; they are published with the next version.
+     */
+    public void added(BlockType type, Collection<String> hashes) {
+        TypeFilter filter = filters.get(type);
+        if (filter != null && !hashes.isEmpty()) {
+            filter.add(hashes);
+        }
+    }
+
+    /**
+     * Publishes a new version of every filter that changed since the last one.
+     */
+    public void publish() {
+        for (TypeFilter filter : filters.values()) {
+            try {
+                filter.publish();
+            } catch (RuntimeException e) {
+                log.error("Publishing the {} Bloom filter failed: {}", filter.type, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param type       the block component
+     * @param generation generation of the client's filter, {@code 0} if it has none
+     * @param since      version of the client's filter
+     * @return a delta from {@code since} if the history covers it, otherwise a snapshot of the published version;
+     * {@code null} if the component has no filter
+     */
+    public byte[] response(BlockType type, long generation, long since) {
+        TypeFilter filter = filters.get(type);
+        return filter == null ? null : filter.response(generation, since);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Changed words of one published version.
+     */
+    private record Version(long version, int[] changed) {
+    }
+
+    /**
+     * Live and published filter of one component.
+     */
+    private final class TypeFilter {
+        private final BlockType type;
+        private final Deque<Version> history = new ArrayDeque<>();
+
+        private BloomFilter live;
+        private long[] published;
+        private long capacity;
+        private long entries;
+        private long generation;
+        private long version;
+
+        private TypeFilter(BlockType type) {
+            this.type = type;
+        }
+
+        synchronized void add(Collection<String> hashes) {
+            for (String hash : hashes) {
+                if (live.put(hash)) {
+                    entries++;
+                }
+            }
+        }
+
+        synchronized void publish() {
+            if (entries > capacity) {
+                rebuild(Math.max(capacity * 2, entries * 2));
+                return;
+            }
+            BitSet changed = new BitSet();
+            for (int i = 0; i < published.length; i++) {
+                long word = live.word(i);
+                if (word != published[i]) {
+                    published[i] = word;
+                    changed.set(i);
+                }
+            }
+            if (changed.isEmpty()) {
+                return;
+            }
+            version++;
+            history.addLast(new Version(version, changed.stream().toArray()));
+            while (history.size() > options.history()) {
+                history.removeFirst();
+            }
+            log.debug("Published {} Bloom filter version {}: {} changed words", type, version,
+                    changed.cardinality());
+        }
+
+        /**
+         * Replaces the filter with one of {@code size} expected hashes built from the store.
+         *
+         * @return {@code false} if the store cannot enumerate its hashes
+         */
+        synchronized boolean rebuild(long size) {
+            BloomFilter filter = BloomFilter.allocate(size, options.bitsPerBlock());
+            long[] count = new long[1];
+            if (!store.forEachHash(type, hash -> count[0] += filter.put(hash) ? 1 : 0)) {
+                return false;
+            }
+            // a store larger than the filter size gets a larger filter at the next publish
+            live = filter;
+            capacity = size;
+            entries = count[0];
+            published = new long[filter.wordCount()];
+            for (int i = 0; i < published.length; i++) {
+                published[i] = filter.word(i);
+            }
+            generation = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            version = 1;
+            history.clear();
+            log.info("Built {} Bloom filter generation {}: {} hashes, {} KiB", type, generation, entries,
+                    published.length * Long.BYTES / 1024);
+            return true;
+        }
+
+        synchronized byte[] response(long clientGeneration, long since) {
+            int hashCount = live.hashCount();
+            if (clientGeneration == generation && since == version) {
+                return BloomFilterSnapshot.delta(type, hashCount, generation, version, version, entries, published,
+                        new int[0]);
+            }
+            if (clientGeneration == generation && since > 0 && since < version && !history.isEmpty()
+                    && history.peekFirst().version() <= since + 1) {
+                BitSet changed = new BitSet();
+                for (Version previous : history) {
+                    if (previous.version() > since) {
+                        for (int index : previous.changed()) {
+                            changed.set(index);
+                        }
+                    }
+                }
+                // a delta entry is half again as large as a word, so large deltas are sent as snapshots
+                if ((long) changed.cardinality() * 3 < (long) published.length * 2) {
+                    return BloomFilterSnapshot.delta(type, hashCount, generation, version, since, entries,
+                            published, changed.stream().toArray());
+                }
+            }
+            return BloomFilterSnapshot.snapshot(type, hashCount, generation, version, entries, published);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package ru.levitsky.blackholeeh.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.dto.BlockBatchUploadRequest;
+import ru.levitsky.blackholeeh.dto.BlockCheckRequest;
+import ru.levitsky.blackholeeh.dto.BlockCheckResponse;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.dto.BlockFetchRequest;
+import ru.levitsky.blackholeeh.dto.BlockFetchResponse;
+import ru.levitsky.blackholeeh.dto.BlockPutIfAbsentResponse;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.util.BlockDtoValidator;
+import ru.levitsky.blackholeeh.util.BloomFilterSnapshot;
+import ru.levitsky.blackholeeh.util.HashUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the block server, for integration and load testing of the client.
+ * <p>
+ * Implements the block API under {@value #API_PATH} with the same DTO contracts as the real server:
+ * <ul>
+ *     <li>{@code POST /check?type=}  – {@link BlockCheckRequest} → {@link BlockCheckResponse}</li>
+ *     <li>{@code POST /upload?type=} – {@link BlockBatchUploadRequest} → empty body</li>
+ *     <li>{@code POST /put-if-absent?type=} – {@link BlockBatchUploadRequest} → {@link BlockPutIfAbsentResponse}
+ *     with the hashes of the blocks that were newly stored</li>
+ *     <li>{@code POST /fetch?type=}  – {@link BlockFetchRequest} → {@link BlockFetchResponse}</li>
+ *     <li>{@code GET /filter?type=[&generation=&since=]} – the published Bloom filter of the stored hashes, as a
+ *     delta from the client's version if the server still has it, otherwise as a snapshot
+ *     (see {@link BloomFilterPublisher}, {@link BloomFilterSnapshot}); {@code 404} if filters are disabled</li>
+ * </ul>
+ * Storage is any {@link BlockStore} (in memory or on disk). Every request can be slowed down and failed
+ * according to {@link ReferenceServerOptions}: fixed latency plus jitter, a random {@code 503} rate, and a
+ * simulated link of limited bandwidth that request and response bodies of all connections share.
+ * <p>
+ * Built on the JDK HTTP server with virtual threads, so it needs no web stack in the application context.
+ */
+@Slf4j
+public class ReferenceBlockServer implements Closeable {
+
+    public static final String API_PATH = "/api/v1/blocks";
+
+    private final ReferenceServerOptions options;
+    private final BlockStore store;
+    private final BloomFilterPublisher filters;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Random random;
+    private final Object linkLock = new Object();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    private long linkFreeAtNanos;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Server without Bloom filters: {@code /filter} answers {@code 404}, so benchmarks and tests measure only the
+     * block endpoints unless they pass {@link BloomFilterOptions} explicitly.
+     */
+    public ReferenceBlockServer(ReferenceServerOptions options, BlockStore store) {
+        this(options, store, null);
+    }
+
+    /**
+     * @param filterOptions Bloom filters to publish, {@code null} to answer {@code /filter} with {@code 404}
+     */
+    public ReferenceBlockServer(ReferenceServerOptions options, BlockStore store, BloomFilterOptions filterOptions) {
+        this.options = options;
+        this.store = store;
+        this.filters = filterOptions == null ? null : new BloomFilterPublisher(filterOptions, store);
+        this.random = new Random(options.seed());
+    }
+
+    /**
+     * Disables Nagle's algorithm on the connections of all JDK HTTP servers of this JVM, so small JSON
+     * responses do not wait for delayed ACKs, which otherwise dominates local round trips.
+     * <p>
+     * This sets the JVM-global {@code sun.net.httpserver.nodelay} property, which the JDK server reads once:
+     * call it from the entry point before the first server starts, not from library code.
+     */
+    public static void useTcpNoDelay() {
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * Binds the server to the loopback interface and starts accepting requests.
+     *
+     * @return this server
+     * @throws IOException if the port cannot be bound
+     */
+    public ReferenceBlockServer start() throws IOException {
+        if (filters != null) {
+            filters.start();
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port()), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext(API_PATH, this::handle);
+        server.start();
+        log.info("Reference block server listening on {} ({})", baseUrl(), options);
+        return this;
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return base URL of the block API, to be used as {@code blackhole.server.base-url}
+     */
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + port() + API_PATH;
+    }
+
+    /**
+     * Publishes the changes to the Bloom filters now instead of at the next publish interval.
+     */
+    public void publishFilters() {
+        if (filters != null) {
+            filters.publish();
+        }
+    }
+
+    /**
+     * @return request and traffic counters since start
+     */
+    public Stats stats() {
+        return new Stats(requests.sum(), injectedErrors.sum(), bytesIn.sum(), bytesOut.sum());
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            server = null;
+        }
+        if (filters != null) {
+            filters.close();
+        }
+    }
+
+    /**
+     * Request and traffic counters.
+     *
+     * @param requests       number of handled requests
+     * @param injectedErrors number of requests failed by fault injection
+     * @param bytesIn        request body bytes received
+     * @param bytesOut       response body bytes sent
+     */
+    public record Stats(long requests, long injectedErrors, long bytesIn, long bytesOut) {
+    }
+
+    private void handle(HttpExchange exchange) {
+        try (exchange) {
+            requests.increment();
+            String operation = exchange.getRequestURI().getPath().substring(API_PATH.length());
+            String method = "/filter".equals(operation) ? "GET" : "POST";
+            if (!method.equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, null);
+                return;
+            }
+
+            BlockType type;
+            try {
+                type = BlockType.valueOf(queryParameter(exchange, "type"));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                respond(exchange, 400, null);
+                return;
+            }
+
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            bytesIn.add(body.length);
+            transfer(body.length);
+            injectLatency();
+            if (injectError()) {
+                injectedErrors.increment();
+                respond(exchange, 503, null);
+                return;
+            }
+
+            try {
+                switch (operation) {
+                    case "/check" -> respond(exchange, 200, check(body, type));
+                    case "/upload" -> respond(exchange, 200, upload(body, type));
+                    case "/put-if-absent" -> respond(exchange, 200, putIfAbsent(body, type));
+                    case "/fetch" -> respond(exchange, 200, fetch(body, type));
+                    case "/filter" -> filter(exchange, type);
+                    default -> respond(exchange, 404, null);
+                }
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                log.warn("Rejected {} request: {}", operation, e.getMessage());
+                respond(exchange, 400, null);
+            }
+        } catch (Exception e) {
+            log.error("Reference server request failed: {}", e.getMessage());
+        }
+    }
+
+    private byte[] check(byte[] body, BlockType type) throws IOException {
+        BlockCheckRequest request = objectMapper.readValue(body, BlockCheckRequest.class);
+        List<String> missing = store.findMissing(request.getHashes(), type);
+        return objectMapper.writeValueAsBytes(new BlockCheckResponse(missing));
+    }
+
+    private byte[] upload(byte[] body, BlockType type) throws IOException {
+        BlockBatchUploadRequest request = objectMapper.readValue(body, BlockBatchUploadRequest.class);
+        validate(request.getBlocks());
+        store.putAll(request.getBlocks(), type);
+        if (filters != null) {
+            filters.added(type, request.getBlocks().stream().map(BlockDto::getHash).toList());
+        }
+        return null;
+    }
+
+    private byte[] putIfAbsent(byte[] body, BlockType type) throws IOException {
+        BlockBatchUploadRequest request = objectMapper.readValue(body, BlockBatchUploadRequest.class);
+        validate(request.getBlocks());
+        List<String> stored = store.putIfAbsent(request.getBlocks(), type);
+        if (filters != null) {
+            filters.added(type, stored);
+        }
+        return objectMapper.writeValueAsBytes(new BlockPutIfAbsentResponse(stored));
+    }
+
+    private static void validate(List<BlockDto> blocks) {
+        for (BlockDto block : blocks) {
+            BlockDtoValidator.validate(block);
+            if (!HashUtils.sha256WithLength(block.getData()).equalsIgnoreCase(block.getHash())) {
+                throw new IllegalArgumentException("Hash does not match block data: " + block.getHash());
+            }
+        }
+    }
+
+    private byte[] fetch(byte[] body, BlockType type) throws IOException {
+        BlockFetchRequest request = objectMapper.readValue(body, BlockFetchRequest.class);
+        Map<String, byte[]> found = store.getAll(request.getHashes(), type);
+        List<BlockDto> blocks = new ArrayList<>(found.size());
+        found.forEach((hash, data) -> blocks.add(new BlockDto(hash, data, type)));
+        return objectMapper.writeValueAsBytes(new BlockFetchResponse(blocks));
+    }
+
+    private void filter(HttpExchange exchange, BlockType type) throws IOException, InterruptedException {
+        String generation = queryParameter(exchange, "generation");
+        String since = queryParameter(exchange, "since");
+        byte[] filter = filters == null ? null : filters.response(type,
+                generation == null ? 0 : Long.parseLong(generation), since == null ? 0 : Long.parseLong(since));
+        if (filter == null) {
+            respond(exchange, 404, null);
+        } else {
+            respond(exchange, 200, filter, "application/octet-stream");
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException, InterruptedException {
+        respond(exchange, status, body, "application/json");
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body, String contentType)
+            throws IOException, InterruptedException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        transfer(body.length);
+        bytesOut.add(body.length);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void injectLatency() throws InterruptedException {
+        long delay = options.latencyMillis();
+        if (options.latencyJitterMillis() > 0) {
+            delay += random.nextLong(options.latencyJitterMillis() + 1);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private boolean injectError() {
+        return options.errorRate() > 0 && random.nextDouble() < options.errorRate();
+    }
+
+    /**
+     * Reserves the simulated link for {@code bytes} and waits until the transfer would have finished.
+     * Transfers of all connections are serialized, like packets on a single uplink.
+     */
+    private void transfer(long bytes) throws InterruptedException {
+        long bandwidth = options.bandwidthBytesPerSecond();
+        if (bandwidth == 0 || bytes == 0) {
+            return;
+        }
+        long finishAt;
+        synchronized (linkLock) {
+            long start = Math.max(System.nanoTime(), linkFreeAtNanos);
+            linkFreeAtNanos = start + bytes * 1_000_000_000L / bandwidth;
+            finishAt = linkFreeAtNanos;
+        }
+        long waitNanos = finishAt - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package ru.levitsky.blackholeeh.server;
+
+/**
+ * Configuration of the {@link ReferenceBlockServer} and its fault injection.
+ *
+ * @param port                    TCP port to listen on, {@code 0} picks a free port
+ * @param latencyMillis           fixed delay added to every request
+ * @param latencyJitterMillis     additional uniformly distributed delay (0..jitter) per request
+ * @param errorRate               probability (0..1) that a request fails with {@code 503} without being executed
+ * @param bandwidthBytesPerSecond throughput of the simulated link shared by all requests, {@code 0} = unlimited
+ * @param seed                    seed of the fault injection random generator, for reproducible runs
+ */
+public record ReferenceServerOptions(
+        int port,
+        long latencyMillis,
+        long latencyJitterMillis,
+        double errorRate,
+        long bandwidthBytesPerSecond,
+        long seed
+) {
+
+    public ReferenceServerOptions {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port must be 0-65535: " + port);
+        }
+        if (latencyMillis < 0 || latencyJitterMillis < 0) {
+            throw new IllegalArgumentException("Latency must not be negative");
+        }
+        if (errorRate < 0.0 || errorRate > 1.0) {
+            throw new IllegalArgumentException("Error rate must be in range 0..1: " + errorRate);
+        }
+        if (bandwidthBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bandwidth must not be negative: " + bandwidthBytesPerSecond);
+        }
+    }
+
+    /**
+     * @param port TCP port to listen on, {@code 0} picks a free port
+     * @return options without any fault injection
+     */
+    public static ReferenceServerOptions ideal(int port) {
+        return new ReferenceServerOptions(port, 0, 0, 0.0, 0, 0);
+    }
+}
@@ -0,0 +1,180 @@
+package ru.levitsky.blackholeeh.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.enumeration.FsyncMode;
+import ru.levitsky.blackholeeh.model.FsyncPolicy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files under a temporary name in the target directory and publishes them with an atomic rename,
+ * so readers and crashed runs never see a partially written file under the final name.
+ * <p>
+ * Durability follows the {@link FsyncPolicy}:
+ * <ul>
+ *     <li>{@code NONE} – renamed right away, never forced</li>
+ *     <li>{@code PER_FILE} – forced before the rename, the directory forced after it</li>
+ *     <li>{@code GROUP_COMMIT} – kept under the temporary name until {@code groupSize} files are pending,
+ *     then all are forced, renamed, and their directories forced once. {@link #flush()} publishes a partial
+ *     group. A crash loses the pending group but never leaves a truncated file under a final name</li>
+ * </ul>
+ * Temporary files are named {@code .<name>.<random>.tmp} and created like any other file of the process, so
+ * published files get the permissions of the umask, as files written directly would. Thread-safe.
+ */
+@Slf4j
+public class AtomicFilePublisher {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final FsyncPolicy policy;
+    private final List<Pending> pending = new ArrayList<>();
+
+    public AtomicFilePublisher(FsyncPolicy policy) {
+        this.policy = policy;
+    }
+
+    public FsyncPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Writes {@code content} with a single gathering write loop and publishes it as {@code target}
+     * according to the policy.
+     *
+     * @param target  final location of the file; an existing file is replaced
+     * @param content buffers to write from their positions to their limits, in order
+     * @throws IOException if writing or publishing fails; the temporary file is removed then
+     */
+    public void publish(Path target, ByteBuffer[] content) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp;
+        FileChannel created;
+        while (true) {
+            // not Files.createTempFile: its owner-only permissions would carry over to the published file
+            temp = absolute.resolveSibling("." + absolute.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+            try {
+                created = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // name taken by a concurrent write, draw another
+            }
+        }
+        try {
+            try (FileChannel channel = created) {
+                long remaining = 0;
+                for (ByteBuffer buffer : content) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(content);
+                }
+                if (policy.mode() == FsyncMode.PER_FILE) {
+                    channel.force(true);
+                }
+            }
+
+            if (policy.mode() != FsyncMode.GROUP_COMMIT) {
+                move(temp, absolute);
+                if (policy.mode() == FsyncMode.PER_FILE) {
+                    forceDirectory(absolute.getParent());
+                }
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        List<Pending> group = null;
+        synchronized (pending) {
+            pending.add(new Pending(temp, absolute));
+            if (pending.size() >= policy.groupSize()) {
+                group = new ArrayList<>(pending);
+                pending.clear();
+            }
+        }
+        if (group != null) {
+            commit(group);
+        }
+    }
+
+    /**
+     * Forces and publishes all files of an unfinished group. No-op for other policies.
+     *
+     * @throws IOException if a pending file cannot be forced or renamed
+     */
+    public void flush() throws IOException {
+        List<Pending> group;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            group = new ArrayList<>(pending);
+            pending.clear();
+        }
+        commit(group);
+    }
+
+    /**
+     * @return number of written files not yet published under their final name
+     */
+    public int pendingFiles() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    private void commit(List<Pending> group) throws IOException {
+        for (Pending file : group) {
+            try (FileChannel channel = FileChannel.open(file.temp(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Pending file : group) {
+            move(file.temp(), file.target());
+            directories.add(file.target().getParent());
+        }
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        log.debug("Group commit of {} files", group.size());
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Makes renames in the directory durable. Not every platform can open a directory (e.g. Windows);
+     * there the rename is as durable as the file system makes it on its own.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Cannot force directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private record Pending(Path temp, Path target) {
+    }
+}
@@ -0,0 +1,243 @@
+package ru.levitsky.blackholeeh.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.enumeration.UploadLane;
+import ru.levitsky.blackholeeh.model.BandwidthPolicy;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket with strict-priority lanes for the uploads of a {@link BlockClient}.
+ * <p>
+ * The bucket fills at {@link BandwidthPolicy#bytesPerSecond()} up to {@link BandwidthPolicy#burstBytes()}.
+ * A request waits until it is first in its lane, no higher lane has a waiting request, and the bucket holds
+ * its size (or is full, for requests larger than the burst, which then leave the bucket in debt). Requests of
+ * a lane are served in arrival order, so lower lanes only get the capacity the higher lanes leave over.
+ * <p>
+ * Queue depth, volume and waiting time are counted per lane; the throughput is an exponentially decaying
+ * average over about {@value #THROUGHPUT_WINDOW_SECONDS} seconds. {@link #reportEvery(Duration)} logs them
+ * periodically, so long-running ingestion can be watched.
+ */
+@Slf4j
+public class BandwidthLimiter implements Closeable {
+
+    private static final double THROUGHPUT_WINDOW_SECONDS = 5.0;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final BandwidthPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<UploadLane, ArrayDeque<Object>> queues = new EnumMap<>(UploadLane.class);
+    private final Map<UploadLane, long[]> laneCounters = new EnumMap<>(UploadLane.class);
+
+    private double tokens;
+    private long refilledAtNanos;
+    private double throughput;
+    private long throughputAtNanos;
+    private ScheduledExecutorService reporter;
+
+    public BandwidthLimiter(BandwidthPolicy policy) {
+        this.policy = policy;
+        for (UploadLane lane : UploadLane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+            // requests, bytes, wait nanos
+            laneCounters.put(lane, new long[3]);
+        }
+        this.tokens = policy.burstBytes();
+        this.refilledAtNanos = System.nanoTime();
+        this.throughputAtNanos = refilledAtNanos;
+    }
+
+    /**
+     * @return the shaping settings
+     */
+    public BandwidthPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Waits until {@code bytes} may be sent in {@code lane} and takes them from the bucket.
+     *
+     * @param lane  priority lane of the request
+     * @param bytes request body size
+     * @throws InterruptedException if the thread is interrupted while waiting; nothing is taken then
+     */
+    public void acquire(UploadLane lane, long bytes) throws InterruptedException {
+        long start = System.nanoTime();
+        Object ticket = new Object();
+        lock.lock();
+        try {
+            ArrayDeque<Object> queue = queues.get(lane);
+            queue.addLast(ticket);
+            try {
+                if (policy.limited()) {
+                    awaitTurn(lane, ticket, Math.min(bytes, policy.burstBytes()));
+                    tokens -= bytes;
+                }
+            } finally {
+                queue.remove(ticket);
+                changed.signalAll();
+            }
+
+            long now = System.nanoTime();
+            long[] counters = laneCounters.get(lane);
+            counters[0]++;
+            counters[1] += bytes;
+            counters[2] += now - start;
+            decayThroughput(now);
+            throughput += bytes / THROUGHPUT_WINDOW_SECONDS;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the ticket is at the head of its lane, all higher lanes are empty and {@code needed}
+     * tokens are available. Called with the lock held.
+     */
+    private void awaitTurn(UploadLane lane, Object ticket, long needed) throws InterruptedException {
+        while (true) {
+            if (queues.get(lane).peekFirst() == ticket && !higherLaneWaiting(lane)) {
+                refill(System.nanoTime());
+                double deficit = needed - tokens;
+                if (deficit <= 0) {
+                    return;
+                }
+                changed.awaitNanos(Math.max(1, (long) Math.ceil(deficit * NANOS_PER_SECOND / policy.bytesPerSecond())));
+            } else {
+                changed.await();
+            }
+        }
+    }
+
+    private boolean higherLaneWaiting(UploadLane lane) {
+        for (UploadLane higher : UploadLane.values()) {
+            if (higher == lane) {
+                return false;
+            }
+            if (!queues.get(higher).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(policy.burstBytes(),
+                tokens + (now - refilledAtNanos) * policy.bytesPerSecond() / NANOS_PER_SECOND);
+        refilledAtNanos = now;
+    }
+
+    private void decayThroughput(long now) {
+        throughput *= Math.exp(-(now - throughputAtNanos) / NANOS_PER_SECOND / THROUGHPUT_WINDOW_SECONDS);
+        throughputAtNanos = now;
+    }
+
+    /**
+     * @return current queue depths, counters and throughput
+     */
+    public Snapshot snapshot() {
+        lock.lock();
+        try {
+            decayThroughput(System.nanoTime());
+            Map<UploadLane, LaneSnapshot> lanes = new EnumMap<>(UploadLane.class);
+            for (UploadLane lane : UploadLane.values()) {
+                long[] counters = laneCounters.get(lane);
+                lanes.put(lane, new LaneSnapshot(queues.get(lane).size(), counters[0], counters[1],
+                        counters[2] / 1_000_000));
+            }
+            return new Snapshot(policy.bytesPerSecond(), Math.round(throughput), lanes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts logging a {@link #snapshot()} every {@code interval} on a daemon thread, until {@link #close()}.
+     *
+     * @param interval time between reports
+     * @return this limiter
+     */
+    public synchronized BandwidthLimiter reportEvery(Duration interval) {
+        if (reporter != null) {
+            throw new IllegalStateException("Reporting already started");
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("bandwidth-report")
+                .daemon(true)
+                .factory());
+        long millis = interval.toMillis();
+        reporter.scheduleAtFixedRate(this::report, millis, millis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    private void report() {
+        Snapshot snapshot = snapshot();
+        if (snapshot.throughputBytesPerSecond() == 0 && snapshot.queued() == 0) {
+            return;
+        }
+        log.info("Upload bandwidth: {} KB/s (limit {}), queued {}, sent {}",
+                snapshot.throughputBytesPerSecond() / 1024,
+                snapshot.limitBytesPerSecond() == 0 ? "none" : snapshot.limitBytesPerSecond() / 1024 + " KB/s",
+                snapshot.queuedPerLane(),
+                snapshot.sentKilobytesPerLane());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * Point-in-time state of the limiter.
+     *
+     * @param limitBytesPerSecond      configured rate, {@code 0} = unlimited
+     * @param throughputBytesPerSecond recent upload rate over all lanes
+     * @param lanes                    per-lane state
+     */
+    public record Snapshot(long limitBytesPerSecond, long throughputBytesPerSecond,
+                           Map<UploadLane, LaneSnapshot> lanes) {
+
+        /**
+         * @return requests waiting in all lanes
+         */
+        public int queued() {
+            return lanes.values().stream().mapToInt(LaneSnapshot::queued).sum();
+        }
+
+        Map<UploadLane, Integer> queuedPerLane() {
+            Map<UploadLane, Integer> queued = new EnumMap<>(UploadLane.class);
+            lanes.forEach((lane, state) -> queued.put(lane, state.queued()));
+            return queued;
+        }
+
+        Map<UploadLane, Long> sentKilobytesPerLane() {
+            Map<UploadLane, Long> sent = new EnumMap<>(UploadLane.class);
+            lanes.forEach((lane, state) -> sent.put(lane, state.bytes() / 1024));
+            return sent;
+        }
+    }
+
+    /**
+     * State of one lane.
+     *
+     * @param queued     requests currently waiting
+     * @param requests   requests let through so far
+     * @param bytes      request body bytes let through so far
+     * @param waitMillis accumulated waiting time of the requests let through
+     */
+    public record LaneSnapshot(int queued, long requests, long bytes, long waitMillis) {
+    }
+}
@@ -0,0 +1,330 @@
+package ru.levitsky.blackholeeh.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.BlockChecksums;
+import ru.levitsky.blackholeeh.model.PreviousFrame;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionary;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.util.FrameDeltas;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads .blho v2 files written by {@link BlhoWriter} back into a {@link BlhoFileDataV2}.
+ * <p>
+ * Files written before the {@code channels} metadata field existed are read as {@link ChannelLayout#RGB},
+ * files without {@code chroma_packing} as {@link ChromaPacking#INT16_BE}, the only layouts that existed then.
+ * <p>
+ * Hash lists of manifests in dictionary mode ({@code hash_encoding} = {@value BlhoWriter#HASH_ENCODING_DICTIONARY})
+ * hold 32-bit ids; they are resolved to full hashes through the referenced {@link HashDictionary}, which must
+ * exist and carry the {@code dictionary_id} recorded in the manifest.
+ * <p>
+ * Manifests of canonicalized blocks ({@code orientation} metadata field) carry the orientation of every block;
+ * they are returned in {@link BlhoFileDataV2#getOrientations()} for the reconstruction to undo.
+ * <p>
+ * Manifests of JPEG coefficient blocks ({@code block_source} = {@value BlhoWriter#BLOCK_SOURCE_JPEG_DCT}) have
+ * no chroma packing and end with the segments of the JPEG, returned in {@link BlhoFileDataV2#getJpegSegments()}.
+ * <p>
+ * Manifests with the {@code checksum} metadata field end with the checksums of the block planes,
+ * returned in {@link BlhoFileDataV2#getChecksums()}.
+ * <p>
+ * Delta manifests of frames of a sequence ({@code frame_delta} = {@value BlhoWriter#FRAME_DELTA_SAME_AS_PREVIOUS})
+ * are expanded with the manifest of the previous frame, read from the same directory, so they are returned
+ * complete like any other manifest; {@link BlhoFileDataV2#getPreviousFrame()} tells which frame they reference.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlhoReader {
+
+    private static final int MAX_METADATA_BYTES = 1 << 20;
+    private static final int MAX_FRAME_CHAIN = 1024;
+
+    private final HashDictionaryRegistry dictionaries;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Reads a .blho file.
+     *
+     * @param file the .blho file
+     * @return the manifest
+     * @throws IOException if the file cannot be read or is not a valid .blho v2 file
+     */
+    public BlhoFileDataV2 read(Path file) throws IOException {
+        return read(file, 0);
+    }
+
+    /**
+     * @param chain number of delta manifests that led to this one
+     */
+    private BlhoFileDataV2 read(Path file, int chain) throws IOException {
+        if (chain > MAX_FRAME_CHAIN) {
+            throw new IOException("Chain of previous frames longer than " + MAX_FRAME_CHAIN + " at '" + file + "'");
+        }
+        BlhoFileDataV2 data;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(dis);
+            JsonNode metadata = readMetadata(dis);
+
+            ChannelLayout layout = ChannelLayout.valueOf(metadata.path("channels").asText("RGB"));
+            boolean jpeg = jpegBlockSource(metadata);
+            ChromaPacking chromaPacking = layout.hasChroma() && !jpeg
+                    ? ChromaPacking.valueOf(metadata.path("chroma_packing").asText("INT16_BE"))
+                    : null;
+
+            HashDictionary dictionary = referencedDictionary(file, metadata);
+            List<byte[]> yHashes = readHashList(dis, dictionary);
+            List<byte[]> uHashes = readHashList(dis, dictionary);
+            List<byte[]> vHashes = readHashList(dis, dictionary);
+            List<Integer> yPositions = readPositionMap(dis);
+            List<Integer> uPositions = readPositionMap(dis);
+            List<Integer> vPositions = readPositionMap(dis);
+            List<byte[]> aHashes = layout.hasAlpha() ? readHashList(dis, dictionary) : new ArrayList<>();
+            List<Integer> aPositions = layout.hasAlpha() ? readPositionMap(dis) : new ArrayList<>();
+            Map<BlockType, byte[]> orientations = readOrientations(dis, metadata, layout,
+                    List.of(yPositions, uPositions, vPositions, aPositions));
+            List<byte[]> jpegSegments = jpeg ? readJpegSegments(dis) : null;
+            BlockChecksums checksums = readChecksums(dis, metadata);
+            PreviousFrame previousFrame = readPreviousFrame(dis, metadata, layout);
+
+            data = new BlhoFileDataV2(metadata.path("file").asText(file.getFileName().toString()),
+                    metadata.path("width").asInt(), metadata.path("height").asInt(), layout, chromaPacking,
+                    yHashes, uHashes, vHashes, aHashes, yPositions, uPositions, vPositions, aPositions,
+                    metadata.path("block_hash").asText(null), orientations, jpegSegments, checksums, previousFrame);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid .blho file '" + file + "': " + e.getMessage(), e);
+        }
+        if (!data.hasPreviousFrame()) {
+            return data;
+        }
+
+        BlhoFileDataV2 previous = read(file.toAbsolutePath().resolveSibling(data.getPreviousFrame().manifest()),
+                chain + 1);
+        try {
+            return FrameDeltas.decode(data, previous);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid .blho file '" + file + "': " + e.getMessage(), e);
+        }
+    }
+
+    private void readHeader(DataInputStream dis) throws IOException {
+        byte[] magic = dis.readNBytes(4);
+        if (!"BLHO".equals(new String(magic, StandardCharsets.US_ASCII))) {
+            throw new IOException("Not a .blho file");
+        }
+        int version = dis.readUnsignedByte();
+        if (version != 2) {
+            throw new IOException("Unsupported .blho version: " + version);
+        }
+    }
+
+    private JsonNode readMetadata(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0 || length > MAX_METADATA_BYTES) {
+            throw new IOException("Invalid metadata length: " + length);
+        }
+        return objectMapper.readTree(dis.readNBytes(length));
+    }
+
+    /**
+     * @return the dictionary the manifest references, or {@code null} for manifests with full hashes
+     */
+    private HashDictionary referencedDictionary(Path file, JsonNode metadata) throws IOException {
+        String encoding = metadata.path("hash_encoding").asText("sha256");
+        if ("sha256".equals(encoding)) {
+            return null;
+        }
+        if (!BlhoWriter.HASH_ENCODING_DICTIONARY.equals(encoding)) {
+            throw new IOException("Unsupported hash encoding: " + encoding);
+        }
+        Path manifestDirectory = file.toAbsolutePath().getParent();
+        HashDictionary dictionary = dictionaries.open(manifestDirectory.resolve(metadata.path("dictionary").asText()),
+                false);
+        String expectedId = metadata.path("dictionary_id").asText();
+        if (!dictionary.id().toString().equals(expectedId)) {
+            throw new IOException("Manifest references dictionary " + expectedId + ", but '" + dictionary.path()
+                    + "' is " + dictionary.id());
+        }
+        return dictionary;
+    }
+
+    private static List<byte[]> readHashList(DataInputStream dis, HashDictionary dictionary) throws IOException {
+        int count = dis.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid hash count: " + count);
+        }
+        List<byte[]> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (dictionary != null) {
+                hashes.add(dictionary.hash(dis.readInt()));
+            } else {
+                byte[] hash = new byte[32];
+                dis.readFully(hash);
+                hashes.add(hash);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Reads the orientation sections of manifests of canonicalized blocks ({@code orientation} =
+     * {@value BlhoWriter#ORIENTATION_DIHEDRAL}), one per section component in file order.
+     *
+     * @param positionMaps Y, U, V and A position maps, which the sections must match in size
+     * @return orientations of the components of the layout, or {@code null} for blocks in natural orientation
+     */
+    private static Map<BlockType, byte[]> readOrientations(DataInputStream dis, JsonNode metadata,
+                                                           ChannelLayout layout, List<List<Integer>> positionMaps)
+            throws IOException {
+        String orientation = metadata.path("orientation").asText(null);
+        if (orientation == null) {
+            return null;
+        }
+        if (!BlhoWriter.ORIENTATION_DIHEDRAL.equals(orientation)) {
+            throw new IOException("Unsupported block orientation: " + orientation);
+        }
+        List<BlockType> sections = layout.hasAlpha()
+                ? List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR, BlockType.ALPHA)
+                : List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR);
+        Map<BlockType, byte[]> orientations = new EnumMap<>(BlockType.class);
+        for (int i = 0; i < sections.size(); i++) {
+            int count = dis.readInt();
+            if (count != positionMaps.get(i).size()) {
+                throw new IOException("Orientation section of " + sections.get(i) + " has " + count
+                        + " entries, position map has " + positionMaps.get(i).size());
+            }
+            byte[] packed = dis.readNBytes((int) ((3L * count + 7) / 8));
+            if (layout.components().contains(sections.get(i))) {
+                orientations.put(sections.get(i), DihedralUtils.unpackOrientations(packed, count));
+            }
+        }
+        return orientations;
+    }
+
+    /**
+     * @return {@code true} for manifests of JPEG coefficient blocks, {@code false} for pixel blocks
+     */
+    private static boolean jpegBlockSource(JsonNode metadata) throws IOException {
+        String source = metadata.path("block_source").asText(null);
+        if (source == null) {
+            return false;
+        }
+        if (!BlhoWriter.BLOCK_SOURCE_JPEG_DCT.equals(source)) {
+            throw new IOException("Unsupported block source: " + source);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the segment section of manifests of JPEG coefficient blocks.
+     */
+    private static List<byte[]> readJpegSegments(DataInputStream dis) throws IOException {
+        int count = dis.readInt();
+        if (count < 2) {
+            throw new IOException("Invalid JPEG segment count: " + count);
+        }
+        List<byte[]> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = dis.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid JPEG segment length: " + length);
+            }
+            byte[] segment = dis.readNBytes(length);
+            if (segment.length != length) {
+                throw new IOException("Truncated JPEG segment");
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * Reads the checksum section of manifests with {@code checksum} = {@value BlhoWriter#CHECKSUM_CRC32C_BANDS}.
+     *
+     * @return the checksums, or {@code null} for manifests without them
+     */
+    private static BlockChecksums readChecksums(DataInputStream dis, JsonNode metadata) throws IOException {
+        String checksum = metadata.path("checksum").asText(null);
+        if (checksum == null) {
+            return null;
+        }
+        if (!BlhoWriter.CHECKSUM_CRC32C_BANDS.equals(checksum)) {
+            throw new IOException("Unsupported checksum: " + checksum);
+        }
+        int count = dis.readInt();
+        if (count < 0 || count > (1 << 24)) {
+            throw new IOException("Invalid band count: " + count);
+        }
+        int image = dis.readInt();
+        int[] bands = new int[count];
+        for (int i = 0; i < count; i++) {
+            bands[i] = dis.readInt();
+        }
+        return new BlockChecksums(image, bands);
+    }
+
+    /**
+     * Reads the "same as previous" bitmaps of delta manifests ({@code frame_delta} =
+     * {@value BlhoWriter#FRAME_DELTA_SAME_AS_PREVIOUS}), one per section component in file order.
+     *
+     * @return the reference to the previous frame, or {@code null} for a self-contained manifest
+     */
+    private static PreviousFrame readPreviousFrame(DataInputStream dis, JsonNode metadata, ChannelLayout layout)
+            throws IOException {
+        String delta = metadata.path("frame_delta").asText(null);
+        if (delta == null) {
+            return null;
+        }
+        if (!BlhoWriter.FRAME_DELTA_SAME_AS_PREVIOUS.equals(delta)) {
+            throw new IOException("Unsupported frame delta: " + delta);
+        }
+        String manifest = metadata.path("previous_frame").asText("");
+        if (manifest.isEmpty() || manifest.contains("/") || manifest.contains("\\") || manifest.equals("..")) {
+            throw new IOException("Invalid previous frame: '" + manifest + "'");
+        }
+        List<BlockType> sections = layout.hasAlpha()
+                ? List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR, BlockType.ALPHA)
+                : List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR);
+        Map<BlockType, boolean[]> unchanged = new EnumMap<>(BlockType.class);
+        for (BlockType type : sections) {
+            int count = dis.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid bitmap size: " + count);
+            }
+            byte[] packed = dis.readNBytes((count + 7) / 8);
+            if (layout.components().contains(type)) {
+                unchanged.put(type, FrameDeltas.unpackBits(packed, count));
+            }
+        }
+        return new PreviousFrame(manifest, unchanged);
+    }
+
+    private static List<Integer> readPositionMap(DataInputStream dis) throws IOException {
+        int count = dis.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid position map size: " + count);
+        }
+        List<Integer> map = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            map.add(dis.readInt());
+        }
+        return map;
+    }
+}
@@ -1,138 +1,473 @@
 package ru.levitsky.blackholeeh.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
 import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
-import ru.levitsky.blackholeeh.model.RctBlock;
+import ru.levitsky.blackholeeh.model.BlockChecksums;
+import ru.levitsky.blackholeeh.model.DctImage;
+import ru.levitsky.blackholeeh.model.FsyncPolicy;
+import ru.levitsky.blackholeeh.model.PreviousFrame;
+import ru.levitsky.blackholeeh.model.RctImage;
+import ru.levitsky.blackholeeh.model.SequenceFrame;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionary;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.util.BandChecksums;
+import ru.levitsky.blackholeeh.util.DirectBufferPool;
+import ru.levitsky.blackholeeh.util.FrameDeltas;
 import ru.levitsky.blackholeeh.util.HashUtils;
+import ru.levitsky.blackholeeh.util.StripeParallelism;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
 
-import java.awt.image.BufferedImage;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Writer of .blho manifests.
+ * <p>
+ * A manifest is assembled section by section into pooled direct buffers and written with a gathering
+ * channel write to a temporary file, which is then renamed to {@code <image>.blho} (see {@link AtomicFilePublisher}),
+ * so an interrupted run never leaves a truncated manifest behind. When and how manifests are forced to disk
+ * is decided by the {@link FsyncPolicy}; with group commit, {@link #flush()} publishes the last partial group.
+ */
 @Slf4j
-@Service
-public class BlhoWriter {
+public class BlhoWriter implements Closeable {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * Value of the {@code block_hash} metadata field: hashes are SHA-256 over the 4-byte big-endian block length
+     * followed by the block, i.e. the keys of the block store. Manifests without the field hash the bare block.
+     */
+    public static final String BLOCK_HASH = "sha256_length_prefixed";
+
+    /**
+     * Value of the {@code hash_encoding} metadata field for manifests whose hash lists hold 32-bit ids
+     * of a {@link HashDictionary} instead of 32-byte hashes. Without the field, hash lists hold full hashes.
+     */
+    public static final String HASH_ENCODING_DICTIONARY = "dictionary_id32";
+
+    /**
+     * Value of the {@code orientation} metadata field for manifests of canonicalized blocks: after all other
+     * sections, every component has an orientation section with the dihedral orientation of the block at each
+     * position, packed as 3-bit values. Without the field, blocks are in natural orientation.
+     */
+    public static final String ORIENTATION_DIHEDRAL = "dihedral8";
+
+    /**
+     * Value of the {@code block_source} metadata field for manifests of quantized DCT coefficient blocks of a JPEG:
+     * after all other sections, a segment section holds the non-entropy-coded parts of the file, from which and
+     * the blocks the JPEG is re-created bit-exactly. Without the field, blocks are RCT pixel blocks.
+     */
+    public static final String BLOCK_SOURCE_JPEG_DCT = "jpeg_dct";
+
+    /**
+     * Value of the {@code checksum} metadata field: after the sections above, a checksum section holds the number
+     * of bands, the image checksum and the checksum of every band, computed as described in {@link BandChecksums}.
+     * Manifests without the field cannot be verified without reconstruction.
+     */
+    public static final String CHECKSUM_CRC32C_BANDS = "crc32c_bands";
+
+    /**
+     * Value of the {@code frame_delta} metadata field for manifests of a frame stored as a delta against the previous
+     * frame of a sequence, named in the {@code previous_frame} field: hash lists, position maps and orientation
+     * sections cover only the positions whose block changed, and the last sections hold, per component, the number
+     * of positions and a bitmap of the positions whose block is the same as in the previous frame, see
+     * {@link FrameDeltas}. Without the field, the manifest is self-contained.
+     */
+    public static final String FRAME_DELTA_SAME_AS_PREVIOUS = "same_as_previous_bitmap";
+
+    private static final byte[] MAGIC = "BLHO".getBytes(StandardCharsets.US_ASCII);
+    private static final byte FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final HashDictionaryRegistry dictionaries;
+    private final AtomicFilePublisher publisher;
+    private final StripeParallelism stripes;
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    /**
+     * Writer of self-contained manifests with full hashes, without fsync.
+     */
+    public BlhoWriter() {
+        this(null);
+    }
+
+    /**
+     * @param dictionaries decides whether manifests reference a shared hash dictionary; {@code null} for never
+     */
+    public BlhoWriter(HashDictionaryRegistry dictionaries) {
+        this(dictionaries, FsyncPolicy.NONE);
+    }
+
+    /**
+     * @param dictionaries decides whether manifests reference a shared hash dictionary; {@code null} for never
+     * @param fsyncPolicy  when manifests are forced to stable storage
+     */
+    public BlhoWriter(HashDictionaryRegistry dictionaries, FsyncPolicy fsyncPolicy) {
+        this(dictionaries, fsyncPolicy, StripeParallelism.SEQUENTIAL);
+    }
+
+    /**
+     * @param dictionaries decides whether manifests reference a shared hash dictionary; {@code null} for never
+     * @param fsyncPolicy  when manifests are forced to stable storage
+     * @param stripes      hashes the blocks of large images in parallel stripes of block rows
+     */
+    public BlhoWriter(HashDictionaryRegistry dictionaries, FsyncPolicy fsyncPolicy, StripeParallelism stripes) {
+        this.dictionaries = dictionaries;
+        this.publisher = new AtomicFilePublisher(fsyncPolicy);
+        this.stripes = stripes;
+    }
+
+    /**
+     * Publishes manifests still held back by a group commit. No-op for other fsync policies.
+     *
+     * @throws IOException if a pending manifest cannot be forced or renamed
+     */
+    public void flush() throws IOException {
+        publisher.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
 
     /**
      * Creates and writes a .blho file for the specified image.<br>
-     * The BLHO format stores only SHA-256 hashes of Y/U/V blocks and position maps,
+     * The BLHO format stores only SHA-256 hashes of Y/U/V(/A) blocks and position maps,
      * which significantly reduces the file size compared to the original image,
      * while preserving the ability to fully restore the original image (lossless).<br>
      * Execution process:<br>
-     * - Reads the image into a BufferedImage<br>
-     * - Creates a block structure with hashes (Y, U, V) and position maps<br>
+     * - Creates a block structure with hashes for every component of the channel layout and position maps<br>
      * - Writes the .blho file in binary format with header, metadata, hashes, and position maps<br>
      * - Logs statistics: total number of blocks, unique blocks per component, and file size<br>
      *
-     * @param imageFile the source JPG/JPEG image file
-     * @param blocks    the list of RCT blocks extracted from the image
-     * @throws Exception if an error occurs while reading the image, creating the structure, or writing the file
+     * @param imageFile the source image file
+     * @param image     the image split into RCT blocks
+     * @throws Exception if an error occurs while creating the structure or writing the file
+     */
+    public void writeBlho(File imageFile, RctImage image) throws Exception {
+        writeBlho(imageFile, createHashStructure(image, imageFile.getName()));
+    }
+
+    /**
+     * Creates and writes a .blho file for a JPEG split into quantized DCT coefficient blocks.<br>
+     * Besides hashes and position maps, the manifest stores the headers and tables of the JPEG,
+     * so the original file can be re-created bit-exactly from it and the blocks.<br>
+     *
+     * @param imageFile the source JPEG file
+     * @param image     the JPEG split into coefficient blocks
+     * @throws Exception if an error occurs while creating the structure or writing the file
+     */
+    public void writeBlho(File imageFile, DctImage image) throws Exception {
+        writeBlho(imageFile, createHashStructure(image, imageFile.getName()));
+    }
+
+    /**
+     * Creates and writes a .blho file for a frame of a sequence.<br>
+     * Blocks that are byte for byte the same as at their position in the previous frame reuse its hash
+     * instead of being hashed again. Unless the keyframe interval is reached, the manifest is stored as
+     * a delta against the manifest of the previous frame, see {@link FrameDeltas}.<br>
+     *
+     * @param imageFile        the source image file
+     * @param image            the frame split into RCT blocks
+     * @param previous         the previous frame, {@code null} for the first frame of the sequence
+     * @param keyframeInterval every {@code keyframeInterval}-th frame is written self-contained
+     * @return the frame, for the next frame to be compared against
+     * @throws Exception if an error occurs while creating the structure or writing the file
+     */
+    public SequenceFrame writeBlho(File imageFile, RctImage image, SequenceFrame previous, int keyframeInterval)
+            throws Exception {
+        return writeFrame(imageFile, image.width(), image.height(), image.layout(), image.chromaPacking(),
+                componentBlocks(image), image.orientations(), null, previous, keyframeInterval);
+    }
+
+    /**
+     * Creates and writes a .blho file for a JPEG frame of a sequence split into quantized DCT coefficient blocks,
+     * see {@link #writeBlho(File, RctImage, SequenceFrame, int)}.
      */
-    public void writeBlho(File imageFile, List<RctBlock> blocks) throws Exception {
-        BufferedImage image = javax.imageio.ImageIO.read(imageFile);
-        int width = image.getWidth();
-        int height = image.getHeight();
+    public SequenceFrame writeBlho(File imageFile, DctImage image, SequenceFrame previous, int keyframeInterval)
+            throws Exception {
+        return writeFrame(imageFile, image.width(), image.height(), image.layout(), null, image.blocks(), null,
+                image.jpegSegments(), previous, keyframeInterval);
+    }
+
+    private SequenceFrame writeFrame(File imageFile, int width, int height, ChannelLayout layout,
+                                     ChromaPacking chromaPacking, Map<BlockType, List<byte[]>> components,
+                                     Map<BlockType, byte[]> orientations, List<byte[]> jpegSegments,
+                                     SequenceFrame previous, int keyframeInterval) throws Exception {
+        boolean comparable = previous != null && comparable(previous.data(), width, height, layout, components,
+                orientations != null, jpegSegments != null);
+        Map<BlockType, boolean[]> unchanged = new EnumMap<>(BlockType.class);
+        Map<BlockType, byte[][]> knownHashes = new EnumMap<>(BlockType.class);
+        for (BlockType type : layout.components()) {
+            List<byte[]> blocks = components.get(type);
+            boolean[] same = new boolean[blocks.size()];
+            byte[][] known = new byte[blocks.size()][];
+            if (comparable) {
+                BlhoFileDataV2 previousData = previous.data();
+                List<byte[]> previousBlocks = previous.blocks().get(type);
+                byte[] previousOrientations = orientations != null ? previousData.getOrientations().get(type) : null;
+                for (int position = 0; position < same.length; position++) {
+                    if (Arrays.equals(blocks.get(position), previousBlocks.get(position))
+                            && (orientations == null
+                            || orientations.get(type)[position] == previousOrientations[position])) {
+                        same[position] = true;
+                        known[position] = previousData.uniqueHashes(type)
+                                .get(previousData.positionMap(type).get(position));
+                    }
+                }
+            }
+            unchanged.put(type, same);
+            knownHashes.put(type, known);
+        }
+
+        BlhoFileDataV2 fileData = createHashStructure(stripes, imageFile.getName(), width, height, layout,
+                chromaPacking, components, orientations, jpegSegments, knownHashes);
+        boolean delta = comparable && previous.depth() + 1 < keyframeInterval;
+        if (delta) {
+            fileData.setPreviousFrame(new PreviousFrame(previous.manifest(), unchanged));
+        }
+        writeBlho(imageFile, fileData);
+        return new SequenceFrame(imageFile.getName() + ".blho", delta ? previous.depth() + 1 : 0, components,
+                fileData, unchanged, false);
+    }
 
-        BlhoFileDataV2 fileData =
-                createHashStructure(blocks, imageFile, width, height);
+    /**
+     * @return whether the blocks of a frame can be compared position by position with the previous frame
+     */
+    private static boolean comparable(BlhoFileDataV2 previous, int width, int height, ChannelLayout layout,
+                                      Map<BlockType, List<byte[]>> components, boolean withOrientations,
+                                      boolean coefficients) {
+        if (previous.getWidth() != width || previous.getHeight() != height || previous.getChannelLayout() != layout
+                || previous.hasOrientations() != withOrientations || previous.hasJpegSegments() != coefficients) {
+            return false;
+        }
+        for (BlockType type : layout.components()) {
+            if (previous.positionMap(type).size() != components.get(type).size()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private void writeBlho(File imageFile, BlhoFileDataV2 fileData) throws Exception {
         String outputPath = imageFile.getAbsolutePath() + ".blho";
         File outputFile = new File(outputPath);
 
-        writeBlhoFile(outputFile, fileData);
+        HashDictionary dictionary = dictionaries == null ? null
+                : dictionaries.forManifestDirectory(outputFile.getParentFile().toPath());
+        long manifestSize = writeBlhoFile(outputFile,
+                fileData.hasPreviousFrame() ? FrameDeltas.encode(fileData) : fileData, dictionary);
 
         log.info("""
                         BLHO v2 written:
+                          channels: {}
+                          blocks: {}
                           total blocks: {}
                           unique Y: {}
                           unique U: {}
                           unique V: {}
+                          unique A: {}
+                          previous frame: {}
                           size: {} KB
+                          fsync: {}
                         """,
+                fileData.getChannelLayout(),
+                fileData.hasJpegSegments() ? BLOCK_SOURCE_JPEG_DCT : "rct",
                 fileData.totalBlocks(),
                 fileData.getUniqueYHashes().size(),
                 fileData.getUniqueUHashes().size(),
                 fileData.getUniqueVHashes().size(),
-                outputFile.length() / 1024
+                fileData.getUniqueAHashes().size(),
+                fileData.hasPreviousFrame() ? fileData.getPreviousFrame().manifest() : "none (self-contained)",
+                manifestSize / 1024,
+                publisher.policy()
         );
     }
 
     /**
      * Дублирует блоки и создает структуру данных для файла
      */
-    private BlhoFileDataV2 createHashStructure(List<RctBlock> blocks, File imageFile, int width, int height) {
-        Map<ByteBuffer, Integer> yIndex = new LinkedHashMap<>();
-        Map<ByteBuffer, Integer> uIndex = new LinkedHashMap<>();
-        Map<ByteBuffer, Integer> vIndex = new LinkedHashMap<>();
-
-        List<byte[]> uniqueY = new ArrayList<>();
-        List<byte[]> uniqueU = new ArrayList<>();
-        List<byte[]> uniqueV = new ArrayList<>();
-
-        List<Integer> yPos = new ArrayList<>();
-        List<Integer> uPos = new ArrayList<>();
-        List<Integer> vPos = new ArrayList<>();
-
-        for (RctBlock block : blocks) {
-            byte[] yHash = HashUtils.sha256Bytes(block.y());
-            byte[] uHash = HashUtils.sha256Bytes(block.uPacked());
-            byte[] vHash = HashUtils.sha256Bytes(block.vPacked());
-
-            int yIdx = yIndex.computeIfAbsent(
-                    ByteBuffer.wrap(Arrays.copyOf(yHash, yHash.length)).asReadOnlyBuffer(),
-                    _ -> {
-                        uniqueY.add(yHash);
-                        return uniqueY.size() - 1;
-                    });
+    BlhoFileDataV2 createHashStructure(RctImage image, String originalFileName) {
+        return createHashStructure(stripes, originalFileName, image.width(), image.height(), image.layout(),
+                image.chromaPacking(), componentBlocks(image), image.orientations(), null, null);
+    }
 
-            int uIdx = uIndex.computeIfAbsent(
-                    ByteBuffer.wrap(Arrays.copyOf(uHash, uHash.length)).asReadOnlyBuffer(),
-                    _ -> {
-                        uniqueU.add(uHash);
-                        return uniqueU.size() - 1;
-                    });
+    BlhoFileDataV2 createHashStructure(DctImage image, String originalFileName) {
+        return createHashStructure(stripes, originalFileName, image.width(), image.height(), image.layout(), null,
+                image.blocks(), null, image.jpegSegments(), null);
+    }
+
+    private static Map<BlockType, List<byte[]>> componentBlocks(RctImage image) {
+        Map<BlockType, List<byte[]>> components = new EnumMap<>(BlockType.class);
+        for (BlockType type : image.layout().components()) {
+            components.put(type, image.blocks().stream().map(block -> block.component(type)).toList());
+        }
+        return components;
+    }
 
-            int vIdx = vIndex.computeIfAbsent(
-                    ByteBuffer.wrap(Arrays.copyOf(vHash, vHash.length)).asReadOnlyBuffer(),
-                    _ -> {
-                        uniqueV.add(vHash);
-                        return uniqueV.size() - 1;
+    private static BlhoFileDataV2 createHashStructure(StripeParallelism stripes, String originalFileName,
+                                                      int width, int height,
+                                                      ChannelLayout layout, ChromaPacking chromaPacking,
+                                                      Map<BlockType, List<byte[]>> components,
+                                                      Map<BlockType, byte[]> orientations,
+                                                      List<byte[]> jpegSegments,
+                                                      Map<BlockType, byte[][]> knownHashes) {
+        Map<BlockType, List<byte[]>> unique = new EnumMap<>(BlockType.class);
+        Map<BlockType, List<byte[]>> uniqueBlocks = new EnumMap<>(BlockType.class);
+        Map<BlockType, List<Integer>> positions = new EnumMap<>(BlockType.class);
+        for (BlockType type : BlockType.values()) {
+            unique.put(type, new ArrayList<>());
+            uniqueBlocks.put(type, new ArrayList<>());
+            positions.put(type, new ArrayList<>());
+        }
+
+        // blocks are hashed in stripes of block rows; merging the local first occurrences stripe by stripe,
+        // top to bottom, gives the same hash lists and position maps as a single pass over all blocks
+        int rowLength = Math.max(1, (width + 7) / 8);
+        for (BlockType type : layout.components()) {
+            List<byte[]> componentBlocks = components.get(type);
+            byte[][] known = knownHashes != null ? knownHashes.get(type) : null;
+            int rows = (componentBlocks.size() + rowLength - 1) / rowLength;
+            List<HashedStripe> hashed = stripes.process(rows, (long) width * height, (from, to) -> HashedStripe.of(
+                    componentBlocks, known, from * rowLength, Math.min(componentBlocks.size(), to * rowLength)));
+
+            Map<ByteBuffer, Integer> index = new HashMap<>();
+            List<byte[]> uniqueHashes = unique.get(type);
+            List<byte[]> blocks = uniqueBlocks.get(type);
+            List<Integer> positionMap = positions.get(type);
+            for (HashedStripe stripe : hashed) {
+                int[] globalIndex = new int[stripe.hashes().size()];
+                for (int local = 0; local < globalIndex.length; local++) {
+                    byte[] hash = stripe.hashes().get(local);
+                    byte[] block = stripe.blocks().get(local);
+                    globalIndex[local] = index.computeIfAbsent(ByteBuffer.wrap(hash).asReadOnlyBuffer(), _ -> {
+                        uniqueHashes.add(hash);
+                        blocks.add(block);
+                        return uniqueHashes.size() - 1;
                     });
+                }
+                for (int local : stripe.positions()) {
+                    positionMap.add(globalIndex[local]);
+                }
+            }
+        }
+
+        BlhoFileDataV2 fileData = new BlhoFileDataV2(originalFileName, width, height, layout, chromaPacking,
+                unique.get(BlockType.LUMA), unique.get(BlockType.CHROMA_CB),
+                unique.get(BlockType.CHROMA_CR), unique.get(BlockType.ALPHA),
+                positions.get(BlockType.LUMA), positions.get(BlockType.CHROMA_CB),
+                positions.get(BlockType.CHROMA_CR), positions.get(BlockType.ALPHA), BLOCK_HASH,
+                orientations, jpegSegments, null, null);
+        fileData.setChecksums(BandChecksums.compute(fileData, uniqueBlocks));
+        return fileData;
+    }
 
-            yPos.add(yIdx);
-            uPos.add(uIdx);
-            vPos.add(vIdx);
+    /**
+     * Local dedup table of one stripe of blocks.
+     *
+     * @param hashes    unique hashes of the stripe in order of first occurrence
+     * @param blocks    block data of the unique hashes
+     * @param positions per block of the stripe, index into {@code hashes}
+     */
+    private record HashedStripe(List<byte[]> hashes, List<byte[]> blocks, int[] positions) {
+
+        /**
+         * @param known per position, the hash of the block if it is already known, or {@code null}
+         */
+        static HashedStripe of(List<byte[]> componentBlocks, byte[][] known, int from, int to) {
+            Map<ByteBuffer, Integer> index = new HashMap<>();
+            List<byte[]> hashes = new ArrayList<>();
+            List<byte[]> blocks = new ArrayList<>();
+            int[] positions = new int[to - from];
+            for (int i = from; i < to; i++) {
+                byte[] block = componentBlocks.get(i);
+                // the manifest stores block store keys, so a reader can fetch blocks by these hashes
+                byte[] hash = known != null && known[i] != null ? known[i] : HashUtils.sha256WithLengthBytes(block);
+                positions[i - from] = index.computeIfAbsent(ByteBuffer.wrap(hash).asReadOnlyBuffer(), _ -> {
+                    hashes.add(hash);
+                    blocks.add(block);
+                    return hashes.size() - 1;
+                });
+            }
+            return new HashedStripe(hashes, blocks, positions);
         }
+    }
 
-        return new BlhoFileDataV2(imageFile.getName(), width, height, uniqueY, uniqueU, uniqueV, yPos, uPos, vPos);
+    /**
+     * Calculates the exact size of the .blho file that {@link #writeBlhoFile(File, BlhoFileDataV2, HashDictionary)}
+     * would produce for the given structure, without touching the file system.
+     * In dictionary mode hash lists hold 4-byte ids; the dictionary reference in the metadata
+     * and the shared dictionary itself are not counted.
+     *
+     * @param fileData the structured BLHO data
+     * @return the file size in bytes
+     */
+    long projectedSize(BlhoFileDataV2 fileData) {
+        long hashBytes = dictionaries != null && dictionaries.enabled() ? 4 : HashDictionary.HASH_SIZE;
+        long size = HEADER_SIZE;                            // header
+        size += 4 + metadataJson(fileData, null).length;    // metadata
+        for (BlockType type : sectionComponents(fileData)) {
+            size += 4 + hashBytes * fileData.uniqueHashes(type).size();     // hash list
+            size += 4 + 4L * fileData.positionMap(type).size();             // position map
+            if (fileData.hasOrientations()) {
+                size += 4 + (3L * fileData.positionMap(type).size() + 7) / 8;  // orientations
+            }
+        }
+        if (fileData.hasJpegSegments()) {
+            size += 4;                                      // JPEG segments
+            for (byte[] segment : fileData.getJpegSegments()) {
+                size += 4 + segment.length;
+            }
+        }
+        if (fileData.hasChecksums()) {
+            size += 4 + 4 + 4L * fileData.getChecksums().bands().length;   // checksums
+        }
+        if (fileData.hasPreviousFrame()) {
+            for (BlockType type : sectionComponents(fileData)) {
+                boolean[] unchanged = fileData.getPreviousFrame().unchanged().get(type);
+                size += 4 + (unchanged != null ? (unchanged.length + 7) / 8 : 0);   // "same as previous" bitmaps
+            }
+        }
+        return size;
     }
 
     /**
      * Writes a complete .blho file in binary format.
      * <p>
-     * The method writes the file sequentially in the following order:
+     * The file is assembled in the following order:
      * <ol>
      *   <li>File header (format identifier and version)</li>
      *   <li>Metadata block encoded as JSON</li>
-     *   <li>Lists of unique SHA-256 hashes for Y, U, and V blocks</li>
+     *   <li>Lists of unique SHA-256 hashes (or their dictionary ids) for Y, U, and V blocks</li>
      *   <li>Position maps for Y, U, and V blocks</li>
+     *   <li>Hash list and position map for A blocks (only for layouts with alpha)</li>
+     *   <li>Orientation sections for Y, U, V (and A), only for canonicalized blocks</li>
+     *   <li>JPEG segment section, only for JPEG coefficient blocks</li>
+     *   <li>Checksum section: image and per-band checksums of the block planes</li>
+     *   <li>"Same as previous" bitmaps for Y, U, V (and A), only for delta manifests of frames of a sequence</li>
      * </ol>
      * <p>
+     * The Y/U/V sections are always present to keep the v2 layout stable;
+     * for gray images the U and V sections are empty.
+     * <p>
+     * All sections go into pooled direct buffers, which are written with one gathering write
+     * to a temporary file and published under the final name by the {@link AtomicFilePublisher}.
+     * <p>
      * This structure allows the original image to be reconstructed in a fully
      * lossless manner by combining the position maps with externally stored
      * block data.
@@ -140,24 +475,123 @@ public class BlhoWriter {
      * @param outputFile the target .blho file to be written
      * @param fileData   the structured BLHO data containing metadata, hashes,
      *                   and position maps
-     * @throws Exception if an error occurs while creating the output stream
-     *                   or writing any part of the file
+     * @param dictionary shared dictionary to reference instead of writing full hashes, or {@code null}
+     * @return the size of the written file in bytes
+     * @throws IOException if an error occurs while writing or publishing the file
      */
-    private void writeBlhoFile(File outputFile, BlhoFileDataV2 fileData) throws Exception {
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
-                Files.newOutputStream(outputFile.toPath())))) {
+    private long writeBlhoFile(File outputFile, BlhoFileDataV2 fileData, HashDictionary dictionary)
+            throws IOException {
+        Map<BlockType, int[]> ids = null;
+        DictionaryReference reference = null;
+        if (dictionary != null) {
+            ids = dictionaryIds(dictionary, fileData);
+            reference = new DictionaryReference(dictionaryPath(outputFile, dictionary), dictionary.id().toString());
+        }
+
+        SectionBuffers out = new SectionBuffers(bufferPool);
+        try {
+            writeHeader(out);
+            writeMetadata(out, fileData, reference);
 
-            writeHeader(dos);
-            writeMetadata(dos, fileData);
+            writeHashSection(out, fileData, BlockType.LUMA, ids);
+            writeHashSection(out, fileData, BlockType.CHROMA_CB, ids);
+            writeHashSection(out, fileData, BlockType.CHROMA_CR, ids);
 
-            writeHashList(dos, fileData.getUniqueYHashes());
-            writeHashList(dos, fileData.getUniqueUHashes());
-            writeHashList(dos, fileData.getUniqueVHashes());
+            writePositionMap(out, fileData.getYPositionMap());
+            writePositionMap(out, fileData.getUPositionMap());
+            writePositionMap(out, fileData.getVPositionMap());
 
-            writePositionMap(dos, fileData.getYPositionMap());
-            writePositionMap(dos, fileData.getUPositionMap());
-            writePositionMap(dos, fileData.getVPositionMap());
+            if (fileData.getChannelLayout().hasAlpha()) {
+                writeHashSection(out, fileData, BlockType.ALPHA, ids);
+                writePositionMap(out, fileData.getAPositionMap());
+            }
+
+            if (fileData.hasOrientations()) {
+                for (BlockType type : sectionComponents(fileData)) {
+                    writeOrientations(out, orientationsOf(fileData, type));
+                }
+            }
+
+            if (fileData.hasJpegSegments()) {
+                writeJpegSegments(out, fileData.getJpegSegments());
+            }
+
+            if (fileData.hasChecksums()) {
+                writeChecksums(out, fileData.getChecksums());
+            }
+
+            if (fileData.hasPreviousFrame()) {
+                for (BlockType type : sectionComponents(fileData)) {
+                    writeFrameBitmap(out, fileData.getPreviousFrame().unchanged().get(type));
+                }
+            }
+
+            publisher.publish(outputFile.toPath(), out.flip());
+            return out.size();
+        } finally {
+            out.release();
+        }
+    }
+
+    private void writeHashSection(SectionBuffers out, BlhoFileDataV2 fileData, BlockType type,
+                                  Map<BlockType, int[]> ids) {
+        if (ids == null) {
+            writeHashList(out, fileData.uniqueHashes(type));
+        } else {
+            writeIdList(out, ids.get(type));
+        }
+    }
+
+    /**
+     * Resolves the ids of all hash lists with a single dictionary call, i.e. a single file lock per manifest.
+     */
+    private Map<BlockType, int[]> dictionaryIds(HashDictionary dictionary, BlhoFileDataV2 fileData)
+            throws IOException {
+        List<BlockType> sections = sectionComponents(fileData);
+        List<byte[]> all = new ArrayList<>();
+        for (BlockType type : sections) {
+            all.addAll(fileData.uniqueHashes(type));
+        }
+        int[] allIds = dictionary.idsFor(all);
+
+        Map<BlockType, int[]> ids = new EnumMap<>(BlockType.class);
+        int offset = 0;
+        for (BlockType type : sections) {
+            int count = fileData.uniqueHashes(type).size();
+            ids.put(type, Arrays.copyOfRange(allIds, offset, offset + count));
+            offset += count;
         }
+        return ids;
+    }
+
+    /**
+     * @return location of the dictionary relative to the manifest directory, with {@code /} separators
+     */
+    private static String dictionaryPath(File outputFile, HashDictionary dictionary) {
+        Path manifestDirectory = outputFile.getAbsoluteFile().getParentFile().toPath();
+        Path dictionaryPath = dictionary.path().toAbsolutePath();
+        try {
+            Path relative = manifestDirectory.relativize(dictionaryPath);
+            return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+        } catch (IllegalArgumentException e) {
+            // different roots (e.g. drives), only an absolute reference is possible
+            return dictionaryPath.toString();
+        }
+    }
+
+    /**
+     * Dictionary a manifest references: location relative to the manifest and id of the dictionary.
+     */
+    private record DictionaryReference(String path, String id) {
+    }
+
+    /**
+     * @return components that have a hash list and position map section in the file, in file order
+     */
+    private static List<BlockType> sectionComponents(BlhoFileDataV2 fileData) {
+        return fileData.getChannelLayout().hasAlpha()
+                ? List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR, BlockType.ALPHA)
+                : List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR);
     }
 
     /**
@@ -166,43 +600,118 @@ public class BlhoWriter {
      * - 4 ASCII bytes representing the string "BLHO"<br>
      * - 1 byte for the file format version (currently 2)<br>
      *
-     * @param dos {@link DataOutputStream}the output stream to write the binary .blho data
-     * @throws IOException if an error occurs while writing to the stream
+     * @param out the buffers receiving the binary .blho data
      */
-    private void writeHeader(DataOutputStream dos) throws IOException {
-        dos.write("BLHO".getBytes(StandardCharsets.US_ASCII));
-        dos.writeByte(2);
+    private void writeHeader(SectionBuffers out) {
+        out.put(MAGIC);
+        out.put(FORMAT_VERSION);
     }
 
     /**
      * Writes the metadata of the .blho file in binary format.<br>
      * Metadata includes information about the format, version, original file name,
-     * image dimensions, total number of blocks, and counts of unique blocks
-     * for each component (Y, U, V).<br>
+     * image dimensions, channel layout, chroma packing, total number of blocks, and counts of unique blocks
+     * for each component (Y, U, V and A when present).<br>
      * The metadata is serialized as JSON and written with a 4-byte integer
      * prefix indicating the length of the JSON.
      *
-     * @param dos      the output stream to write the binary .blho data
-     * @param fileData the BLHO v2 data structure containing block and image information
-     * @throws IOException if an error occurs while writing data to the stream
+     * @param out       the buffers receiving the binary .blho data
+     * @param fileData  the BLHO v2 data structure containing block and image information
+     * @param reference the referenced hash dictionary, {@code null} for full hashes
+     */
+    private void writeMetadata(SectionBuffers out, BlhoFileDataV2 fileData, DictionaryReference reference) {
+        byte[] jsonBytes = metadataJson(fileData, reference);
+
+        out.putInt(jsonBytes.length);
+        out.put(jsonBytes);
+    }
+
+    /**
+     * Builds the metadata JSON directly: the object is flat and its keys are fixed, so neither
+     * an intermediate map nor a general-purpose serializer is needed per manifest.
      */
-    private void writeMetadata(DataOutputStream dos, BlhoFileDataV2 fileData) throws IOException {
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put("format", "BLHO");
-        metadata.put("version", "2.0");
-        metadata.put("file", fileData.getOriginalFileName());
-        metadata.put("width", fileData.getWidth());
-        metadata.put("height", fileData.getHeight());
-        metadata.put("total_blocks", fileData.totalBlocks());
-        metadata.put("unique_y_blocks", fileData.getUniqueYHashes().size());
-        metadata.put("unique_u_blocks", fileData.getUniqueUHashes().size());
-        metadata.put("unique_v_blocks", fileData.getUniqueVHashes().size());
+    private static byte[] metadataJson(BlhoFileDataV2 fileData, DictionaryReference reference) {
+        StringBuilder json = new StringBuilder(320).append('{');
+        field(json, "format", "BLHO");
+        field(json, "version", "2.0");
+        field(json, "file", fileData.getOriginalFileName());
+        field(json, "width", fileData.getWidth());
+        field(json, "height", fileData.getHeight());
+        field(json, "channels", fileData.getChannelLayout().name());
+        if (fileData.getBlockHash() != null) {
+            field(json, "block_hash", fileData.getBlockHash());
+        }
+        if (reference != null) {
+            field(json, "hash_encoding", HASH_ENCODING_DICTIONARY);
+            field(json, "dictionary", reference.path());
+            field(json, "dictionary_id", reference.id());
+        }
+        if (fileData.hasOrientations()) {
+            field(json, "orientation", ORIENTATION_DIHEDRAL);
+        }
+        if (fileData.hasJpegSegments()) {
+            field(json, "block_source", BLOCK_SOURCE_JPEG_DCT);
+        }
+        if (fileData.hasChecksums()) {
+            field(json, "checksum", CHECKSUM_CRC32C_BANDS);
+        }
+        if (fileData.getChannelLayout().hasChroma() && fileData.getChromaPacking() != null) {
+            field(json, "chroma_packing", fileData.getChromaPacking().name());
+        }
+        if (fileData.hasPreviousFrame()) {
+            field(json, "frame_delta", FRAME_DELTA_SAME_AS_PREVIOUS);
+            field(json, "previous_frame", fileData.getPreviousFrame().manifest());
+        }
+        field(json, "total_blocks", fileData.hasPreviousFrame()
+                ? fileData.getPreviousFrame().unchanged().get(BlockType.LUMA).length
+                : fileData.totalBlocks());
+        field(json, "unique_y_blocks", fileData.getUniqueYHashes().size());
+        field(json, "unique_u_blocks", fileData.getUniqueUHashes().size());
+        field(json, "unique_v_blocks", fileData.getUniqueVHashes().size());
+        if (fileData.getChannelLayout().hasAlpha()) {
+            field(json, "unique_a_blocks", fileData.getUniqueAHashes().size());
+        }
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void field(StringBuilder json, String name, long value) {
+        key(json, name).append(value);
+    }
 
-        String json = objectMapper.writeValueAsString(metadata);
-        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    private static void field(StringBuilder json, String name, String value) {
+        quote(key(json, name), value);
+    }
 
-        dos.writeInt(jsonBytes.length);
-        dos.write(jsonBytes);
+    private static StringBuilder key(StringBuilder json, String name) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        return quote(json, name).append(':');
+    }
+
+    /**
+     * Appends a JSON string literal, escaping quotes, backslashes and control characters.
+     */
+    private static StringBuilder quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"');
     }
 
     /**
@@ -211,20 +720,31 @@ public class BlhoWriter {
      * The method first writes the number of hashes as a 4-byte integer,
      * followed by each 32-byte hash in the order they appear in the list.<br>
      *
-     * @param dos    the output stream to write the binary .blho data
+     * @param out    the buffers receiving the binary .blho data
      * @param hashes the list of SHA-256 hashes to write
-     * @throws IOException           if an error occurs while writing to the stream
      * @throws IllegalStateException if any hash does not have exactly 32 bytes
      */
-    private void writeHashList(DataOutputStream dos, List<byte[]> hashes)
-            throws IOException {
-
-        dos.writeInt(hashes.size());
+    private void writeHashList(SectionBuffers out, List<byte[]> hashes) {
+        out.putInt(hashes.size());
         for (byte[] hash : hashes) {
             if (hash.length != 32) {
                 throw new IllegalStateException("Invalid SHA-256 hash");
             }
-            dos.write(hash);
+            out.put(hash);
+        }
+    }
+
+    /**
+     * Writes a list of dictionary ids in place of a hash list.<br>
+     * The number of ids is written as a 4-byte integer, followed by each id as a 4-byte integer.<br>
+     *
+     * @param out the buffers receiving the binary .blho data
+     * @param ids dictionary ids of the unique hashes, in hash list order
+     */
+    private void writeIdList(SectionBuffers out, int[] ids) {
+        out.putInt(ids.length);
+        for (int id : ids) {
+            out.putInt(id);
         }
     }
 
@@ -234,16 +754,146 @@ public class BlhoWriter {
      * The method first writes the number of entries as a 4-byte integer,
      * followed by each index as a 4-byte integer in the order they appear in the list.<br>
      *
-     * @param dos the output stream to write the binary .blho data
+     * @param out the buffers receiving the binary .blho data
      * @param map the list of block indices representing the position map
-     * @throws IOException if an error occurs while writing to the stream
      */
-    private void writePositionMap(DataOutputStream dos, List<Integer> map)
-            throws IOException {
-
-        dos.writeInt(map.size());
+    private void writePositionMap(SectionBuffers out, List<Integer> map) {
+        out.putInt(map.size());
         for (int idx : map) {
-            dos.writeInt(idx);
+            out.putInt(idx);
+        }
+    }
+
+    /**
+     * Writes the orientations of the blocks at all positions of a component.<br>
+     * The number of positions is written as a 4-byte integer, followed by the orientations
+     * as 3-bit values, most significant bit first, padded to a whole byte.<br>
+     *
+     * @param out          the buffers receiving the binary .blho data
+     * @param orientations orientation (0..7) per position
+     */
+    private void writeOrientations(SectionBuffers out, byte[] orientations) {
+        out.putInt(orientations.length);
+        out.put(DihedralUtils.packOrientations(orientations));
+    }
+
+    /**
+     * Writes the non-entropy-coded segments of a JPEG.<br>
+     * The number of segments is written as a 4-byte integer, followed by each segment as a 4-byte length
+     * and its bytes.<br>
+     *
+     * @param out      the buffers receiving the binary .blho data
+     * @param segments the segments in file order
+     */
+    private void writeJpegSegments(SectionBuffers out, List<byte[]> segments) {
+        out.putInt(segments.size());
+        for (byte[] segment : segments) {
+            out.putInt(segment.length);
+            out.put(segment);
+        }
+    }
+
+    /**
+     * Writes the checksums of the block planes.<br>
+     * The number of bands is written as a 4-byte integer, followed by the image checksum and the checksum
+     * of every band, top to bottom, as 4-byte integers.<br>
+     *
+     * @param out       the buffers receiving the binary .blho data
+     * @param checksums image and band checksums
+     */
+    private void writeChecksums(SectionBuffers out, BlockChecksums checksums) {
+        out.putInt(checksums.bands().length);
+        out.putInt(checksums.image());
+        for (int band : checksums.bands()) {
+            out.putInt(band);
+        }
+    }
+
+    /**
+     * Writes the number of positions of a component and one bit per position, set if the block is the same
+     * as in the previous frame.
+     */
+    private void writeFrameBitmap(SectionBuffers out, boolean[] unchanged) {
+        boolean[] bits = unchanged != null ? unchanged : new boolean[0];
+        out.putInt(bits.length);
+        out.put(FrameDeltas.packBits(bits));
+    }
+
+    /**
+     * @return orientations of the component; components absent from the layout (U/V of gray images)
+     * have no positions
+     */
+    private static byte[] orientationsOf(BlhoFileDataV2 fileData, BlockType type) {
+        byte[] orientations = fileData.getOrientations().get(type);
+        return orientations != null ? orientations : new byte[0];
+    }
+
+    /**
+     * Growable sequence of pooled direct buffers that big-endian values are appended to, across buffer boundaries.
+     */
+    private static final class SectionBuffers {
+
+        private final DirectBufferPool pool;
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private ByteBuffer current;
+        private long size;
+
+        SectionBuffers(DirectBufferPool pool) {
+            this.pool = pool;
+        }
+
+        void put(byte value) {
+            ensureRemaining().put(value);
+            size++;
+        }
+
+        void putInt(int value) {
+            ByteBuffer buffer = ensureRemaining();
+            if (buffer.remaining() >= Integer.BYTES) {
+                buffer.putInt(value);
+                size += Integer.BYTES;
+            } else {
+                put(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+            }
+        }
+
+        void put(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ByteBuffer buffer = ensureRemaining();
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+            size += bytes.length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * @return the filled buffers, ready to be written
+         */
+        ByteBuffer[] flip() {
+            for (ByteBuffer buffer : buffers) {
+                buffer.flip();
+            }
+            return buffers.toArray(ByteBuffer[]::new);
+        }
+
+        void release() {
+            buffers.forEach(pool::release);
+            buffers.clear();
+            current = null;
+        }
+
+        private ByteBuffer ensureRemaining() {
+            if (current == null || !current.hasRemaining()) {
+                current = pool.acquire();
+                buffers.add(current);
+            }
+            return current;
         }
     }
-}
\ No newline at end of file
+}
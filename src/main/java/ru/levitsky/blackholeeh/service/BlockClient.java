@@ -1,29 +1,122 @@
 package ru.levitsky.blackholeeh.service;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
-import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import ru.levitsky.blackholeeh.dto.BlockBatchUploadRequest;
 import ru.levitsky.blackholeeh.dto.BlockCheckRequest;
 import ru.levitsky.blackholeeh.dto.BlockCheckResponse;
 import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.dto.BlockFetchRequest;
+import ru.levitsky.blackholeeh.dto.BlockFetchResponse;
+import ru.levitsky.blackholeeh.dto.BlockPutIfAbsentResponse;
 import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.UploadLane;
+import ru.levitsky.blackholeeh.model.BandwidthPolicy;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.util.BloomFilter;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static ru.levitsky.blackholeeh.constants.ProjectConstants.BASE_URL;
 import static ru.levitsky.blackholeeh.constants.ProjectConstants.BATCH_SIZE;
 
+/**
+ * {@link BlockStore} backed by the block server's REST API.
+ * <p>
+ * Uploads ({@code /upload} and {@code /put-if-absent}) pass through a {@link BandwidthLimiter}: every batch
+ * waits for its estimated body size in the priority lane of its upload call, so small jobs and Y blocks
+ * are sent before bulk chroma backfill. Checks and fetches are not shaped.
+ * <p>
+ * With a {@link BlockFilterCache}, existence checks consult the server's published Bloom filters first: hashes
+ * the filter has certainly not seen are reported missing at once, and only the others are sent to
+ * {@code /check}.
+ */
 @Slf4j
-@Service
-@RequiredArgsConstructor
-public class BlockClient {
+public class BlockClient implements BlockStore {
+
+    /**
+     * JSON framing per block besides the base64 payload and the hash: field names, quotes, type
+     */
+    private static final int BLOCK_JSON_OVERHEAD = 48;
+
     private final RestTemplate restTemplate;
+    /**
+     * base URL of the block API, e.g. {@code http://localhost:8081/api/v1/blocks}
+     */
+    private final String baseUrl;
+    private final BandwidthLimiter bandwidthLimiter;
+    /**
+     * published Bloom filters of the server, {@code null} to check every hash with the server
+     */
+    private final BlockFilterCache filters;
+
+    /**
+     * cleared when the server answers {@code /put-if-absent} with 404 or 405 (an older server)
+     */
+    private volatile boolean putIfAbsentSupported = true;
+
+    /**
+     * requests that failed and were logged and skipped, see {@link BlockStore#failedRequests()}
+     */
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    /**
+     * Client with unlimited upload bandwidth.
+     */
+    public BlockClient(RestTemplate restTemplate, String baseUrl) {
+        this(restTemplate, baseUrl, new BandwidthLimiter(BandwidthPolicy.UNLIMITED));
+    }
+
+    /**
+     * @param bandwidthLimiter shapes the uploads of this client
+     */
+    public BlockClient(RestTemplate restTemplate, String baseUrl, BandwidthLimiter bandwidthLimiter) {
+        this(restTemplate, baseUrl, bandwidthLimiter, null);
+    }
+
+    /**
+     * @param bandwidthLimiter shapes the uploads of this client
+     * @param filters          Bloom filters that spare {@code /check} calls, {@code null} for none
+     */
+    public BlockClient(RestTemplate restTemplate, String baseUrl, BandwidthLimiter bandwidthLimiter,
+                       BlockFilterCache filters) {
+        this.restTemplate = restTemplate;
+        this.baseUrl = baseUrl;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.filters = filters;
+    }
+
+    /**
+     * @return current upload throughput, queue depths and volume per lane
+     */
+    public BandwidthLimiter.Snapshot bandwidth() {
+        return bandwidthLimiter.snapshot();
+    }
+
+    @Override
+    public long failedRequests() {
+        return failedRequests.get();
+    }
+
+    @Override
+    public List<String> findMissing(List<String> hashes, BlockType type) {
+        return checkMissingBlocks(hashes, type);
+    }
+
+    @Override
+    public void putAll(List<BlockDto> blocks, BlockType type) {
+        uploadBlocksBatch(blocks, type);
+    }
 
     /**
      * Checks which blocks from the provided list are missing on the server.
@@ -35,8 +128,9 @@ public class BlockClient {
      * <p><b>Flow:</b>
      * <ol>
      *   <li>Validates input parameters</li>
+     *   <li>Reports hashes absent from the server's Bloom filter as missing, if filters are enabled</li>
      *   <li>Constructs REST API URL with block type parameter</li>
-     *   <li>Sends POST request with block hashes to server</li>
+     *   <li>Sends POST request with the remaining block hashes to server</li>
      *   <li>Processes server response to extract missing blocks</li>
      *   <li>Logs operation results for monitoring</li>
      * </ol>
@@ -44,7 +138,7 @@ public class BlockClient {
      * <p><b>Error Handling:</b>
      * <ul>
      *   <li>Returns empty list if input hashes list is empty</li>
-     *   <li>Returns empty list if network error or server unavailable</li>
+     *   <li>Returns empty list if network error or server unavailable, apart from hashes absent from the filter</li>
      *   <li>Logs detailed error information for troubleshooting</li>
      * </ul>
      *
@@ -78,8 +172,35 @@ public class BlockClient {
         if (hashes.isEmpty()) {
             return Collections.emptyList();
         }
+        BloomFilter filter = filters == null ? null : filters.filter(type);
+        if (filter == null) {
+            return check(hashes, type);
+        }
+
+        // one lookup per hash: the filter may gain bits concurrently, and a hash must not fall between both lists
+        boolean[] maybePresent = new boolean[hashes.size()];
+        List<String> toCheck = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            maybePresent[i] = filter.mightContain(hashes.get(i));
+            if (maybePresent[i]) {
+                toCheck.add(hashes.get(i));
+            }
+        }
+        Set<String> checkedMissing = toCheck.isEmpty() ? Set.of() : new HashSet<>(check(toCheck, type));
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (!maybePresent[i] || checkedMissing.contains(hashes.get(i))) {
+                missing.add(hashes.get(i));
+            }
+        }
+        log.debug("Bloom filter spared the check of {}/{} {} blocks", hashes.size() - toCheck.size(),
+                hashes.size(), type);
+        return missing;
+    }
+
+    private List<String> check(List<String> hashes, BlockType type) {
         try {
-            String url = BASE_URL + "/check?type=" + type.name();
+            String url = baseUrl + "/check?type=" + type.name();
             BlockCheckRequest req = new BlockCheckRequest(hashes);
             ResponseEntity<BlockCheckResponse> resp =
                     restTemplate.postForEntity(url, req, BlockCheckResponse.class);
@@ -88,6 +209,7 @@ public class BlockClient {
             log.info("Checked {} {} blocks → {} missing", hashes.size(), type, missing.size());
             return missing;
         } catch (Exception e) {
+            failedRequests.incrementAndGet();
             log.error("Error checking missing {} blocks: {}", type, e.getMessage());
             return Collections.emptyList();
         }
@@ -95,25 +217,162 @@ public class BlockClient {
 
     /**
      * Загружает блоки на сервер пакетами
+     *
+     * @throws IllegalStateException if the thread is interrupted while waiting for upload bandwidth
      */
     public void uploadBlocksBatch(List<BlockDto> blocks, BlockType type) {
         if (blocks.isEmpty()) return;
 
+        UploadLane lane = lane(blocks, type);
         List<List<BlockDto>> batches = partition(blocks);
         for (int i = 0; i < batches.size(); i++) {
             List<BlockDto> batch = batches.get(i);
-            String url = BASE_URL + "/upload?type=" + type.name();
+            String url = baseUrl + "/upload?type=" + type.name();
             BlockBatchUploadRequest req = new BlockBatchUploadRequest(batch);
 
+            // outside the try: an interrupt stops the upload instead of being logged as a failed batch
+            awaitBandwidth(lane, batch);
             try {
                 restTemplate.postForEntity(url, req, Void.class);
                 log.info("Uploaded batch {}/{} of {} blocks", i + 1, batches.size(), type);
             } catch (Exception e) {
+                failedRequests.incrementAndGet();
                 log.error("Upload failed for batch {}/{}: {}", i + 1, batches.size(), e.getMessage());
             }
         }
     }
 
+    /**
+     * Sends blocks with their hashes in batches to {@code /put-if-absent}: the server stores the blocks it does
+     * not have and answers with their hashes, so no {@code /check} round trip is needed.
+     * <p>
+     * Batches that fail are logged and skipped, like {@link #uploadBlocksBatch(List, BlockType)}. A server
+     * without the endpoint is remembered, and this and all later calls fall back to check-then-upload.
+     *
+     * @param blocks blocks to store
+     * @param type   the block component
+     * @return hashes of the blocks the server stored for this call
+     * @throws IllegalStateException if the thread is interrupted while waiting for upload bandwidth
+     */
+    @Override
+    public List<String> putIfAbsent(List<BlockDto> blocks, BlockType type) {
+        if (blocks.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> stored = new ArrayList<>();
+        UploadLane lane = lane(blocks, type);
+        List<List<BlockDto>> batches = partition(blocks);
+        for (int i = 0; i < batches.size(); i++) {
+            if (!putIfAbsentSupported) {
+                stored.addAll(BlockStore.super.putIfAbsent(blocks.subList(i * BATCH_SIZE, blocks.size()), type));
+                break;
+            }
+
+            String url = baseUrl + "/put-if-absent?type=" + type.name();
+            BlockBatchUploadRequest req = new BlockBatchUploadRequest(batches.get(i));
+
+            awaitBandwidth(lane, batches.get(i));
+            try {
+                ResponseEntity<BlockPutIfAbsentResponse> resp =
+                        restTemplate.postForEntity(url, req, BlockPutIfAbsentResponse.class);
+                List<String> batchStored = Objects.requireNonNull(resp.getBody()).getStored();
+                stored.addAll(batchStored);
+                log.info("Put-if-absent batch {}/{} of {} blocks → {} stored", i + 1, batches.size(), type,
+                        batchStored.size());
+            } catch (HttpClientErrorException e) {
+                int status = e.getStatusCode().value();
+                if (status != 404 && status != 405) {
+                    failedRequests.incrementAndGet();
+                    log.error("Put-if-absent failed for batch {}/{}: {}", i + 1, batches.size(), e.getMessage());
+                    continue;
+                }
+                log.warn("Server at {} does not support put-if-absent, checking before uploads", baseUrl);
+                putIfAbsentSupported = false;
+                stored.addAll(BlockStore.super.putIfAbsent(blocks.subList(i * BATCH_SIZE, blocks.size()), type));
+                break;
+            } catch (Exception e) {
+                failedRequests.incrementAndGet();
+                log.error("Put-if-absent failed for batch {}/{}: {}", i + 1, batches.size(), e.getMessage());
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Downloads blocks from the server in batches of {@code BATCH_SIZE} hashes from {@code /fetch}.
+     * <p>
+     * {@code /fetch} is served by the embedded {@link ru.levitsky.blackholeeh.server.ReferenceBlockServer};
+     * the external block server is not known to provide it. Batches that fail are logged and skipped, so the
+     * result may be incomplete; callers compare the returned keys with the requested hashes.
+     *
+     * @param hashes block hashes to download
+     * @param type   the block component
+     * @return payloads of the downloaded blocks keyed by hash
+     * @throws IllegalStateException if the server answers {@code /fetch} with 404 or 405, i.e. cannot fetch blocks
+     */
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> hashes, BlockType type) {
+        if (hashes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, byte[]> result = new HashMap<>(hashes.size() * 2);
+        List<List<String>> batches = partition(new ArrayList<>(hashes));
+        for (int i = 0; i < batches.size(); i++) {
+            String url = baseUrl + "/fetch?type=" + type.name();
+            BlockFetchRequest req = new BlockFetchRequest(batches.get(i));
+
+            try {
+                ResponseEntity<BlockFetchResponse> resp =
+                        restTemplate.postForEntity(url, req, BlockFetchResponse.class);
+                for (BlockDto block : Objects.requireNonNull(resp.getBody()).getBlocks()) {
+                    result.put(block.getHash(), block.getData());
+                }
+            } catch (HttpClientErrorException e) {
+                int status = e.getStatusCode().value();
+                if (status == 404 || status == 405) {
+                    throw new IllegalStateException("Block server at " + baseUrl + " cannot fetch blocks: /fetch"
+                            + " answered " + status + "; reconstruct and verify need a server with /fetch,"
+                            + " e.g. the embedded 'serve' server, or a local store", e);
+                }
+                failedRequests.incrementAndGet();
+                log.error("Fetch failed for batch {}/{} of {} blocks: {}", i + 1, batches.size(), type, e.getMessage());
+            } catch (Exception e) {
+                failedRequests.incrementAndGet();
+                log.error("Fetch failed for batch {}/{} of {} blocks: {}", i + 1, batches.size(), type, e.getMessage());
+            }
+        }
+        log.info("Fetched {}/{} {} blocks", result.size(), hashes.size(), type);
+        return result;
+    }
+
+    private UploadLane lane(List<BlockDto> blocks, BlockType type) {
+        return bandwidthLimiter.policy().lane(type, requestBytes(blocks));
+    }
+
+    private void awaitBandwidth(UploadLane lane, List<BlockDto> batch) {
+        try {
+            bandwidthLimiter.acquire(lane, requestBytes(batch));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for upload bandwidth", e);
+        }
+    }
+
+    /**
+     * @return estimated JSON body size of an upload request with these blocks: base64 payload, hash and framing
+     */
+    private static long requestBytes(List<BlockDto> blocks) {
+        long bytes = 0;
+        for (BlockDto block : blocks) {
+            int length = block.getData() == null ? 0 : block.getData().length;
+            int hashLength = block.getHash() == null ? 0 : block.getHash().length();
+            bytes += 4L * ((length + 2) / 3) + hashLength + BLOCK_JSON_OVERHEAD;
+        }
+        return bytes;
+    }
+
     private static <T> List<List<T>> partition(List<T> list) {
         List<List<T>> parts = new ArrayList<>();
         for (int i = 0; i < list.size(); i += BATCH_SIZE) {
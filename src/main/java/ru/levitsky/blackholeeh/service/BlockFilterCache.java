@@ -0,0 +1,243 @@
+package ru.levitsky.blackholeeh.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.util.BloomFilter;
+import ru.levitsky.blackholeeh.util.BloomFilterSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Local copies of the Bloom filters the block server publishes under {@code /filter}, one per {@link BlockType},
+ * so that hashes the server certainly does not have are known without a {@code /check} round trip.
+ * <p>
+ * Every filter is kept as a snapshot file {@code <directory>/<TYPE>.blbf} in {@link BloomFilterSnapshot} format
+ * and memory-mapped, so it survives restarts and costs no heap. A filter is refreshed on first use and then at
+ * most once per refresh interval: the client sends the generation and version it has, and the server answers
+ * with the changed words, which are written into the mapping in place, or with a new snapshot, which replaces
+ * the file atomically and is mapped again.
+ * <p>
+ * A filter that lags behind the server only reports recently stored hashes as absent, which costs a redundant,
+ * idempotent upload; hashes it reports as possibly present are still confirmed with {@code /check}. So failed
+ * refreshes are logged and the stale filter stays in use. A server that answers {@code /filter} with 404 or 405
+ * has no filters, and the cache disables itself. Thread-safe; a refresh downloads without holding the filter's
+ * lock, and callers meanwhile use the filter as it was.
+ */
+@Slf4j
+public class BlockFilterCache {
+
+    private static final String FILE_SUFFIX = ".blbf";
+
+    private final RestTemplate restTemplate;
+    private final String baseUrl;
+    private final Path directory;
+    private final long refreshIntervalNanos;
+    private final Map<BlockType, Entry> entries = new EnumMap<>(BlockType.class);
+
+    private volatile boolean supported = true;
+
+    /**
+     * @param baseUrl         base URL of the block API
+     * @param directory       directory of the snapshot files, created on first download
+     * @param refreshInterval minimum time between two refreshes of a filter
+     */
+    public BlockFilterCache(RestTemplate restTemplate, String baseUrl, Path directory, Duration refreshInterval) {
+        this.restTemplate = restTemplate;
+        this.baseUrl = baseUrl;
+        this.directory = directory;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+        for (BlockType type : BlockType.values()) {
+            entries.put(type, new Entry(type));
+        }
+    }
+
+    /**
+     * @param type the block component
+     * @return the filter of the component, refreshed if it is due; {@code null} if there is none
+     */
+    public BloomFilter filter(BlockType type) {
+        if (!supported) {
+            return null;
+        }
+        Entry entry = entries.get(type);
+        String url;
+        synchronized (entry) {
+            if (!entry.loaded) {
+                load(entry);
+                entry.loaded = true;
+            }
+            // callers arriving during a refresh go on with the filter they would have got before it
+            if (entry.refreshing || System.nanoTime() - entry.refreshAt < 0) {
+                return entry.filter;
+            }
+            entry.refreshing = true;
+            url = baseUrl + "/filter?type=" + type.name();
+            if (entry.filter != null) {
+                url += "&generation=" + entry.header.generation() + "&since=" + entry.header.version();
+            }
+        }
+        // the request runs without the monitor, so a slow server does not block the other callers
+        byte[] body = download(type, url);
+        synchronized (entry) {
+            try {
+                if (body != null) {
+                    apply(entry, body);
+                }
+            } finally {
+                entry.refreshing = false;
+                entry.refreshAt = System.nanoTime() + refreshIntervalNanos;
+            }
+            return entry.filter;
+        }
+    }
+
+    /**
+     * Maps the snapshot file left by an earlier run, if any.
+     */
+    private void load(Entry entry) {
+        Path file = file(entry.type);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            map(entry, file);
+            log.info("Loaded {} Bloom filter generation {} version {} from '{}'", entry.type,
+                    entry.header.generation(), entry.header.version(), file);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring {} Bloom filter '{}': {}", entry.type, file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the answer of the server, {@code null} if the request failed
+     */
+    private byte[] download(BlockType type, String url) {
+        try {
+            ResponseEntity<byte[]> resp = restTemplate.getForEntity(url, byte[].class);
+            return Objects.requireNonNull(resp.getBody());
+        } catch (HttpClientErrorException e) {
+            int status = e.getStatusCode().value();
+            if (status == 404 || status == 405) {
+                log.warn("Server at {} does not publish Bloom filters, checking all hashes", baseUrl);
+                supported = false;
+            } else {
+                log.error("Refreshing the {} Bloom filter failed: {}", type, e.getMessage());
+            }
+        } catch (Exception e) {
+            log.error("Refreshing the {} Bloom filter failed, using the stale one: {}", type, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Installs a snapshot or applies a delta. Called with the entry's monitor held.
+     */
+    private void apply(Entry entry, byte[] body) {
+        try {
+            BloomFilterSnapshot.Header header = BloomFilterSnapshot.header(ByteBuffer.wrap(body));
+            if (header.type() != entry.type) {
+                throw new IllegalArgumentException("server sent the " + header.type() + " filter");
+            }
+            if (header.kind() == BloomFilterSnapshot.KIND_SNAPSHOT) {
+                install(entry, body);
+                log.info("Downloaded {} Bloom filter generation {} version {}: {} hashes, {} bytes", entry.type,
+                        header.generation(), header.version(), header.entries(), body.length);
+            } else {
+                applyDelta(entry, body, header);
+            }
+        } catch (IllegalArgumentException e) {
+            // an unusable answer; start over with a snapshot next time
+            log.error("Discarding the {} Bloom filter: {}", entry.type, e.getMessage());
+            entry.filter = null;
+            entry.header = null;
+        } catch (Exception e) {
+            log.error("Installing the {} Bloom filter failed, using the stale one: {}", entry.type, e.getMessage());
+        }
+    }
+
+    private void applyDelta(Entry entry, byte[] body, BloomFilterSnapshot.Header header) {
+        if (entry.filter == null || header.generation() != entry.header.generation()
+                || header.baseVersion() != entry.header.version()) {
+            throw new IllegalArgumentException("delta " + header + " does not apply to " + entry.header);
+        }
+        if (header.version() == entry.header.version()) {
+            return;
+        }
+        // words first: a crash before the version is written only leaves a filter with more bits than its version
+        BloomFilterSnapshot.applyDelta(ByteBuffer.wrap(body), entry.filter);
+        entry.mapping.putLong(BloomFilterSnapshot.VERSION_OFFSET, header.version());
+        entry.mapping.putLong(BloomFilterSnapshot.ENTRIES_OFFSET, header.entries());
+        entry.header = BloomFilterSnapshot.header(entry.mapping);
+        log.debug("Updated {} Bloom filter to version {}: {} changed words", entry.type, header.version(),
+                header.changedWords());
+    }
+
+    private void install(Entry entry, byte[] snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path file = file(entry.type);
+        Path temp = Files.createTempFile(directory, entry.type.name(), ".tmp");
+        try {
+            Files.write(temp, snapshot);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        map(entry, file);
+    }
+
+    /**
+     * Maps a snapshot file read-write; the mapping stays valid after the channel is closed.
+     */
+    private static void map(Entry entry, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bloom filter file too large: " + size + " bytes");
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            BloomFilterSnapshot.Header header = BloomFilterSnapshot.header(mapping);
+            if (header.kind() != BloomFilterSnapshot.KIND_SNAPSHOT || header.type() != entry.type) {
+                throw new IllegalArgumentException("not a " + entry.type + " snapshot: " + header);
+            }
+            entry.filter = BloomFilter.wrap(mapping.slice(BloomFilterSnapshot.HEADER_SIZE,
+                    (int) size - BloomFilterSnapshot.HEADER_SIZE), header.hashCount());
+            entry.mapping = mapping;
+            entry.header = header;
+        }
+    }
+
+    private Path file(BlockType type) {
+        return directory.resolve(type.name() + FILE_SUFFIX);
+    }
+
+    /**
+     * Local filter of one component; guarded by its own monitor.
+     */
+    private static final class Entry {
+        private final BlockType type;
+        private boolean loaded;
+        private boolean refreshing;
+        private long refreshAt = System.nanoTime();
+        private MappedByteBuffer mapping;
+        private BloomFilterSnapshot.Header header;
+        private BloomFilter filter;
+
+        private Entry(BlockType type) {
+            this.type = type;
+        }
+    }
+}
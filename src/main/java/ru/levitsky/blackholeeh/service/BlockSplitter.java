@@ -1,7 +1,12 @@
 package ru.levitsky.blackholeeh.service;
 
 import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
 import ru.levitsky.blackholeeh.model.RctBlock;
+import ru.levitsky.blackholeeh.model.RctImage;
+import ru.levitsky.blackholeeh.util.StripeParallelism;
+import ru.levitsky.blackholeeh.util.image.ChromaPackingUtils;
+import ru.levitsky.blackholeeh.util.image.ImageFileUtils;
 import ru.levitsky.blackholeeh.util.image.RctTransformUtils;
 import ru.levitsky.blackholeeh.util.image.RgbExtractorUtils;
 import ru.levitsky.blackholeeh.util.image.component.RctComponents;
@@ -9,40 +14,139 @@ import ru.levitsky.blackholeeh.util.image.component.RgbComponents;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.io.File;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import static ru.levitsky.blackholeeh.constants.ProjectConstants.CHROMA_PACKING;
+
 @Slf4j
 public class BlockSplitter {
 
     /**
      * Split image into padded 8x8 blocks using reversible integer transform (lossless).
      */
-    public static List<RctBlock> splitIntoRctBlocks(File file) throws Exception {
+    public static RctImage splitIntoRctBlocks(File file) throws Exception {
+        return splitIntoRctBlocks(file, StripeParallelism.SEQUENTIAL);
+    }
+
+    /**
+     * Split image into padded 8x8 blocks using reversible integer transform (lossless),
+     * large images in parallel stripes of block rows.
+     */
+    public static RctImage splitIntoRctBlocks(File file, StripeParallelism stripes) throws Exception {
         long startTime = System.nanoTime();
         BufferedImage image = javax.imageio.ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + file.getName());
+        }
+        RctImage rctImage = splitIntoRctBlocks(image, stripes);
 
+        long timeMs = (System.nanoTime() - startTime) / 1_000_000;
+        log.info("File '{}' ({}) split into {} RCT blocks in {} ms",
+                file.getName(), rctImage.layout(), rctImage.blocks().size(), timeMs);
+        return rctImage;
+    }
+
+    /**
+     * Split an already decoded image into padded 8x8 blocks using reversible integer transform (lossless).
+     * <p>
+     * The channel layout is detected first: 8-bit gray sources take a luma-only path that reads raster
+     * samples directly and never produces chroma, sources with transparency additionally produce an alpha block.
+     */
+    public static RctImage splitIntoRctBlocks(BufferedImage image) {
+        return splitIntoRctBlocks(image, StripeParallelism.SEQUENTIAL);
+    }
+
+    /**
+     * Split an already decoded image into padded 8x8 blocks, see {@link #splitIntoRctBlocks(BufferedImage)}.
+     * <p>
+     * Images from the pixel threshold of {@code stripes} on are split in parallel stripes of block rows;
+     * the stripes are concatenated top to bottom, so the blocks come out in the same row-major order.
+     */
+    public static RctImage splitIntoRctBlocks(BufferedImage image, StripeParallelism stripes) {
+        ChannelLayout layout = ImageFileUtils.detectChannelLayout(image);
+        List<RctBlock> blocks = switch (layout) {
+            case GRAY, GRAY_ALPHA -> splitGray(image, layout.hasAlpha(), stripes);
+            case RGB, RGBA -> splitColor(image, layout.hasAlpha(), stripes);
+        };
+        return new RctImage(image.getWidth(), image.getHeight(), layout, CHROMA_PACKING, blocks);
+    }
+
+    private static List<RctBlock> concat(List<List<RctBlock>> stripes, int blocks) {
+        if (stripes.size() == 1) {
+            return stripes.getFirst();
+        }
+        List<RctBlock> all = new ArrayList<>(blocks);
+        stripes.forEach(all::addAll);
+        return all;
+    }
+
+    /**
+     * Luma-only fast path.<br>
+     * For a gray pixel {@code r = g = b = s} the RCT gives {@code Y = s, U = V = 0},
+     * so the raw samples are used as luma and no color transform is performed at all.
+     */
+    private static List<RctBlock> splitGray(BufferedImage image, boolean withAlpha, StripeParallelism stripes) {
+        int paddedWidth = ((image.getWidth() + 7) / 8) * 8;
+        int blockRows = (image.getHeight() + 7) / 8;
+        Raster raster = image.getRaster();
+
+        List<List<RctBlock>> results = stripes.process(blockRows, (long) image.getWidth() * image.getHeight(),
+                (from, to) -> {
+                    byte[] luma = paddedPlane(raster, 0, paddedWidth, from * 8, to * 8);
+                    byte[] alpha = withAlpha ? paddedPlane(raster, 1, paddedWidth, from * 8, to * 8) : null;
+
+                    List<RctBlock> blocks = new ArrayList<>((paddedWidth / 8) * (to - from));
+                    for (int by = 0; by < (to - from) * 8; by += 8) {
+                        for (int bx = 0; bx < paddedWidth; bx += 8) {
+                            byte[] y = copyBlock(luma, paddedWidth, bx, by);
+                            byte[] a = alpha != null ? copyBlock(alpha, paddedWidth, bx, by) : null;
+                            blocks.add(new RctBlock(y, null, null, a));
+                        }
+                    }
+                    return blocks;
+                });
+        return concat(results, (paddedWidth / 8) * blockRows);
+    }
+
+    private static List<RctBlock> splitColor(BufferedImage image, boolean withAlpha, StripeParallelism stripes) {
         int width = image.getWidth();
         int height = image.getHeight();
         int paddedWidth = ((width + 7) / 8) * 8;
         int paddedHeight = ((height + 7) / 8) * 8;
 
         // padded image (fill extra pixels with edge pixels)
-        BufferedImage padded = new BufferedImage(paddedWidth, paddedHeight, BufferedImage.TYPE_INT_RGB);
+        BufferedImage padded = new BufferedImage(paddedWidth, paddedHeight,
+                withAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
         Graphics2D g = padded.createGraphics();
+        if (withAlpha) {
+            // copy color and alpha as is instead of blending over the background
+            g.setComposite(AlphaComposite.Src);
+        }
         g.drawImage(image, 0, 0, null);
         g.dispose();
 
-        List<RctBlock> blocks = new ArrayList<>();
+        List<List<RctBlock>> results = stripes.process(paddedHeight / 8, (long) width * height,
+                (from, to) -> splitColorRows(padded, withAlpha, from, to));
+        return concat(results, (paddedWidth / 8) * (paddedHeight / 8));
+    }
+
+    /**
+     * Splits the block rows {@code [from, to)} of the padded image.
+     */
+    private static List<RctBlock> splitColorRows(BufferedImage padded, boolean withAlpha, int from, int to) {
+        int paddedWidth = padded.getWidth();
+        List<RctBlock> blocks = new ArrayList<>((paddedWidth / 8) * (to - from));
 
-        for (int by = 0; by < paddedHeight; by += 8) {
+        for (int by = from * 8; by < to * 8; by += 8) {
             for (int bx = 0; bx < paddedWidth; bx += 8) {
                 byte[] y = new byte[64];           // 8x8
                 short[] uShorts = new short[64];   // 8x8
                 short[] vShorts = new short[64];   // 8x8
+                byte[] a = withAlpha ? new byte[64] : null;
 
                 int idx = 0;
                 for (int yoff = 0; yoff < 8; yoff++) {
@@ -53,25 +157,46 @@ public class BlockSplitter {
                         y[idx] = (byte) (rct.y() & 0xFF);
                         uShorts[idx] = (short) rct.u();
                         vShorts[idx] = (short) rct.v();
+                        if (a != null) {
+                            a[idx] = (byte) RgbExtractorUtils.extractAlpha(padded.getRGB(bx + xoff, by + yoff));
+                        }
                         idx++;
                     }
                 }
 
-                byte[] uPacked = packShortArrayBE(uShorts);
-                byte[] vPacked = packShortArrayBE(vShorts);
+                byte[] uPacked = ChromaPackingUtils.pack(uShorts, CHROMA_PACKING);
+                byte[] vPacked = ChromaPackingUtils.pack(vShorts, CHROMA_PACKING);
 
-                blocks.add(new RctBlock(y, uPacked, vPacked));
+                blocks.add(new RctBlock(y, uPacked, vPacked, a));
             }
         }
-
-        long timeMs = (System.nanoTime() - startTime) / 1_000_000;
-        log.info("File '{}' split into {} RCT blocks in {} ms", file.getName(), blocks.size(), timeMs);
         return blocks;
     }
 
-    private static byte[] packShortArrayBE(short[] arr) {
-        ByteBuffer buf = ByteBuffer.allocate(arr.length * 2).order(ByteOrder.BIG_ENDIAN);
-        for (short s : arr) buf.putShort(s);
-        return buf.array();
+    /**
+     * Copies the rows {@code [fromY, toY)} of one 8-bit band of the raster into a zero-padded plane
+     * of {@code paddedWidth x (toY - fromY)}.
+     */
+    private static byte[] paddedPlane(Raster raster, int band, int paddedWidth, int fromY, int toY) {
+        int width = raster.getWidth();
+        int height = Math.min(raster.getHeight(), toY) - fromY;
+        byte[] plane = new byte[paddedWidth * (toY - fromY)];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + fromY + y, width, 1, band, row);
+            int offset = y * paddedWidth;
+            for (int x = 0; x < width; x++) {
+                plane[offset + x] = (byte) row[x];
+            }
+        }
+        return plane;
+    }
+
+    private static byte[] copyBlock(byte[] plane, int planeWidth, int bx, int by) {
+        byte[] block = new byte[64];
+        for (int yoff = 0; yoff < 8; yoff++) {
+            System.arraycopy(plane, (by + yoff) * planeWidth + bx, block, yoff * 8, 8);
+        }
+        return block;
     }
 }
@@ -0,0 +1,310 @@
+package ru.levitsky.blackholeeh.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.CorpusReport;
+import ru.levitsky.blackholeeh.model.RctBlock;
+import ru.levitsky.blackholeeh.model.RctImage;
+import ru.levitsky.blackholeeh.util.EntropyUtils;
+import ru.levitsky.blackholeeh.util.image.ChromaPackingUtils;
+import ru.levitsky.blackholeeh.util.image.ImageFileUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+import static ru.levitsky.blackholeeh.constants.ProjectConstants.ANALYZER_FILES_PER_TASK;
+
+/**
+ * Offline dry-run analyzer for image corpora.
+ * <p>
+ * Runs the regular splitting and hashing pipeline over a directory tree in parallel on a
+ * {@link ForkJoinPool} and predicts what an upload would cost, without ever calling the block server:
+ * <ul>
+ *     <li>unique Y/U/V/A block counts within images and across the corpus</li>
+ *     <li>cross-image deduplication</li>
+ *     <li>per-component Shannon entropy estimates</li>
+ *     <li>projected .blho size under the current format and projected upload volume</li>
+ * </ul>
+ * Every worker collects its own {@link CorpusStatistics}; partial results are merged pairwise
+ * on the way back up the fork-join tree, so no shared state is touched while files are processed.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CorpusAnalyzer {
+
+    private final BlhoWriter blhoWriter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Analyzes all supported images below {@code root}.
+     *
+     * @param root        the directory tree to analyze
+     * @param parallelism number of worker threads
+     * @return the merged corpus report
+     * @throws IOException if the directory tree cannot be listed
+     */
+    public CorpusReport analyze(Path root, int parallelism) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("'" + root + "' is not a directory");
+        }
+
+        List<Path> files;
+        try (Stream<Path> tree = Files.walk(root)) {
+            files = tree.filter(Files::isRegularFile)
+                    .filter(ImageFileUtils::isSupportedImage)
+                    .sorted()
+                    .toList();
+        }
+        log.info("Analyzing {} images below '{}' with parallelism {}", files.size(), root, parallelism);
+
+        long startTime = System.nanoTime();
+        CorpusStatistics statistics;
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            statistics = pool.invoke(new AnalyzeTask(files, 0, files.size()));
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        return statistics.toReport(root.toString(), parallelism, elapsedNanos);
+    }
+
+    /**
+     * Serializes the report as JSON.
+     *
+     * @param report the report to write
+     * @param output the target file, or {@code null} to print the report to standard output
+     * @throws IOException if the report cannot be written
+     */
+    public void writeReport(CorpusReport report, Path output) throws IOException {
+        if (output == null) {
+            System.out.println(objectMapper.writeValueAsString(report));
+            return;
+        }
+        objectMapper.writeValue(output.toFile(), report);
+        log.info("Analysis report written to '{}'", output);
+    }
+
+    /**
+     * Splits and hashes a single image and records it in {@code statistics}.
+     */
+    private void analyzeFile(Path file, CorpusStatistics statistics) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null) {
+            throw new IOException("unsupported image format");
+        }
+
+        RctImage rctImage = BlockSplitter.splitIntoRctBlocks(image);
+        List<RctBlock> blocks = rctImage.blocks();
+        BlhoFileDataV2 fileData = blhoWriter.createHashStructure(rctImage, file.getFileName().toString());
+
+        statistics.filesAnalyzed++;
+        statistics.sourceBytes += Files.size(file);
+        statistics.pixels += (long) image.getWidth() * image.getHeight();
+        statistics.totalBlocks += blocks.size();
+        statistics.projectedBlhoBytes += blhoWriter.projectedSize(fileData);
+
+        statistics.layouts.merge(rctImage.layout(), 1L, Long::sum);
+        for (BlockType type : rctImage.layout().components()) {
+            statistics.component(type).addImage(fileData.uniqueHashes(type), blocks);
+        }
+    }
+
+    /**
+     * Fork-join task over a contiguous range of the file list.
+     */
+    private final class AnalyzeTask extends RecursiveTask<CorpusStatistics> {
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        private AnalyzeTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected CorpusStatistics compute() {
+            if (to - from <= ANALYZER_FILES_PER_TASK) {
+                CorpusStatistics statistics = new CorpusStatistics();
+                for (int i = from; i < to; i++) {
+                    Path file = files.get(i);
+                    try {
+                        analyzeFile(file, statistics);
+                    } catch (Exception e) {
+                        statistics.filesFailed++;
+                        log.error("Error analyzing {}: {}", file, e.getMessage());
+                    }
+                }
+                return statistics;
+            }
+
+            int middle = (from + to) >>> 1;
+            AnalyzeTask left = new AnalyzeTask(files, from, middle);
+            AnalyzeTask right = new AnalyzeTask(files, middle, to);
+            left.fork();
+            CorpusStatistics rightResult = right.compute();
+            return left.join().merge(rightResult);
+        }
+    }
+
+    /**
+     * Mutable statistics of one worker; merged into a single instance at the end of the analysis.
+     */
+    private static final class CorpusStatistics {
+        private final Map<BlockType, ComponentStatistics> components = new EnumMap<>(BlockType.class);
+        private final Map<ChannelLayout, Long> layouts = new EnumMap<>(ChannelLayout.class);
+        private long filesAnalyzed;
+        private long filesFailed;
+        private long sourceBytes;
+        private long pixels;
+        private long totalBlocks;
+        private long projectedBlhoBytes;
+
+        private ComponentStatistics component(BlockType type) {
+            return components.computeIfAbsent(type, ComponentStatistics::new);
+        }
+
+        private CorpusStatistics merge(CorpusStatistics other) {
+            filesAnalyzed += other.filesAnalyzed;
+            filesFailed += other.filesFailed;
+            sourceBytes += other.sourceBytes;
+            pixels += other.pixels;
+            totalBlocks += other.totalBlocks;
+            projectedBlhoBytes += other.projectedBlhoBytes;
+            other.components.forEach((type, stats) -> component(type).merge(stats));
+            other.layouts.forEach((layout, count) -> layouts.merge(layout, count, Long::sum));
+            return this;
+        }
+
+        private CorpusReport toReport(String root, int parallelism, long elapsedNanos) {
+            Map<BlockType, CorpusReport.ComponentReport> componentReports = new EnumMap<>(BlockType.class);
+            long uploadBytes = 0;
+            long rawBytes = 0;
+            for (Map.Entry<BlockType, ComponentStatistics> entry : components.entrySet()) {
+                CorpusReport.ComponentReport report = entry.getValue().toReport();
+                componentReports.put(entry.getKey(), report);
+                uploadBytes += report.uploadBytes();
+                rawBytes += report.totalBlocks() * report.blockBytes();
+            }
+
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            return new CorpusReport(
+                    root,
+                    parallelism,
+                    filesAnalyzed,
+                    filesFailed,
+                    sourceBytes,
+                    pixels,
+                    totalBlocks,
+                    layouts,
+                    componentReports,
+                    projectedBlhoBytes,
+                    uploadBytes,
+                    rawBytes == 0 ? 0.0 : 1.0 - (double) uploadBytes / rawBytes,
+                    elapsedNanos / 1_000_000,
+                    filesAnalyzed / seconds,
+                    sourceBytes / (1024.0 * 1024.0) / seconds
+            );
+        }
+    }
+
+    /**
+     * Statistics of a single component: global set of distinct hashes and a sample histogram.
+     */
+    private static final class ComponentStatistics {
+        private final BlockType type;
+        private final long[] histogram;
+        private Set<ByteBuffer> uniqueGlobal = new HashSet<>();
+        private long totalBlocks;
+        private long uniqueWithinImages;
+        private int blockBytes;
+
+        private ComponentStatistics(BlockType type) {
+            this.type = type;
+            // Y and A samples are 0..255, chroma differences are -255..255
+            this.histogram = new long[isChroma() ? 511 : 256];
+        }
+
+        private void addImage(List<byte[]> uniqueHashes, List<RctBlock> blocks) {
+            totalBlocks += blocks.size();
+            uniqueWithinImages += uniqueHashes.size();
+            for (byte[] hash : uniqueHashes) {
+                uniqueGlobal.add(ByteBuffer.wrap(hash));
+            }
+            for (RctBlock block : blocks) {
+                byte[] data = block.component(type);
+                blockBytes = data.length;
+                addSamples(data);
+            }
+        }
+
+        private boolean isChroma() {
+            return type == BlockType.CHROMA_CB || type == BlockType.CHROMA_CR;
+        }
+
+        private void addSamples(byte[] data) {
+            if (!isChroma()) {
+                for (byte sample : data) {
+                    histogram[sample & 0xFF]++;
+                }
+            } else {
+                for (short sample : ChromaPackingUtils.unpack(data)) {
+                    histogram[sample + 255]++;
+                }
+            }
+        }
+
+        private void merge(ComponentStatistics other) {
+            totalBlocks += other.totalBlocks;
+            uniqueWithinImages += other.uniqueWithinImages;
+            blockBytes = Math.max(blockBytes, other.blockBytes);
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+            // add the smaller set into the larger one
+            if (other.uniqueGlobal.size() > uniqueGlobal.size()) {
+                Set<ByteBuffer> smaller = uniqueGlobal;
+                uniqueGlobal = other.uniqueGlobal;
+                uniqueGlobal.addAll(smaller);
+            } else {
+                uniqueGlobal.addAll(other.uniqueGlobal);
+            }
+        }
+
+        private CorpusReport.ComponentReport toReport() {
+            long unique = uniqueGlobal.size();
+            return new CorpusReport.ComponentReport(
+                    totalBlocks,
+                    uniqueWithinImages,
+                    unique,
+                    uniqueWithinImages - unique,
+                    blockBytes,
+                    unique * blockBytes,
+                    EntropyUtils.shannonEntropy(histogram)
+            );
+        }
+    }
+}
@@ -1,19 +1,33 @@
 package ru.levitsky.blackholeeh.service;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.levitsky.blackholeeh.dto.BlockDto;
 import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.enumeration.PipelineStage;
+import ru.levitsky.blackholeeh.model.DctImage;
 import ru.levitsky.blackholeeh.model.RctBlock;
+import ru.levitsky.blackholeeh.model.RctImage;
+import ru.levitsky.blackholeeh.model.SequenceFrame;
+import ru.levitsky.blackholeeh.model.SequenceOptions;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.model.UploadPolicy;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
 import ru.levitsky.blackholeeh.util.BlockDtoValidator;
 import ru.levitsky.blackholeeh.util.HashUtils;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
+import ru.levitsky.blackholeeh.util.image.ImageFileUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,15 +35,59 @@ import java.util.stream.Stream;
 
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class FileProcessor {
 
-    private final BlockClient blockClient;
+    private final BlockStore blockStore;
     private final BlhoWriter blhoWriter;
+    private final PipelineMetrics metrics;
+    private final UploadPolicy uploadPolicy;
+    private final SplitOptions splitOptions;
+    private final SequenceOptions sequenceOptions;
 
     /**
-     * Process all JPG/JPEG images in the directory
+     * Processor with the default upload policy, split and sequence options; see the {@code with...} methods
+     * to change single options.
+     */
+    public FileProcessor(BlockStore blockStore, BlhoWriter blhoWriter, PipelineMetrics metrics) {
+        this(blockStore, blhoWriter, metrics, UploadPolicy.DEFAULT, SplitOptions.DEFAULT, SequenceOptions.DEFAULT);
+    }
+
+    @Autowired
+    public FileProcessor(BlockStore blockStore, BlhoWriter blhoWriter, PipelineMetrics metrics,
+                         UploadPolicy uploadPolicy, SplitOptions splitOptions, SequenceOptions sequenceOptions) {
+        this.blockStore = blockStore;
+        this.blhoWriter = blhoWriter;
+        this.metrics = metrics;
+        this.uploadPolicy = uploadPolicy;
+        this.splitOptions = splitOptions;
+        this.sequenceOptions = sequenceOptions;
+    }
+
+    /**
+     * @return a processor like this one with another upload policy
+     */
+    public FileProcessor withUploadPolicy(UploadPolicy uploadPolicy) {
+        return new FileProcessor(blockStore, blhoWriter, metrics, uploadPolicy, splitOptions, sequenceOptions);
+    }
+
+    /**
+     * @return a processor like this one with other split options
+     */
+    public FileProcessor withSplitOptions(SplitOptions splitOptions) {
+        return new FileProcessor(blockStore, blhoWriter, metrics, uploadPolicy, splitOptions, sequenceOptions);
+    }
+
+    /**
+     * @return a processor like this one with other sequence options
+     */
+    public FileProcessor withSequenceOptions(SequenceOptions sequenceOptions) {
+        return new FileProcessor(blockStore, blhoWriter, metrics, uploadPolicy, splitOptions, sequenceOptions);
+    }
+
+    /**
+     * Process all JPG/JPEG/PNG images in the directory; in sequence mode as frames in file name order,
+     * with numbers in the names compared as numbers ({@link ImageFileUtils#FRAME_ORDER})
      */
     public void processDirectory(String dirPath) throws IOException {
         Path dir = Path.of(dirPath);
@@ -37,10 +95,14 @@ public class FileProcessor {
             log.error("'{}' is not a directory", dir);
             return;
         }
+        if (sequenceOptions.enabled()) {
+            processSequence(dir);
+            flushManifests();
+            return;
+        }
 
         try (Stream<Path> files = Files.list(dir)) {
-            files.filter(p -> p.toString().toLowerCase().endsWith(".jpg") ||
-                            p.toString().toLowerCase().endsWith(".jpeg"))
+            files.filter(ImageFileUtils::isSupportedImage)
                     .forEach(p -> {
                         try {
                             processFile(p.toFile());
@@ -49,60 +111,255 @@ public class FileProcessor {
                         }
                     });
         }
+        flushManifests();
+    }
+
+    private void processSequence(Path dir) throws IOException {
+        List<Path> frames;
+        try (Stream<Path> files = Files.list(dir)) {
+            frames = files.filter(ImageFileUtils::isSupportedImage).sorted(ImageFileUtils.FRAME_ORDER).toList();
+        }
+        log.info("Processing {} frames of '{}' as a sequence, keyframe every {} frames",
+                frames.size(), dir, sequenceOptions.keyframeInterval());
+
+        SequenceFrame previous = null;
+        for (Path frame : frames) {
+            try {
+                previous = processFrame(frame.toFile(), previous).frame();
+            } catch (Exception e) {
+                log.error("Error processing {}: {}", frame.getFileName(), e.getMessage());
+                // the next frame starts a new chain: its predecessor has no manifest
+                previous = null;
+            }
+        }
+    }
+
+    /**
+     * Publishes manifests held back by a group-commit fsync policy of the {@link BlhoWriter}.
+     *
+     * @throws IOException if a pending manifest cannot be forced or renamed
+     */
+    public void flushManifests() throws IOException {
+        blhoWriter.flush();
     }
 
     /**
      * Process single file: create .blho and upload missing blocks
+     *
+     * @return what was uploaded for this file
      */
-    private void processFile(File file) throws Exception {
+    public ProcessedFile processFile(File file) throws Exception {
+        return process(file, false, null);
+    }
+
+    /**
+     * Process a frame of a sequence: create its .blho, as a delta against the previous frame where possible,
+     * and upload missing blocks among those that changed since the previous frame
+     *
+     * @param previous the previous frame, {@code null} for the first frame of the sequence
+     * @return what was uploaded for this frame and the frame to compare the next one against
+     */
+    public ProcessedFile processFrame(File file, SequenceFrame previous) throws Exception {
+        return process(file, true, previous);
+    }
+
+    private ProcessedFile process(File file, boolean sequence, SequenceFrame previous) throws Exception {
         log.info("Processing file: {}", file.getName());
 
-        List<RctBlock> blocks = BlockSplitter.splitIntoRctBlocks(file);
-        blhoWriter.writeBlho(file, blocks);
+        long stageStart = System.nanoTime();
+        DctImage dctImage = splitOptions.jpegCoefficients() && ImageFileUtils.isJpeg(file.toPath())
+                ? JpegBlockSplitter.splitIntoDctBlocks(file)
+                : null;
+        ChannelLayout layout;
+        Map<BlockType, List<byte[]>> components;
+        int blockCount;
+        SequenceFrame frame = null;
+        if (dctImage != null) {
+            // coefficient blocks are kept as coded: canonical orientation applies to pixel blocks only
+            stageStart = metrics.stageFinished(PipelineStage.SPLIT, stageStart);
+            if (sequence) {
+                frame = blhoWriter.writeBlho(file, dctImage, previous, sequenceOptions.keyframeInterval());
+            } else {
+                blhoWriter.writeBlho(file, dctImage);
+            }
+            layout = dctImage.layout();
+            components = dctImage.blocks();
+            blockCount = components.get(BlockType.LUMA).size();
+        } else {
+            RctImage image = BlockSplitter.splitIntoRctBlocks(file, splitOptions.stripes());
+            if (splitOptions.canonicalOrientation()) {
+                image = DihedralUtils.canonicalize(image);
+            }
+            stageStart = metrics.stageFinished(PipelineStage.SPLIT, stageStart);
+            if (sequence) {
+                frame = blhoWriter.writeBlho(file, image, previous, sequenceOptions.keyframeInterval());
+            } else {
+                blhoWriter.writeBlho(file, image);
+            }
+            layout = image.layout();
+            components = componentBlocks(image);
+            blockCount = image.blocks().size();
+        }
+        stageStart = metrics.stageFinished(PipelineStage.MANIFEST, stageStart);
+
+        // only components of the detected layout are hashed and checked: no chroma for gray sources;
+        // blocks unchanged since a frame whose upload was not confirmed are checked again
+        boolean skipUnchanged = previous != null && previous.confirmed();
+        Map<BlockType, Map<String, byte[]>> componentMaps = new EnumMap<>(BlockType.class);
+        for (BlockType type : layout.components()) {
+            componentMaps.put(type, frame != null
+                    ? frameBlocks(frame, type, skipUnchanged)
+                    : blockMap(components.get(type)));
+        }
+        metrics.stageFinished(PipelineStage.HASH, stageStart);
 
-        Map<String, byte[]> yMap = new LinkedHashMap<>();
-        Map<String, byte[]> uMap = new LinkedHashMap<>();
-        Map<String, byte[]> vMap = new LinkedHashMap<>();
+        long failedRequests = blockStore.failedRequests();
+        Map<BlockType, List<String>> uploaded = new EnumMap<>(BlockType.class);
+        componentMaps.forEach((type, blockMap) -> uploaded.put(type, uploadMissingBlocks(blockMap, type)));
+        if (frame != null) {
+            frame = frame.withConfirmed(blockStore.failedRequests() == failedRequests);
+            if (!frame.confirmed()) {
+                log.warn("Upload of frame '{}' incomplete, its blocks are checked again with the next frame",
+                        file.getName());
+            }
+        }
+        metrics.fileProcessed(file.length());
 
-        for (RctBlock block : blocks) {
-            String yHash = HashUtils.sha256WithLength(block.y());
-            String uHash = HashUtils.sha256WithLength(block.uPacked());
-            String vHash = HashUtils.sha256WithLength(block.vPacked());
+        log.info("File '{}' processed ({}): {} Y blocks, {} U blocks, {} V blocks, {} A blocks (unique)",
+                file.getName(), layout,
+                uniqueCount(componentMaps, BlockType.LUMA),
+                uniqueCount(componentMaps, BlockType.CHROMA_CB),
+                uniqueCount(componentMaps, BlockType.CHROMA_CR),
+                uniqueCount(componentMaps, BlockType.ALPHA));
+        return new ProcessedFile(layout, blockCount, uploaded, frame);
+    }
 
-            yMap.putIfAbsent(yHash, block.y());
-            uMap.putIfAbsent(uHash, block.uPacked());
-            vMap.putIfAbsent(vHash, block.vPacked());
+    private static Map<String, byte[]> blockMap(List<byte[]> blocks) {
+        Map<String, byte[]> blockMap = new LinkedHashMap<>();
+        for (byte[] data : blocks) {
+            blockMap.putIfAbsent(HashUtils.sha256WithLength(data), data);
         }
+        return blockMap;
+    }
 
-        uploadMissingBlocks(yMap, BlockType.LUMA);
-        uploadMissingBlocks(uMap, BlockType.CHROMA_CB);
-        uploadMissingBlocks(vMap, BlockType.CHROMA_CR);
+    /**
+     * Blocks of a frame keyed by the hashes the manifest already holds. With {@code skipUnchanged}, only the blocks
+     * that changed since the previous frame: unchanged blocks were confirmed with an earlier frame and are neither
+     * hashed nor looked up again.
+     */
+    private static Map<String, byte[]> frameBlocks(SequenceFrame frame, BlockType type, boolean skipUnchanged) {
+        List<byte[]> blocks = frame.blocks().get(type);
+        boolean[] unchanged = frame.unchanged().get(type);
+        List<byte[]> hashes = frame.data().uniqueHashes(type);
+        List<Integer> positionMap = frame.data().positionMap(type);
+        Map<String, byte[]> blockMap = new LinkedHashMap<>();
+        int skipped = 0;
+        for (int position = 0; position < blocks.size(); position++) {
+            if (skipUnchanged && unchanged[position]) {
+                skipped++;
+                continue;
+            }
+            blockMap.putIfAbsent(HexFormat.of().formatHex(hashes.get(positionMap.get(position))),
+                    blocks.get(position));
+        }
+        log.debug("{} of {} {} blocks unchanged since the previous frame skipped", skipped, blocks.size(), type);
+        return blockMap;
+    }
 
-        log.info("File '{}' processed: {} Y blocks, {} U blocks, {} V blocks (unique)",
-                file.getName(), yMap.size(), uMap.size(), vMap.size());
+    private static Map<BlockType, List<byte[]>> componentBlocks(RctImage image) {
+        Map<BlockType, List<byte[]>> components = new EnumMap<>(BlockType.class);
+        for (BlockType type : image.layout().components()) {
+            List<byte[]> blocks = new ArrayList<>(image.blocks().size());
+            for (RctBlock block : image.blocks()) {
+                blocks.add(block.component(type));
+            }
+            components.put(type, blocks);
+        }
+        return components;
     }
 
     /**
-     * Upload missing blocks to the server
+     * Outcome of {@link #processFile(File)}.
+     *
+     * @param layout         detected channel layout
+     * @param blocks         number of 8x8 blocks of the padded image (luma blocks for JPEG coefficient blocks)
+     * @param uploadedHashes hashes of the blocks this file actually uploaded, per component
+     * @param frame          the file as a frame of a sequence, {@code null} unless processed with
+     *                       {@link #processFrame(File, SequenceFrame)}
      */
-    private void uploadMissingBlocks(Map<String, byte[]> blockMap, BlockType type) {
+    public record ProcessedFile(ChannelLayout layout, int blocks, Map<BlockType, List<String>> uploadedHashes,
+                                SequenceFrame frame) {
+    }
+
+    private static int uniqueCount(Map<BlockType, Map<String, byte[]>> componentMaps, BlockType type) {
+        Map<String, byte[]> blockMap = componentMaps.get(type);
+        return blockMap == null ? 0 : blockMap.size();
+    }
+
+    /**
+     * Upload missing blocks to the block store: check first and upload the missing ones, or – for components
+     * with blocks small enough for the {@link UploadPolicy} – send all of them with put-if-absent
+     * in a single round trip
+     *
+     * @return hashes of the uploaded blocks
+     */
+    private List<String> uploadMissingBlocks(Map<String, byte[]> blockMap, BlockType type) {
         if (blockMap.isEmpty()) {
             log.info("No {} blocks to upload", type);
-            return;
+            return List.of();
+        }
+
+        long stageStart = System.nanoTime();
+        // pixel blocks of a component have one length, JPEG coefficient blocks vary
+        int blockLength = 0;
+        for (byte[] block : blockMap.values()) {
+            blockLength = Math.max(blockLength, block.length);
+        }
+        if (uploadPolicy.usePutIfAbsent(type, blockLength)) {
+            List<BlockDto> blocks = validBlocks(blockMap, blockMap.keySet(), type);
+            List<String> stored = blockStore.putIfAbsent(blocks, type);
+            metrics.stageFinished(PipelineStage.UPLOAD, stageStart);
+            long storedBytes = 0;
+            for (String hash : stored) {
+                storedBytes += blockMap.get(hash).length;
+            }
+            metrics.blocksUploaded(stored.size(), storedBytes);
+            log.info("Put {} {} blocks if absent: {} were missing", blocks.size(), type, stored.size());
+            return stored;
         }
 
         List<String> hashes = new ArrayList<>(blockMap.keySet());
-        List<String> missing = blockClient.checkMissingBlocks(hashes, type);
+        List<String> missing = blockStore.findMissing(hashes, type);
+        stageStart = metrics.stageFinished(PipelineStage.CHECK, stageStart);
 
         if (missing.isEmpty()) {
             log.info("All {} blocks already exist, no upload needed", type);
-            return;
+            return List.of();
         }
 
         log.info("Uploading {} missing {} blocks…", missing.size(), type);
 
-        List<BlockDto> uploadList = new ArrayList<>(missing.size());
-        for (String h : missing) {
+        List<BlockDto> uploadList = validBlocks(blockMap, missing, type);
+        List<String> uploadedHashes = new ArrayList<>(uploadList.size());
+        long uploadBytes = 0;
+        for (BlockDto blockDto : uploadList) {
+            uploadedHashes.add(blockDto.getHash());
+            uploadBytes += blockDto.getData().length;
+        }
+
+        blockStore.putAll(uploadList, type);
+        metrics.stageFinished(PipelineStage.UPLOAD, stageStart);
+        metrics.blocksUploaded(uploadList.size(), uploadBytes);
+        return uploadedHashes;
+    }
+
+    /**
+     * @return the blocks with the given hashes that pass validation; invalid blocks are logged and left out
+     */
+    private static List<BlockDto> validBlocks(Map<String, byte[]> blockMap, Collection<String> hashes,
+                                              BlockType type) {
+        List<BlockDto> blocks = new ArrayList<>(hashes.size());
+        for (String h : hashes) {
             BlockDto blockDto = new BlockDto(h, blockMap.get(h), type);
 
             try {
@@ -112,9 +369,8 @@ public class FileProcessor {
                 continue;
             }
 
-            uploadList.add(blockDto);
+            blocks.add(blockDto);
         }
-
-        blockClient.uploadBlocksBatch(uploadList, type);
+        return blocks;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,483 @@
+package ru.levitsky.blackholeeh.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.util.image.ChromaPackingUtils;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
+import ru.levitsky.blackholeeh.util.image.RctTransformUtils;
+import ru.levitsky.blackholeeh.util.jpeg.JpegCodec;
+import ru.levitsky.blackholeeh.util.jpeg.JpegFrame;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reconstructs images, crops and thumbnails from .blho manifests and the block store.
+ * <p>
+ * Every position map entry covers one 8x8 pixel block, so a pixel rectangle maps directly to a rectangle
+ * of position map entries. Only the unique blocks referenced by that rectangle are fetched – one
+ * {@link BlockStore#getAll} call per component – and only the covered blocks are run through the inverse RCT.
+ * The cost of a preview is therefore proportional to the viewport, not to the image.
+ * <p>
+ * The output is produced in horizontal bands that are decoded in parallel on a {@link ForkJoinPool}.
+ * With a downscale factor {@code s}, every output pixel is the rounded box average of the
+ * {@code s x s} source pixels it covers (clipped at the region border), per channel.
+ * <p>
+ * Manifests of JPEG coefficient blocks are restored to the original file with {@link #restoreJpeg}; to reconstruct
+ * a region or thumbnail of them, the whole JPEG is restored and decoded first.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageReconstructor {
+
+    private final BlockStore blockStore;
+
+    /**
+     * Reconstructs a region of the image described by {@code manifest}.
+     *
+     * @param manifest    the .blho manifest
+     * @param region      pixel rectangle to reconstruct, clipped to the image; {@code null} for the whole image
+     * @param scale       downscale factor, {@code 1} for full resolution
+     * @param parallelism number of worker threads
+     * @return the reconstructed region, {@code ceil(width / scale) x ceil(height / scale)} pixels
+     * @throws IllegalArgumentException if the region does not intersect the image, the scale is not positive
+     *                                  or the manifest predates block store keys
+     * @throws IllegalStateException    if the block store does not have all referenced blocks
+     */
+    public BufferedImage reconstruct(BlhoFileDataV2 manifest, Rectangle region, int scale, int parallelism) {
+        if (!BlhoWriter.BLOCK_HASH.equals(manifest.getBlockHash())) {
+            throw new IllegalArgumentException("Manifest of '" + manifest.getOriginalFileName()
+                    + "' hashes bare blocks instead of block store keys; re-create it to reconstruct");
+        }
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        Rectangle image = new Rectangle(0, 0, manifest.getWidth(), manifest.getHeight());
+        Rectangle roi = region == null ? image : region.intersection(image);
+        if (roi.isEmpty()) {
+            throw new IllegalArgumentException("Region " + region + " is outside of the " + image.width + "x"
+                    + image.height + " image");
+        }
+
+        long startTime = System.nanoTime();
+        Grid grid = new Grid((manifest.getWidth() + 7) / 8, roi.x / 8, (roi.x + roi.width - 1) / 8,
+                roi.y / 8, (roi.y + roi.height - 1) / 8);
+
+        ChannelLayout layout = manifest.getChannelLayout();
+        BlockSource decoder;
+        int fetched = 0;
+        if (manifest.hasJpegSegments()) {
+            // coefficient blocks do not map to pixel blocks one by one: the whole JPEG is restored and decoded
+            decoder = JpegPixels.decode(restoreJpeg(manifest), manifest);
+            for (BlockType type : layout.components()) {
+                fetched += manifest.uniqueHashes(type).size();
+            }
+        } else {
+            Map<BlockType, byte[][]> blocks = new EnumMap<>(BlockType.class);
+            for (BlockType type : layout.components()) {
+                byte[][] data = fetchBlocks(manifest, type, grid);
+                blocks.put(type, data);
+                for (byte[] block : data) {
+                    fetched += block != null ? 1 : 0;
+                }
+            }
+            decoder = new Decoder(layout, manifest, blocks);
+        }
+
+        int outWidth = ceilDiv(roi.width, scale);
+        int outHeight = ceilDiv(roi.height, scale);
+        int[] out = new int[outWidth * outHeight];
+        // output rows per band: a band always covers whole scale boxes, and whole 8-pixel block rows if the
+        // region starts on a block row; otherwise a block row may straddle two bands and is decoded by both
+        int bandRows = lcm(8, scale) / scale;
+        Bands bands = new Bands(decoder, grid, roi, scale, bandRows, outWidth, outHeight, out);
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            pool.invoke(new BandTask(bands, 0, ceilDiv(outHeight, bandRows)));
+        }
+
+        BufferedImage result = toImage(layout, out, outWidth, outHeight);
+        log.info("Reconstructed {}x{} of '{}' (region {},{} {}x{}, scale 1/{}) from {} blocks, {} unique fetched, in {} ms",
+                outWidth, outHeight, manifest.getOriginalFileName(), roi.x, roi.y, roi.width, roi.height, scale,
+                grid.blockCount(), fetched, (System.nanoTime() - startTime) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Re-creates the original JPEG file of a manifest of coefficient blocks, byte for byte.
+     * All blocks are fetched – one {@link BlockStore#getAll} call per component – and Huffman-coded
+     * again with the tables of the segments stored in the manifest.
+     *
+     * @param manifest the .blho manifest, written with JPEG coefficient blocks
+     * @return the JPEG file
+     * @throws IllegalArgumentException if the manifest does not hold coefficient blocks or does not match its frame
+     * @throws IllegalStateException    if the block store does not have all referenced blocks
+     */
+    public byte[] restoreJpeg(BlhoFileDataV2 manifest) {
+        if (!manifest.hasJpegSegments()) {
+            throw new IllegalArgumentException("Manifest of '" + manifest.getOriginalFileName()
+                    + "' holds pixel blocks, not JPEG coefficients");
+        }
+        if (!BlhoWriter.BLOCK_HASH.equals(manifest.getBlockHash())) {
+            throw new IllegalArgumentException("Manifest of '" + manifest.getOriginalFileName()
+                    + "' hashes bare blocks instead of block store keys");
+        }
+
+        long startTime = System.nanoTime();
+        JpegFrame frame = JpegCodec.frame(manifest.getJpegSegments().getFirst());
+        List<BlockType> types = manifest.getChannelLayout().components();
+        if (types.size() != frame.components().size()) {
+            throw new IllegalArgumentException("JPEG frame has " + frame.components().size()
+                    + " components, manifest layout is " + manifest.getChannelLayout());
+        }
+
+        short[][] coefficients = new short[types.size()][];
+        int positions = 0;
+        for (int c = 0; c < types.size(); c++) {
+            BlockType type = types.get(c);
+            int blocksX = frame.storedBlocksPerLine(c);
+            int blocksY = frame.storedBlocksPerColumn(c);
+            List<Integer> positionMap = manifest.positionMap(type);
+            if (positionMap.size() != blocksX * blocksY) {
+                throw new IllegalArgumentException(type + " position map has " + positionMap.size()
+                        + " entries, JPEG frame has " + blocksX * blocksY + " blocks");
+            }
+            byte[][] blocks = fetchBlocks(manifest, type, new Grid(blocksX, 0, blocksX - 1, 0, blocksY - 1));
+
+            // unpacked once per unique block, copied to every position that uses it
+            short[] unique = new short[blocks.length * 64];
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i] != null) {
+                    JpegCodec.unpackBlock(blocks[i], unique, i * 64);
+                }
+            }
+            short[] component = new short[positionMap.size() * 64];
+            for (int position = 0; position < positionMap.size(); position++) {
+                System.arraycopy(unique, positionMap.get(position) * 64, component, position * 64, 64);
+            }
+            coefficients[c] = component;
+            positions += positionMap.size();
+        }
+
+        byte[] jpeg = JpegCodec.encode(manifest.getJpegSegments(), coefficients);
+        log.info("Restored JPEG '{}' ({} bytes) from {} coefficient blocks in {} ms",
+                manifest.getOriginalFileName(), jpeg.length, positions,
+                (System.nanoTime() - startTime) / 1_000_000);
+        return jpeg;
+    }
+
+    /**
+     * Fetches the unique blocks of one component referenced by the grid rectangle.
+     *
+     * @return block data indexed like the manifest hash list; entries not referenced by the rectangle are {@code null}
+     */
+    private byte[][] fetchBlocks(BlhoFileDataV2 manifest, BlockType type, Grid grid) {
+        List<byte[]> hashes = manifest.uniqueHashes(type);
+        List<Integer> positionMap = manifest.positionMap(type);
+        boolean[] needed = new boolean[hashes.size()];
+        List<String> keys = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        for (int by = grid.by0(); by <= grid.by1(); by++) {
+            for (int bx = grid.bx0(); bx <= grid.bx1(); bx++) {
+                int index = positionMap.get(by * grid.blocksX() + bx);
+                if (!needed[index]) {
+                    needed[index] = true;
+                    keys.add(HexFormat.of().formatHex(hashes.get(index)));
+                    indices.add(index);
+                }
+            }
+        }
+
+        Map<String, byte[]> found = blockStore.getAll(keys, type);
+        byte[][] data = new byte[hashes.size()][];
+        int missing = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] block = found.get(keys.get(i));
+            if (block == null) {
+                missing++;
+            }
+            data[indices.get(i)] = block;
+        }
+        if (missing > 0) {
+            throw new IllegalStateException("Block store is missing " + missing + " of " + keys.size()
+                    + " " + type + " blocks of '" + manifest.getOriginalFileName() + "'");
+        }
+        return data;
+    }
+
+    private static BufferedImage toImage(ChannelLayout layout, int[] argb, int width, int height) {
+        BufferedImage image;
+        switch (layout) {
+            case GRAY -> {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                int[] samples = new int[argb.length];
+                for (int i = 0; i < argb.length; i++) {
+                    samples[i] = argb[i] & 0xFF;
+                }
+                image.getRaster().setSamples(0, 0, width, height, 0, samples);
+                return image;
+            }
+            case RGB -> image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            default -> image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+
+    /**
+     * Rectangle of position map entries {@code [bx0..bx1] x [by0..by1]} in a grid {@code blocksX} blocks wide.
+     */
+    private record Grid(int blocksX, int bx0, int bx1, int by0, int by1) {
+        int blockCount() {
+            return (bx1 - bx0 + 1) * (by1 - by0 + 1);
+        }
+    }
+
+    /**
+     * Provides the ARGB pixels of the 8x8 pixel block at a position of the padded block grid.
+     */
+    private interface BlockSource {
+        void decode(int position, int[] pixels);
+    }
+
+    /**
+     * Pixels of a decoded JPEG, served block by block; positions beyond the image edge repeat no data
+     * and are cropped by the bands.
+     * Gray images are read as raster samples, so no color space conversion alters them.
+     */
+    private record JpegPixels(int[] argb, int width, int height, int blocksX) implements BlockSource {
+
+        static JpegPixels decode(byte[] jpeg, BlhoFileDataV2 manifest) {
+            BufferedImage image;
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(jpeg));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot decode JPEG of '" + manifest.getOriginalFileName() + "'", e);
+            }
+            if (image == null) {
+                throw new IllegalStateException("No decoder for JPEG of '" + manifest.getOriginalFileName() + "'");
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] argb;
+            if (manifest.getChannelLayout() == ChannelLayout.GRAY) {
+                argb = image.getRaster().getSamples(0, 0, width, height, 0, (int[]) null);
+                for (int i = 0; i < argb.length; i++) {
+                    argb[i] = 0xFF000000 | argb[i] * 0x010101;
+                }
+            } else {
+                argb = image.getRGB(0, 0, width, height, null, 0, width);
+            }
+            return new JpegPixels(argb, width, height, (width + 7) / 8);
+        }
+
+        @Override
+        public void decode(int position, int[] pixels) {
+            int x0 = (position % blocksX) * 8;
+            int y0 = (position / blocksX) * 8;
+            for (int yoff = 0; yoff < 8; yoff++) {
+                int y = Math.min(y0 + yoff, height - 1);
+                for (int xoff = 0; xoff < 8; xoff++) {
+                    pixels[yoff * 8 + xoff] = argb[y * width + Math.min(x0 + xoff, width - 1)];
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns fetched blocks into ARGB pixels; chroma blocks are unpacked once per unique block.
+     * Blocks stored in canonical orientation are read through the inverse permutation of their orientation.
+     */
+    private static final class Decoder implements BlockSource {
+        private final ChannelLayout layout;
+        private final List<Integer> yMap;
+        private final List<Integer> uMap;
+        private final List<Integer> vMap;
+        private final List<Integer> aMap;
+        private final byte[][] y;
+        private final byte[][] a;
+        private final short[][] u;
+        private final short[][] v;
+        private final Map<BlockType, byte[]> orientations;
+
+        private Decoder(ChannelLayout layout, BlhoFileDataV2 manifest, Map<BlockType, byte[][]> blocks) {
+            this.layout = layout;
+            this.yMap = manifest.getYPositionMap();
+            this.uMap = manifest.getUPositionMap();
+            this.vMap = manifest.getVPositionMap();
+            this.aMap = manifest.getAPositionMap();
+            this.y = blocks.get(BlockType.LUMA);
+            this.a = blocks.get(BlockType.ALPHA);
+            this.u = layout.hasChroma() ? unpack(blocks.get(BlockType.CHROMA_CB)) : null;
+            this.v = layout.hasChroma() ? unpack(blocks.get(BlockType.CHROMA_CR)) : null;
+            this.orientations = manifest.getOrientations();
+        }
+
+        /**
+         * @return sample order that restores the natural orientation of the component's block at {@code position}
+         */
+        private byte[] order(BlockType type, int position) {
+            return DihedralUtils.inverseTable(orientations == null ? 0 : orientations.get(type)[position]);
+        }
+
+        private static short[][] unpack(byte[][] packed) {
+            short[][] samples = new short[packed.length][];
+            for (int i = 0; i < packed.length; i++) {
+                if (packed[i] != null) {
+                    samples[i] = ChromaPackingUtils.unpack(packed[i]);
+                }
+            }
+            return samples;
+        }
+
+        /**
+         * Decodes block {@code position} into 64 ARGB pixels.
+         */
+        @Override
+        public void decode(int position, int[] pixels) {
+            byte[] luma = y[yMap.get(position)];
+            byte[] alpha = layout.hasAlpha() ? a[aMap.get(position)] : null;
+            short[] cb = layout.hasChroma() ? u[uMap.get(position)] : null;
+            short[] cr = layout.hasChroma() ? v[vMap.get(position)] : null;
+            byte[] yOrder = order(BlockType.LUMA, position);
+            byte[] uOrder = cb != null ? order(BlockType.CHROMA_CB, position) : null;
+            byte[] vOrder = cr != null ? order(BlockType.CHROMA_CR, position) : null;
+            byte[] aOrder = alpha != null ? order(BlockType.ALPHA, position) : null;
+            for (int i = 0; i < 64; i++) {
+                int lumaValue = luma[yOrder[i]] & 0xFF;
+                int rgb = cb != null
+                        ? RctTransformUtils.inverseRctToRgb(lumaValue, cb[uOrder[i]], cr[vOrder[i]])
+                        : lumaValue * 0x010101;
+                int alphaValue = alpha != null ? alpha[aOrder[i]] & 0xFF : 0xFF;
+                pixels[i] = (alphaValue << 24) | rgb;
+            }
+        }
+    }
+
+    /**
+     * Shared state of the band tasks; every band writes a disjoint range of output rows.
+     */
+    private record Bands(BlockSource decoder, Grid grid, Rectangle roi, int scale, int bandRows,
+                         int outWidth, int outHeight, int[] out) {
+
+        void render(int band) {
+            int oy0 = band * bandRows;
+            int oy1 = Math.min(outHeight, oy0 + bandRows);
+            int sy0 = roi.y + oy0 * scale;
+            int sy1 = Math.min(roi.y + roi.height, roi.y + oy1 * scale);
+            int roiRight = roi.x + roi.width;
+
+            // full-resolution pixels of the band, decoded block by block
+            int[] source = new int[(sy1 - sy0) * roi.width];
+            int[] pixels = new int[64];
+            for (int by = sy0 / 8; by <= (sy1 - 1) / 8; by++) {
+                for (int bx = grid.bx0(); bx <= grid.bx1(); bx++) {
+                    decoder.decode(by * grid.blocksX() + bx, pixels);
+                    for (int yoff = 0; yoff < 8; yoff++) {
+                        int sy = by * 8 + yoff;
+                        if (sy < sy0 || sy >= sy1) {
+                            continue;
+                        }
+                        for (int xoff = 0; xoff < 8; xoff++) {
+                            int sx = bx * 8 + xoff;
+                            if (sx >= roi.x && sx < roiRight) {
+                                source[(sy - sy0) * roi.width + (sx - roi.x)] = pixels[yoff * 8 + xoff];
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (scale == 1) {
+                System.arraycopy(source, 0, out, oy0 * outWidth, source.length);
+                return;
+            }
+            for (int oy = oy0; oy < oy1; oy++) {
+                int rowFrom = (oy - oy0) * scale;
+                int rowTo = Math.min(sy1 - sy0, rowFrom + scale);
+                for (int ox = 0; ox < outWidth; ox++) {
+                    int colFrom = ox * scale;
+                    int colTo = Math.min(roi.width, colFrom + scale);
+                    out[oy * outWidth + ox] = boxAverage(source, roi.width, rowFrom, rowTo, colFrom, colTo);
+                }
+            }
+        }
+
+        private static int boxAverage(int[] source, int stride, int rowFrom, int rowTo, int colFrom, int colTo) {
+            long a = 0;
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int row = rowFrom; row < rowTo; row++) {
+                for (int col = colFrom; col < colTo; col++) {
+                    int argb = source[row * stride + col];
+                    a += argb >>> 24;
+                    r += (argb >> 16) & 0xFF;
+                    g += (argb >> 8) & 0xFF;
+                    b += argb & 0xFF;
+                }
+            }
+            long n = (long) (rowTo - rowFrom) * (colTo - colFrom);
+            long half = n / 2;
+            return (int) ((a + half) / n) << 24 | (int) ((r + half) / n) << 16
+                    | (int) ((g + half) / n) << 8 | (int) ((b + half) / n);
+        }
+    }
+
+    /**
+     * Fork-join task over a contiguous range of output bands.
+     */
+    private static final class BandTask extends RecursiveAction {
+        private final Bands bands;
+        private final int from;
+        private final int to;
+
+        private BandTask(Bands bands, int from, int to) {
+            this.bands = bands;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int band = from; band < to; band++) {
+                    bands.render(band);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(bands, from, middle), new BandTask(bands, middle, to));
+        }
+    }
+}
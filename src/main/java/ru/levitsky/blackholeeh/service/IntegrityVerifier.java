@@ -0,0 +1,245 @@
+package ru.levitsky.blackholeeh.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.BlockChecksums;
+import ru.levitsky.blackholeeh.model.IntegrityReport;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.util.BandChecksums;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Verifies that .blho manifests and the block store still reproduce the ingested images, without
+ * reconstructing them.
+ * <p>
+ * For every sampled manifest, the unique blocks are fetched – one {@link BlockStore#getAll} call per component –
+ * and the {@link BandChecksums} are recomputed over them through the position maps and compared with the
+ * checksums stored at ingestion. A mismatch is reported per band, i.e. per row of blocks, with the pixel rows
+ * it covers. Manifests are verified in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * The sample is chosen per file from the seed and the file path, so the same seed picks the same manifests
+ * in every run and adding files does not change which of the existing ones are picked.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IntegrityVerifier {
+
+    private final BlhoReader blhoReader;
+    private final BlockStore blockStore;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Verifies a sample of the manifests below {@code root}.
+     *
+     * @param root        the directory tree to verify
+     * @param sample      fraction of the manifests to verify, {@code 1} for all
+     * @param seed        seed of the sample
+     * @param parallelism number of worker threads
+     * @return the report; all verified manifests match when {@link IntegrityReport#failures()} is empty
+     * @throws IOException if the directory tree cannot be listed
+     */
+    public IntegrityReport verify(Path root, double sample, long seed, int parallelism) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("'" + root + "' is not a directory");
+        }
+        if (sample <= 0 || sample > 1) {
+            throw new IllegalArgumentException("Sample must be in (0, 1]: " + sample);
+        }
+        List<Path> manifests;
+        try (Stream<Path> tree = Files.walk(root)) {
+            manifests = tree.filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().endsWith(".blho"))
+                    .sorted()
+                    .toList();
+        }
+        List<Path> sampled = manifests.stream()
+                .filter(f -> sample >= 1 || sampled(root.relativize(f), seed) < sample)
+                .toList();
+        log.info("Verifying {} of {} manifests below '{}' with parallelism {}",
+                sampled.size(), manifests.size(), root, parallelism);
+
+        long startTime = System.nanoTime();
+        List<Outcome> outcomes;
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            outcomes = pool.invoke(new VerifyTask(sampled, 0, sampled.size()));
+        }
+
+        long verified = 0;
+        long withoutChecksums = 0;
+        long fetched = 0;
+        List<IntegrityReport.ManifestFailure> failures = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            fetched += outcome.fetched();
+            if (outcome.skipped()) {
+                withoutChecksums++;
+                continue;
+            }
+            verified++;
+            if (outcome.failure() != null) {
+                failures.add(outcome.failure());
+            }
+        }
+        IntegrityReport report = new IntegrityReport(root.toString(), manifests.size(), verified, withoutChecksums,
+                fetched, (System.nanoTime() - startTime) / 1_000_000, failures);
+        failures.forEach(failure -> log.error("Integrity failure: {}: {}, {} missing blocks, bands {}",
+                failure.manifest(), failure.reason(), failure.missingBlocks(),
+                failure.bands().stream().map(IntegrityReport.BandFailure::band).toList()));
+        log.info("Verified {} manifests ({} without checksums skipped), {} blocks fetched, {} failures in {} ms",
+                verified, withoutChecksums, fetched, failures.size(), report.elapsedMillis());
+        return report;
+    }
+
+    /**
+     * Serializes the report as JSON to standard output.
+     */
+    public void printReport(IntegrityReport report) throws IOException {
+        System.out.println(objectMapper.writeValueAsString(report));
+    }
+
+    /**
+     * @return uniform value in {@code [0, 1)} that depends only on the seed and the path
+     */
+    private static double sampled(Path relative, long seed) {
+        return new SplittableRandom(seed ^ relative.toString().replace('\\', '/').hashCode()).nextDouble();
+    }
+
+    /**
+     * Verifies one manifest; failures to read it or to fetch its blocks are reported as failures.
+     */
+    Outcome verifyManifest(Path file) {
+        BlhoFileDataV2 manifest;
+        try {
+            manifest = blhoReader.read(file);
+        } catch (IOException e) {
+            return Outcome.failed(file, e.getMessage(), 0, 0);
+        }
+        if (!manifest.hasChecksums()) {
+            return new Outcome(true, 0, null);
+        }
+
+        Map<BlockType, List<byte[]>> blocks = new EnumMap<>(BlockType.class);
+        long fetched = 0;
+        long missing = 0;
+        try {
+            for (BlockType type : manifest.getChannelLayout().components()) {
+                List<byte[]> hashes = manifest.uniqueHashes(type);
+                List<String> keys = new ArrayList<>(hashes.size());
+                for (byte[] hash : hashes) {
+                    keys.add(HexFormat.of().formatHex(hash));
+                }
+                Map<String, byte[]> found = blockStore.getAll(keys, type);
+                List<byte[]> data = new ArrayList<>(keys.size());
+                for (String key : keys) {
+                    byte[] block = found.get(key);
+                    data.add(block);
+                    missing += block == null ? 1 : 0;
+                }
+                fetched += found.size();
+                blocks.put(type, data);
+            }
+        } catch (RuntimeException e) {
+            return Outcome.failed(file, "cannot fetch blocks: " + e.getMessage(), fetched, missing);
+        }
+
+        BlockChecksums expected = manifest.getChecksums();
+        BlockChecksums actual;
+        BandChecksums.Bands bands;
+        try {
+            bands = BandChecksums.Bands.of(manifest);
+            actual = BandChecksums.compute(manifest, blocks);
+        } catch (IllegalArgumentException e) {
+            return Outcome.failed(file, e.getMessage(), fetched, missing);
+        }
+        if (actual.image() == expected.image() && Arrays.equals(actual.bands(), expected.bands()) && missing == 0) {
+            return new Outcome(false, fetched, null);
+        }
+        if (actual.bands().length != expected.bands().length) {
+            return Outcome.failed(file, "manifest has " + expected.bands().length + " band checksums, expected "
+                    + actual.bands().length, fetched, missing);
+        }
+
+        List<IntegrityReport.BandFailure> failedBands = new ArrayList<>();
+        for (int band = 0; band < actual.bands().length; band++) {
+            if (actual.bands()[band] != expected.bands()[band]) {
+                int firstRow = band * bands.height();
+                failedBands.add(new IntegrityReport.BandFailure(band, firstRow,
+                        Math.min(manifest.getHeight(), firstRow + bands.height()) - 1));
+            }
+        }
+        String reason = missing > 0 ? "missing blocks"
+                : failedBands.isEmpty() ? "image checksum mismatch" : "band checksum mismatch";
+        return new Outcome(false, fetched,
+                new IntegrityReport.ManifestFailure(file.toString(), reason, missing, failedBands));
+    }
+
+    /**
+     * Result of verifying one manifest.
+     *
+     * @param skipped {@code true} if the manifest has no checksums
+     * @param fetched blocks fetched
+     * @param failure the failure, {@code null} if the manifest matches its blocks
+     */
+    record Outcome(boolean skipped, long fetched, IntegrityReport.ManifestFailure failure) {
+
+        static Outcome failed(Path file, String reason, long fetched, long missing) {
+            return new Outcome(false, fetched, new IntegrityReport.ManifestFailure(file.toString(), reason, missing,
+                    List.of()));
+        }
+    }
+
+    /**
+     * Fork-join task over a contiguous range of manifests.
+     */
+    private final class VerifyTask extends RecursiveTask<List<Outcome>> {
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        private VerifyTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Outcome> compute() {
+            if (to - from <= 1) {
+                List<Outcome> outcomes = new ArrayList<>(1);
+                for (int i = from; i < to; i++) {
+                    outcomes.add(verifyManifest(files.get(i)));
+                }
+                return outcomes;
+            }
+            int middle = (from + to) >>> 1;
+            VerifyTask left = new VerifyTask(files, from, middle);
+            VerifyTask right = new VerifyTask(files, middle, to);
+            invokeAll(left, right);
+            List<Outcome> outcomes = new ArrayList<>(left.join());
+            outcomes.addAll(right.join());
+            return outcomes;
+        }
+    }
+}
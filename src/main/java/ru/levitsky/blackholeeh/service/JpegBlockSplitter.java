@@ -0,0 +1,87 @@
+package ru.levitsky.blackholeeh.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.model.DctImage;
+import ru.levitsky.blackholeeh.util.jpeg.JpegCodec;
+import ru.levitsky.blackholeeh.util.jpeg.JpegCoefficients;
+import ru.levitsky.blackholeeh.util.jpeg.JpegFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits JPEG files into their quantized DCT coefficient blocks without decoding any pixels.
+ * <p>
+ * The JPEG 8x8 blocks are already the unit the rest of the pipeline works with, so the entropy-coded data
+ * is only Huffman-decoded: no IDCT, no color conversion, no RCT. A split is only returned if
+ * {@link JpegCodec#encode} re-creates the file byte for byte from it; otherwise – and for files the codec
+ * does not support (CMYK, arithmetic coding, 12-bit samples, ...) – the caller falls back to pixel blocks.
+ */
+@Slf4j
+public class JpegBlockSplitter {
+
+    /**
+     * Split a JPEG file into coefficient blocks.
+     *
+     * @return the blocks, or {@code null} if the file cannot be restored bit-exactly from them
+     * @throws IOException if the file cannot be read
+     */
+    public static DctImage splitIntoDctBlocks(File file) throws IOException {
+        long startTime = System.nanoTime();
+        byte[] data = Files.readAllBytes(file.toPath());
+        DctImage image;
+        try {
+            image = splitIntoDctBlocks(data);
+        } catch (IllegalArgumentException e) {
+            log.info("File '{}' is not split into DCT blocks: {}", file.getName(), e.getMessage());
+            return null;
+        }
+        if (image == null) {
+            log.warn("File '{}' is not split into DCT blocks: re-encoding is not bit-exact", file.getName());
+            return null;
+        }
+
+        long timeMs = (System.nanoTime() - startTime) / 1_000_000;
+        log.info("File '{}' ({}) split into {} DCT blocks in {} ms",
+                file.getName(), image.layout(), image.blockCount(), timeMs);
+        return image;
+    }
+
+    /**
+     * Split the bytes of a JPEG file into coefficient blocks.
+     *
+     * @return the blocks, or {@code null} if re-encoding them does not give back {@code data}
+     * @throws IllegalArgumentException if the file is malformed or not supported
+     */
+    public static DctImage splitIntoDctBlocks(byte[] data) {
+        JpegCoefficients coefficients = JpegCodec.decode(data);
+        JpegFrame frame = coefficients.frame();
+        ChannelLayout layout = switch (frame.components().size()) {
+            case 1 -> ChannelLayout.GRAY;
+            case 3 -> ChannelLayout.RGB;
+            default -> throw new IllegalArgumentException(frame.components().size() + " components");
+        };
+        if (!Arrays.equals(JpegCodec.encode(coefficients.segments(), coefficients.coefficients()), data)) {
+            return null;
+        }
+
+        Map<BlockType, List<byte[]>> blocks = new EnumMap<>(BlockType.class);
+        for (int c = 0; c < frame.components().size(); c++) {
+            short[] component = coefficients.coefficients()[c];
+            List<byte[]> packed = new ArrayList<>(component.length / 64);
+            for (int offset = 0; offset < component.length; offset += 64) {
+                packed.add(JpegCodec.packBlock(component, offset));
+            }
+            blocks.put(layout.components().get(c), packed);
+        }
+        return new DctImage(frame.width(), frame.height(), layout, blocks, coefficients.segments());
+    }
+}
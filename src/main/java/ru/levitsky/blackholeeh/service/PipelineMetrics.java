@@ -0,0 +1,81 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.springframework.stereotype.Component;
+import ru.levitsky.blackholeeh.enumeration.PipelineStage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counters of the {@link FileProcessor} pipeline: wall-clock time per {@link PipelineStage}
+ * and processed/uploaded volume.
+ * <p>
+ * Counters are cheap {@link LongAdder}s, so they are always on; the benchmark {@link #reset() resets}
+ * them between iterations and reads a {@link #snapshot()} afterwards.
+ */
+@Component
+public class PipelineMetrics {
+
+    private final Map<PipelineStage, LongAdder> stageNanos = new EnumMap<>(PipelineStage.class);
+    private final LongAdder files = new LongAdder();
+    private final LongAdder sourceBytes = new LongAdder();
+    private final LongAdder uploadedBlocks = new LongAdder();
+    private final LongAdder uploadedBytes = new LongAdder();
+
+    public PipelineMetrics() {
+        for (PipelineStage stage : PipelineStage.values()) {
+            stageNanos.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * Adds the time elapsed since {@code startNanos} to the stage.
+     *
+     * @param stage      the finished stage
+     * @param startNanos {@link System#nanoTime()} at the start of the stage
+     * @return current {@link System#nanoTime()}, to be used as start of the next stage
+     */
+    public long stageFinished(PipelineStage stage, long startNanos) {
+        long now = System.nanoTime();
+        stageNanos.get(stage).add(now - startNanos);
+        return now;
+    }
+
+    public void fileProcessed(long bytes) {
+        files.increment();
+        sourceBytes.add(bytes);
+    }
+
+    public void blocksUploaded(int blocks, long bytes) {
+        uploadedBlocks.add(blocks);
+        uploadedBytes.add(bytes);
+    }
+
+    public void reset() {
+        stageNanos.values().forEach(LongAdder::reset);
+        files.reset();
+        sourceBytes.reset();
+        uploadedBlocks.reset();
+        uploadedBytes.reset();
+    }
+
+    public Snapshot snapshot() {
+        Map<PipelineStage, Long> stageMillis = new EnumMap<>(PipelineStage.class);
+        stageNanos.forEach((stage, nanos) -> stageMillis.put(stage, nanos.sum() / 1_000_000));
+        return new Snapshot(files.sum(), sourceBytes.sum(), uploadedBlocks.sum(), uploadedBytes.sum(), stageMillis);
+    }
+
+    /**
+     * Point-in-time copy of the counters.
+     *
+     * @param files          number of successfully processed images
+     * @param sourceBytes    total size of the processed source images
+     * @param uploadedBlocks number of blocks sent to the block store
+     * @param uploadedBytes  payload bytes of the uploaded blocks
+     * @param stageMillis    accumulated wall-clock time per stage
+     */
+    public record Snapshot(long files, long sourceBytes, long uploadedBlocks, long uploadedBytes,
+                           Map<PipelineStage, Long> stageMillis) {
+    }
+}
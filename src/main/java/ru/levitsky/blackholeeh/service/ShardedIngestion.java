@@ -0,0 +1,317 @@
+package ru.levitsky.blackholeeh.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.MergedShardReport;
+import ru.levitsky.blackholeeh.model.ShardJournalEntry;
+import ru.levitsky.blackholeeh.model.ShardReport;
+import ru.levitsky.blackholeeh.model.ShardSpec;
+import ru.levitsky.blackholeeh.util.image.ImageFileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Ingestion of one shard of a directory tree, for running N independent processes or nodes on shared storage.
+ * <p>
+ * Every process walks the same tree and processes only the files its {@link ShardSpec} owns, so the shards
+ * are disjoint and need no coordination. Each shard keeps its own state in the state directory:
+ * <ul>
+ *     <li>{@code shard-<i>-of-<N>.journal.jsonl} – one {@link ShardJournalEntry} per file, appended as soon
+ *     as the file is done; a restarted shard skips files the journal already has</li>
+ *     <li>{@code shard-<i>-of-<N>.report.json} – the {@link ShardReport}, rewritten at the end of every run</li>
+ * </ul>
+ * {@link #mergeReports(Path)} combines the reports of all shards and detects blocks that were uploaded
+ * by more than one shard.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ShardedIngestion {
+
+    private static final String REPORT_SUFFIX = ".report.json";
+    private static final String JOURNAL_SUFFIX = ".journal.jsonl";
+
+    private final FileProcessor fileProcessor;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private final ObjectWriter reportWriter = objectMapper.writerWithDefaultPrettyPrinter();
+
+    /**
+     * Default state directory of a tree: {@code <root>/.blackhole}.
+     */
+    public static Path defaultStateDirectory(Path root) {
+        return root.resolve(".blackhole");
+    }
+
+    /**
+     * Processes all supported images below {@code root} that belong to {@code shard}.
+     *
+     * @param root     the directory tree shared by all shards
+     * @param shard    the shard of this process
+     * @param stateDir directory for journal and report, shared by all shards
+     * @return the report of this shard, also written to the state directory
+     * @throws IOException if the tree cannot be listed or the journal cannot be written
+     */
+    public ShardReport ingest(Path root, ShardSpec shard, Path stateDir) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("'" + root + "' is not a directory");
+        }
+        Files.createDirectories(stateDir);
+        String baseName = "shard-%d-of-%d".formatted(shard.index(), shard.count());
+        Path journalFile = stateDir.resolve(baseName + JOURNAL_SUFFIX);
+
+        List<Path> assigned;
+        try (Stream<Path> tree = Files.walk(root)) {
+            assigned = tree.filter(Files::isRegularFile)
+                    .filter(ImageFileUtils::isSupportedImage)
+                    .filter(file -> shard.owns(root.relativize(file)))
+                    .sorted()
+                    .toList();
+        }
+
+        JournalSummary state = readJournal(journalFile);
+        log.info("Shard {} of '{}': {} images assigned, {} already done", shard, root, assigned.size(),
+                state.doneFiles.size());
+
+        String startedAt = Instant.now().toString();
+        long startTime = System.nanoTime();
+        long skipped = 0;
+        long failed = 0;
+        try (BufferedWriter journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Path file : assigned) {
+                String relative = ShardSpec.normalize(root.relativize(file));
+                // with group commit a journaled file may have lost its manifest in a crash: redo it
+                if (state.doneFiles.contains(relative) && Files.exists(Path.of(file + ".blho"))) {
+                    skipped++;
+                    continue;
+                }
+
+                ShardJournalEntry entry;
+                try {
+                    FileProcessor.ProcessedFile result = fileProcessor.processFile(file.toFile());
+                    entry = new ShardJournalEntry(relative, ShardJournalEntry.DONE, null, result.layout(),
+                            result.blocks(), Files.size(file), result.uploadedHashes());
+                } catch (Exception e) {
+                    failed++;
+                    log.error("Error processing {}: {}", file, e.getMessage());
+                    entry = new ShardJournalEntry(relative, ShardJournalEntry.FAILED, e.getMessage(), null,
+                            0, 0, Map.of());
+                }
+                journal.write(objectMapper.writeValueAsString(entry));
+                journal.newLine();
+                // flushed per file, so a killed process loses at most the file in flight
+                journal.flush();
+                state.add(entry);
+            }
+        }
+        fileProcessor.flushManifests();
+
+        ShardReport report = new ShardReport(
+                root.toString(),
+                shard.index(),
+                shard.count(),
+                journalFile.getFileName().toString(),
+                startedAt,
+                Instant.now().toString(),
+                assigned.size(),
+                state.doneFiles.size(),
+                skipped,
+                failed,
+                state.sourceBytes,
+                state.totalBlocks,
+                state.uploadedBlocks,
+                (System.nanoTime() - startTime) / 1_000_000
+        );
+        reportWriter.writeValue(stateDir.resolve(baseName + REPORT_SUFFIX).toFile(), report);
+        log.info("Shard {} finished: {} done, {} skipped, {} failed", shard, report.filesDone(), skipped, failed);
+        return report;
+    }
+
+    /**
+     * Combines the reports of all shards found in {@code stateDir} and cross-checks their journals.
+     *
+     * @param stateDir the state directory shared by the shards
+     * @return the merged report
+     * @throws IOException if a report or journal cannot be read
+     */
+    public MergedShardReport mergeReports(Path stateDir) throws IOException {
+        List<ShardReport> reports = new ArrayList<>();
+        try (Stream<Path> files = Files.list(stateDir)) {
+            List<Path> reportFiles = files.filter(f -> f.getFileName().toString().endsWith(REPORT_SUFFIX))
+                    .sorted()
+                    .toList();
+            for (Path file : reportFiles) {
+                reports.add(objectMapper.readValue(file.toFile(), ShardReport.class));
+            }
+        }
+        if (reports.isEmpty()) {
+            throw new IllegalArgumentException("No shard reports in '" + stateDir + "'");
+        }
+
+        int shardCount = reports.getFirst().shardCount();
+        String root = reports.getFirst().root();
+        for (ShardReport report : reports) {
+            if (report.shardCount() != shardCount || !report.root().equals(root)) {
+                throw new IllegalArgumentException("Reports of different sharded runs in '" + stateDir
+                        + "': " + root + " in " + shardCount + " shards vs " + report.root() + " in "
+                        + report.shardCount() + " shards");
+            }
+        }
+
+        Set<Integer> present = new TreeSet<>();
+        long filesAssigned = 0;
+        long filesDone = 0;
+        long filesFailed = 0;
+        long sourceBytes = 0;
+        long totalBlocks = 0;
+        long maxElapsed = 0;
+        long totalElapsed = 0;
+        Map<BlockType, Long> uploadedBlocks = new EnumMap<>(BlockType.class);
+        for (ShardReport report : reports) {
+            present.add(report.shardIndex());
+            filesAssigned += report.filesAssigned();
+            filesDone += report.filesDone();
+            filesFailed += report.filesFailed();
+            sourceBytes += report.sourceBytes();
+            totalBlocks += report.totalBlocks();
+            maxElapsed = Math.max(maxElapsed, report.elapsedMs());
+            totalElapsed += report.elapsedMs();
+            report.uploadedBlocks().forEach((type, count) -> uploadedBlocks.merge(type, count, Long::sum));
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            if (!present.contains(i)) {
+                missing.add(i);
+            }
+        }
+
+        // first shard that uploaded each block, and first shard that processed each file
+        Map<BlockType, Map<String, Integer>> uploaders = new EnumMap<>(BlockType.class);
+        Map<BlockType, Long> duplicateUploads = new EnumMap<>(BlockType.class);
+        Map<String, Integer> fileOwners = new HashMap<>();
+        Set<String> filesInMultipleShards = new TreeSet<>();
+        for (ShardReport report : reports) {
+            int shard = report.shardIndex();
+            forEachJournalEntry(stateDir.resolve(report.journal()), entry -> {
+                if (!entry.done()) {
+                    return;
+                }
+                Integer fileOwner = fileOwners.putIfAbsent(entry.file(), shard);
+                if (fileOwner != null && fileOwner != shard) {
+                    filesInMultipleShards.add(entry.file());
+                }
+                entry.uploadedHashes().forEach((type, hashes) -> {
+                    Map<String, Integer> typeUploaders = uploaders.computeIfAbsent(type, _ -> new HashMap<>());
+                    for (String hash : hashes) {
+                        Integer uploader = typeUploaders.putIfAbsent(hash, shard);
+                        if (uploader != null && uploader != shard) {
+                            duplicateUploads.merge(type, 1L, Long::sum);
+                        }
+                    }
+                });
+            });
+        }
+
+        MergedShardReport merged = new MergedShardReport(root, shardCount, List.copyOf(present), missing,
+                filesAssigned, filesDone, filesFailed, sourceBytes, totalBlocks, uploadedBlocks,
+                duplicateUploads, List.copyOf(filesInMultipleShards), maxElapsed, totalElapsed);
+        if (!missing.isEmpty()) {
+            log.warn("Shards without report: {}", missing);
+        }
+        if (!filesInMultipleShards.isEmpty()) {
+            log.warn("{} files were processed by more than one shard", filesInMultipleShards.size());
+        }
+        log.info("Merged {} of {} shard reports: {} files done, duplicate uploads {}",
+                present.size(), shardCount, filesDone, duplicateUploads);
+        return merged;
+    }
+
+    /**
+     * Serializes the merged report as JSON.
+     *
+     * @param report the report to write
+     * @param output the target file, or {@code null} to print the report to standard output
+     * @throws IOException if the report cannot be written
+     */
+    public void writeReport(MergedShardReport report, Path output) throws IOException {
+        if (output == null) {
+            System.out.println(reportWriter.writeValueAsString(report));
+            return;
+        }
+        reportWriter.writeValue(output.toFile(), report);
+        log.info("Merged report written to '{}'", output);
+    }
+
+    private JournalSummary readJournal(Path journalFile) throws IOException {
+        JournalSummary summary = new JournalSummary();
+        if (Files.exists(journalFile)) {
+            forEachJournalEntry(journalFile, summary::add);
+        }
+        return summary;
+    }
+
+    private void forEachJournalEntry(Path journalFile, Consumer<ShardJournalEntry> action)
+            throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                ShardJournalEntry entry;
+                try {
+                    entry = objectMapper.readValue(line, ShardJournalEntry.class);
+                } catch (IOException e) {
+                    // a line torn by a killed process: the file is simply processed again
+                    log.warn("Skipping unreadable journal line in '{}': {}", journalFile, e.getMessage());
+                    continue;
+                }
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Cumulative state of a journal: done files and their counters.
+     */
+    private static final class JournalSummary {
+        private final Set<String> doneFiles = new HashSet<>();
+        private final Map<BlockType, Long> uploadedBlocks = new EnumMap<>(BlockType.class);
+        private long sourceBytes;
+        private long totalBlocks;
+
+        private void add(ShardJournalEntry entry) {
+            if (!entry.done() || !doneFiles.add(entry.file())) {
+                return;
+            }
+            sourceBytes += entry.sourceBytes();
+            totalBlocks += entry.blocks();
+            entry.uploadedHashes().forEach((type, hashes) ->
+                    uploadedBlocks.merge(type, (long) hashes.size(), Long::sum));
+        }
+    }
+}
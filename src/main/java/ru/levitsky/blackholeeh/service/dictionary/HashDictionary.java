@@ -0,0 +1,324 @@
+package ru.levitsky.blackholeeh.service.dictionary;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only, memory-mapped dictionary that maps block hashes to dense 32-bit ids for a collection of manifests.
+ * <p>
+ * <b>File layout:</b>
+ * <pre>
+ * header (64 bytes):  "BLHD" | version (1) | pad (3) | count (4) | dictionary id (16, UUID) | reserved
+ * entry i (32 bytes): SHA-256 hash with id i, at offset 64 + 32 * i
+ * </pre>
+ * Ids are assigned in append order and never change, so a manifest that references ids stays valid as the
+ * dictionary grows. Entries are written before the count in the header is advanced, so a crash never exposes
+ * a partially written entry. The file is mapped in segments of {@value #ENTRIES_PER_SEGMENT} entries and
+ * extended one segment at a time; space beyond {@code count} is reserved and reads as zeros.
+ * <p>
+ * Lookups use an in-memory open-addressing table of ids (4 bytes per slot) over the mapped hashes,
+ * built when the dictionary is opened.
+ * <p>
+ * Several processes on one host may append concurrently (e.g. ingestion shards): appends take an exclusive
+ * {@link FileChannel#lock() file lock}, pick up entries other processes appended meanwhile and only then add
+ * their own. Within a process all public methods are {@code synchronized}.
+ */
+@Slf4j
+public class HashDictionary implements Closeable {
+
+    public static final int HASH_SIZE = 32;
+
+    private static final byte[] MAGIC = "BLHD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int COUNT_OFFSET = 8;
+    private static final int ID_OFFSET = 16;
+    private static final int ENTRIES_PER_SEGMENT = 1 << 16;
+    private static final int MIN_TABLE_CAPACITY = 1 << 10;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final UUID id;
+
+    private int count;
+    private int duplicates;
+    private int[] table = new int[MIN_TABLE_CAPACITY];
+
+    private HashDictionary(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        byte[] magic = new byte[4];
+        header.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || header.get(4) != FORMAT_VERSION) {
+            throw new IOException("Invalid hash dictionary " + path);
+        }
+        this.id = new UUID(header.getLong(ID_OFFSET), header.getLong(ID_OFFSET + 8));
+        refresh();
+    }
+
+    /**
+     * Opens a dictionary, creating an empty one if the file does not exist or is empty.
+     *
+     * @param path the dictionary file
+     * @return the opened dictionary
+     * @throws IOException if the file cannot be opened or is not a hash dictionary
+     */
+    public static HashDictionary open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                try (FileLock _ = channel.lock()) {
+                    // another process may have created it while we were waiting for the lock
+                    if (channel.size() < HEADER_SIZE) {
+                        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                        UUID id = UUID.randomUUID();
+                        header.put(0, MAGIC).put(4, FORMAT_VERSION).putInt(COUNT_OFFSET, 0)
+                                .putLong(ID_OFFSET, id.getMostSignificantBits())
+                                .putLong(ID_OFFSET + 8, id.getLeastSignificantBits());
+                        while (header.hasRemaining()) {
+                            channel.write(header, header.position());
+                        }
+                        channel.force(true);
+                        log.info("Created hash dictionary '{}' ({})", path, id);
+                    }
+                }
+            }
+            return new HashDictionary(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the random id of this dictionary, recorded in manifests to detect a mismatched dictionary file
+     */
+    public UUID id() {
+        return id;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return the number of entries, including entries appended by other processes so far
+     */
+    public synchronized int size() throws IOException {
+        refresh();
+        return count;
+    }
+
+    /**
+     * @return number of hashes found more than once while loading, {@code 0} for a consistent dictionary
+     */
+    public synchronized int duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @param hash a 32-byte hash
+     * @return the id of the hash, or {@code -1} if the dictionary does not contain it
+     */
+    public synchronized int find(byte[] hash) throws IOException {
+        int found = lookup(hash);
+        if (found < 0) {
+            refresh();
+            found = lookup(hash);
+        }
+        return found;
+    }
+
+    /**
+     * @param id an id returned by this dictionary
+     * @return a copy of the hash with this id
+     * @throws IllegalArgumentException if there is no entry with this id
+     */
+    public synchronized byte[] hash(int id) throws IOException {
+        if (id < 0 || id >= count) {
+            refresh();
+            if (id < 0 || id >= count) {
+                throw new IllegalArgumentException("Hash id " + id + " is not in dictionary '" + path
+                        + "' of " + count + " entries");
+            }
+        }
+        byte[] hash = new byte[HASH_SIZE];
+        segment(id).get(entryOffset(id), hash);
+        return hash;
+    }
+
+    /**
+     * Returns the ids of the given hashes, appending the hashes that are not in the dictionary yet.
+     * All appends of one call happen under a single file lock and are forced to disk before returning.
+     *
+     * @param hashes 32-byte hashes
+     * @return ids in the order of {@code hashes}
+     */
+    public synchronized int[] idsFor(List<byte[]> hashes) throws IOException {
+        int[] ids = new int[hashes.size()];
+        boolean complete = true;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = lookup(hashes.get(i));
+            complete &= ids[i] >= 0;
+        }
+        if (complete) {
+            return ids;
+        }
+
+        try (FileLock _ = channel.lock()) {
+            refresh();
+            int firstNew = count;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] < 0) {
+                    byte[] hash = hashes.get(i);
+                    ids[i] = lookup(hash);
+                    if (ids[i] < 0) {
+                        ids[i] = append(hash);
+                    }
+                }
+            }
+            if (count > firstNew) {
+                for (int s = firstNew / ENTRIES_PER_SEGMENT; s <= (count - 1) / ENTRIES_PER_SEGMENT; s++) {
+                    segments.get(s).force();
+                }
+                // publish the new entries only after they are durable
+                header.putInt(COUNT_OFFSET, count);
+                header.force();
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Picks up entries appended by this or other processes since the last refresh.
+     */
+    private void refresh() throws IOException {
+        int published = header.getInt(COUNT_OFFSET);
+        if (published < 0 || HEADER_SIZE + (long) published * HASH_SIZE > channel.size()) {
+            throw new IOException("Corrupt hash dictionary " + path + ": " + published + " entries announced, file has "
+                    + channel.size() + " bytes");
+        }
+        ensureTableCapacity(published);
+        for (int i = count; i < published; i++) {
+            byte[] hash = new byte[HASH_SIZE];
+            segment(i).get(entryOffset(i), hash);
+            if (lookup(hash) >= 0) {
+                duplicates++;
+            } else {
+                insertIntoTable(hash, i);
+            }
+        }
+        count = Math.max(count, published);
+    }
+
+    private int append(byte[] hash) throws IOException {
+        if (hash.length != HASH_SIZE) {
+            throw new IllegalArgumentException("Hash must have " + HASH_SIZE + " bytes: " + hash.length);
+        }
+        ensureTableCapacity(count + 1);
+        int newId = count;
+        segment(newId).put(entryOffset(newId), hash);
+        count++;
+        insertIntoTable(hash, newId);
+        return newId;
+    }
+
+    private MappedByteBuffer segment(int id) throws IOException {
+        int index = id / ENTRIES_PER_SEGMENT;
+        while (segments.size() <= index) {
+            long start = HEADER_SIZE + (long) segments.size() * ENTRIES_PER_SEGMENT * HASH_SIZE;
+            // mapping past the end extends the file; the reserved space reads as zeros
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, (long) ENTRIES_PER_SEGMENT * HASH_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    private static int entryOffset(int id) {
+        return (id % ENTRIES_PER_SEGMENT) * HASH_SIZE;
+    }
+
+    private int lookup(byte[] hash) throws IOException {
+        int mask = table.length - 1;
+        byte[] candidate = new byte[HASH_SIZE];
+        for (int slot = slotOf(hash, mask); ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int id = entry - 1;
+            segment(id).get(entryOffset(id), candidate);
+            if (Arrays.equals(candidate, hash)) {
+                return id;
+            }
+        }
+    }
+
+    private void insertIntoTable(byte[] hash, int id) {
+        int mask = table.length - 1;
+        int slot = slotOf(hash, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    /**
+     * Keeps the table at most half full; growing rehashes all entries from the mapped hashes.
+     */
+    private void ensureTableCapacity(int entries) throws IOException {
+        if ((long) entries * 2 <= table.length) {
+            return;
+        }
+        int capacity = table.length;
+        while ((long) entries * 2 > capacity) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            segment(i).get(entryOffset(i), hash);
+            if (lookup(hash) < 0) {
+                insertIntoTable(hash, i);
+            }
+        }
+    }
+
+    /**
+     * Mixes the first 8 bytes with the MurmurHash3 finalizer, so that hashes which are not uniformly
+     * distributed in their low bits still spread over the table instead of clustering in a few runs.
+     */
+    private static int slotOf(byte[] hash, int mask) {
+        return (int) (fmix64(ByteBuffer.wrap(hash).getLong()) & mask);
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
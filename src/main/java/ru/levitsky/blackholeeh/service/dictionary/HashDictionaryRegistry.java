@@ -0,0 +1,91 @@
+package ru.levitsky.blackholeeh.service.dictionary;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which {@link HashDictionary} new manifests use and keeps every dictionary open once per process.
+ * <p>
+ * Configured by {@code blackhole.manifest.dictionary}:
+ * <ul>
+ *     <li>empty (default) – manifests store full SHA-256 hashes</li>
+ *     <li>{@value #PER_DIRECTORY} – one dictionary per image directory, {@code <dir>/.blackhole/hashes.blhd}</li>
+ *     <li>any other value – path of a single dictionary shared by the whole collection</li>
+ * </ul>
+ * Readers open whatever dictionary a manifest references, independently of this setting.
+ */
+@Slf4j
+@Service
+public class HashDictionaryRegistry implements AutoCloseable {
+
+    public static final String PER_DIRECTORY = "per-directory";
+    public static final String DICTIONARY_FILE = "hashes.blhd";
+
+    private final String setting;
+    private final Map<Path, HashDictionary> dictionaries = new HashMap<>();
+
+    public HashDictionaryRegistry(@Value("${blackhole.manifest.dictionary:}") String setting) {
+        this.setting = setting == null ? "" : setting.trim();
+    }
+
+    /**
+     * @return whether new manifests reference dictionary ids instead of full hashes
+     */
+    public boolean enabled() {
+        return !setting.isEmpty();
+    }
+
+    /**
+     * @param manifestDirectory directory the manifest is written to
+     * @return the dictionary new manifests in this directory use, or {@code null} if dictionaries are disabled
+     */
+    public HashDictionary forManifestDirectory(Path manifestDirectory) throws IOException {
+        if (!enabled()) {
+            return null;
+        }
+        Path file = PER_DIRECTORY.equals(setting)
+                ? manifestDirectory.resolve(".blackhole").resolve(DICTIONARY_FILE)
+                : Path.of(setting);
+        return open(file, true);
+    }
+
+    /**
+     * Opens a dictionary, or returns the instance this process already opened.
+     *
+     * @param file   the dictionary file
+     * @param create whether to create a missing dictionary; readers must not
+     * @throws IOException if the dictionary cannot be opened, or is missing and {@code create} is not set
+     */
+    public synchronized HashDictionary open(Path file, boolean create) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        HashDictionary dictionary = dictionaries.get(key);
+        if (dictionary == null) {
+            if (!create && !Files.isRegularFile(key)) {
+                throw new IOException("Hash dictionary '" + key + "' does not exist");
+            }
+            Files.createDirectories(key.getParent());
+            dictionary = HashDictionary.open(key);
+            dictionaries.put(key, dictionary);
+        }
+        return dictionary;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (HashDictionary dictionary : dictionaries.values()) {
+            try {
+                dictionary.close();
+            } catch (IOException e) {
+                log.warn("Failed to close hash dictionary '{}': {}", dictionary.path(), e.getMessage());
+            }
+        }
+        dictionaries.clear();
+    }
+}
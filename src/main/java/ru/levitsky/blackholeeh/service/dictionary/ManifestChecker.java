@@ -0,0 +1,187 @@
+package ru.levitsky.blackholeeh.service.dictionary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.DictionaryCheckReport;
+import ru.levitsky.blackholeeh.service.BlhoReader;
+import ru.levitsky.blackholeeh.service.BlhoWriter;
+import ru.levitsky.blackholeeh.util.jpeg.JpegCodec;
+import ru.levitsky.blackholeeh.util.jpeg.JpegFrame;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Consistency checker for hash dictionaries and the manifests that reference them.
+ * <p>
+ * Checks every {@value HashDictionaryRegistry#DICTIONARY_FILE}-style dictionary ({@code *.blhd}) and every
+ * {@code .blho} manifest below a directory:
+ * <ul>
+ *     <li>dictionary header, announced entry count vs. file size, no hash stored twice</li>
+ *     <li>the referenced dictionary exists and has the id recorded in the manifest</li>
+ *     <li>every referenced id exists in the dictionary</li>
+ *     <li>hash lists contain no duplicates and every entry is used by the position map</li>
+ *     <li>position maps cover the whole 8x8 grid (of the JPEG component, for coefficient blocks)
+ *     and only point into their hash list</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ManifestChecker {
+
+    private final BlhoReader blhoReader;
+    private final HashDictionaryRegistry dictionaries;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Checks all dictionaries and manifests below {@code root}.
+     *
+     * @param root the directory tree to check
+     * @return the report; consistent when {@link DictionaryCheckReport#problems()} is empty
+     * @throws IOException if the directory tree cannot be listed
+     */
+    public DictionaryCheckReport check(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("'" + root + "' is not a directory");
+        }
+        List<Path> dictionaryFiles;
+        List<Path> manifests;
+        try (Stream<Path> tree = Files.walk(root)) {
+            List<Path> files = tree.filter(Files::isRegularFile).sorted().toList();
+            dictionaryFiles = files.stream().filter(f -> f.getFileName().toString().endsWith(".blhd")).toList();
+            manifests = files.stream().filter(f -> f.getFileName().toString().endsWith(".blho")).toList();
+        }
+
+        List<String> problems = new ArrayList<>();
+        List<DictionaryCheckReport.DictionaryStatus> statuses = new ArrayList<>();
+        for (Path file : dictionaryFiles) {
+            try {
+                HashDictionary dictionary = dictionaries.open(file, false);
+                DictionaryCheckReport.DictionaryStatus status = new DictionaryCheckReport.DictionaryStatus(
+                        file.toString(), dictionary.id().toString(), dictionary.size(), dictionary.duplicates());
+                if (status.duplicates() > 0) {
+                    problems.add(file + ": " + status.duplicates() + " hashes are stored more than once");
+                }
+                statuses.add(status);
+            } catch (IOException e) {
+                problems.add(file + ": " + e.getMessage());
+            }
+        }
+
+        long dictionaryManifests = 0;
+        for (Path manifest : manifests) {
+            try {
+                if (usesDictionary(manifest)) {
+                    dictionaryManifests++;
+                }
+                checkManifest(manifest, blhoReader.read(manifest), problems);
+            } catch (IOException e) {
+                problems.add(manifest + ": " + e.getMessage());
+            }
+        }
+
+        DictionaryCheckReport report = new DictionaryCheckReport(root.toString(), statuses, manifests.size(),
+                dictionaryManifests, problems);
+        problems.forEach(problem -> log.error("Inconsistency: {}", problem));
+        log.info("Checked {} dictionaries and {} manifests below '{}': {} problems",
+                statuses.size(), manifests.size(), root, problems.size());
+        return report;
+    }
+
+    /**
+     * Serializes the report as JSON to standard output.
+     */
+    public void printReport(DictionaryCheckReport report) throws IOException {
+        System.out.println(objectMapper.writeValueAsString(report));
+    }
+
+    private static void checkManifest(Path file, BlhoFileDataV2 manifest, List<String> problems) {
+        int gridBlocks = ((manifest.getWidth() + 7) / 8) * ((manifest.getHeight() + 7) / 8);
+        JpegFrame frame = null;
+        if (manifest.hasJpegSegments()) {
+            try {
+                frame = JpegCodec.frame(manifest.getJpegSegments().getFirst());
+            } catch (IllegalArgumentException e) {
+                problems.add(file + ": invalid JPEG headers: " + e.getMessage());
+                return;
+            }
+            if (frame.components().size() != manifest.getChannelLayout().components().size()) {
+                problems.add(file + ": JPEG frame has " + frame.components().size() + " components, layout is "
+                        + manifest.getChannelLayout());
+                return;
+            }
+        }
+        for (BlockType type : BlockType.values()) {
+            List<byte[]> hashes = manifest.uniqueHashes(type);
+            List<Integer> positions = manifest.positionMap(type);
+            if (!manifest.getChannelLayout().components().contains(type)) {
+                if (!hashes.isEmpty() || !positions.isEmpty()) {
+                    problems.add(file + ": " + type + " section must be empty for " + manifest.getChannelLayout());
+                }
+                continue;
+            }
+
+            Set<ByteBuffer> distinct = new HashSet<>();
+            for (byte[] hash : hashes) {
+                if (!distinct.add(ByteBuffer.wrap(hash))) {
+                    problems.add(file + ": " + type + " hash list contains a hash twice");
+                    break;
+                }
+            }
+            // coefficient blocks follow the grid of their JPEG component, which may be subsampled
+            int expectedBlocks = frame == null ? gridBlocks
+                    : frame.storedBlocks(manifest.getChannelLayout().components().indexOf(type));
+            if (positions.size() != expectedBlocks) {
+                problems.add(file + ": " + type + " position map has " + positions.size() + " entries, expected "
+                        + expectedBlocks);
+            }
+            boolean[] used = new boolean[hashes.size()];
+            for (int index : positions) {
+                if (index < 0 || index >= hashes.size()) {
+                    problems.add(file + ": " + type + " position map points to entry " + index + " of "
+                            + hashes.size());
+                    return;
+                }
+                used[index] = true;
+            }
+            for (boolean entryUsed : used) {
+                if (!entryUsed) {
+                    problems.add(file + ": " + type + " hash list has entries no position refers to");
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean usesDictionary(Path manifest) throws IOException {
+        try (DataInputStream dis = new DataInputStream(Files.newInputStream(manifest))) {
+            dis.skipNBytes(5);
+            int length = dis.readInt();
+            if (length < 0 || length > (1 << 20)) {
+                return false;
+            }
+            String metadata = new String(dis.readNBytes(length), StandardCharsets.UTF_8);
+            return BlhoWriter.HASH_ENCODING_DICTIONARY.equals(
+                    objectMapper.readTree(metadata).path("hash_encoding").asText());
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package ru.levitsky.blackholeeh.service.similarity;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.model.SimilarImage;
+import ru.levitsky.blackholeeh.util.MinHashUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Persistent MinHash/LSH index of images for near-duplicate search.
+ * <p>
+ * Every image is represented by the MinHash signature of its unique Y block hashes. Signatures are split
+ * into {@code bands} bands of {@code rows} entries; images whose signatures agree in all entries of at least
+ * one band become candidates, and candidates are ranked by their estimated similarity. With the default 32 bands
+ * of 4 entries an image of Jaccard similarity 0.5 is found with probability 0.87, one of 0.6 with 0.98, while
+ * a query touches only a few buckets instead of every image.
+ * <p>
+ * Files in the index directory:
+ * <ul>
+ *     <li>{@code signatures.bin} – header ({@code BLHS}, version, signature length, bands, count) followed by
+ *     one record per image: unique Y block count and signature, 4-byte big-endian integers</li>
+ *     <li>{@code manifests.txt} – the manifest path of image {@code i} on line {@code i}</li>
+ *     <li>{@code bands.bin} – header ({@code BLHB}, version, bands, images covered) followed by every band as
+ *     a sorted array of {@code bandKey << 32 | imageId}, searched by binary search on disk</li>
+ * </ul>
+ * {@link #add} appends to the first two files; {@link #commit()} merges the images added since the last commit
+ * into a new band file, reading the existing one sequentially. Images added after the
+ * last commit are compared with every query directly, so the index is always complete. One writer at a time.
+ */
+@Slf4j
+public class SimilarityIndex implements Closeable {
+
+    public static final int DEFAULT_HASHES = 128;
+    public static final int DEFAULT_BANDS = 32;
+
+    private static final String SIGNATURES_FILE = "signatures.bin";
+    private static final String MANIFESTS_FILE = "manifests.txt";
+    private static final String BANDS_FILE = "bands.bin";
+    private static final byte[] SIGNATURES_MAGIC = "BLHS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BANDS_MAGIC = "BLHB".getBytes(StandardCharsets.US_ASCII);
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    /**
+     * images per sorted run of a commit: 32 bands of 64K images take 16 MB
+     */
+    private static final int RUN_IMAGES = 1 << 16;
+    private static final int CURSOR_BUFFER_SIZE = 1 << 13;
+
+    private final Path directory;
+    private final FileChannel signatures;
+    private final BufferedWriter manifestWriter;
+    private final List<String> manifests;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final int hashCount;
+    private final int bands;
+    private final int rows;
+    private final int recordSize;
+
+    private FileChannel bandFile;
+    private int bandedCount;
+
+    private SimilarityIndex(Path directory, FileChannel signatures, List<String> manifests, int hashCount,
+                            int bands) throws IOException {
+        this.directory = directory;
+        this.signatures = signatures;
+        this.manifests = manifests;
+        this.hashCount = hashCount;
+        this.bands = bands;
+        this.rows = hashCount / bands;
+        this.recordSize = (1 + hashCount) * Integer.BYTES;
+        for (int i = 0; i < manifests.size(); i++) {
+            ids.put(manifests.get(i), i);
+        }
+        this.manifestWriter = Files.newBufferedWriter(directory.resolve(MANIFESTS_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        openBands();
+    }
+
+    /**
+     * Opens the index in {@code directory}, creating an empty one with {@value #DEFAULT_HASHES} hashes in
+     * {@value #DEFAULT_BANDS} bands if there is none.
+     *
+     * @throws IOException if the files cannot be created or are not a consistent index
+     */
+    public static SimilarityIndex open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path signaturesPath = directory.resolve(SIGNATURES_FILE);
+        FileChannel channel = FileChannel.open(signaturesPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() == 0) {
+                header.put(SIGNATURES_MAGIC).put(FORMAT_VERSION)
+                        .putInt(8, DEFAULT_HASHES).putInt(12, DEFAULT_BANDS).putInt(16, 0);
+                channel.write(header.clear(), 0);
+                channel.force(true);
+                header.clear();
+            }
+            readFully(channel, header, 0);
+            if (!Arrays.equals(Arrays.copyOf(header.array(), 4), SIGNATURES_MAGIC) || header.get(4) != FORMAT_VERSION) {
+                throw new IOException("'" + signaturesPath + "' is not a similarity index");
+            }
+            int hashCount = header.getInt(8);
+            int bands = header.getInt(12);
+            int count = header.getInt(16);
+            if (bands < 1 || hashCount % bands != 0 || count < 0) {
+                throw new IOException("Invalid similarity index header in '" + signaturesPath + "'");
+            }
+
+            Path manifestsPath = directory.resolve(MANIFESTS_FILE);
+            List<String> lines = Files.exists(manifestsPath)
+                    ? new ArrayList<>(Files.readAllLines(manifestsPath, StandardCharsets.UTF_8))
+                    : new ArrayList<>();
+            if (lines.size() < count) {
+                throw new IOException("Similarity index '" + directory + "' lists " + lines.size()
+                        + " manifests for " + count + " signatures");
+            }
+            if (lines.size() > count) {
+                // manifest lines of an interrupted add, the signature was never published
+                lines.subList(count, lines.size()).clear();
+                Files.write(manifestsPath, lines, StandardCharsets.UTF_8);
+            }
+            return new SimilarityIndex(directory, channel, lines, hashCount, bands);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of indexed images
+     */
+    public int size() {
+        return manifests.size();
+    }
+
+    /**
+     * @return signature length expected by {@link #add} and {@link #query}
+     */
+    public int hashCount() {
+        return hashCount;
+    }
+
+    public boolean contains(String manifest) {
+        return ids.containsKey(manifest);
+    }
+
+    /**
+     * Appends an image. It is found by queries right away, through the band index after the next {@link #commit()}.
+     *
+     * @param manifest     path of the manifest, as reported by queries
+     * @param signature    MinHash signature of the unique Y block hashes, {@link #hashCount()} entries
+     * @param uniqueBlocks number of unique Y blocks
+     * @return id of the image
+     */
+    public int add(String manifest, int[] signature, int uniqueBlocks) throws IOException {
+        checkSignature(signature);
+        if (manifest.indexOf('\n') >= 0 || manifest.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Manifest path must not contain line breaks: " + manifest);
+        }
+        Integer existing = ids.get(manifest);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = manifests.size();
+        manifestWriter.write(manifest);
+        manifestWriter.newLine();
+        manifestWriter.flush();
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize).putInt(uniqueBlocks);
+        for (int value : signature) {
+            record.putInt(value);
+        }
+        signatures.write(record.flip(), HEADER_SIZE + (long) id * recordSize);
+        // the count is published last, so a crash never exposes a partial record
+        signatures.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, id + 1), 16);
+
+        manifests.add(manifest);
+        ids.put(manifest, id);
+        return id;
+    }
+
+    /**
+     * Makes all added images searchable through the band index and forces the index to disk.
+     * <p>
+     * Only the images added since the last commit are read: their band entries are sorted in runs of at most
+     * {@value #RUN_IMAGES} images, spilled to temporary files, and merged band by band with the entries of the
+     * current {@code bands.bin} into a new one. Memory stays bounded by one run, however large the index.
+     */
+    public void commit() throws IOException {
+        commit(RUN_IMAGES);
+    }
+
+    /**
+     * @param runImages images per sorted run spilled to a temporary file before the merge
+     */
+    void commit(int runImages) throws IOException {
+        signatures.force(true);
+        int count = manifests.size();
+        if (count == bandedCount) {
+            return;
+        }
+        int added = count - bandedCount;
+
+        List<Path> runFiles = new ArrayList<>();
+        List<FileChannel> runChannels = new ArrayList<>();
+        Path temp = null;
+        try {
+            List<Run> runs = new ArrayList<>();
+            if (bandFile != null) {
+                runs.add(new Run(bandFile, HEADER_SIZE, bandedCount));
+            }
+            for (int start = bandedCount; start < count; start += runImages) {
+                int end = Math.min(count, start + runImages);
+                Path runFile = Files.createTempFile(directory, "." + BANDS_FILE + ".", ".run");
+                runFiles.add(runFile);
+                writeRun(runFile, start, end);
+                FileChannel channel = FileChannel.open(runFile, StandardOpenOption.READ);
+                runChannels.add(channel);
+                runs.add(new Run(channel, 0, end - start));
+            }
+
+            temp = Files.createTempFile(directory, "." + BANDS_FILE + ".", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), 1 << 16))) {
+                out.write(BANDS_MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.write(new byte[3]);
+                out.writeInt(bands);
+                out.writeInt(count);
+                out.write(new byte[HEADER_SIZE - 16]);
+                for (int band = 0; band < bands; band++) {
+                    mergeBand(runs, band, out);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            closeBands();
+            try {
+                Files.move(temp, directory.resolve(BANDS_FILE), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, directory.resolve(BANDS_FILE), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            for (FileChannel channel : runChannels) {
+                channel.close();
+            }
+            for (Path runFile : runFiles) {
+                Files.deleteIfExists(runFile);
+            }
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            closeBands();
+            openBands();
+        }
+        log.info("Similarity index '{}': {} images in {} bands, {} added in {} sorted runs", directory, count,
+                bands, added, runFiles.size());
+    }
+
+    /**
+     * Finds images sharing at least {@code minShared} of the query's unique Y blocks.
+     * <p>
+     * Candidates are the images sharing a band bucket with the query (plus images added since the last commit);
+     * the shared fraction {@code |A∩B| / |A|} is estimated from the Jaccard estimate {@code J} and the set sizes
+     * as {@code J·(|A|+|B|) / (1+J) / |A|}.
+     *
+     * @param signature    MinHash signature of the query image
+     * @param uniqueBlocks number of unique Y blocks of the query image
+     * @param minShared    minimum estimated shared fraction, 0..1
+     * @param limit        maximum number of results
+     * @param exclude      manifest to leave out (the query itself), or {@code null}
+     * @return similar images, most similar first
+     */
+    public List<SimilarImage> query(int[] signature, int uniqueBlocks, double minShared, int limit, String exclude)
+            throws IOException {
+        checkSignature(signature);
+        Set<Integer> candidates = new HashSet<>();
+        for (int band = 0; band < bands && bandFile != null; band++) {
+            collectBucket(band, MinHashUtils.bandKey(signature, band, rows), candidates);
+        }
+        for (int id = bandedCount; id < manifests.size(); id++) {
+            candidates.add(id);
+        }
+
+        List<SimilarImage> similar = new ArrayList<>();
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        int[] other = new int[hashCount];
+        for (int id : candidates) {
+            String manifest = manifests.get(id);
+            if (manifest.equals(exclude)) {
+                continue;
+            }
+            readFully(signatures, record.clear(), HEADER_SIZE + (long) id * recordSize);
+            int otherBlocks = record.getInt(0);
+            for (int i = 0; i < hashCount; i++) {
+                other[i] = record.getInt((i + 1) * Integer.BYTES);
+            }
+            double jaccard = MinHashUtils.estimateJaccard(signature, other);
+            double shared = uniqueBlocks == 0 ? 0.0
+                    : Math.min(1.0, jaccard * (uniqueBlocks + otherBlocks) / (1.0 + jaccard) / uniqueBlocks);
+            if (shared >= minShared && jaccard > 0) {
+                similar.add(new SimilarImage(manifest, jaccard, shared, otherBlocks));
+            }
+        }
+        similar.sort(Comparator.comparingDouble(SimilarImage::sharedFraction)
+                .thenComparingDouble(SimilarImage::jaccard).reversed()
+                .thenComparing(SimilarImage::manifest));
+        return similar.size() > limit ? new ArrayList<>(similar.subList(0, limit)) : similar;
+    }
+
+    @Override
+    public void close() throws IOException {
+        manifestWriter.close();
+        signatures.close();
+        if (bandFile != null) {
+            bandFile.close();
+        }
+    }
+
+    private void collectBucket(int band, int key, Set<Integer> candidates) throws IOException {
+        long bandOffset = HEADER_SIZE + (long) band * bandedCount * Long.BYTES;
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+        long first = (long) key << 32;
+
+        // lower bound of the first entry with this key
+        int low = 0;
+        int high = bandedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            readFully(bandFile, entry.clear(), bandOffset + (long) mid * Long.BYTES);
+            if (entry.getLong(0) < first) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < bandedCount; i++) {
+            readFully(bandFile, entry.clear(), bandOffset + (long) i * Long.BYTES);
+            long value = entry.getLong(0);
+            if ((int) (value >> 32) != key) {
+                break;
+            }
+            candidates.add((int) value);
+        }
+    }
+
+    /**
+     * Writes the band entries of images {@code [start, end)} to {@code runFile}, band by band, each band sorted.
+     */
+    private void writeRun(Path runFile, int start, int end) throws IOException {
+        int count = end - start;
+        long[][] entries = new long[bands][count];
+        int recordsPerRead = Math.max(1, (1 << 16) / recordSize);
+        ByteBuffer chunk = ByteBuffer.allocate(recordsPerRead * recordSize);
+        int[] signature = new int[hashCount];
+        for (int first = 0; first < count; first += recordsPerRead) {
+            int records = Math.min(recordsPerRead, count - first);
+            chunk.clear().limit(records * recordSize);
+            readFully(signatures, chunk, HEADER_SIZE + (long) (start + first) * recordSize);
+            for (int r = 0; r < records; r++) {
+                int offset = r * recordSize + Integer.BYTES;
+                for (int i = 0; i < hashCount; i++) {
+                    signature[i] = chunk.getInt(offset + i * Integer.BYTES);
+                }
+                int id = start + first + r;
+                for (int band = 0; band < bands; band++) {
+                    entries[band][first + r] = ((long) MinHashUtils.bandKey(signature, band, rows) << 32) | id;
+                }
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(runFile), 1 << 16))) {
+            for (long[] band : entries) {
+                Arrays.sort(band);
+                for (long entry : band) {
+                    out.writeLong(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one band of all runs in sorted order: a k-way merge of their sorted band sections.
+     */
+    private static void mergeBand(List<Run> runs, int band, DataOutputStream out) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(runs.size(), Comparator.comparingLong(Cursor::current));
+        for (Run run : runs) {
+            long from = run.offset() + (long) band * run.count() * Long.BYTES;
+            Cursor cursor = new Cursor(run.channel(), from, from + (long) run.count() * Long.BYTES);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            out.writeLong(cursor.current());
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+    }
+
+    private void closeBands() throws IOException {
+        if (bandFile != null) {
+            bandFile.close();
+            bandFile = null;
+        }
+    }
+
+    private void openBands() throws IOException {
+        bandedCount = 0;
+        Path path = directory.resolve(BANDS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        int covered = header.getInt(12);
+        if (!Arrays.equals(Arrays.copyOf(header.array(), 4), BANDS_MAGIC) || header.getInt(8) != bands
+                || covered > manifests.size()
+                || channel.size() != HEADER_SIZE + (long) bands * covered * Long.BYTES) {
+            // rebuilt by the next commit; until then all images are compared directly
+            log.warn("Ignoring stale band index '{}'", path);
+            channel.close();
+            return;
+        }
+        bandFile = channel;
+        bandedCount = covered;
+    }
+
+    private void checkSignature(int[] signature) {
+        if (signature.length != hashCount) {
+            throw new IllegalArgumentException("Signature must have " + hashCount + " entries: " + signature.length);
+        }
+    }
+
+    /**
+     * Band entries of {@code count} images in {@code channel}, starting at {@code offset}, band by band.
+     */
+    private record Run(FileChannel channel, long offset, int count) {
+    }
+
+    /**
+     * Sequential reader of one sorted band section.
+     */
+    private static final class Cursor {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CURSOR_BUFFER_SIZE).limit(0);
+        private final long end;
+        private long position;
+        private long current;
+
+        private Cursor(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        long current() {
+            return current;
+        }
+
+        /**
+         * @return {@code false} at the end of the section
+         */
+        boolean advance() throws IOException {
+            if (!buffer.hasRemaining()) {
+                if (position >= end) {
+                    return false;
+                }
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                readFully(channel, buffer, position);
+                position += buffer.limit();
+                buffer.flip();
+            }
+            current = buffer.getLong();
+            return true;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of similarity index file");
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.levitsky.blackholeeh.service.similarity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.SimilarImage;
+import ru.levitsky.blackholeeh.service.BlhoReader;
+import ru.levitsky.blackholeeh.util.MinHashUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Near-duplicate search over .blho manifests with a {@link SimilarityIndex}.
+ * <p>
+ * The unique Y block hashes of a manifest are its shingles: two images that share most of their luma blocks
+ * are near-duplicates (re-encodes, crops aligned to the 8x8 grid, small edits), and their MinHash signatures
+ * agree in most entries. No image data is read, only manifests.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SimilaritySearch {
+
+    private final BlhoReader blhoReader;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * @return the index location used when none is given: {@code <root>/.blackhole/similarity}
+     */
+    public static Path defaultIndexDirectory(Path root) {
+        return root.resolve(".blackhole").resolve("similarity");
+    }
+
+    /**
+     * Adds every .blho manifest below {@code root} that is not indexed yet and commits the index.
+     *
+     * @param root           directory tree with manifests
+     * @param indexDirectory location of the index, created if missing
+     * @return number of newly indexed manifests
+     * @throws IOException if the tree cannot be listed or the index cannot be written
+     */
+    public int index(Path root, Path indexDirectory) throws IOException {
+        List<Path> manifests;
+        try (Stream<Path> tree = Files.walk(root)) {
+            manifests = tree.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().endsWith(".blho"))
+                    .sorted()
+                    .toList();
+        }
+
+        int added = 0;
+        int failed = 0;
+        try (SimilarityIndex index = SimilarityIndex.open(indexDirectory)) {
+            for (Path manifest : manifests) {
+                String key = key(manifest);
+                if (index.contains(key)) {
+                    continue;
+                }
+                try {
+                    BlhoFileDataV2 data = blhoReader.read(manifest);
+                    index.add(key, MinHashUtils.signature(data.getUniqueYHashes(), index.hashCount()),
+                            data.getUniqueYHashes().size());
+                    added++;
+                } catch (IOException e) {
+                    failed++;
+                    log.error("Cannot index {}: {}", manifest, e.getMessage());
+                }
+            }
+            index.commit();
+            log.info("Indexed {} new manifests below '{}' ({} failed), {} in index '{}'", added, root, failed,
+                    index.size(), indexDirectory);
+        }
+        return added;
+    }
+
+    /**
+     * Finds indexed images that share at least {@code minShared} of the manifest's unique Y blocks.
+     * The manifest does not need to be indexed itself.
+     *
+     * @param manifest       the .blho manifest to search for
+     * @param indexDirectory location of the index
+     * @param minShared      minimum estimated share of the manifest's unique Y blocks, 0..1
+     * @param limit          maximum number of results
+     * @return similar images, most similar first, without the manifest itself
+     * @throws IOException if the manifest or the index cannot be read
+     */
+    public List<SimilarImage> findSimilar(Path manifest, Path indexDirectory, double minShared, int limit)
+            throws IOException {
+        if (minShared < 0.0 || minShared > 1.0) {
+            throw new IllegalArgumentException("Threshold must be in range 0..1: " + minShared);
+        }
+        if (!Files.isDirectory(indexDirectory)) {
+            throw new IllegalArgumentException("No similarity index in '" + indexDirectory + "'");
+        }
+        BlhoFileDataV2 data = blhoReader.read(manifest);
+        try (SimilarityIndex index = SimilarityIndex.open(indexDirectory)) {
+            int[] signature = MinHashUtils.signature(data.getUniqueYHashes(), index.hashCount());
+            List<SimilarImage> similar = index.query(signature, data.getUniqueYHashes().size(), minShared, limit,
+                    key(manifest));
+            log.info("{} images share at least {}% of the Y blocks of '{}'", similar.size(),
+                    Math.round(minShared * 100), manifest);
+            return similar;
+        }
+    }
+
+    /**
+     * Serializes search results as JSON.
+     *
+     * @param similar the results to write
+     * @param output  the target file, or {@code null} to print the results to standard output
+     * @throws IOException if the results cannot be written
+     */
+    public void writeResults(List<SimilarImage> similar, Path output) throws IOException {
+        if (output == null) {
+            System.out.println(objectMapper.writeValueAsString(similar));
+            return;
+        }
+        objectMapper.writeValue(output.toFile(), similar);
+        log.info("Similarity results written to '{}'", output);
+    }
+
+    private static String key(Path manifest) {
+        return manifest.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,108 @@
+package ru.levitsky.blackholeeh.service.store;
+
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Content-addressable storage for image blocks.
+ * <p>
+ * Blocks are addressed by the hexadecimal SHA-256 hash of their length-prefixed payload
+ * (see {@link ru.levitsky.blackholeeh.util.HashUtils#sha256WithLength(byte[])})
+ * and partitioned by {@link BlockType}. Implementations:
+ * <ul>
+ *     <li>{@link ru.levitsky.blackholeeh.service.BlockClient} – remote block server over REST</li>
+ *     <li>{@link LocalPackBlockStore} – local append-only pack files with a memory-mapped hash index</li>
+ *     <li>{@link InMemoryBlockStore} – heap storage for tests and the embedded reference server</li>
+ * </ul>
+ */
+public interface BlockStore {
+
+    /**
+     * Checks which of the given blocks are not stored yet.
+     *
+     * @param hashes block hashes to check
+     * @param type   the block component
+     * @return hashes that are missing from the store
+     */
+    List<String> findMissing(List<String> hashes, BlockType type);
+
+    /**
+     * Stores blocks. Blocks that are already present are skipped.
+     *
+     * @param blocks blocks to store
+     * @param type   the block component
+     */
+    void putAll(List<BlockDto> blocks, BlockType type);
+
+    /**
+     * Stores the blocks that are not stored yet and reports which ones these were, without a separate
+     * {@link #findMissing(List, BlockType)} call.
+     * <p>
+     * The default implementation checks and then stores; stores that can do both in one step
+     * (or one round trip) override it.
+     *
+     * @param blocks blocks to store
+     * @param type   the block component
+     * @return hashes of the blocks that were newly stored
+     */
+    default List<String> putIfAbsent(List<BlockDto> blocks, BlockType type) {
+        List<String> hashes = new ArrayList<>(blocks.size());
+        for (BlockDto block : blocks) {
+            hashes.add(block.getHash());
+        }
+        List<String> missing = findMissing(hashes, type);
+        Set<String> missingSet = new HashSet<>(missing);
+        List<BlockDto> toStore = new ArrayList<>(missing.size());
+        for (BlockDto block : blocks) {
+            if (missingSet.contains(block.getHash())) {
+                toStore.add(block);
+            }
+        }
+        putAll(toStore, type);
+        return missing;
+    }
+
+    /**
+     * Loads blocks by hash.
+     *
+     * @param hashes block hashes to load
+     * @param type   the block component
+     * @return payloads of the found blocks keyed by hash; absent blocks are not included
+     */
+    Map<String, byte[]> getAll(Collection<String> hashes, BlockType type);
+
+    /**
+     * Number of requests that failed since the store was created and were logged and skipped instead of thrown,
+     * so that the calls that made them returned incomplete results. Callers compare the values before and after
+     * an operation to learn whether the store confirmed it completely.
+     * <p>
+     * The default implementation reports none: stores that fail by throwing never skip requests.
+     *
+     * @return number of skipped failed requests
+     */
+    default long failedRequests() {
+        return 0;
+    }
+
+    /**
+     * Calls {@code action} with the hash of every stored block of a component, e.g. to build a filter
+     * of the stored hashes. Blocks stored concurrently may or may not be included.
+     * <p>
+     * The default implementation cannot enumerate anything; stores that know their contents override it.
+     *
+     * @param type   the block component
+     * @param action receives every hash
+     * @return {@code false} if the store cannot enumerate its blocks
+     */
+    default boolean forEachHash(BlockType type, Consumer<String> action) {
+        return false;
+    }
+}
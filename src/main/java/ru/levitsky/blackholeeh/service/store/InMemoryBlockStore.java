@@ -0,0 +1,88 @@
+package ru.levitsky.blackholeeh.service.store;
+
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe {@link BlockStore} that keeps all blocks on the heap.
+ * <p>
+ * Intended for tests, benchmarks and the embedded reference server; nothing is persisted.
+ */
+public class InMemoryBlockStore implements BlockStore {
+
+    private final Map<BlockType, Map<String, byte[]>> blocks = new EnumMap<>(BlockType.class);
+
+    public InMemoryBlockStore() {
+        for (BlockType type : BlockType.values()) {
+            blocks.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public List<String> findMissing(List<String> hashes, BlockType type) {
+        Map<String, byte[]> stored = blocks.get(type);
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes) {
+            if (!stored.containsKey(hash)) {
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public void putAll(List<BlockDto> blocks, BlockType type) {
+        Map<String, byte[]> stored = this.blocks.get(type);
+        for (BlockDto block : blocks) {
+            stored.putIfAbsent(block.getHash(), block.getData());
+        }
+    }
+
+    @Override
+    public List<String> putIfAbsent(List<BlockDto> blocks, BlockType type) {
+        Map<String, byte[]> stored = this.blocks.get(type);
+        List<String> added = new ArrayList<>();
+        for (BlockDto block : blocks) {
+            if (stored.putIfAbsent(block.getHash(), block.getData()) == null) {
+                added.add(block.getHash());
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> hashes, BlockType type) {
+        Map<String, byte[]> stored = blocks.get(type);
+        Map<String, byte[]> result = new HashMap<>(hashes.size() * 2);
+        for (String hash : hashes) {
+            byte[] data = stored.get(hash);
+            if (data != null) {
+                result.put(hash, data);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean forEachHash(BlockType type, Consumer<String> action) {
+        blocks.get(type).keySet().forEach(action);
+        return true;
+    }
+
+    /**
+     * @param type the block component
+     * @return number of stored blocks of this component
+     */
+    public int size(BlockType type) {
+        return blocks.get(type).size();
+    }
+}
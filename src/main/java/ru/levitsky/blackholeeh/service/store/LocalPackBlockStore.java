@@ -0,0 +1,660 @@
+package ru.levitsky.blackholeeh.service.store;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Local content-addressable {@link BlockStore} backed by append-only pack files.
+ * <p>
+ * <b>Directory layout:</b>
+ * <pre>
+ * store/
+ *   pack-00000001.pack   append-only block records
+ *   pack-00000002.pack   (a new pack is started when the active one exceeds 256 MB)
+ *   index.bin            memory-mapped open-addressing hash index
+ * </pre>
+ * <b>Pack record:</b> {@code type (1) | SHA-256 (32) | length (4) | payload | CRC32C (4)}.<br>
+ * <b>Index slot (64 bytes):</b> {@code state (1) | SHA-256 (32) | pack id (4) | offset (8) | length (4)},
+ * where {@code state} is {@code 0} for an empty slot and {@code type ordinal + 1} otherwise.
+ * <p>
+ * Appends are made durable in batches: pack and index are forced to disk every {@code syncEveryBlocks}
+ * stored blocks and on {@link #close()}. The index is derived data – if it is missing or was not closed
+ * cleanly, it is rebuilt from the packs on open, truncating a torn record at the end of a pack.
+ * <p>
+ * Packs are never rewritten in place; {@link #compact()} copies the live records into fresh packs,
+ * atomically publishes a new index and only then deletes the old packs.
+ * <p>
+ * All public methods are {@code synchronized}; a store directory must be opened by one process at a time.
+ */
+@Slf4j
+public class LocalPackBlockStore implements BlockStore, Closeable {
+
+    private static final byte[] PACK_MAGIC = "BLHP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEX_MAGIC = "BLHI".getBytes(StandardCharsets.US_ASCII);
+    private static final byte FORMAT_VERSION = 1;
+    private static final int PACK_HEADER_SIZE = 5;
+    private static final int RECORD_HEADER_SIZE = 1 + 32 + 4;
+    private static final int RECORD_TRAILER_SIZE = 4;
+    private static final long MAX_PACK_BYTES = 256L << 20;
+    private static final Pattern PACK_NAME = Pattern.compile("pack-(\\d{8})\\.pack");
+    private static final String INDEX_FILE = "index.bin";
+    private static final String COMPACT_INDEX_FILE = "index.bin.compact";
+
+    private final Path directory;
+    private final int syncEveryBlocks;
+    private final TreeMap<Integer, FileChannel> packs = new TreeMap<>();
+
+    private HashIndex index;
+    private int activePackId;
+    private long activePackSize;
+    private int unsyncedBlocks;
+
+    /**
+     * Opens (or creates) a store in {@code directory}.
+     *
+     * @param directory       the store directory
+     * @param syncEveryBlocks number of stored blocks after which packs and index are forced to disk;
+     *                        {@code 0} forces after every {@link #putAll(List, BlockType)}
+     * @throws IOException if the store cannot be opened or recovered
+     */
+    public LocalPackBlockStore(Path directory, int syncEveryBlocks) throws IOException {
+        this.directory = directory;
+        this.syncEveryBlocks = syncEveryBlocks;
+        Files.createDirectories(directory);
+
+        for (Path pack : listPacks()) {
+            packs.put(packId(pack), FileChannel.open(pack, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        if (packs.isEmpty()) {
+            openNewPack(1);
+        } else {
+            activePackId = packs.lastKey();
+            activePackSize = packs.get(activePackId).size();
+        }
+
+        Path indexPath = directory.resolve(INDEX_FILE);
+        HashIndex existing = HashIndex.openIfClean(indexPath);
+        if (existing != null) {
+            index = existing;
+        } else {
+            log.warn("Block index '{}' is missing or was not closed cleanly, rebuilding from packs", indexPath);
+            index = rebuildIndex(indexPath);
+        }
+        index.markOpen();
+        log.info("Opened local block store '{}': {} blocks in {} packs", directory, index.count, packs.size());
+    }
+
+    @Override
+    public synchronized List<String> findMissing(List<String> hashes, BlockType type) {
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes) {
+            if (index.find(type, parseHash(hash)) < 0) {
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public synchronized void putAll(List<BlockDto> blocks, BlockType type) {
+        storeAbsent(blocks, type);
+    }
+
+    @Override
+    public synchronized List<String> putIfAbsent(List<BlockDto> blocks, BlockType type) {
+        return storeAbsent(blocks, type);
+    }
+
+    private List<String> storeAbsent(List<BlockDto> blocks, BlockType type) {
+        try {
+            List<String> stored = new ArrayList<>();
+            for (BlockDto block : blocks) {
+                byte[] hash = parseHash(block.getHash());
+                if (index.find(type, hash) >= 0) {
+                    continue;
+                }
+                long offset = append(type, hash, block.getData());
+                index = index.insert(type, hash, activePackId, offset, block.getData().length, directory);
+                stored.add(block.getHash());
+            }
+            unsyncedBlocks += stored.size();
+            if (unsyncedBlocks > 0 && unsyncedBlocks >= syncEveryBlocks) {
+                sync();
+            }
+            log.info("Stored {} of {} {} blocks locally", stored.size(), blocks.size(), type);
+            return stored;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store " + type + " blocks in " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, byte[]> getAll(Collection<String> hashes, BlockType type) {
+        Map<String, byte[]> result = new HashMap<>(hashes.size() * 2);
+        try {
+            for (String hash : hashes) {
+                long slot = index.find(type, parseHash(hash));
+                if (slot >= 0) {
+                    result.put(hash, readRecord(index.packId(slot), index.offset(slot), index.length(slot)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + type + " blocks from " + directory, e);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean forEachHash(BlockType type, Consumer<String> action) {
+        for (long slot = 0; slot < index.capacity; slot++) {
+            if (index.state(slot) == type.ordinal() + 1) {
+                action.accept(HexFormat.of().formatHex(index.hash(slot)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forces all appended records and the index to disk.
+     *
+     * @throws IOException if the data cannot be forced
+     */
+    public synchronized void sync() throws IOException {
+        packs.get(activePackId).force(false);
+        index.force();
+        unsyncedBlocks = 0;
+    }
+
+    /**
+     * Rewrites all live records into fresh packs and drops everything else:
+     * records not referenced by the index (duplicates, leftovers of an interrupted compaction)
+     * and the overhead of many small packs.
+     *
+     * @return statistics of the compaction
+     * @throws IOException if the store cannot be compacted
+     */
+    public synchronized CompactionResult compact() throws IOException {
+        sync();
+        int packsBefore = packs.size();
+        long bytesBefore = 0;
+        for (FileChannel channel : packs.values()) {
+            bytesBefore += channel.size();
+        }
+
+        // live records in file order, so reads during the copy are sequential
+        List<long[]> live = new ArrayList<>(index.count);
+        for (long slot = 0; slot < index.capacity; slot++) {
+            if (index.state(slot) != 0) {
+                live.add(new long[]{slot, index.packId(slot), index.offset(slot)});
+            }
+        }
+        live.sort(Comparator.<long[]>comparingLong(entry -> entry[1]).thenComparingLong(entry -> entry[2]));
+
+        Map<Integer, FileChannel> oldPacks = new TreeMap<>(packs);
+        Path compactIndexPath = directory.resolve(COMPACT_INDEX_FILE);
+        HashIndex compacted = HashIndex.create(compactIndexPath, HashIndex.capacityFor(live.size()));
+        openNewPack(activePackId + 1);
+
+        for (long[] entry : live) {
+            long slot = entry[0];
+            BlockType type = BlockType.values()[index.state(slot) - 1];
+            byte[] hash = index.hash(slot);
+            byte[] data = readRecord(index.packId(slot), index.offset(slot), index.length(slot));
+            long offset = append(type, hash, data);
+            compacted = compacted.insert(type, hash, activePackId, offset, data.length, directory);
+        }
+        for (Map.Entry<Integer, FileChannel> pack : packs.entrySet()) {
+            if (!oldPacks.containsKey(pack.getKey())) {
+                pack.getValue().force(true);
+            }
+        }
+        compacted.markOpen();
+        compacted.force();
+
+        // publish: from here on the new index references only the new packs
+        index.close();
+        compacted.close();
+        Files.move(compactIndexPath, directory.resolve(INDEX_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        index = HashIndex.open(directory.resolve(INDEX_FILE));
+
+        for (Map.Entry<Integer, FileChannel> pack : oldPacks.entrySet()) {
+            pack.getValue().close();
+            packs.remove(pack.getKey());
+            Files.deleteIfExists(packPath(pack.getKey()));
+        }
+
+        long bytesAfter = 0;
+        for (FileChannel channel : packs.values()) {
+            bytesAfter += channel.size();
+        }
+        CompactionResult result = new CompactionResult(packsBefore, packs.size(), bytesBefore, bytesAfter, live.size());
+        log.info("Compacted local block store '{}': {}", directory, result);
+        return result;
+    }
+
+    /**
+     * Forces all data to disk and marks the index as cleanly closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (index == null) {
+            return;
+        }
+        sync();
+        for (FileChannel channel : packs.values()) {
+            channel.close();
+        }
+        index.markClean();
+        index.close();
+        index = null;
+    }
+
+    /**
+     * Statistics of a {@link #compact()} run.
+     *
+     * @param packsBefore number of packs before compaction
+     * @param packsAfter  number of packs after compaction
+     * @param bytesBefore total pack size before compaction
+     * @param bytesAfter  total pack size after compaction
+     * @param liveBlocks  number of blocks kept
+     */
+    public record CompactionResult(int packsBefore, int packsAfter, long bytesBefore, long bytesAfter,
+                                   long liveBlocks) {
+    }
+
+    /**
+     * Appends a record to the active pack, starting a new pack if the active one is full.
+     *
+     * @return offset of the record inside the active pack
+     */
+    private long append(BlockType type, byte[] hash, byte[] data) throws IOException {
+        if (activePackSize >= MAX_PACK_BYTES) {
+            packs.get(activePackId).force(false);
+            openNewPack(activePackId + 1);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length + RECORD_TRAILER_SIZE);
+        record.put((byte) type.ordinal()).put(hash).putInt(data.length).put(data);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long offset = activePackSize;
+        writeFully(packs.get(activePackId), record, offset);
+        activePackSize += record.limit();
+        return offset;
+    }
+
+    private byte[] readRecord(int packId, long offset, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length + RECORD_TRAILER_SIZE);
+        readFully(packs.get(packId), record, offset);
+
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.limit() - RECORD_TRAILER_SIZE);
+        if ((int) crc.getValue() != record.getInt(record.limit() - RECORD_TRAILER_SIZE)) {
+            throw new IOException("Corrupt block record in " + packPath(packId) + " at offset " + offset);
+        }
+        return Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, RECORD_HEADER_SIZE + length);
+    }
+
+    private void openNewPack(int packId) throws IOException {
+        FileChannel channel = FileChannel.open(packPath(packId),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_SIZE).put(PACK_MAGIC).put(FORMAT_VERSION).flip();
+        writeFully(channel, header, 0);
+        packs.put(packId, channel);
+        activePackId = packId;
+        activePackSize = PACK_HEADER_SIZE;
+    }
+
+    /**
+     * Scans all packs in order and indexes every intact record.
+     * A torn or corrupt record ends the scan of its pack and the pack is truncated there.
+     */
+    private HashIndex rebuildIndex(Path indexPath) throws IOException {
+        Files.deleteIfExists(indexPath);
+        HashIndex rebuilt = HashIndex.create(indexPath, HashIndex.capacityFor(0));
+
+        for (Map.Entry<Integer, FileChannel> pack : packs.entrySet()) {
+            FileChannel channel = pack.getValue();
+            long size = channel.size();
+            long offset = PACK_HEADER_SIZE;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            while (offset + RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                int typeOrdinal = header.get(0);
+                int length = header.getInt(1 + 32);
+                if (typeOrdinal < 0 || typeOrdinal >= BlockType.values().length || length < 0
+                        || offset + RECORD_HEADER_SIZE + length + RECORD_TRAILER_SIZE > size) {
+                    break;
+                }
+                try {
+                    readRecord(pack.getKey(), offset, length);
+                } catch (IOException e) {
+                    break;
+                }
+
+                BlockType type = BlockType.values()[typeOrdinal];
+                byte[] hash = Arrays.copyOfRange(header.array(), 1, 1 + 32);
+                if (rebuilt.find(type, hash) < 0) {
+                    rebuilt = rebuilt.insert(type, hash, pack.getKey(), offset, length, directory);
+                }
+                offset += RECORD_HEADER_SIZE + length + RECORD_TRAILER_SIZE;
+            }
+
+            if (offset < size) {
+                log.warn("Truncating torn tail of {} at offset {} ({} bytes)", packPath(pack.getKey()), offset, size - offset);
+                channel.truncate(offset);
+                channel.force(true);
+            }
+            if (pack.getKey() == activePackId) {
+                activePackSize = offset;
+            }
+        }
+        rebuilt.force();
+        return rebuilt;
+    }
+
+    private List<Path> listPacks() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> PACK_NAME.matcher(p.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path packPath(int packId) {
+        return directory.resolve(String.format("pack-%08d.pack", packId));
+    }
+
+    private static int packId(Path pack) {
+        Matcher matcher = PACK_NAME.matcher(pack.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a pack file: " + pack);
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static byte[] parseHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            throw new IllegalArgumentException("Block hash must be a 64-character SHA-256 hex string: " + hash);
+        }
+        return HexFormat.of().parseHex(hash);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of pack at offset " + position);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Open-addressing hash table with linear probing, stored in a memory-mapped file.
+     * <p>
+     * The table is mapped in segments of {@link #SLOTS_PER_SEGMENT} slots, so it is not limited
+     * by the 2 GB size of a single mapping. Keys are SHA-256 hashes, so their first 8 bytes
+     * are used as the probe start directly.
+     */
+    private static final class HashIndex {
+        private static final int HEADER_SIZE = 64;
+        private static final int SLOT_SIZE = 64;
+        private static final int SLOTS_PER_SEGMENT = 1 << 20;
+        private static final int MIN_CAPACITY = 1 << 16;
+        private static final double MAX_LOAD = 0.7;
+        private static final int CAPACITY_OFFSET = 8;
+        private static final int COUNT_OFFSET = 16;
+        private static final int CLEAN_OFFSET = 20;
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final long capacity;
+        private int count;
+
+        private HashIndex(Path path, FileChannel channel, long capacity) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            int segmentCount = (int) ((capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long slots = Math.min(SLOTS_PER_SEGMENT, capacity - (long) i * SLOTS_PER_SEGMENT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + (long) i * SLOTS_PER_SEGMENT * SLOT_SIZE, slots * SLOT_SIZE);
+            }
+        }
+
+        private static long capacityFor(long entries) {
+            long capacity = MIN_CAPACITY;
+            while (entries >= capacity * MAX_LOAD) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        private static HashIndex create(Path path, long capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(0);
+            // extend the file to its full size; the new region reads as zeros, i.e. empty slots
+            writeFully(channel, ByteBuffer.allocate(1), HEADER_SIZE + capacity * SLOT_SIZE - 1);
+            HashIndex index = new HashIndex(path, channel, capacity);
+            index.header.put(0, INDEX_MAGIC).put(4, FORMAT_VERSION);
+            index.header.putLong(CAPACITY_OFFSET, capacity);
+            index.writeCount();
+            return index;
+        }
+
+        private static HashIndex open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            byte[] magic = new byte[4];
+            header.get(0, magic);
+            long capacity = header.getLong(CAPACITY_OFFSET);
+            if (!Arrays.equals(magic, INDEX_MAGIC) || header.get(4) != FORMAT_VERSION
+                    || Long.bitCount(capacity) != 1 || channel.size() != HEADER_SIZE + capacity * SLOT_SIZE) {
+                channel.close();
+                throw new IOException("Invalid block index " + path);
+            }
+            HashIndex index = new HashIndex(path, channel, capacity);
+            index.count = header.getInt(COUNT_OFFSET);
+            return index;
+        }
+
+        /**
+         * @return the index if it exists and was closed cleanly, otherwise {@code null}
+         */
+        private static HashIndex openIfClean(Path path) {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            try {
+                HashIndex index = open(path);
+                if (index.header.get(CLEAN_OFFSET) == 1) {
+                    return index;
+                }
+                index.close();
+            } catch (IOException e) {
+                log.warn("Cannot open block index '{}': {}", path, e.getMessage());
+            }
+            return null;
+        }
+
+        private long find(BlockType type, byte[] hash) {
+            long slot = probeStart(type, hash);
+            while (true) {
+                int state = state(slot);
+                if (state == 0) {
+                    return -1;
+                }
+                if (state == type.ordinal() + 1 && hashEquals(slot, hash)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+        }
+
+        /**
+         * Inserts a key that is known to be absent.
+         *
+         * @return this index, or a grown copy that replaced it on disk
+         */
+        private HashIndex insert(BlockType type, byte[] hash, int packId, long offset, int length, Path directory)
+                throws IOException {
+            HashIndex target = this;
+            if (count + 1 > capacity * MAX_LOAD) {
+                target = grow(directory);
+            }
+            long slot = target.probeStart(type, hash);
+            while (target.state(slot) != 0) {
+                slot = (slot + 1) & (target.capacity - 1);
+            }
+            ByteBuffer segment = target.segment(slot);
+            int base = target.slotOffset(slot);
+            segment.put(base + 1, hash);
+            segment.putInt(base + 33, packId);
+            segment.putLong(base + 37, offset);
+            segment.putInt(base + 45, length);
+            // the state byte is written last, so a half-written slot stays empty
+            segment.put(base, (byte) (type.ordinal() + 1));
+            target.count++;
+            target.writeCount();
+            return target;
+        }
+
+        private HashIndex grow(Path directory) throws IOException {
+            Path tmp = directory.resolve(path.getFileName() + ".grow");
+            HashIndex grown = create(tmp, capacity << 1);
+            for (long slot = 0; slot < capacity; slot++) {
+                int state = state(slot);
+                if (state != 0) {
+                    grown.insert(BlockType.values()[state - 1], hash(slot), packId(slot), offset(slot), length(slot),
+                            directory);
+                }
+            }
+            grown.header.put(CLEAN_OFFSET, header.get(CLEAN_OFFSET));
+            grown.force();
+            close();
+            grown.channel.close();
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return open(path);
+        }
+
+        private long probeStart(BlockType type, byte[] hash) {
+            long prefix = ByteBuffer.wrap(hash, 0, 8).getLong();
+            return (prefix ^ (type.ordinal() * 0x9E3779B97F4A7C15L)) & (capacity - 1);
+        }
+
+        private boolean hashEquals(long slot, byte[] hash) {
+            ByteBuffer segment = segment(slot);
+            int base = slotOffset(slot) + 1;
+            for (int i = 0; i < hash.length; i++) {
+                if (segment.get(base + i) != hash[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private ByteBuffer segment(long slot) {
+            return segments[(int) (slot / SLOTS_PER_SEGMENT)];
+        }
+
+        private int slotOffset(long slot) {
+            return (int) (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+        }
+
+        private int state(long slot) {
+            return segment(slot).get(slotOffset(slot));
+        }
+
+        private byte[] hash(long slot) {
+            byte[] hash = new byte[32];
+            segment(slot).get(slotOffset(slot) + 1, hash);
+            return hash;
+        }
+
+        private int packId(long slot) {
+            return segment(slot).getInt(slotOffset(slot) + 33);
+        }
+
+        private long offset(long slot) {
+            return segment(slot).getLong(slotOffset(slot) + 37);
+        }
+
+        private int length(long slot) {
+            return segment(slot).getInt(slotOffset(slot) + 45);
+        }
+
+        private void writeCount() {
+            header.putInt(COUNT_OFFSET, count);
+        }
+
+        private void markOpen() {
+            header.put(CLEAN_OFFSET, (byte) 0);
+            header.force();
+        }
+
+        private void markClean() {
+            force();
+            header.put(CLEAN_OFFSET, (byte) 1);
+            header.force();
+        }
+
+        private void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+}
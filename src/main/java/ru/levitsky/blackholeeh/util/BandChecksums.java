@@ -0,0 +1,169 @@
+package ru.levitsky.blackholeeh.util;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.BlockChecksums;
+import ru.levitsky.blackholeeh.util.image.ChromaPackingUtils;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
+import ru.levitsky.blackholeeh.util.jpeg.JpegCodec;
+import ru.levitsky.blackholeeh.util.jpeg.JpegFrame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums of the block planes of an image, per band of block rows and for the whole image.
+ * <p>
+ * A band is one row of 8x8 blocks – for JPEG coefficient blocks one row of MCUs, which covers {@code v} block
+ * rows of a component with vertical sampling factor {@code v}. The checksum of a band runs over the components
+ * of the layout in manifest order and, per component, over the blocks of the band in row-major order.
+ * Every block contributes its samples in natural orientation: Y and A as 8-bit samples, U and V unpacked
+ * to 16-bit big-endian samples, so the checksums do not depend on chroma packing or canonical orientation.
+ * Coefficient blocks contribute their serialized bytes. The image checksum is the CRC32C over the band
+ * checksums, 4 big-endian bytes each.
+ * <p>
+ * The writer computes the checksums from the blocks of the split image; a verifier recomputes them from the
+ * blocks the block store returns for the position maps, without assembling any pixels.
+ */
+public final class BandChecksums {
+
+    private BandChecksums() {
+    }
+
+    /**
+     * Computes the checksums of an image.
+     *
+     * @param manifest     position maps, orientations and band geometry
+     * @param uniqueBlocks per component, block data indexed like the manifest hash list; {@code null} entries
+     *                     (missing blocks) contribute no bytes, so their bands do not match
+     * @return the checksums
+     * @throws IllegalArgumentException if the position maps do not match the band geometry
+     */
+    public static BlockChecksums compute(BlhoFileDataV2 manifest, Map<BlockType, List<byte[]>> uniqueBlocks) {
+        Bands bands = Bands.of(manifest);
+        List<BlockType> components = manifest.getChannelLayout().components();
+        int[] perBand = new int[components.size()];
+        byte[][][] samples = new byte[components.size()][][];
+        for (int c = 0; c < components.size(); c++) {
+            BlockType type = components.get(c);
+            int positions = manifest.positionMap(type).size();
+            perBand[c] = bands.blocksPerRow()[c] * bands.rowsPerBand()[c];
+            if (positions != perBand[c] * bands.count()) {
+                throw new IllegalArgumentException(type + " position map has " + positions + " entries, "
+                        + bands.count() + " bands need " + perBand[c] * bands.count());
+            }
+            samples[c] = naturalSamples(type, uniqueBlocks.get(type), manifest.hasJpegSegments());
+        }
+
+        int[] bandChecksums = new int[bands.count()];
+        CRC32C crc = new CRC32C();
+        byte[] oriented = new byte[128];
+        for (int band = 0; band < bands.count(); band++) {
+            crc.reset();
+            for (int c = 0; c < components.size(); c++) {
+                BlockType type = components.get(c);
+                List<Integer> positionMap = manifest.positionMap(type);
+                byte[] orientations = manifest.hasOrientations() ? manifest.getOrientations().get(type) : null;
+                for (int position = band * perBand[c]; position < (band + 1) * perBand[c]; position++) {
+                    byte[] block = samples[c][positionMap.get(position)];
+                    if (block == null) {
+                        continue;
+                    }
+                    int orientation = orientations == null ? 0 : orientations[position];
+                    if (orientation == 0) {
+                        crc.update(block);
+                    } else {
+                        crc.update(oriented, 0, invert(block, orientation, oriented));
+                    }
+                }
+            }
+            bandChecksums[band] = (int) crc.getValue();
+        }
+
+        crc.reset();
+        for (int checksum : bandChecksums) {
+            crc.update(checksum >>> 24);
+            crc.update(checksum >>> 16);
+            crc.update(checksum >>> 8);
+            crc.update(checksum);
+        }
+        return new BlockChecksums((int) crc.getValue(), bandChecksums);
+    }
+
+    /**
+     * @return per unique block, the bytes it contributes in natural orientation
+     */
+    private static byte[][] naturalSamples(BlockType type, List<byte[]> blocks, boolean coefficients) {
+        byte[][] samples = new byte[blocks.size()][];
+        boolean chroma = !coefficients && (type == BlockType.CHROMA_CB || type == BlockType.CHROMA_CR);
+        for (int i = 0; i < samples.length; i++) {
+            byte[] block = blocks.get(i);
+            if (block == null || !chroma) {
+                samples[i] = block;
+                continue;
+            }
+            short[] values = ChromaPackingUtils.unpack(block);
+            byte[] bytes = new byte[values.length * 2];
+            for (int s = 0; s < values.length; s++) {
+                bytes[2 * s] = (byte) (values[s] >> 8);
+                bytes[2 * s + 1] = (byte) values[s];
+            }
+            samples[i] = bytes;
+        }
+        return samples;
+    }
+
+    /**
+     * Restores the natural orientation of 64 samples of 1 or 2 bytes into {@code target}.
+     *
+     * @return number of bytes written
+     */
+    private static int invert(byte[] block, int orientation, byte[] target) {
+        byte[] table = DihedralUtils.inverseTable(orientation);
+        int width = block.length / table.length;
+        for (int i = 0; i < table.length; i++) {
+            System.arraycopy(block, table[i] * width, target, i * width, width);
+        }
+        return block.length;
+    }
+
+    /**
+     * Band geometry of a manifest.
+     *
+     * @param count        number of bands
+     * @param height       pixel rows per band
+     * @param blocksPerRow per layout component, blocks in a row of its grid
+     * @param rowsPerBand  per layout component, block rows in a band
+     */
+    public record Bands(int count, int height, int[] blocksPerRow, int[] rowsPerBand) {
+
+        /**
+         * @throws IllegalArgumentException if the JPEG headers of the manifest are invalid
+         */
+        public static Bands of(BlhoFileDataV2 manifest) {
+            int components = manifest.getChannelLayout().components().size();
+            int[] blocksPerRow = new int[components];
+            int[] rowsPerBand = new int[components];
+            if (!manifest.hasJpegSegments()) {
+                Arrays.fill(blocksPerRow, (manifest.getWidth() + 7) / 8);
+                Arrays.fill(rowsPerBand, 1);
+                return new Bands((manifest.getHeight() + 7) / 8, 8, blocksPerRow, rowsPerBand);
+            }
+
+            JpegFrame frame = JpegCodec.frame(manifest.getJpegSegments().getFirst());
+            if (frame.components().size() != components) {
+                throw new IllegalArgumentException("JPEG frame has " + frame.components().size()
+                        + " components, layout is " + manifest.getChannelLayout());
+            }
+            for (int c = 0; c < components; c++) {
+                blocksPerRow[c] = frame.storedBlocksPerLine(c);
+                rowsPerBand[c] = components == 1 ? 1 : frame.components().get(c).v();
+            }
+            return components == 1
+                    ? new Bands(frame.storedBlocksPerColumn(0), 8, blocksPerRow, rowsPerBand)
+                    : new Bands(frame.mcusPerColumn(), 8 * frame.maxV(), blocksPerRow, rowsPerBand);
+        }
+    }
+}
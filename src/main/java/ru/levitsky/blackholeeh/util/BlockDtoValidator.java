@@ -21,11 +21,18 @@ import java.util.Set;
  * BlockDtoValidator.validate(block); // throws IllegalArgumentException if invalid
  * }
  * </pre>
+ * The Hibernate Validator bootstrap is expensive, so the validator is only built on first use:
+ * runs that never upload a block do not pay for it.
  */
 public class BlockDtoValidator {
 
-    private static final ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    private static final Validator validator = factory.getValidator();
+    /**
+     * Initialization-on-demand holder: the factory is created when the JVM first initializes this class
+     */
+    private static final class Holder {
+        private static final ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
+        private static final Validator validator = factory.getValidator();
+    }
 
     /**
      * Validates the given {@link BlockDto}.
@@ -37,7 +44,7 @@ public class BlockDtoValidator {
      * @throws IllegalArgumentException if the block is invalid
      */
     public static void validate(BlockDto block) {
-        Set<ConstraintViolation<BlockDto>> violations = validator.validate(block);
+        Set<ConstraintViolation<BlockDto>> violations = Holder.validator.validate(block);
         if (!violations.isEmpty()) {
             StringBuilder sb = new StringBuilder();
             for (ConstraintViolation<BlockDto> v : violations) {
@@ -0,0 +1,147 @@
+package ru.levitsky.blackholeeh.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+
+/**
+ * Bloom filter over block hashes, stored as big-endian 64-bit words in a {@link ByteBuffer}, so the same
+ * filter can live on the heap or in a memory-mapped snapshot file.
+ * <p>
+ * Block hashes are SHA-256 digests and already uniformly distributed, so the bit positions are derived from the
+ * hash itself by double hashing: the first two 64-bit words {@code h1}, {@code h2} of the digest give the
+ * positions {@code h1 + i * h2} for {@code i < hashCount}. Hashes that are not 64 hex digits cannot be placed
+ * and are reported as possibly contained.
+ * <p>
+ * Not thread-safe. Bits are only ever set, never cleared, so a reader racing a writer sees each word either
+ * before or after the update and at worst misses a hash that is being added.
+ */
+public final class BloomFilter {
+
+    private static final int HASH_HEX_LENGTH = 64;
+    private static final int MAX_HASH_COUNT = 16;
+
+    private final ByteBuffer words;
+    private final int wordCount;
+    private final long bitCount;
+    private final int hashCount;
+
+    private BloomFilter(ByteBuffer words, int hashCount) {
+        if (words.remaining() == 0 || words.remaining() % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Bloom filter needs a whole number of words, got "
+                    + words.remaining() + " bytes");
+        }
+        if (hashCount < 1 || hashCount > MAX_HASH_COUNT) {
+            throw new IllegalArgumentException("Bloom filter hash count must be 1-" + MAX_HASH_COUNT + ": "
+                    + hashCount);
+        }
+        this.words = words.slice().order(ByteOrder.BIG_ENDIAN);
+        this.wordCount = this.words.capacity() / Long.BYTES;
+        this.bitCount = (long) wordCount * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter on the heap.
+     *
+     * @param expectedEntries number of hashes the filter is sized for
+     * @param bitsPerEntry    bits per hash; 10 gives about 1% false positives at the expected size
+     * @return the filter with the optimal number of hash functions for {@code bitsPerEntry}
+     */
+    public static BloomFilter allocate(long expectedEntries, int bitsPerEntry) {
+        if (expectedEntries < 1 || bitsPerEntry < 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter size: " + expectedEntries + " entries x "
+                    + bitsPerEntry + " bits");
+        }
+        long words = (expectedEntries * bitsPerEntry + Long.SIZE - 1) / Long.SIZE;
+        if (words > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException("Bloom filter too large: " + expectedEntries + " entries x "
+                    + bitsPerEntry + " bits");
+        }
+        int hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(bitsPerEntry * Math.log(2))));
+        return new BloomFilter(ByteBuffer.allocate((int) words * Long.BYTES), hashCount);
+    }
+
+    /**
+     * Wraps existing words, e.g. a mapped snapshot; changes write through to the buffer.
+     *
+     * @param words     the words, from the buffer's position to its limit
+     * @param hashCount number of hash functions the words were built with
+     */
+    public static BloomFilter wrap(ByteBuffer words, int hashCount) {
+        return new BloomFilter(words, hashCount);
+    }
+
+    /**
+     * Adds a hash.
+     *
+     * @param hash block hash, 64 hex digits
+     * @return {@code true} if a bit changed, i.e. the hash was certainly not contained before
+     */
+    public boolean put(String hash) {
+        if (!placeable(hash)) {
+            return false;
+        }
+        long h1 = HexFormat.fromHexDigitsToLong(hash, 0, 16);
+        long h2 = HexFormat.fromHexDigitsToLong(hash, 16, 32) | 1;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int offset = (int) (bit >>> 6) * Long.BYTES;
+            long word = words.getLong(offset);
+            long updated = word | (1L << bit);
+            if (updated != word) {
+                words.putLong(offset, updated);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param hash block hash, 64 hex digits
+     * @return {@code false} if the hash was certainly never added
+     */
+    public boolean mightContain(String hash) {
+        if (!placeable(hash)) {
+            return true;
+        }
+        long h1 = HexFormat.fromHexDigitsToLong(hash, 0, 16);
+        long h2 = HexFormat.fromHexDigitsToLong(hash, 16, 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.getLong((int) (bit >>> 6) * Long.BYTES) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int wordCount() {
+        return wordCount;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    public long word(int index) {
+        return words.getLong(index * Long.BYTES);
+    }
+
+    public void setWord(int index, long word) {
+        words.putLong(index * Long.BYTES, word);
+    }
+
+    private static boolean placeable(String hash) {
+        if (hash == null || hash.length() != HASH_HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_HEX_LENGTH; i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+package ru.levitsky.blackholeeh.util;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wire and file format of published {@link BloomFilter} versions.
+ * <p>
+ * Every message starts with a {@value #HEADER_SIZE}-byte header, all numbers big-endian:
+ * <pre>
+ *  0  int   magic "BLBF"
+ *  4  byte  format version (1)
+ *  5  byte  kind: 0 = snapshot, 1 = delta
+ *  6  byte  block type ordinal
+ *  7  byte  hash count
+ *  8  long  generation – changes whenever the filter is rebuilt with a different size
+ * 16  long  version of the filter this message produces
+ * 24  long  base version a delta applies to, 0 for snapshots
+ * 32  int   word count of the filter
+ * 36  int   number of changed words of a delta, 0 for snapshots
+ * 40  long  approximate number of hashes in the filter
+ * 48        reserved, zero
+ * </pre>
+ * A snapshot continues with all words, so a snapshot file can be memory-mapped and used in place; a delta
+ * continues with {@code (int index, long word)} pairs, the new values of the words that changed since the
+ * base version. Words only gain bits within a generation.
+ */
+public final class BloomFilterSnapshot {
+
+    public static final int HEADER_SIZE = 64;
+    public static final int KIND_SNAPSHOT = 0;
+    public static final int KIND_DELTA = 1;
+
+    /**
+     * offset of the version in the header, updated in place when a delta is applied to a mapped snapshot
+     */
+    public static final int VERSION_OFFSET = 16;
+    public static final int ENTRIES_OFFSET = 40;
+
+    private static final int MAGIC = 0x424C4246;
+    private static final int FORMAT = 1;
+    private static final int DELTA_ENTRY_SIZE = Integer.BYTES + Long.BYTES;
+
+    private BloomFilterSnapshot() {
+    }
+
+    /**
+     * @return a snapshot message with all words of {@code words}
+     */
+    public static byte[] snapshot(BlockType type, int hashCount, long generation, long version, long entries,
+                                  long[] words) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + words.length * Long.BYTES);
+        putHeader(buffer, new Header(KIND_SNAPSHOT, type, hashCount, generation, version, 0, words.length, 0,
+                entries));
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param changed indices of the words that changed since {@code baseVersion}
+     * @return a delta message with the current values of the changed words
+     */
+    public static byte[] delta(BlockType type, int hashCount, long generation, long version, long baseVersion,
+                               long entries, long[] words, int[] changed) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + changed.length * DELTA_ENTRY_SIZE);
+        putHeader(buffer, new Header(KIND_DELTA, type, hashCount, generation, version, baseVersion, words.length,
+                changed.length, entries));
+        for (int index : changed) {
+            buffer.putInt(index).putLong(words[index]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Parses and validates the header at the start of {@code message}.
+     *
+     * @throws IllegalArgumentException if the message is not a filter message of this format or is truncated
+     */
+    public static Header header(ByteBuffer message) {
+        ByteBuffer buffer = message.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(buffer.position()) != MAGIC) {
+            throw new IllegalArgumentException("Not a Bloom filter message");
+        }
+        int start = buffer.position();
+        int format = buffer.get(start + 4);
+        if (format != FORMAT) {
+            throw new IllegalArgumentException("Unsupported Bloom filter format " + format);
+        }
+        int kind = buffer.get(start + 5);
+        int typeOrdinal = buffer.get(start + 6);
+        if (kind != KIND_SNAPSHOT && kind != KIND_DELTA) {
+            throw new IllegalArgumentException("Unknown Bloom filter message kind " + kind);
+        }
+        if (typeOrdinal < 0 || typeOrdinal >= BlockType.values().length) {
+            throw new IllegalArgumentException("Unknown block type " + typeOrdinal);
+        }
+        Header header = new Header(kind, BlockType.values()[typeOrdinal], buffer.get(start + 7),
+                buffer.getLong(start + 8), buffer.getLong(start + VERSION_OFFSET), buffer.getLong(start + 24),
+                buffer.getInt(start + 32), buffer.getInt(start + 36), buffer.getLong(start + ENTRIES_OFFSET));
+        long bodySize = kind == KIND_SNAPSHOT
+                ? (long) header.wordCount() * Long.BYTES
+                : (long) header.changedWords() * DELTA_ENTRY_SIZE;
+        if (header.wordCount() < 1 || header.changedWords() < 0 || buffer.remaining() != HEADER_SIZE + bodySize) {
+            throw new IllegalArgumentException("Truncated Bloom filter message: " + buffer.remaining()
+                    + " bytes for " + header);
+        }
+        return header;
+    }
+
+    /**
+     * Applies a delta message to a filter of the same generation and its base version.
+     *
+     * @param delta  the delta message
+     * @param filter the filter to update in place
+     * @throws IllegalArgumentException if the message is not a delta or a word index is out of range
+     */
+    public static void applyDelta(ByteBuffer delta, BloomFilter filter) {
+        Header header = header(delta);
+        if (header.kind() != KIND_DELTA || header.wordCount() != filter.wordCount()) {
+            throw new IllegalArgumentException("Delta " + header + " does not fit a filter of "
+                    + filter.wordCount() + " words");
+        }
+        ByteBuffer buffer = delta.duplicate().order(ByteOrder.BIG_ENDIAN);
+        buffer.position(buffer.position() + HEADER_SIZE);
+        for (int i = 0; i < header.changedWords(); i++) {
+            int index = buffer.getInt();
+            long word = buffer.getLong();
+            if (index < 0 || index >= filter.wordCount()) {
+                throw new IllegalArgumentException("Delta word index " + index + " out of range");
+            }
+            filter.setWord(index, word);
+        }
+    }
+
+    private static void putHeader(ByteBuffer buffer, Header header) {
+        buffer.putInt(MAGIC)
+                .put((byte) FORMAT)
+                .put((byte) header.kind())
+                .put((byte) header.type().ordinal())
+                .put((byte) header.hashCount())
+                .putLong(header.generation())
+                .putLong(header.version())
+                .putLong(header.baseVersion())
+                .putInt(header.wordCount())
+                .putInt(header.changedWords())
+                .putLong(header.entries());
+        buffer.position(HEADER_SIZE);
+    }
+
+    /**
+     * Header of a filter message.
+     *
+     * @param kind         {@link #KIND_SNAPSHOT} or {@link #KIND_DELTA}
+     * @param type         the block component the filter covers
+     * @param hashCount    number of hash functions
+     * @param generation   the filter generation
+     * @param version      version after this message
+     * @param baseVersion  version a delta applies to, 0 for snapshots
+     * @param wordCount    size of the filter in words
+     * @param changedWords number of words in a delta
+     * @param entries      approximate number of hashes in the filter
+     */
+    public record Header(int kind, BlockType type, int hashCount, long generation, long version, long baseVersion,
+                         int wordCount, int changedWords, long entries) {
+    }
+}
@@ -0,0 +1,116 @@
+package ru.levitsky.blackholeeh.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Minimal parser for the command-line arguments of the CLI modes.
+ * <p>
+ * Arguments of the form {@code --name=value} (or a bare {@code --flag}) are collected as options,
+ * everything else is kept as positional arguments in their original order.
+ * <p>
+ * Example usage:
+ * <pre>
+ * {@code
+ * CliArgs cli = CliArgs.parse("analyze", "/data/images", "--parallelism=8");
+ * cli.positional(1, ".");              // "/data/images"
+ * cli.intOption("parallelism", 4);     // 8
+ * }
+ * </pre>
+ */
+public final class CliArgs {
+
+    private final List<String> positional;
+    private final Map<String, String> options;
+
+    private CliArgs(List<String> positional, Map<String, String> options) {
+        this.positional = positional;
+        this.options = options;
+    }
+
+    /**
+     * Parses raw command-line arguments.
+     *
+     * @param args the arguments as passed to the application
+     * @return parsed arguments
+     */
+    public static CliArgs parse(String... args) {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.length() > 2) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        return new CliArgs(Collections.unmodifiableList(positional), Collections.unmodifiableMap(options));
+    }
+
+    /**
+     * @return the number of positional arguments
+     */
+    public int positionalCount() {
+        return positional.size();
+    }
+
+    /**
+     * @param index        zero-based index of the positional argument
+     * @param defaultValue value returned when the argument is absent
+     * @return the positional argument or {@code defaultValue}
+     */
+    public String positional(int index, String defaultValue) {
+        return index < positional.size() ? positional.get(index) : defaultValue;
+    }
+
+    /**
+     * @return all positional arguments starting at {@code fromIndex}
+     */
+    public List<String> positionalFrom(int fromIndex) {
+        return fromIndex < positional.size() ? positional.subList(fromIndex, positional.size()) : List.of();
+    }
+
+    public String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public boolean hasOption(String name) {
+        return options.containsKey(name);
+    }
+
+    public boolean flag(String name) {
+        return Boolean.parseBoolean(options.getOrDefault(name, "false"));
+    }
+
+    public int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : parseNumber(name, value, Integer::parseInt);
+    }
+
+    public long longOption(String name, long defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : parseNumber(name, value, Long::parseLong);
+    }
+
+    public double doubleOption(String name, double defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : parseNumber(name, value, Double::parseDouble);
+    }
+
+    private static <T> T parseNumber(String name, String value, Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.levitsky.blackholeeh.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of equally sized direct {@link ByteBuffer}s.
+ * <p>
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector, but channel writes
+ * from them need no extra copy. Buffers beyond {@code maxPooled} are allocated on demand and dropped on release,
+ * so a burst of large writes does not pin memory. Thread-safe.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize capacity of every buffer in bytes
+     * @param maxPooled  maximum number of idle buffers kept for reuse
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1 || maxPooled < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool: " + maxPooled + " x " + bufferSize + " bytes");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #bufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire()}; it must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offerFirst(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.levitsky.blackholeeh.util;
+
+/**
+ * Utility methods for estimating the information content of block components.
+ */
+public final class EntropyUtils {
+
+    private EntropyUtils() {
+    }
+
+    /**
+     * Calculates the zero-order Shannon entropy of a symbol histogram.
+     * <p>
+     * {@code H = -Σ p(s) · log2 p(s)}, where {@code p(s) = histogram[s] / total}.
+     * The result is a lower bound for the average code length (in bits per symbol)
+     * of any coder that encodes symbols independently.
+     *
+     * @param histogram occurrence count for every symbol
+     * @return entropy in bits per symbol, {@code 0} for an empty histogram
+     */
+    public static double shannonEntropy(long[] histogram) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+
+        double entropy = 0.0;
+        for (long count : histogram) {
+            if (count > 0) {
+                double p = (double) count / total;
+                entropy -= p * (Math.log(p) / Math.log(2));
+            }
+        }
+        return entropy;
+    }
+}
@@ -0,0 +1,193 @@
+package ru.levitsky.blackholeeh.util;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.PreviousFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta encoding of frame manifests against the previous frame of a sequence.
+ * <p>
+ * A delta manifest lists hashes, position map entries and orientations only for the positions whose block
+ * changed since the previous frame, in position order; a "same as previous" bitmap per component, one bit per
+ * position, marks the others. Decoding takes the marked positions from the previous frame's manifest and
+ * deduplicates all positions again in order of first occurrence, which gives exactly the hash lists and position
+ * maps a self-contained manifest of the frame would hold. Band checksums, JPEG segments and metadata are stored
+ * for the whole frame, as in any manifest.
+ */
+public final class FrameDeltas {
+
+    private FrameDeltas() {
+    }
+
+    /**
+     * @param frame complete manifest data with {@link BlhoFileDataV2#getPreviousFrame()}
+     * @return the data as stored: only the positions that changed since the previous frame
+     * @throws IllegalArgumentException if the bitmaps do not match the position maps
+     */
+    public static BlhoFileDataV2 encode(BlhoFileDataV2 frame) {
+        PreviousFrame previous = frame.getPreviousFrame();
+        Map<BlockType, List<byte[]>> hashes = new EnumMap<>(BlockType.class);
+        Map<BlockType, List<Integer>> positions = new EnumMap<>(BlockType.class);
+        Map<BlockType, byte[]> orientations = frame.hasOrientations() ? new EnumMap<>(BlockType.class) : null;
+        for (BlockType type : BlockType.values()) {
+            hashes.put(type, new ArrayList<>());
+            positions.put(type, new ArrayList<>());
+        }
+
+        for (BlockType type : frame.getChannelLayout().components()) {
+            boolean[] unchanged = bitmap(previous, type, frame.positionMap(type).size());
+            List<byte[]> uniqueHashes = frame.uniqueHashes(type);
+            List<Integer> positionMap = frame.positionMap(type);
+            byte[] frameOrientations = frame.hasOrientations() ? frame.getOrientations().get(type) : null;
+            List<byte[]> deltaHashes = hashes.get(type);
+            List<Integer> deltaMap = positions.get(type);
+            byte[] deltaOrientations = new byte[unchanged.length - previous.unchangedCount(type)];
+
+            Map<Integer, Integer> index = new HashMap<>();
+            for (int position = 0; position < unchanged.length; position++) {
+                if (unchanged[position]) {
+                    continue;
+                }
+                int full = positionMap.get(position);
+                if (frameOrientations != null) {
+                    deltaOrientations[deltaMap.size()] = frameOrientations[position];
+                }
+                deltaMap.add(index.computeIfAbsent(full, _ -> {
+                    deltaHashes.add(uniqueHashes.get(full));
+                    return deltaHashes.size() - 1;
+                }));
+            }
+            if (orientations != null) {
+                orientations.put(type, deltaOrientations);
+            }
+        }
+        return withBlocks(frame, hashes, positions, orientations);
+    }
+
+    /**
+     * @param delta    manifest data as stored, with {@link BlhoFileDataV2#getPreviousFrame()}
+     * @param previous complete manifest data of the previous frame
+     * @return the complete manifest data of the frame
+     * @throws IllegalArgumentException if the previous frame does not match or the delta is inconsistent
+     */
+    public static BlhoFileDataV2 decode(BlhoFileDataV2 delta, BlhoFileDataV2 previous) {
+        if (delta.getChannelLayout() != previous.getChannelLayout() || delta.getWidth() != previous.getWidth()
+                || delta.getHeight() != previous.getHeight()
+                || delta.hasOrientations() != previous.hasOrientations()
+                || delta.hasJpegSegments() != previous.hasJpegSegments()) {
+            throw new IllegalArgumentException("previous frame '" + delta.getPreviousFrame().manifest()
+                    + "' has a different geometry or block source");
+        }
+        Map<BlockType, List<byte[]>> hashes = new EnumMap<>(BlockType.class);
+        Map<BlockType, List<Integer>> positions = new EnumMap<>(BlockType.class);
+        Map<BlockType, byte[]> orientations = delta.hasOrientations() ? new EnumMap<>(BlockType.class) : null;
+        for (BlockType type : BlockType.values()) {
+            hashes.put(type, new ArrayList<>());
+            positions.put(type, new ArrayList<>());
+        }
+
+        for (BlockType type : delta.getChannelLayout().components()) {
+            boolean[] unchanged = bitmap(delta.getPreviousFrame(), type, previous.positionMap(type).size());
+            int changed = unchanged.length - delta.getPreviousFrame().unchangedCount(type);
+            if (delta.positionMap(type).size() != changed) {
+                throw new IllegalArgumentException(type + " position map has " + delta.positionMap(type).size()
+                        + " entries, bitmap marks " + changed + " changed blocks");
+            }
+            byte[] previousOrientations = previous.hasOrientations() ? previous.getOrientations().get(type) : null;
+            byte[] deltaOrientations = delta.hasOrientations() ? delta.getOrientations().get(type) : null;
+            byte[] frameOrientations = new byte[unchanged.length];
+            List<byte[]> uniqueHashes = hashes.get(type);
+            List<Integer> positionMap = positions.get(type);
+
+            Map<ByteBuffer, Integer> index = new HashMap<>();
+            int next = 0;
+            for (int position = 0; position < unchanged.length; position++) {
+                byte[] hash;
+                if (unchanged[position]) {
+                    hash = hashAt(previous, type, position);
+                    frameOrientations[position] = previousOrientations != null ? previousOrientations[position] : 0;
+                } else {
+                    hash = hashAt(delta, type, next);
+                    frameOrientations[position] = deltaOrientations != null ? deltaOrientations[next] : 0;
+                    next++;
+                }
+                positionMap.add(index.computeIfAbsent(ByteBuffer.wrap(hash).asReadOnlyBuffer(), _ -> {
+                    uniqueHashes.add(hash);
+                    return uniqueHashes.size() - 1;
+                }));
+            }
+            if (orientations != null) {
+                orientations.put(type, frameOrientations);
+            }
+        }
+        return withBlocks(delta, hashes, positions, orientations);
+    }
+
+    /**
+     * Packs a bitmap, most significant bit first.
+     */
+    public static byte[] packBits(boolean[] bits) {
+        byte[] packed = new byte[(bits.length + 7) / 8];
+        for (int i = 0; i < bits.length; i++) {
+            if (bits[i]) {
+                packed[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks {@code count} bits packed with {@link #packBits(boolean[])}.
+     *
+     * @throws IllegalArgumentException if {@code packed} does not hold exactly {@code count} bits
+     */
+    public static boolean[] unpackBits(byte[] packed, int count) {
+        if (packed.length != (count + 7) / 8) {
+            throw new IllegalArgumentException("Expected " + (count + 7) / 8 + " bytes for " + count
+                    + " bits, got " + packed.length);
+        }
+        boolean[] bits = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            bits[i] = ((packed[i >>> 3] >>> (7 - (i & 7))) & 1) != 0;
+        }
+        return bits;
+    }
+
+    private static boolean[] bitmap(PreviousFrame previous, BlockType type, int positions) {
+        boolean[] unchanged = previous.unchanged().get(type);
+        if (unchanged == null || unchanged.length != positions) {
+            throw new IllegalArgumentException(type + " bitmap has " + (unchanged == null ? 0 : unchanged.length)
+                    + " positions, expected " + positions);
+        }
+        return unchanged;
+    }
+
+    private static byte[] hashAt(BlhoFileDataV2 manifest, BlockType type, int position) {
+        int index = manifest.positionMap(type).get(position);
+        List<byte[]> hashes = manifest.uniqueHashes(type);
+        if (index < 0 || index >= hashes.size()) {
+            throw new IllegalArgumentException(type + " position " + position + " references hash " + index
+                    + " of " + hashes.size());
+        }
+        return hashes.get(index);
+    }
+
+    private static BlhoFileDataV2 withBlocks(BlhoFileDataV2 source, Map<BlockType, List<byte[]>> hashes,
+                                             Map<BlockType, List<Integer>> positions,
+                                             Map<BlockType, byte[]> orientations) {
+        return new BlhoFileDataV2(source.getOriginalFileName(), source.getWidth(), source.getHeight(),
+                source.getChannelLayout(), source.getChromaPacking(),
+                hashes.get(BlockType.LUMA), hashes.get(BlockType.CHROMA_CB),
+                hashes.get(BlockType.CHROMA_CR), hashes.get(BlockType.ALPHA),
+                positions.get(BlockType.LUMA), positions.get(BlockType.CHROMA_CB),
+                positions.get(BlockType.CHROMA_CR), positions.get(BlockType.ALPHA), source.getBlockHash(),
+                orientations, source.getJpegSegments(), source.getChecksums(), source.getPreviousFrame());
+    }
+}
@@ -26,6 +26,17 @@ public class HashUtils {
         return sha256(buffer.array());
     }
 
+    /**
+     * Binary form of {@link #sha256WithLength(byte[])}: the block store key as 32 raw bytes,
+     * as stored in .blho manifests.
+     */
+    public static byte[] sha256WithLengthBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + data.length);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        return sha256Bytes(buffer.array());
+    }
+
     public static byte[] sha256Bytes(byte[] data) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -0,0 +1,112 @@
+package ru.levitsky.blackholeeh.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * MinHash signatures of block hash sets and their LSH band keys.
+ * <p>
+ * Block hashes are SHA-256 values, so their first 8 bytes are already uniformly distributed and serve as
+ * shingles directly. The {@code i}-th MinHash of a set is the minimum of {@code mix(x ^ seed[i])} over its
+ * shingles {@code x}, truncated to 32 bits. Two sets agree in a MinHash with probability equal to their
+ * Jaccard similarity, so the share of agreeing entries of two signatures estimates it.
+ */
+public final class MinHashUtils {
+
+    /**
+     * maximum signature length; seeds are fixed, so signatures of any run and machine are comparable
+     */
+    public static final int MAX_HASHES = 1024;
+
+    private static final long[] SEEDS = new long[MAX_HASHES];
+
+    static {
+        long state = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < MAX_HASHES; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(state);
+        }
+    }
+
+    private MinHashUtils() {
+    }
+
+    /**
+     * @param blockHashes hashes of the set members, at least 8 bytes each
+     * @param hashCount   signature length, 1..{@value #MAX_HASHES}
+     * @return the MinHash signature; all entries are {@code -1} for an empty set
+     */
+    public static int[] signature(Collection<byte[]> blockHashes, int hashCount) {
+        if (hashCount < 1 || hashCount > MAX_HASHES) {
+            throw new IllegalArgumentException("Signature length must be 1.." + MAX_HASHES + ": " + hashCount);
+        }
+        long[] min = new long[hashCount];
+        Arrays.fill(min, Long.MAX_VALUE);
+        for (byte[] hash : blockHashes) {
+            long shingle = firstLong(hash);
+            for (int i = 0; i < hashCount; i++) {
+                long value = mix(shingle ^ SEEDS[i]) >>> 32;
+                if (value < min[i]) {
+                    min[i] = value;
+                }
+            }
+        }
+        int[] signature = new int[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            signature[i] = min[i] == Long.MAX_VALUE ? -1 : (int) min[i];
+        }
+        return signature;
+    }
+
+    /**
+     * @return share of equal entries, an estimate of the Jaccard similarity of the two sets
+     */
+    public static double estimateJaccard(int[] a, int[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Signatures differ in length: " + a.length + " vs " + b.length);
+        }
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+
+    /**
+     * Key of one LSH band: signatures that agree in all {@code rows} entries of the band share the key.
+     *
+     * @param signature a MinHash signature
+     * @param band      band index
+     * @param rows      entries per band
+     * @return a 32-bit key of entries {@code band * rows .. band * rows + rows - 1}
+     */
+    public static int bandKey(int[] signature, int band, int rows) {
+        long h = band;
+        for (int i = band * rows; i < band * rows + rows; i++) {
+            h = mix(h * 0x9E3779B97F4A7C15L + (signature[i] & 0xFFFFFFFFL));
+        }
+        return (int) (h >>> 32);
+    }
+
+    /**
+     * Final mixer of SplitMix64: a bijection with full avalanche.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long firstLong(byte[] hash) {
+        if (hash.length < Long.BYTES) {
+            throw new IllegalArgumentException("Block hash must have at least 8 bytes");
+        }
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,130 @@
+package ru.levitsky.blackholeeh.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Processes one large image in parallel stripes of block rows.
+ * <p>
+ * The rows are cut into contiguous stripes – a few per worker, so uneven stripes balance out – which a fork-join
+ * {@link RecursiveTask} processes on a shared pool. The results come back in stripe order, top to bottom, so
+ * callers that merge them in that order get exactly what a single pass over all rows would give.
+ * Images below the pixel threshold, and all images with parallelism {@code 1}, are processed in one stripe on
+ * the calling thread. The pool is created on first use. Thread-safe.
+ */
+public final class StripeParallelism implements Closeable {
+
+    /**
+     * Every image in one stripe on the calling thread
+     */
+    public static final StripeParallelism SEQUENTIAL = new StripeParallelism(1, Long.MAX_VALUE);
+
+    private static final int STRIPES_PER_WORKER = 4;
+
+    private final int parallelism;
+    private final long thresholdPixels;
+    private ForkJoinPool pool;
+
+    /**
+     * @param parallelism     worker threads per image; {@code 0} for the number of available processors
+     * @param thresholdPixels images with fewer pixels are processed sequentially
+     */
+    public StripeParallelism(int parallelism, long thresholdPixels) {
+        if (parallelism < 0 || thresholdPixels < 0) {
+            throw new IllegalArgumentException("Invalid stripe parallelism: " + parallelism
+                    + " threads from " + thresholdPixels + " pixels");
+        }
+        this.parallelism = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.thresholdPixels = thresholdPixels;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public long thresholdPixels() {
+        return thresholdPixels;
+    }
+
+    /**
+     * Processes {@code rows} rows in stripes.
+     *
+     * @param rows   number of rows
+     * @param pixels size of the image, compared with the threshold
+     * @param stripe processes the rows {@code [from, to)}; called concurrently for disjoint ranges
+     * @return per stripe, its result, top to bottom
+     */
+    public <T> List<T> process(int rows, long pixels, Stripe<T> stripe) {
+        if (parallelism < 2 || pixels < thresholdPixels || rows < 2) {
+            return List.of(stripe.process(0, rows));
+        }
+        int stripes = parallelism * STRIPES_PER_WORKER;
+        int stripeRows = Math.max(1, (rows + stripes - 1) / stripes);
+        return pool().invoke(new StripeTask<>(stripe, 0, rows, stripeRows));
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Work on one stripe of rows.
+     */
+    @FunctionalInterface
+    public interface Stripe<T> {
+
+        /**
+         * @param from first row of the stripe
+         * @param to   row after the last row of the stripe
+         */
+        T process(int from, int to);
+    }
+
+    /**
+     * Fork-join task over a contiguous range of rows, split at stripe boundaries.
+     */
+    private static final class StripeTask<T> extends RecursiveTask<List<T>> {
+        private final Stripe<T> stripe;
+        private final int from;
+        private final int to;
+        private final int stripeRows;
+
+        private StripeTask(Stripe<T> stripe, int from, int to, int stripeRows) {
+            this.stripe = stripe;
+            this.from = from;
+            this.to = to;
+            this.stripeRows = stripeRows;
+        }
+
+        @Override
+        protected List<T> compute() {
+            int stripes = (to - from + stripeRows - 1) / stripeRows;
+            if (stripes <= 1) {
+                List<T> results = new ArrayList<>(1);
+                results.add(stripe.process(from, to));
+                return results;
+            }
+            int middle = from + (stripes / 2) * stripeRows;
+            StripeTask<T> left = new StripeTask<>(stripe, from, middle, stripeRows);
+            StripeTask<T> right = new StripeTask<>(stripe, middle, to, stripeRows);
+            invokeAll(left, right);
+            List<T> results = left.join();
+            results.addAll(right.join());
+            return results;
+        }
+    }
+}
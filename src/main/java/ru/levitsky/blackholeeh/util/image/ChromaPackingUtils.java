@@ -0,0 +1,112 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
+
+/**
+ * Utility methods for packing 8x8 chroma (U/V) blocks into bytes and back.
+ * <p>
+ * Packing is used consistently for hashing, upload payloads and reconstruction:
+ * the packed bytes are the block identity. Unpacking accepts every {@link ChromaPacking},
+ * so blocks written in the legacy 16-bit layout remain readable.
+ */
+public final class ChromaPackingUtils {
+
+    private static final int BLOCK_SAMPLES = 64;
+    private static final int SAMPLE_BITS = 9;
+    private static final int SAMPLE_MASK = (1 << SAMPLE_BITS) - 1;
+
+    private ChromaPackingUtils() {
+    }
+
+    /**
+     * Packs 64 chroma samples.
+     *
+     * @param samples chroma samples of one block (-255..255)
+     * @param packing target layout
+     * @return packed block of {@link ChromaPacking#packedLength()} bytes
+     * @throws IllegalArgumentException if the block does not have 64 samples
+     *                                  or a sample does not fit into 9 signed bits
+     */
+    public static byte[] pack(short[] samples, ChromaPacking packing) {
+        if (samples.length != BLOCK_SAMPLES) {
+            throw new IllegalArgumentException("Chroma block must have 64 samples: " + samples.length);
+        }
+        return switch (packing) {
+            case INT16_BE -> packInt16(samples);
+            case SIGNED_9BIT -> packSigned9(samples);
+        };
+    }
+
+    /**
+     * Unpacks a chroma block, recognizing the layout by its length.
+     *
+     * @param packed packed block in any supported layout
+     * @return 64 chroma samples
+     * @throws IllegalArgumentException if the length does not match any layout
+     */
+    public static short[] unpack(byte[] packed) {
+        return switch (ChromaPacking.fromPackedLength(packed.length)) {
+            case INT16_BE -> unpackInt16(packed);
+            case SIGNED_9BIT -> unpackSigned9(packed);
+        };
+    }
+
+    private static byte[] packInt16(short[] samples) {
+        byte[] packed = new byte[BLOCK_SAMPLES * 2];
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            packed[2 * i] = (byte) (samples[i] >> 8);
+            packed[2 * i + 1] = (byte) samples[i];
+        }
+        return packed;
+    }
+
+    private static short[] unpackInt16(byte[] packed) {
+        short[] samples = new short[BLOCK_SAMPLES];
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            samples[i] = (short) ((packed[2 * i] << 8) | (packed[2 * i + 1] & 0xFF));
+        }
+        return samples;
+    }
+
+    /**
+     * 64 x 9 bits = 576 bits = 72 bytes; eight samples form exactly nine bytes.
+     */
+    private static byte[] packSigned9(short[] samples) {
+        byte[] packed = new byte[ChromaPacking.SIGNED_9BIT.packedLength()];
+        int accumulator = 0;
+        int bits = 0;
+        int pos = 0;
+        for (short sample : samples) {
+            if (sample < -256 || sample > 255) {
+                throw new IllegalArgumentException("Chroma sample does not fit into 9 bits: " + sample);
+            }
+            accumulator = (accumulator << SAMPLE_BITS) | (sample & SAMPLE_MASK);
+            bits += SAMPLE_BITS;
+            while (bits >= 8) {
+                bits -= 8;
+                packed[pos++] = (byte) (accumulator >>> bits);
+            }
+            accumulator &= (1 << bits) - 1;
+        }
+        return packed;
+    }
+
+    private static short[] unpackSigned9(byte[] packed) {
+        short[] samples = new short[BLOCK_SAMPLES];
+        int accumulator = 0;
+        int bits = 0;
+        int pos = 0;
+        for (int i = 0; i < BLOCK_SAMPLES; i++) {
+            while (bits < SAMPLE_BITS) {
+                accumulator = (accumulator << 8) | (packed[pos++] & 0xFF);
+                bits += 8;
+            }
+            bits -= SAMPLE_BITS;
+            int value = (accumulator >>> bits) & SAMPLE_MASK;
+            // sign-extend 9 -> 32 bits
+            samples[i] = (short) ((value << 23) >> 23);
+            accumulator &= (1 << bits) - 1;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,240 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.RctBlock;
+import ru.levitsky.blackholeeh.model.RctImage;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The 8 symmetries of an 8x8 block (dihedral group D4: 4 rotations, each optionally mirrored) and
+ * orientation-invariant canonicalization of blocks.
+ * <p>
+ * Orientation {@code t} (0..7, 3 bits) is a rotation by {@code (t & 3) · 90°} clockwise, applied after
+ * a horizontal mirror when {@code t & 4} is set; {@code 0} is the identity. The variant of a block in
+ * orientation {@code t} is {@code variant[i] = block[FORWARD[t][i]]}; the block is restored with
+ * {@code block[i] = variant[INVERSE[t][i]]}. Both tables are precomputed, so a transform is a single gather.
+ * <p>
+ * The canonical form of a block is its lexicographically smallest variant (unsigned for Y and A samples,
+ * signed for U and V samples); ties go to the smallest orientation, so canonicalization is deterministic.
+ * Mirrored or rotated copies of a block have the same canonical form and therefore the same hash.
+ */
+public final class DihedralUtils {
+
+    /**
+     * number of orientations
+     */
+    public static final int ORIENTATIONS = 8;
+
+    private static final int SIZE = 8;
+    private static final int SAMPLES = SIZE * SIZE;
+
+    private static final byte[][] FORWARD = new byte[ORIENTATIONS][SAMPLES];
+    private static final byte[][] INVERSE = new byte[ORIENTATIONS][SAMPLES];
+
+    static {
+        for (int t = 0; t < ORIENTATIONS; t++) {
+            for (int row = 0; row < SIZE; row++) {
+                for (int col = 0; col < SIZE; col++) {
+                    // walk back from the output position: undo the rotations, then the mirror
+                    int r = row;
+                    int c = col;
+                    for (int k = 0; k < (t & 3); k++) {
+                        int previousRow = SIZE - 1 - c;
+                        c = r;
+                        r = previousRow;
+                    }
+                    if ((t & 4) != 0) {
+                        c = SIZE - 1 - c;
+                    }
+                    int output = row * SIZE + col;
+                    int source = r * SIZE + c;
+                    FORWARD[t][output] = (byte) source;
+                    INVERSE[t][source] = (byte) output;
+                }
+            }
+        }
+    }
+
+    private DihedralUtils() {
+    }
+
+    /**
+     * @param orientation orientation 0..7
+     * @return the sample indices that restore a block from its variant: {@code block[i] = variant[table[i]]};
+     * shared, must not be modified
+     */
+    public static byte[] inverseTable(int orientation) {
+        return INVERSE[orientation];
+    }
+
+    /**
+     * @return the variant of {@code block} in {@code orientation}
+     */
+    public static byte[] apply(byte[] block, int orientation) {
+        return gather(block, FORWARD[orientation]);
+    }
+
+    /**
+     * @return the block whose variant in {@code orientation} is {@code variant}
+     */
+    public static byte[] invert(byte[] variant, int orientation) {
+        return gather(variant, INVERSE[orientation]);
+    }
+
+    /**
+     * @return the variant of {@code block} in {@code orientation}
+     */
+    public static short[] apply(short[] block, int orientation) {
+        byte[] table = FORWARD[orientation];
+        short[] result = new short[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            result[i] = block[table[i]];
+        }
+        return result;
+    }
+
+    /**
+     * @param block 64 unsigned samples
+     * @return the orientation of the lexicographically smallest variant
+     */
+    public static int canonicalOrientation(byte[] block) {
+        int best = 0;
+        for (int t = 1; t < ORIENTATIONS; t++) {
+            byte[] candidate = FORWARD[t];
+            byte[] current = FORWARD[best];
+            for (int i = 0; i < SAMPLES; i++) {
+                int difference = (block[candidate[i]] & 0xFF) - (block[current[i]] & 0xFF);
+                if (difference != 0) {
+                    if (difference < 0) {
+                        best = t;
+                    }
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param block 64 signed samples
+     * @return the orientation of the lexicographically smallest variant
+     */
+    public static int canonicalOrientation(short[] block) {
+        int best = 0;
+        for (int t = 1; t < ORIENTATIONS; t++) {
+            byte[] candidate = FORWARD[t];
+            byte[] current = FORWARD[best];
+            for (int i = 0; i < SAMPLES; i++) {
+                int difference = block[candidate[i]] - block[current[i]];
+                if (difference != 0) {
+                    if (difference < 0) {
+                        best = t;
+                    }
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replaces every block component of the image by its canonical variant and records the orientations.
+     *
+     * @param image image with blocks in natural orientation
+     * @return the image with canonical blocks and per-component orientation maps
+     * @throws IllegalArgumentException if the image is already canonicalized
+     */
+    public static RctImage canonicalize(RctImage image) {
+        if (image.orientations() != null) {
+            throw new IllegalArgumentException("Image blocks are already canonicalized");
+        }
+        List<BlockType> components = image.layout().components();
+        int count = image.blocks().size();
+        Map<BlockType, byte[]> orientations = new EnumMap<>(BlockType.class);
+        for (BlockType type : components) {
+            orientations.put(type, new byte[count]);
+        }
+
+        List<RctBlock> canonical = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RctBlock block = image.blocks().get(i);
+            byte[][] parts = new byte[BlockType.values().length][];
+            for (BlockType type : components) {
+                byte[] data = block.component(type);
+                int orientation;
+                if (type == BlockType.CHROMA_CB || type == BlockType.CHROMA_CR) {
+                    short[] samples = ChromaPackingUtils.unpack(data);
+                    orientation = canonicalOrientation(samples);
+                    if (orientation != 0) {
+                        data = ChromaPackingUtils.pack(apply(samples, orientation), image.chromaPacking());
+                    }
+                } else {
+                    orientation = canonicalOrientation(data);
+                    if (orientation != 0) {
+                        data = apply(data, orientation);
+                    }
+                }
+                orientations.get(type)[i] = (byte) orientation;
+                parts[type.ordinal()] = data;
+            }
+            canonical.add(new RctBlock(parts[BlockType.LUMA.ordinal()], parts[BlockType.CHROMA_CB.ordinal()],
+                    parts[BlockType.CHROMA_CR.ordinal()], parts[BlockType.ALPHA.ordinal()]));
+        }
+        return new RctImage(image.width(), image.height(), image.layout(), image.chromaPacking(), canonical,
+                orientations);
+    }
+
+    /**
+     * Packs orientations (0..7) as 3-bit values, MSB-first.
+     *
+     * @return {@code ceil(3 · n / 8)} bytes
+     */
+    public static byte[] packOrientations(byte[] orientations) {
+        byte[] packed = new byte[(orientations.length * 3 + 7) / 8];
+        long bit = 0;
+        for (byte orientation : orientations) {
+            for (int b = 2; b >= 0; b--, bit++) {
+                if (((orientation >> b) & 1) != 0) {
+                    packed[(int) (bit >>> 3)] |= (byte) (0x80 >>> (bit & 7));
+                }
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Inverse of {@link #packOrientations(byte[])}.
+     *
+     * @param packed packed orientations
+     * @param count  number of orientations
+     * @return one orientation (0..7) per byte
+     */
+    public static byte[] unpackOrientations(byte[] packed, int count) {
+        if (packed.length != (count * 3 + 7) / 8) {
+            throw new IllegalArgumentException("Expected " + (count * 3 + 7) / 8 + " bytes for " + count
+                    + " orientations, got " + packed.length);
+        }
+        byte[] orientations = new byte[count];
+        long bit = 0;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            for (int b = 0; b < 3; b++, bit++) {
+                value = (value << 1) | ((packed[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+            }
+            orientations[i] = (byte) value;
+        }
+        return orientations;
+    }
+
+    private static byte[] gather(byte[] block, byte[] table) {
+        byte[] result = new byte[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            result[i] = block[table[i]];
+        }
+        return result;
+    }
+}
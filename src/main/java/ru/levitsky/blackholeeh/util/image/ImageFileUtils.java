@@ -0,0 +1,133 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Utility methods for recognizing image files supported by the processing pipeline
+ * and for detecting their channel layout.
+ */
+public final class ImageFileUtils {
+
+    private ImageFileUtils() {
+    }
+
+    /**
+     * Checks whether the file name has one of the supported image extensions (JPG/JPEG/PNG).
+     *
+     * @param path the file to check
+     * @return {@code true} if the file can be processed by {@code BlockSplitter}
+     */
+    public static boolean isSupportedImage(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+    }
+
+    /**
+     * Checks whether the file name has a JPEG extension (JPG/JPEG).
+     *
+     * @param path the file to check
+     * @return {@code true} if the file can be split by {@code JpegBlockSplitter}
+     */
+    public static boolean isJpeg(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    /**
+     * Orders files by name with runs of digits compared as numbers, so {@code frame2.png} comes before
+     * {@code frame10.png}, as frame sequences are usually numbered.
+     */
+    public static final Comparator<Path> FRAME_ORDER = (a, b) -> {
+        String first = String.valueOf(a.getFileName());
+        String second = String.valueOf(b.getFileName());
+        int order = compareNatural(first, second);
+        return order != 0 ? order : a.compareTo(b);
+    };
+
+    /**
+     * Detects the channel layout of a decoded image.
+     * <p>
+     * Gray layouts are only reported for 8-bit gray rasters, whose samples can be used as luma directly.
+     * Deeper gray images (e.g. 16-bit PNG) fall back to the RGB(A) path like any other color model.
+     *
+     * @param image the decoded image
+     * @return the detected layout
+     */
+    public static ChannelLayout detectChannelLayout(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        boolean hasAlpha = colorModel.hasAlpha();
+
+        if (colorModel.getNumColorComponents() == 1
+                && image.getRaster().getNumBands() == (hasAlpha ? 2 : 1)
+                && image.getSampleModel().getSampleSize(0) == 8
+                && (!hasAlpha || image.getSampleModel().getSampleSize(1) == 8)) {
+            return hasAlpha ? ChannelLayout.GRAY_ALPHA : ChannelLayout.GRAY;
+        }
+        return hasAlpha ? ChannelLayout.RGBA : ChannelLayout.RGB;
+    }
+
+    private static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char x = a.charAt(i);
+            char y = b.charAt(j);
+            if (Character.isDigit(x) && Character.isDigit(y)) {
+                int runA = digitRunEnd(a, i);
+                int runB = digitRunEnd(b, j);
+                int startA = skipZeros(a, i, runA);
+                int startB = skipZeros(b, j, runB);
+                // without leading zeros, the longer number is the larger one
+                int order = Integer.compare(runA - startA, runB - startB);
+                if (order == 0) {
+                    order = a.substring(startA, runA).compareTo(b.substring(startB, runB));
+                }
+                if (order == 0) {
+                    order = Integer.compare(runA - i, runB - j);
+                }
+                if (order != 0) {
+                    return order;
+                }
+                i = runA;
+                j = runB;
+            } else {
+                if (x != y) {
+                    return Character.compare(x, y);
+                }
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static int digitRunEnd(String s, int from) {
+        int end = from;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int skipZeros(String s, int from, int to) {
+        int start = from;
+        while (start < to - 1 && s.charAt(start) == '0') {
+            start++;
+        }
+        return start;
+    }
+}
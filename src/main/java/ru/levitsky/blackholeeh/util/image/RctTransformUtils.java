@@ -1,6 +1,7 @@
 package ru.levitsky.blackholeeh.util.image;
 
 import ru.levitsky.blackholeeh.util.image.component.RctComponents;
+import ru.levitsky.blackholeeh.util.image.component.RgbComponents;
 
 /**
  * Utility methods for Reversible Color Transform (RCT) operations.
@@ -20,6 +21,29 @@ public final class RctTransformUtils {
     private RctTransformUtils() {
     }
 
+    /**
+     * Exact inverse of {@link #forwardRctTransform(int, int, int)}.
+     *
+     * @param y luma component (0-255)
+     * @param u chroma difference {@code r - g} (-255..255)
+     * @param v chroma difference {@code b - g} (-255..255)
+     * @return the original RGB components
+     */
+    public static RgbComponents inverseRctTransform(int y, int u, int v) {
+        int g = y - ((u + v) >> 2);
+        return new RgbComponents(u + g, g, v + g);
+    }
+
+    /**
+     * Allocation-free variant of {@link #inverseRctTransform(int, int, int)} for bulk reconstruction.
+     *
+     * @return the original pixel as {@code 0x00RRGGBB}
+     */
+    public static int inverseRctToRgb(int y, int u, int v) {
+        int g = y - ((u + v) >> 2);
+        return ((u + g) << 16) | (g << 8) | (v + g);
+    }
+
     /**
      * Calculates only the luma (Y) component from RGB.
      * Useful when only brightness information is needed.
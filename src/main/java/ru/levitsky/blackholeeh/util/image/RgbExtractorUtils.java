@@ -104,6 +104,23 @@ public final class RgbExtractorUtils {
         return rgb & 0xFF;
     }
 
+    /**
+     * Extracts the alpha component from an integer ARGB value.
+     *
+     * <p><b>Bit manipulation:</b>
+     * <pre>
+     * ARGB format: 0xAARRGGBB
+     * Alpha component: bits 24-31
+     * Extraction: (argb >>> 24) & 0xFF
+     * </pre>
+     *
+     * @param argb the ARGB value in 0xAARRGGBB format
+     * @return alpha component in range 0-255
+     */
+    public static int extractAlpha(int argb) {
+        return (argb >>> 24) & 0xFF;
+    }
+
     private static void validateBlockCoordinates(int bx, int by) {
         if (bx % 8 != 0 || by % 8 != 0) {
             throw new IllegalArgumentException(
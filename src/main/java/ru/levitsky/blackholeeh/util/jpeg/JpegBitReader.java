@@ -0,0 +1,69 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+/**
+ * Reads bits MSB-first from entropy-coded scan data, removing stuffed zero bytes.
+ * At a marker, zeros are returned without consuming it, as T.81 prescribes for a decoder running into one.
+ */
+final class JpegBitReader {
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+    private int current;
+    private int bitsLeft;
+
+    JpegBitReader(byte[] data, int start, int end) {
+        this.data = data;
+        this.position = start;
+        this.end = end;
+    }
+
+    int bit() {
+        if (bitsLeft == 0) {
+            current = nextByte();
+            bitsLeft = 8;
+        }
+        bitsLeft--;
+        return (current >>> bitsLeft) & 1;
+    }
+
+    /**
+     * @param count number of bits, at most 16
+     */
+    int bits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | bit();
+        }
+        return value;
+    }
+
+    /**
+     * Discards the bits left of the current byte and consumes the restart marker {@code RSTn}.
+     *
+     * @throws IllegalArgumentException if the marker is not next in the data
+     */
+    void restart(int number) {
+        bitsLeft = 0;
+        if (position + 1 >= end || (data[position] & 0xFF) != 0xFF || (data[position + 1] & 0xFF) != 0xD0 + number) {
+            throw new IllegalArgumentException("Missing restart marker RST" + number);
+        }
+        position += 2;
+    }
+
+    private int nextByte() {
+        if (position >= end) {
+            return 0;
+        }
+        int value = data[position] & 0xFF;
+        if (value != 0xFF) {
+            position++;
+            return value;
+        }
+        if (position + 1 < end && data[position + 1] == 0) {
+            position += 2;
+            return value;
+        }
+        return 0;
+    }
+}
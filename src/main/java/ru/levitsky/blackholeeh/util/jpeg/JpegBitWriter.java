@@ -0,0 +1,75 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+import java.util.Arrays;
+
+/**
+ * Writes bits MSB-first as entropy-coded scan data, stuffing a zero byte after every {@code 0xFF},
+ * and raw bytes such as markers and header segments.
+ */
+final class JpegBitWriter {
+
+    private byte[] out;
+    private int size;
+    private long buffer;
+    private int bits;
+
+    JpegBitWriter(int capacity) {
+        out = new byte[Math.max(capacity, 64)];
+    }
+
+    /**
+     * @param value bits to write in its lowest {@code count} bits
+     * @param count number of bits, at most 24
+     */
+    void putBits(int value, int count) {
+        if (count == 0) {
+            return;
+        }
+        buffer = (buffer << count) | (value & ((1L << count) - 1));
+        bits += count;
+        while (bits >= 8) {
+            int b = (int) (buffer >>> (bits - 8)) & 0xFF;
+            write(b);
+            if (b == 0xFF) {
+                write(0);
+            }
+            bits -= 8;
+        }
+        buffer &= (1L << bits) - 1;
+    }
+
+    /**
+     * Pads a partial byte with one bits, like libjpeg does at the end of a scan and before restart markers.
+     */
+    void flush() {
+        if (bits > 0) {
+            putBits((1 << (8 - bits)) - 1, 8 - bits);
+        }
+    }
+
+    void marker(int code) {
+        write(0xFF);
+        write(code);
+    }
+
+    void raw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, out, size, bytes.length);
+        size += bytes.length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(out, size);
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        out[size++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, size + extra));
+        }
+    }
+}
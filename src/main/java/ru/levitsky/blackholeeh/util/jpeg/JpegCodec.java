@@ -0,0 +1,859 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lossless transcoding between JPEG files and their quantized DCT coefficients.
+ * <p>
+ * {@link #decode(byte[])} parses the markers and Huffman-decodes every scan of a baseline, extended sequential
+ * or progressive 8-bit JPEG into coefficient blocks; nothing is dequantized or inverse transformed.
+ * {@link #encode(List, short[][])} Huffman-codes the coefficients again with the tables and restart intervals
+ * of the original headers. The encoder makes the same choices as libjpeg – EOB runs and buffered correction bits
+ * in progressive scans, one-bit padding before markers – so files written by libjpeg and its derivatives
+ * are re-created byte for byte; callers verify this before relying on it.
+ * <p>
+ * Arithmetic coding, lossless and hierarchical processes, 12-bit samples and DNL markers are rejected
+ * with an {@link IllegalArgumentException}.
+ */
+public final class JpegCodec {
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DHT = 0xC4;
+    private static final int DRI = 0xDD;
+    private static final int DNL = 0xDC;
+    private static final int RST0 = 0xD0;
+    private static final int TEM = 0x01;
+
+    /**
+     * Correction bits libjpeg buffers during an EOB run of a refinement scan before it ends the run
+     */
+    private static final int MAX_CORRECTION_BITS = 1000;
+    private static final int MAX_EOB_RUN = 0x7FFF;
+
+    private JpegCodec() {
+    }
+
+    /**
+     * Splits a JPEG file into coefficients and the remaining bytes.
+     *
+     * @param data the complete file
+     * @return coefficients, frame header and non-entropy-coded segments
+     * @throws IllegalArgumentException if the file is malformed or uses an unsupported coding process
+     */
+    public static JpegCoefficients decode(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI) {
+            throw new IllegalArgumentException("Not a JPEG file");
+        }
+        TableState state = new TableState();
+        List<byte[]> segments = new ArrayList<>();
+        short[][] coefficients = null;
+        int segmentStart = 0;
+        int position = 0;
+        while (true) {
+            MarkerResult result = readMarkers(data, position, data.length, state);
+            if (result.scan() == null) {
+                break;
+            }
+            if (coefficients == null) {
+                coefficients = allocate(state.frame);
+            }
+            segments.add(Arrays.copyOfRange(data, segmentStart, result.end()));
+            int scanEnd = entropyEnd(data, result.end());
+            new ScanDecoder(state, result.scan(), coefficients, new JpegBitReader(data, result.end(), scanEnd)).run();
+            segmentStart = scanEnd;
+            position = scanEnd;
+        }
+        if (coefficients == null) {
+            throw new IllegalArgumentException("JPEG file has no scans");
+        }
+        segments.add(Arrays.copyOfRange(data, segmentStart, data.length));
+        return new JpegCoefficients(state.frame, List.copyOf(segments), coefficients);
+    }
+
+    /**
+     * Re-creates a JPEG file from its coefficients and non-entropy-coded segments.
+     *
+     * @param segments     segments as returned by {@link #decode(byte[])}
+     * @param coefficients coefficient blocks as returned by {@link #decode(byte[])}
+     * @return the file bytes
+     * @throws IllegalArgumentException if the segments are malformed or do not match the coefficients
+     */
+    public static byte[] encode(List<byte[]> segments, short[][] coefficients) {
+        if (segments.size() < 2) {
+            throw new IllegalArgumentException("A JPEG needs at least one scan");
+        }
+        int capacity = 0;
+        for (byte[] segment : segments) {
+            capacity += segment.length;
+        }
+        for (short[] component : coefficients) {
+            capacity += component.length / 4;
+        }
+        JpegBitWriter out = new JpegBitWriter(capacity);
+        TableState state = new TableState();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            byte[] segment = segments.get(i);
+            MarkerResult result = readMarkers(segment, 0, segment.length, state);
+            if (result.scan() == null || result.end() != segment.length) {
+                throw new IllegalArgumentException("Segment " + i + " does not end with a scan header");
+            }
+            if (i == 0) {
+                checkAllocation(state.frame, coefficients);
+            }
+            out.raw(segment);
+            new ScanEncoder(state, result.scan(), coefficients, out).run();
+        }
+        out.raw(segments.getLast());
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the frame header from the first segment of {@link JpegCoefficients#segments()}.
+     *
+     * @throws IllegalArgumentException if the segment has no supported frame header before the first scan
+     */
+    public static JpegFrame frame(byte[] header) {
+        TableState state = new TableState();
+        MarkerResult result = readMarkers(header, 0, header.length, state);
+        if (result.scan() == null) {
+            throw new IllegalArgumentException("JPEG header has no scan");
+        }
+        return state.frame;
+    }
+
+    /**
+     * Serializes one coefficient block compactly: the number {@code n} of coefficients up to the last non-zero one
+     * in zigzag order, followed by these {@code n} coefficients as zigzag-encoded varints.
+     * A typical block has few non-zero coefficients and takes a handful of bytes.
+     *
+     * @param coefficients coefficient blocks
+     * @param offset       start of the block
+     * @return at least one byte
+     */
+    public static byte[] packBlock(short[] coefficients, int offset) {
+        int count = 64;
+        while (count > 0 && coefficients[offset + count - 1] == 0) {
+            count--;
+        }
+        byte[] packed = new byte[1 + 3 * count];
+        packed[0] = (byte) count;
+        int p = 1;
+        for (int k = 0; k < count; k++) {
+            int value = coefficients[offset + k];
+            int zigzag = (value << 1) ^ (value >> 31);
+            while (zigzag >= 0x80) {
+                packed[p++] = (byte) (zigzag | 0x80);
+                zigzag >>>= 7;
+            }
+            packed[p++] = (byte) zigzag;
+        }
+        return Arrays.copyOf(packed, p);
+    }
+
+    /**
+     * Inverse of {@link #packBlock(short[], int)}.
+     *
+     * @param packed       serialized block
+     * @param coefficients coefficient blocks to write into
+     * @param offset       start of the block
+     * @throws IllegalArgumentException if the data is not a serialized block
+     */
+    public static void unpackBlock(byte[] packed, short[] coefficients, int offset) {
+        if (packed.length == 0 || (packed[0] & 0xFF) > 64) {
+            throw new IllegalArgumentException("Invalid coefficient block");
+        }
+        int count = packed[0] & 0xFF;
+        int p = 1;
+        for (int k = 0; k < 64; k++) {
+            if (k >= count) {
+                coefficients[offset + k] = 0;
+                continue;
+            }
+            int zigzag = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (p >= packed.length || shift > 21) {
+                    throw new IllegalArgumentException("Truncated coefficient block");
+                }
+                b = packed[p++] & 0xFF;
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            int value = (zigzag >>> 1) ^ -(zigzag & 1);
+            if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Coefficient out of range: " + value);
+            }
+            coefficients[offset + k] = (short) value;
+        }
+        if (p != packed.length) {
+            throw new IllegalArgumentException("Trailing bytes after coefficient block");
+        }
+    }
+
+    static int u16(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static short[][] allocate(JpegFrame frame) {
+        short[][] coefficients = new short[frame.components().size()][];
+        for (int c = 0; c < coefficients.length; c++) {
+            coefficients[c] = new short[frame.storedBlocks(c) * 64];
+        }
+        return coefficients;
+    }
+
+    private static void checkAllocation(JpegFrame frame, short[][] coefficients) {
+        if (coefficients.length != frame.components().size()) {
+            throw new IllegalArgumentException("Frame has " + frame.components().size() + " components, got "
+                    + coefficients.length);
+        }
+        for (int c = 0; c < coefficients.length; c++) {
+            if (coefficients[c].length != frame.storedBlocks(c) * 64) {
+                throw new IllegalArgumentException("Component " + c + " needs " + frame.storedBlocks(c)
+                        + " blocks, got " + coefficients[c].length / 64);
+            }
+        }
+    }
+
+    /**
+     * @return position of the first marker after entropy-coded data starting at {@code start}, other than
+     * stuffed bytes and restart markers
+     */
+    private static int entropyEnd(byte[] data, int start) {
+        int i = start;
+        while (i < data.length) {
+            if ((data[i] & 0xFF) != 0xFF) {
+                i++;
+                continue;
+            }
+            if (i + 1 >= data.length) {
+                return i;
+            }
+            int next = data[i + 1] & 0xFF;
+            if (next == 0 || (next >= RST0 && next <= RST0 + 7)) {
+                i += 2;
+            } else {
+                return i;
+            }
+        }
+        return data.length;
+    }
+
+    /**
+     * Tables and parameters defined by the markers read so far.
+     */
+    private static final class TableState {
+        JpegFrame frame;
+        final JpegHuffmanTable[] dcTables = new JpegHuffmanTable[4];
+        final JpegHuffmanTable[] acTables = new JpegHuffmanTable[4];
+        int restartInterval;
+    }
+
+    /**
+     * Scan header: frame component indices with their table selectors, spectral selection and approximation.
+     */
+    private record Scan(int[] components, int[] dcTables, int[] acTables, int ss, int se, int ah, int al) {
+    }
+
+    /**
+     * @param scan header of the scan that follows, or {@code null} if the data ended without one
+     * @param end  position after the scan header or the last marker read
+     */
+    private record MarkerResult(Scan scan, int end) {
+    }
+
+    /**
+     * Interprets markers from {@code position} until a scan header, EOI or the end of the range.
+     */
+    private static MarkerResult readMarkers(byte[] data, int position, int end, TableState state) {
+        int p = position;
+        while (p < end) {
+            if ((data[p] & 0xFF) != 0xFF) {
+                throw new IllegalArgumentException("Expected a marker at offset " + p);
+            }
+            while (p < end && (data[p] & 0xFF) == 0xFF) {
+                p++;
+            }
+            if (p >= end) {
+                break;
+            }
+            int marker = data[p++] & 0xFF;
+            if (marker == EOI) {
+                return new MarkerResult(null, p);
+            }
+            if (marker == SOI || marker == TEM || (marker >= RST0 && marker <= RST0 + 7)) {
+                continue;
+            }
+            if (p + 2 > end) {
+                throw new IllegalArgumentException("Truncated marker segment");
+            }
+            int length = u16(data, p);
+            if (length < 2 || p + length > end) {
+                throw new IllegalArgumentException(String.format("Invalid length of marker 0x%02X", marker));
+            }
+            int payload = p + 2;
+            int payloadLength = length - 2;
+            p += length;
+            if (marker >= 0xC0 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                if (state.frame != null) {
+                    throw new IllegalArgumentException("Multiple frames are not supported");
+                }
+                state.frame = JpegFrame.parse(marker, data, payload, payloadLength);
+            } else if (marker == 0xCC) {
+                throw new IllegalArgumentException("Arithmetic coding is not supported");
+            } else if (marker == DHT) {
+                readHuffmanTables(data, payload, payloadLength, state);
+            } else if (marker == DRI) {
+                if (payloadLength < 2) {
+                    throw new IllegalArgumentException("Truncated DRI segment");
+                }
+                state.restartInterval = u16(data, payload);
+            } else if (marker == DNL) {
+                throw new IllegalArgumentException("DNL markers are not supported");
+            } else if (marker == SOS) {
+                return new MarkerResult(readScan(data, payload, payloadLength, state), p);
+            }
+        }
+        return new MarkerResult(null, p);
+    }
+
+    private static void readHuffmanTables(byte[] data, int offset, int length, TableState state) {
+        int p = offset;
+        int end = offset + length;
+        while (p < end) {
+            if (p + 17 > end) {
+                throw new IllegalArgumentException("Truncated DHT segment");
+            }
+            int tableClass = (data[p] & 0xFF) >> 4;
+            int id = data[p] & 0x0F;
+            if (tableClass > 1 || id > 3) {
+                throw new IllegalArgumentException("Invalid Huffman table " + tableClass + "/" + id);
+            }
+            int[] counts = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                counts[i] = data[p + 1 + i] & 0xFF;
+                total += counts[i];
+            }
+            p += 17;
+            if (total > 256 || p + total > end) {
+                throw new IllegalArgumentException("Truncated DHT segment");
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = data[p + i] & 0xFF;
+            }
+            p += total;
+            (tableClass == 0 ? state.dcTables : state.acTables)[id] = new JpegHuffmanTable(counts, values);
+        }
+    }
+
+    private static Scan readScan(byte[] data, int offset, int length, TableState state) {
+        JpegFrame frame = state.frame;
+        if (frame == null) {
+            throw new IllegalArgumentException("Scan before frame header");
+        }
+        int count = length > 0 ? data[offset] & 0xFF : 0;
+        if (count < 1 || count > 4 || length < 4 + 2 * count) {
+            throw new IllegalArgumentException("Invalid SOS segment");
+        }
+        int[] components = new int[count];
+        int[] dcTables = new int[count];
+        int[] acTables = new int[count];
+        for (int i = 0; i < count; i++) {
+            int p = offset + 1 + 2 * i;
+            components[i] = frame.indexOf(data[p] & 0xFF);
+            if (components[i] < 0) {
+                throw new IllegalArgumentException("Scan references unknown component " + (data[p] & 0xFF));
+            }
+            dcTables[i] = (data[p + 1] & 0xFF) >> 4;
+            acTables[i] = data[p + 1] & 0x0F;
+            if (dcTables[i] > 3 || acTables[i] > 3) {
+                throw new IllegalArgumentException("Invalid Huffman table selector");
+            }
+        }
+        int p = offset + 1 + 2 * count;
+        int ss = data[p] & 0xFF;
+        int se = data[p + 1] & 0xFF;
+        int ah = (data[p + 2] & 0xFF) >> 4;
+        int al = data[p + 2] & 0x0F;
+        if (frame.progressive()) {
+            boolean dc = ss == 0;
+            if (se > 63 || ss > se || (dc && se != 0) || (!dc && count != 1) || al > 13 || (ah != 0 && ah != al + 1)) {
+                throw new IllegalArgumentException("Invalid progressive scan " + ss + ".." + se + " " + ah + "/" + al);
+            }
+        } else if (ss != 0 || se != 63 || ah != 0 || al != 0) {
+            throw new IllegalArgumentException("Invalid sequential scan " + ss + ".." + se + " " + ah + "/" + al);
+        }
+        int blocksPerMcu = 0;
+        for (int c : components) {
+            blocksPerMcu += count == 1 ? 1 : frame.components().get(c).h() * frame.components().get(c).v();
+        }
+        if (blocksPerMcu > 10) {
+            throw new IllegalArgumentException("Scan has " + blocksPerMcu + " blocks per MCU");
+        }
+        for (int i = 0; i < count; i++) {
+            boolean needsDc = ss == 0 && ah == 0;
+            boolean needsAc = se > 0;
+            if ((needsDc && state.dcTables[dcTables[i]] == null) || (needsAc && state.acTables[acTables[i]] == null)) {
+                throw new IllegalArgumentException("Scan uses an undefined Huffman table");
+            }
+        }
+        return new Scan(components, dcTables, acTables, ss, se, ah, al);
+    }
+
+    /**
+     * Walks the blocks of a scan in coding order and signals restart intervals.
+     */
+    private abstract static class ScanCoder {
+        final JpegFrame frame;
+        final Scan scan;
+        final short[][] coefficients;
+        final int restartInterval;
+        final JpegHuffmanTable[] dcTables;
+        final JpegHuffmanTable[] acTables;
+
+        ScanCoder(TableState state, Scan scan, short[][] coefficients) {
+            this.frame = state.frame;
+            this.scan = scan;
+            this.coefficients = coefficients;
+            this.restartInterval = state.restartInterval;
+            int count = scan.components().length;
+            this.dcTables = new JpegHuffmanTable[count];
+            this.acTables = new JpegHuffmanTable[count];
+            for (int i = 0; i < count; i++) {
+                dcTables[i] = state.dcTables[scan.dcTables()[i]];
+                acTables[i] = state.acTables[scan.acTables()[i]];
+            }
+        }
+
+        void run() {
+            int[] components = scan.components();
+            int mcu = 0;
+            if (components.length == 1) {
+                int c = components[0];
+                int stride = frame.storedBlocksPerLine(c);
+                int lines = frame.blocksPerColumn(c);
+                int perLine = frame.blocksPerLine(c);
+                for (int row = 0; row < lines; row++) {
+                    for (int col = 0; col < perLine; col++) {
+                        restartIfDue(mcu++);
+                        block(0, coefficients[c], (row * stride + col) * 64);
+                    }
+                }
+            } else {
+                for (int mcuRow = 0; mcuRow < frame.mcusPerColumn(); mcuRow++) {
+                    for (int mcuCol = 0; mcuCol < frame.mcusPerLine(); mcuCol++) {
+                        restartIfDue(mcu++);
+                        for (int i = 0; i < components.length; i++) {
+                            int c = components[i];
+                            JpegFrame.Component component = frame.components().get(c);
+                            int stride = frame.storedBlocksPerLine(c);
+                            for (int y = 0; y < component.v(); y++) {
+                                for (int x = 0; x < component.h(); x++) {
+                                    int row = mcuRow * component.v() + y;
+                                    int col = mcuCol * component.h() + x;
+                                    block(i, coefficients[c], (row * stride + col) * 64);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            finish();
+        }
+
+        private void restartIfDue(int mcu) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                restart((mcu / restartInterval - 1) & 7);
+            }
+        }
+
+        abstract void block(int scanComponent, short[] block, int offset);
+
+        abstract void restart(int number);
+
+        abstract void finish();
+    }
+
+    private static final class ScanDecoder extends ScanCoder {
+        private final JpegBitReader in;
+        private final int[] predictions;
+        private int eobRun;
+
+        ScanDecoder(TableState state, Scan scan, short[][] coefficients, JpegBitReader in) {
+            super(state, scan, coefficients);
+            this.in = in;
+            this.predictions = new int[scan.components().length];
+        }
+
+        @Override
+        void block(int scanComponent, short[] block, int offset) {
+            if (!frame.progressive()) {
+                decodeSequential(scanComponent, block, offset);
+            } else if (scan.ss() == 0) {
+                if (scan.ah() == 0) {
+                    decodeDcFirst(scanComponent, block, offset);
+                } else if (in.bit() != 0) {
+                    block[offset] |= (short) (1 << scan.al());
+                }
+            } else if (scan.ah() == 0) {
+                decodeAcFirst(scanComponent, block, offset);
+            } else {
+                decodeAcRefine(scanComponent, block, offset);
+            }
+        }
+
+        @Override
+        void restart(int number) {
+            in.restart(number);
+            Arrays.fill(predictions, 0);
+            eobRun = 0;
+        }
+
+        @Override
+        void finish() {
+        }
+
+        private void decodeSequential(int i, short[] block, int offset) {
+            int t = dcTables[i].decode(in);
+            predictions[i] += t == 0 ? 0 : extend(in.bits(t), t);
+            block[offset] = (short) predictions[i];
+            int k = 1;
+            while (k < 64) {
+                int rs = acTables[i].decode(in);
+                int r = rs >> 4;
+                int s = rs & 15;
+                if (s == 0) {
+                    if (r != 15) {
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) {
+                    throw new IllegalArgumentException("Coefficient index out of range");
+                }
+                block[offset + k++] = (short) extend(in.bits(s), s);
+            }
+        }
+
+        private void decodeDcFirst(int i, short[] block, int offset) {
+            int t = dcTables[i].decode(in);
+            predictions[i] += t == 0 ? 0 : extend(in.bits(t), t);
+            block[offset] = (short) (predictions[i] * (1 << scan.al()));
+        }
+
+        private void decodeAcFirst(int i, short[] block, int offset) {
+            if (eobRun > 0) {
+                eobRun--;
+                return;
+            }
+            int k = scan.ss();
+            while (k <= scan.se()) {
+                int rs = acTables[i].decode(in);
+                int r = rs >> 4;
+                int s = rs & 15;
+                if (s == 0) {
+                    if (r < 15) {
+                        eobRun = (1 << r) - 1;
+                        if (r > 0) {
+                            eobRun += in.bits(r);
+                        }
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > scan.se()) {
+                    throw new IllegalArgumentException("Coefficient index out of range");
+                }
+                block[offset + k++] = (short) (extend(in.bits(s), s) * (1 << scan.al()));
+            }
+        }
+
+        private void decodeAcRefine(int i, short[] block, int offset) {
+            int p1 = 1 << scan.al();
+            int m1 = -1 << scan.al();
+            int k = scan.ss();
+            int se = scan.se();
+            if (eobRun == 0) {
+                for (; k <= se; k++) {
+                    int rs = acTables[i].decode(in);
+                    int r = rs >> 4;
+                    int s = rs & 15;
+                    if (s != 0) {
+                        if (s != 1) {
+                            throw new IllegalArgumentException("Invalid refinement coefficient size " + s);
+                        }
+                        s = in.bit() != 0 ? p1 : m1;
+                    } else if (r != 15) {
+                        eobRun = 1 << r;
+                        if (r > 0) {
+                            eobRun += in.bits(r);
+                        }
+                        break;
+                    }
+                    do {
+                        int coefficient = block[offset + k];
+                        if (coefficient != 0) {
+                            refine(block, offset + k, p1, m1);
+                        } else if (--r < 0) {
+                            break;
+                        }
+                        k++;
+                    } while (k <= se);
+                    if (s != 0) {
+                        if (k > se) {
+                            throw new IllegalArgumentException("Coefficient index out of range");
+                        }
+                        block[offset + k] = (short) s;
+                    }
+                }
+            }
+            if (eobRun > 0) {
+                for (; k <= se; k++) {
+                    if (block[offset + k] != 0) {
+                        refine(block, offset + k, p1, m1);
+                    }
+                }
+                eobRun--;
+            }
+        }
+
+        private void refine(short[] block, int index, int p1, int m1) {
+            if (in.bit() != 0 && (block[index] & p1) == 0) {
+                block[index] += (short) (block[index] >= 0 ? p1 : m1);
+            }
+        }
+
+        private static int extend(int value, int bits) {
+            return value < (1 << (bits - 1)) ? value - (1 << bits) + 1 : value;
+        }
+    }
+
+    /**
+     * Huffman encoder following libjpeg's {@code jchuff.c} and {@code jcphuff.c}.
+     */
+    private static final class ScanEncoder extends ScanCoder {
+        private final JpegBitWriter out;
+        private final int[] lastDc;
+        private int eobRun;
+        private final byte[] correctionBits = new byte[MAX_CORRECTION_BITS];
+        private int correctionCount;
+
+        ScanEncoder(TableState state, Scan scan, short[][] coefficients, JpegBitWriter out) {
+            super(state, scan, coefficients);
+            this.out = out;
+            this.lastDc = new int[scan.components().length];
+        }
+
+        @Override
+        void block(int scanComponent, short[] block, int offset) {
+            if (!frame.progressive()) {
+                encodeSequential(scanComponent, block, offset);
+            } else if (scan.ss() == 0) {
+                if (scan.ah() == 0) {
+                    encodeDcFirst(scanComponent, block, offset);
+                } else {
+                    out.putBits(block[offset] >> scan.al(), 1);
+                }
+            } else if (scan.ah() == 0) {
+                encodeAcFirst(block, offset);
+            } else {
+                encodeAcRefine(block, offset);
+            }
+        }
+
+        @Override
+        void restart(int number) {
+            if (frame.progressive()) {
+                emitEobRun();
+            }
+            out.flush();
+            out.marker(RST0 + number);
+            Arrays.fill(lastDc, 0);
+            eobRun = 0;
+            correctionCount = 0;
+        }
+
+        @Override
+        void finish() {
+            if (frame.progressive()) {
+                emitEobRun();
+            }
+            out.flush();
+        }
+
+        private void encodeSequential(int i, short[] block, int offset) {
+            encodeDc(i, block[offset]);
+            int r = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = block[offset + k];
+                if (value == 0) {
+                    r++;
+                    continue;
+                }
+                while (r > 15) {
+                    acTables[i].encode(out, 0xF0);
+                    r -= 16;
+                }
+                int bits = value;
+                if (value < 0) {
+                    value = -value;
+                    bits--;
+                }
+                int size = bitLength(value);
+                acTables[i].encode(out, (r << 4) + size);
+                out.putBits(bits, size);
+                r = 0;
+            }
+            if (r > 0) {
+                acTables[i].encode(out, 0x00);
+            }
+        }
+
+        private void encodeDcFirst(int i, short[] block, int offset) {
+            encodeDc(i, block[offset] >> scan.al());
+        }
+
+        private void encodeDc(int i, int value) {
+            int difference = value - lastDc[i];
+            lastDc[i] = value;
+            int bits = difference;
+            if (difference < 0) {
+                difference = -difference;
+                bits--;
+            }
+            int size = bitLength(difference);
+            dcTables[i].encode(out, size);
+            out.putBits(bits, size);
+        }
+
+        private void encodeAcFirst(short[] block, int offset) {
+            int al = scan.al();
+            int r = 0;
+            for (int k = scan.ss(); k <= scan.se(); k++) {
+                int value = block[offset + k];
+                if (value == 0) {
+                    r++;
+                    continue;
+                }
+                int magnitude;
+                int bits;
+                if (value < 0) {
+                    magnitude = -value >> al;
+                    bits = ~magnitude;
+                } else {
+                    magnitude = value >> al;
+                    bits = magnitude;
+                }
+                if (magnitude == 0) {
+                    r++;
+                    continue;
+                }
+                emitEobRun();
+                while (r > 15) {
+                    acTables[0].encode(out, 0xF0);
+                    r -= 16;
+                }
+                int size = bitLength(magnitude);
+                acTables[0].encode(out, (r << 4) + size);
+                out.putBits(bits, size);
+                r = 0;
+            }
+            if (r > 0) {
+                eobRun++;
+                if (eobRun == MAX_EOB_RUN) {
+                    emitEobRun();
+                }
+            }
+        }
+
+        private void encodeAcRefine(short[] block, int offset) {
+            int al = scan.al();
+            int ss = scan.ss();
+            int se = scan.se();
+            int[] magnitudes = new int[64];
+            int eob = 0;
+            for (int k = ss; k <= se; k++) {
+                magnitudes[k] = Math.abs((int) block[offset + k]) >> al;
+                if (magnitudes[k] == 1) {
+                    eob = k;
+                }
+            }
+
+            int r = 0;
+            int pendingStart = correctionCount;
+            int pending = 0;
+            for (int k = ss; k <= se; k++) {
+                int magnitude = magnitudes[k];
+                if (magnitude == 0) {
+                    r++;
+                    continue;
+                }
+                while (r > 15 && k <= eob) {
+                    emitEobRun();
+                    acTables[0].encode(out, 0xF0);
+                    r -= 16;
+                    emitCorrectionBits(pendingStart, pending);
+                    pendingStart = 0;
+                    pending = 0;
+                }
+                if (magnitude > 1) {
+                    correctionBits[pendingStart + pending++] = (byte) (magnitude & 1);
+                    continue;
+                }
+                emitEobRun();
+                acTables[0].encode(out, (r << 4) + 1);
+                out.putBits(block[offset + k] < 0 ? 0 : 1, 1);
+                emitCorrectionBits(pendingStart, pending);
+                pendingStart = 0;
+                pending = 0;
+                r = 0;
+            }
+            if (r > 0 || pending > 0) {
+                eobRun++;
+                correctionCount = pendingStart + pending;
+                if (eobRun == MAX_EOB_RUN || correctionCount > MAX_CORRECTION_BITS - 64 + 1) {
+                    emitEobRun();
+                }
+            }
+        }
+
+        /**
+         * Ends the current EOB run, followed by the correction bits buffered during it.
+         */
+        private void emitEobRun() {
+            if (eobRun == 0) {
+                return;
+            }
+            int size = bitLength(eobRun) - 1;
+            if (size > 14) {
+                throw new IllegalStateException("EOB run too long: " + eobRun);
+            }
+            acTables[0].encode(out, size << 4);
+            out.putBits(eobRun, size);
+            eobRun = 0;
+            emitCorrectionBits(0, correctionCount);
+            correctionCount = 0;
+        }
+
+        private void emitCorrectionBits(int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                out.putBits(correctionBits[i], 1);
+            }
+        }
+
+        private static int bitLength(int value) {
+            return 32 - Integer.numberOfLeadingZeros(value);
+        }
+    }
+}
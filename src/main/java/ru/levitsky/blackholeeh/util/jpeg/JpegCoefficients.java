@@ -0,0 +1,20 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+import java.util.List;
+
+/**
+ * A JPEG file split into its quantized DCT coefficients and everything else.
+ * <p>
+ * {@code segments} hold the file bytes outside of the entropy-coded data: segment {@code i} runs from the end
+ * of the entropy-coded data of scan {@code i - 1} (the file start for {@code i = 0}) to the end of the SOS header
+ * of scan {@code i}, and the last segment is the trailer after the last scan (EOI and anything after it).
+ * Quantization and Huffman tables, restart intervals and application segments are kept there verbatim,
+ * so {@link JpegCodec#encode(List, short[][])} can re-create the file from the two parts.
+ *
+ * @param frame        the frame header
+ * @param segments     the non-entropy-coded parts of the file, one more than the number of scans
+ * @param coefficients per frame component, the stored blocks of {@link JpegFrame#storedBlocks(int)} in row-major
+ *                     order, 64 quantized coefficients each in zigzag order
+ */
+public record JpegCoefficients(JpegFrame frame, List<byte[]> segments, short[][] coefficients) {
+}
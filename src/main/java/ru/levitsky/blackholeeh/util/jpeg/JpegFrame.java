@@ -0,0 +1,146 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame header (SOFn) of a JPEG image and the block grids of its components.
+ * <p>
+ * Coefficients of a component are stored for whole MCUs: {@link #storedBlocksPerLine(int)} x
+ * {@link #storedBlocksPerColumn(int)} blocks in row-major order, of which non-interleaved scans only code the
+ * {@link #blocksPerLine(int)} x {@link #blocksPerColumn(int)} blocks that cover samples. Frames with a single
+ * component have no padding blocks.
+ *
+ * @param marker     SOFn marker code, e.g. {@code 0xC0} for baseline or {@code 0xC2} for progressive
+ * @param width      number of samples per line
+ * @param height     number of lines
+ * @param components frame components in header order
+ */
+public record JpegFrame(int marker, int width, int height, List<Component> components) {
+
+    public static final int BASELINE = 0xC0;
+    public static final int EXTENDED_SEQUENTIAL = 0xC1;
+    public static final int PROGRESSIVE = 0xC2;
+
+    /**
+     * @param id         component identifier referenced by scan headers
+     * @param h          horizontal sampling factor
+     * @param v          vertical sampling factor
+     * @param quantTable quantization table selector
+     */
+    public record Component(int id, int h, int v, int quantTable) {
+    }
+
+    /**
+     * Parses the payload of a SOFn segment.
+     *
+     * @param marker the SOFn marker code
+     * @param data   file bytes
+     * @param offset start of the payload, after the length field
+     * @param length payload length
+     * @throws IllegalArgumentException if the frame is not an 8-bit Huffman frame with a known height
+     */
+    static JpegFrame parse(int marker, byte[] data, int offset, int length) {
+        if (marker != BASELINE && marker != EXTENDED_SEQUENTIAL && marker != PROGRESSIVE) {
+            throw new IllegalArgumentException(String.format("Unsupported JPEG process (SOF marker 0x%02X)", marker));
+        }
+        if (length < 6) {
+            throw new IllegalArgumentException("Truncated SOF segment");
+        }
+        int precision = data[offset] & 0xFF;
+        if (precision != 8) {
+            throw new IllegalArgumentException("Unsupported JPEG sample precision: " + precision);
+        }
+        int height = JpegCodec.u16(data, offset + 1);
+        int width = JpegCodec.u16(data, offset + 3);
+        int count = data[offset + 5] & 0xFF;
+        if (height == 0 || width == 0) {
+            throw new IllegalArgumentException("JPEG frames with a DNL-defined height are not supported");
+        }
+        if (count == 0 || length < 6 + 3 * count) {
+            throw new IllegalArgumentException("Invalid SOF component count: " + count);
+        }
+        List<Component> components = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int p = offset + 6 + 3 * i;
+            int h = (data[p + 1] & 0xFF) >> 4;
+            int v = data[p + 1] & 0x0F;
+            if (h < 1 || h > 4 || v < 1 || v > 4) {
+                throw new IllegalArgumentException("Invalid sampling factors " + h + "x" + v);
+            }
+            components.add(new Component(data[p] & 0xFF, h, v, data[p + 2] & 0xFF));
+        }
+        return new JpegFrame(marker, width, height, List.copyOf(components));
+    }
+
+    public boolean progressive() {
+        return marker == PROGRESSIVE;
+    }
+
+    public int maxH() {
+        return components.stream().mapToInt(Component::h).max().orElseThrow();
+    }
+
+    public int maxV() {
+        return components.stream().mapToInt(Component::v).max().orElseThrow();
+    }
+
+    public int mcusPerLine() {
+        return ceilDiv(width, 8 * maxH());
+    }
+
+    public int mcusPerColumn() {
+        return ceilDiv(height, 8 * maxV());
+    }
+
+    /**
+     * @return number of blocks per line that cover samples of the component
+     */
+    public int blocksPerLine(int component) {
+        return ceilDiv(ceilDiv(width * components.get(component).h(), maxH()), 8);
+    }
+
+    /**
+     * @return number of block lines that cover samples of the component
+     */
+    public int blocksPerColumn(int component) {
+        return ceilDiv(ceilDiv(height * components.get(component).v(), maxV()), 8);
+    }
+
+    /**
+     * @return number of blocks per line stored for the component
+     */
+    public int storedBlocksPerLine(int component) {
+        return components.size() == 1 ? blocksPerLine(component) : mcusPerLine() * components.get(component).h();
+    }
+
+    /**
+     * @return number of block lines stored for the component
+     */
+    public int storedBlocksPerColumn(int component) {
+        return components.size() == 1 ? blocksPerColumn(component) : mcusPerColumn() * components.get(component).v();
+    }
+
+    /**
+     * @return number of blocks stored for the component
+     */
+    public int storedBlocks(int component) {
+        return storedBlocksPerLine(component) * storedBlocksPerColumn(component);
+    }
+
+    /**
+     * @return index of the component with the identifier, or {@code -1}
+     */
+    int indexOf(int componentId) {
+        for (int i = 0; i < components.size(); i++) {
+            if (components.get(i).id() == componentId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
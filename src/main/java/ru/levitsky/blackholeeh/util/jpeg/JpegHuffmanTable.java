@@ -0,0 +1,60 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+/**
+ * Huffman table of a DHT segment, for decoding (canonical code ranges per length, ITU T.81 F.2.2.3)
+ * and encoding (code and length per symbol, T.81 C.2).
+ */
+final class JpegHuffmanTable {
+
+    private final int[] minCode = new int[17];
+    private final int[] maxCode = new int[17];
+    private final int[] valuePointer = new int[17];
+    private final int[] values;
+    private final int[] codes = new int[256];
+    private final int[] lengths = new int[256];
+
+    /**
+     * @param counts number of codes of each length 1..16
+     * @param values symbols in code order
+     */
+    JpegHuffmanTable(int[] counts, int[] values) {
+        this.values = values;
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            int count = counts[length - 1];
+            valuePointer[length] = k;
+            minCode[length] = code;
+            for (int i = 0; i < count; i++) {
+                codes[values[k]] = code;
+                lengths[values[k]] = length;
+                code++;
+                k++;
+            }
+            if (code > (1 << length)) {
+                throw new IllegalArgumentException("Invalid Huffman table: too many codes of length " + length);
+            }
+            maxCode[length] = count > 0 ? code - 1 : -1;
+            code <<= 1;
+        }
+    }
+
+    int decode(JpegBitReader in) {
+        int code = 0;
+        for (int length = 1; length <= 16; length++) {
+            code = (code << 1) | in.bit();
+            if (code <= maxCode[length]) {
+                return values[valuePointer[length] + code - minCode[length]];
+            }
+        }
+        throw new IllegalArgumentException("Invalid Huffman code");
+    }
+
+    void encode(JpegBitWriter out, int symbol) {
+        int length = lengths[symbol];
+        if (length == 0) {
+            throw new IllegalArgumentException("Huffman table has no code for symbol 0x" + Integer.toHexString(symbol));
+        }
+        out.putBits(codes[symbol], length);
+    }
+}
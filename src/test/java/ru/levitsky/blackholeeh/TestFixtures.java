@@ -0,0 +1,63 @@
+package ru.levitsky.blackholeeh;
+
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.util.HashUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible test images and blocks shared by the tests.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * @return an RGB image of random pixels, the same for the same size
+     */
+    public static BufferedImage randomImage(int width, int height) {
+        return randomImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * @param type {@link BufferedImage} type, e.g. with alpha or gray
+     * @return an image of random ARGB values, the same for the same size and type
+     */
+    public static BufferedImage randomImage(int width, int height, int type) {
+        Random random = new Random(width * 31L + height);
+        boolean alpha = type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_4BYTE_ABGR;
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, alpha ? random.nextInt() : random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return {@code count} random 64-byte {@link BlockType#LUMA} blocks, the same for the same count
+     */
+    public static List<BlockDto> randomBlocks(int count) {
+        return randomBlocks(count, 64, BlockType.LUMA);
+    }
+
+    /**
+     * @return {@code count} random blocks of {@code size} bytes with their hashes, the same for the same count
+     */
+    public static List<BlockDto> randomBlocks(int count, int size, BlockType type) {
+        Random random = new Random(count);
+        List<BlockDto> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            blocks.add(new BlockDto(HashUtils.sha256WithLength(data), data, type));
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.levitsky.blackholeeh.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyntheticCorpusGeneratorTest {
+
+    @Test
+    void sameSpecGivesIdenticalFiles(@TempDir Path first, @TempDir Path second) throws Exception {
+        CorpusSpec spec = new CorpusSpec(7, 12, 16, 200, 0.3, 0.5, 0.3, 0.5);
+        List<Path> a = SyntheticCorpusGenerator.generate(spec, first);
+        List<Path> b = SyntheticCorpusGenerator.generate(spec, second);
+
+        assertEquals(spec.images(), a.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(a.get(i)), Files.readAllBytes(b.get(i)));
+        }
+    }
+
+    @Test
+    void respectsSizeRangeAndGrayRatio(@TempDir Path directory) throws Exception {
+        CorpusSpec spec = new CorpusSpec(1, 8, 20, 40, 0.0, 0.0, 0.0, 1.0);
+        for (Path file : SyntheticCorpusGenerator.generate(spec, directory)) {
+            BufferedImage image = ImageIO.read(file.toFile());
+            assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+            assertTrue(image.getWidth() >= 20 && image.getWidth() <= 40);
+            assertTrue(image.getHeight() >= 20 && image.getHeight() <= 40);
+        }
+    }
+}
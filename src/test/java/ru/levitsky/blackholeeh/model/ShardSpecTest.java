@@ -0,0 +1,52 @@
+package ru.levitsky.blackholeeh.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardSpecTest {
+
+    @Test
+    void everyFileBelongsToExactlyOneShard() {
+        int count = 7;
+        int[] perShard = new int[count];
+        for (int i = 0; i < 10_000; i++) {
+            Path file = Path.of("dir" + (i % 13), "image-" + i + ".png");
+            int owners = 0;
+            for (int shard = 0; shard < count; shard++) {
+                if (new ShardSpec(shard, count).owns(file)) {
+                    owners++;
+                    perShard[shard]++;
+                }
+            }
+            assertEquals(1, owners);
+        }
+        for (int files : perShard) {
+            assertTrue(files > 10_000 / count / 2, "shards should be roughly balanced");
+        }
+    }
+
+    @Test
+    void assignmentIsStable() {
+        // pinned values: changing the hash would silently reshuffle shards of running ingestions
+        assertEquals(11, ShardSpec.shardOf("a/b.png", 16));
+        assertEquals(7, ShardSpec.shardOf("photos/2024/img-001.jpg", 16));
+        assertEquals(1, ShardSpec.shardOf("x.png", 16));
+        assertTrue(ShardSpec.all().owns(Path.of("anything.jpg")));
+    }
+
+    @Test
+    void parsesShardNotation() {
+        ShardSpec shard = ShardSpec.parse("2/5");
+        assertEquals(2, shard.index());
+        assertEquals(5, shard.count());
+        assertEquals("2/5", shard.toString());
+        assertThrows(IllegalArgumentException.class, () -> ShardSpec.parse("5/5"));
+        assertThrows(IllegalArgumentException.class, () -> ShardSpec.parse("1"));
+        assertThrows(IllegalArgumentException.class, () -> ShardSpec.parse("a/b"));
+    }
+}
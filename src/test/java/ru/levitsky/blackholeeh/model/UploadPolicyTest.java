@@ -0,0 +1,34 @@
+package ru.levitsky.blackholeeh.model;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadPolicyTest {
+
+    @Test
+    void typeLimitsReplaceTheDefaultLimit() {
+        UploadPolicy policy = UploadPolicy.parse(64, "alpha=0, CHROMA_CB=72");
+
+        assertEquals(Map.of(BlockType.ALPHA, 0, BlockType.CHROMA_CB, 72), policy.typeMaxBytes());
+        assertTrue(policy.usePutIfAbsent(BlockType.LUMA, 64));
+        assertFalse(policy.usePutIfAbsent(BlockType.ALPHA, 64));
+        assertTrue(policy.usePutIfAbsent(BlockType.CHROMA_CB, 72));
+        assertFalse(policy.usePutIfAbsent(BlockType.CHROMA_CR, 72));
+    }
+
+    @Test
+    void rejectsInvalidTypeLimits() {
+        assertEquals(UploadPolicy.DEFAULT, UploadPolicy.parse(64, ""));
+        assertThrows(IllegalArgumentException.class, () -> UploadPolicy.parse(64, "LUMA"));
+        assertThrows(IllegalArgumentException.class, () -> UploadPolicy.parse(64, "GREEN=64"));
+        assertThrows(IllegalArgumentException.class, () -> UploadPolicy.parse(64, "LUMA=many"));
+        assertThrows(IllegalArgumentException.class, () -> UploadPolicy.parse(64, "LUMA=-1"));
+    }
+}
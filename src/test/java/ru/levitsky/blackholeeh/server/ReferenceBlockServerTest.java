@@ -0,0 +1,159 @@
+package ru.levitsky.blackholeeh.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.UploadLane;
+import ru.levitsky.blackholeeh.model.BandwidthPolicy;
+import ru.levitsky.blackholeeh.service.BandwidthLimiter;
+import ru.levitsky.blackholeeh.service.BlockClient;
+import ru.levitsky.blackholeeh.service.BlockFilterCache;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+import ru.levitsky.blackholeeh.util.BloomFilterSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomBlocks;
+
+class ReferenceBlockServerTest {
+
+    @Test
+    void clientRoundTripsBlocksThroughServer() throws Exception {
+        InMemoryBlockStore store = new InMemoryBlockStore();
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store).start()) {
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl());
+            List<BlockDto> blocks = randomBlocks(2500);
+            List<String> hashes = blocks.stream().map(BlockDto::getHash).toList();
+
+            assertEquals(hashes, client.checkMissingBlocks(hashes, BlockType.LUMA));
+            client.uploadBlocksBatch(blocks, BlockType.LUMA);
+
+            assertEquals(blocks.size(), store.size(BlockType.LUMA));
+            assertTrue(client.checkMissingBlocks(hashes, BlockType.LUMA).isEmpty());
+            Map<String, byte[]> fetched = client.getAll(hashes, BlockType.LUMA);
+            for (BlockDto block : blocks) {
+                assertArrayEquals(block.getData(), fetched.get(block.getHash()));
+            }
+        }
+    }
+
+    @Test
+    void fetchFromServerWithoutFetchFailsClearly() throws Exception {
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0),
+                new InMemoryBlockStore()).start()) {
+            // an unknown path answers 404 like a server without /fetch
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl() + "/unknown");
+            List<String> hashes = List.of(randomBlocks(1).getFirst().getHash());
+
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> client.getAll(hashes, BlockType.LUMA));
+            assertTrue(e.getMessage().contains("cannot fetch blocks"));
+        }
+    }
+
+    @Test
+    void putIfAbsentStoresOnlyNewBlocksInOneRequest() throws Exception {
+        InMemoryBlockStore store = new InMemoryBlockStore();
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store).start()) {
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl());
+            List<BlockDto> blocks = randomBlocks(10);
+            client.uploadBlocksBatch(blocks.subList(0, 4), BlockType.LUMA);
+            long requestsBefore = server.stats().requests();
+
+            List<String> stored = client.putIfAbsent(blocks, BlockType.LUMA);
+
+            assertEquals(blocks.subList(4, 10).stream().map(BlockDto::getHash).toList(), stored);
+            assertEquals(requestsBefore + 1, server.stats().requests());
+            assertEquals(10, store.size(BlockType.LUMA));
+            assertTrue(client.putIfAbsent(blocks, BlockType.LUMA).isEmpty());
+        }
+    }
+
+    @Test
+    void bloomFilterSparesChecksAndUpdatesWithDeltas(@TempDir Path directory) throws Exception {
+        InMemoryBlockStore store = new InMemoryBlockStore();
+        List<BlockDto> existing = randomBlocks(200);
+        store.putAll(existing, BlockType.LUMA);
+        BloomFilterOptions filterOptions = new BloomFilterOptions(100_000, 10, 3_600_000, 8);
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store,
+                filterOptions).start()) {
+            BlockFilterCache filters = new BlockFilterCache(new RestTemplate(), server.baseUrl(), directory,
+                    Duration.ZERO);
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl(),
+                    new BandwidthLimiter(BandwidthPolicy.UNLIMITED), filters);
+            List<BlockDto> fresh = randomBlocks(300);
+            List<String> hashes = new ArrayList<>();
+            for (int i = 0; i < fresh.size(); i++) {
+                hashes.add(fresh.get(i).getHash());
+                if (i < existing.size()) {
+                    hashes.add(existing.get(i).getHash());
+                }
+            }
+            long bytesIn = server.stats().bytesIn();
+
+            assertEquals(fresh.stream().map(BlockDto::getHash).toList(), client.checkMissingBlocks(hashes,
+                    BlockType.LUMA));
+            // the existing hashes and at most a few false positives were sent to /check, about 67 bytes each
+            assertTrue(server.stats().bytesIn() - bytesIn < (existing.size() + 20) * 67L);
+
+            client.uploadBlocksBatch(fresh.subList(0, 50), BlockType.LUMA);
+            server.publishFilters();
+            long bytesOut = server.stats().bytesOut();
+            List<String> uploaded = fresh.subList(0, 50).stream().map(BlockDto::getHash).toList();
+
+            assertTrue(client.checkMissingBlocks(uploaded, BlockType.LUMA).isEmpty());
+            // a delta of the changed words instead of the 125 KB snapshot
+            assertTrue(server.stats().bytesOut() - bytesOut < 10_000);
+            BloomFilterSnapshot.Header header = BloomFilterSnapshot.header(
+                    ByteBuffer.wrap(Files.readAllBytes(directory.resolve("LUMA.blbf"))));
+            assertEquals(2, header.version());
+            assertEquals(250, header.entries());
+        }
+    }
+
+    @Test
+    void interruptStopsUploadWaitingForBandwidth() throws Exception {
+        InMemoryBlockStore store = new InMemoryBlockStore();
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store).start()) {
+            // an emptied bucket refilled at 1 KB/s: every batch waits for tokens
+            BandwidthLimiter limiter = new BandwidthLimiter(new BandwidthPolicy(1000, 1000, 0));
+            limiter.acquire(UploadLane.FOREGROUND, 100_000);
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl(), limiter);
+            List<BlockDto> blocks = randomBlocks(10);
+
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(IllegalStateException.class, () -> client.uploadBlocksBatch(blocks, BlockType.LUMA));
+                assertTrue(Thread.currentThread().isInterrupted());
+                assertThrows(IllegalStateException.class, () -> client.putIfAbsent(blocks, BlockType.LUMA));
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(0, store.size(BlockType.LUMA));
+            assertEquals(0, client.failedRequests());
+        }
+    }
+
+    @Test
+    void injectsErrors() throws Exception {
+        ReferenceServerOptions options = new ReferenceServerOptions(0, 0, 0, 1.0, 0, 1);
+        try (ReferenceBlockServer server = new ReferenceBlockServer(options, new InMemoryBlockStore()).start()) {
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl());
+
+            client.checkMissingBlocks(List.of(randomBlocks(1).getFirst().getHash()), BlockType.LUMA);
+            assertEquals(1, server.stats().injectedErrors());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.FsyncMode;
+import ru.levitsky.blackholeeh.model.FsyncPolicy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AtomicFilePublisherTest {
+
+    @Test
+    void publishesGatheredBuffersAndReplacesExistingFile(@TempDir Path directory) throws Exception {
+        Path target = directory.resolve("a.blho");
+        Files.writeString(target, "old content that is longer than the new one");
+
+        new AtomicFilePublisher(FsyncPolicy.PER_FILE).publish(target, buffers("BLHO", "-", "data"));
+
+        assertArrayEquals("BLHO-data".getBytes(StandardCharsets.US_ASCII), Files.readAllBytes(target));
+        assertEquals(1, fileCount(directory));
+    }
+
+    @Test
+    void publishedFilesGetDefaultPermissions(@TempDir Path directory) throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        Path direct = Files.createFile(directory.resolve("direct"));
+        Path published = directory.resolve("published.blho");
+
+        new AtomicFilePublisher(FsyncPolicy.NONE).publish(published, buffers("data"));
+
+        assertEquals(Files.getPosixFilePermissions(direct), Files.getPosixFilePermissions(published));
+    }
+
+    @Test
+    void groupCommitPublishesFullGroupsAndFlushesTheRest(@TempDir Path directory) throws Exception {
+        AtomicFilePublisher publisher = new AtomicFilePublisher(FsyncPolicy.parse("group-commit:2"));
+
+        publisher.publish(directory.resolve("1.blho"), buffers("one"));
+        assertFalse(Files.exists(directory.resolve("1.blho")));
+        assertEquals(1, publisher.pendingFiles());
+
+        publisher.publish(directory.resolve("2.blho"), buffers("two"));
+        assertTrue(Files.exists(directory.resolve("1.blho")));
+        assertTrue(Files.exists(directory.resolve("2.blho")));
+
+        publisher.publish(directory.resolve("3.blho"), buffers("three"));
+        assertFalse(Files.exists(directory.resolve("3.blho")));
+        publisher.flush();
+        assertEquals("three", Files.readString(directory.resolve("3.blho")));
+        assertEquals(0, publisher.pendingFiles());
+        assertEquals(3, fileCount(directory));
+    }
+
+    @Test
+    void parsesFsyncPolicies() {
+        assertEquals(FsyncPolicy.NONE, FsyncPolicy.parse(""));
+        assertEquals(FsyncPolicy.PER_FILE, FsyncPolicy.parse("per-file"));
+        assertEquals(new FsyncPolicy(FsyncMode.GROUP_COMMIT, FsyncPolicy.DEFAULT_GROUP_SIZE),
+                FsyncPolicy.parse("group-commit"));
+        assertEquals("group-commit:8", FsyncPolicy.parse("group-commit:8").toString());
+        assertThrows(IllegalArgumentException.class, () -> FsyncPolicy.parse("group-commit:0"));
+        assertThrows(IllegalArgumentException.class, () -> FsyncPolicy.parse("always"));
+    }
+
+    private static ByteBuffer[] buffers(String... parts) {
+        ByteBuffer[] buffers = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            byte[] bytes = parts[i].getBytes(StandardCharsets.US_ASCII);
+            buffers[i] = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        }
+        return buffers;
+    }
+
+    private static long fileCount(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
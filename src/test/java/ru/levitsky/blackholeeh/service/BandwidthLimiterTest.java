@@ -0,0 +1,77 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.UploadLane;
+import ru.levitsky.blackholeeh.model.BandwidthPolicy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthLimiterTest {
+
+    @Test
+    void limitsSustainedRate() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(new BandwidthPolicy(100_000, 10_000, 0));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(UploadLane.FOREGROUND, 10_000);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // the first 10 KB are the burst, the other 50 KB take 0.5 s at 100 KB/s
+        assertTrue(elapsedMillis >= 450, "elapsed " + elapsedMillis + " ms");
+        BandwidthLimiter.LaneSnapshot lane = limiter.snapshot().lanes().get(UploadLane.FOREGROUND);
+        assertEquals(6, lane.requests());
+        assertEquals(60_000, lane.bytes());
+        assertEquals(0, lane.queued());
+    }
+
+    @Test
+    void servesHigherLanesFirst() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(new BandwidthPolicy(20_000, 10_000, 0));
+        limiter.acquire(UploadLane.FOREGROUND, 10_000); // empty the bucket
+
+        List<UploadLane> order = new CopyOnWriteArrayList<>();
+        Thread backfill = Thread.ofVirtual().start(() -> send(limiter, UploadLane.BACKFILL, order));
+        awaitQueued(limiter, 1);
+        Thread foreground = Thread.ofVirtual().start(() -> send(limiter, UploadLane.FOREGROUND, order));
+        Thread interactive = Thread.ofVirtual().start(() -> send(limiter, UploadLane.INTERACTIVE, order));
+        backfill.join();
+        foreground.join();
+        interactive.join();
+
+        // the backfill request waited first, but the bucket needs 0.5 s to refill for it;
+        // requests that arrive meanwhile in higher lanes overtake it
+        assertEquals(List.of(UploadLane.INTERACTIVE, UploadLane.FOREGROUND, UploadLane.BACKFILL), order);
+    }
+
+    @Test
+    void assignsLanes() {
+        BandwidthPolicy policy = new BandwidthPolicy(0, 0, 1000);
+
+        assertEquals(UploadLane.INTERACTIVE, policy.lane(BlockType.CHROMA_CB, 1000));
+        assertEquals(UploadLane.FOREGROUND, policy.lane(BlockType.LUMA, 1001));
+        assertEquals(UploadLane.FOREGROUND, policy.lane(BlockType.ALPHA, 1001));
+        assertEquals(UploadLane.BACKFILL, policy.lane(BlockType.CHROMA_CR, 1001));
+    }
+
+    private static void send(BandwidthLimiter limiter, UploadLane lane, List<UploadLane> order) {
+        try {
+            limiter.acquire(lane, 10_000);
+            order.add(lane);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitQueued(BandwidthLimiter limiter, int queued) throws InterruptedException {
+        while (limiter.snapshot().queued() < queued) {
+            Thread.sleep(1);
+        }
+    }
+}
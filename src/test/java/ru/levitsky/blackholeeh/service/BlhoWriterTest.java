@@ -0,0 +1,78 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomImage;
+
+class BlhoWriterTest {
+
+    @Test
+    void publishedManifestMatchesSequentialWrite(@TempDir Path directory) throws Exception {
+        // enough unique blocks for the sections to span several pooled buffers
+        BufferedImage image = randomImage(400, 360, BufferedImage.TYPE_INT_ARGB);
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(image, "png", file);
+        new FileProcessor(new InMemoryBlockStore(), new BlhoWriter(), new PipelineMetrics()).processFile(file);
+        Path manifestFile = Path.of(file + ".blho");
+        byte[] published = Files.readAllBytes(manifestFile);
+        assertTrue(published.length > 128 * 1024);
+
+        BlhoFileDataV2 manifest = new BlhoReader(new HashDictionaryRegistry("")).read(manifestFile);
+        byte[] metadata = new byte[ByteBuffer.wrap(published).getInt(5)];
+        System.arraycopy(published, 9, metadata, 0, metadata.length);
+
+        // the sections written one after another to a stream, as before the gathering write
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(expected)) {
+            dos.writeBytes("BLHO");
+            dos.writeByte(2);
+            dos.writeInt(metadata.length);
+            dos.write(metadata);
+            for (BlockType type : List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR)) {
+                writeHashList(dos, manifest.uniqueHashes(type));
+            }
+            for (BlockType type : List.of(BlockType.LUMA, BlockType.CHROMA_CB, BlockType.CHROMA_CR)) {
+                writePositionMap(dos, manifest.positionMap(type));
+            }
+            writeHashList(dos, manifest.uniqueHashes(BlockType.ALPHA));
+            writePositionMap(dos, manifest.positionMap(BlockType.ALPHA));
+            dos.writeInt(manifest.getChecksums().bands().length);
+            dos.writeInt(manifest.getChecksums().image());
+            for (int band : manifest.getChecksums().bands()) {
+                dos.writeInt(band);
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), published);
+    }
+
+    private static void writeHashList(DataOutputStream dos, List<byte[]> hashes) throws Exception {
+        dos.writeInt(hashes.size());
+        for (byte[] hash : hashes) {
+            dos.write(hash);
+        }
+    }
+
+    private static void writePositionMap(DataOutputStream dos, List<Integer> map) throws Exception {
+        dos.writeInt(map.size());
+        for (int index : map) {
+            dos.writeInt(index);
+        }
+    }
+}
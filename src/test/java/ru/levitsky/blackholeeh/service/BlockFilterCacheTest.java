@@ -0,0 +1,153 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.server.BloomFilterOptions;
+import ru.levitsky.blackholeeh.server.ReferenceBlockServer;
+import ru.levitsky.blackholeeh.server.ReferenceServerOptions;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+import ru.levitsky.blackholeeh.util.BloomFilter;
+import ru.levitsky.blackholeeh.util.BloomFilterSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomBlocks;
+
+class BlockFilterCacheTest {
+
+    private final InMemoryBlockStore store = new InMemoryBlockStore();
+
+    @Test
+    void reloadsSnapshotFileAfterRestart(@TempDir Path directory) throws Exception {
+        List<BlockDto> blocks = randomBlocks(200);
+        store.putAll(blocks, BlockType.LUMA);
+        try (ReferenceBlockServer server = server(new BloomFilterOptions(10_000, 10, 3_600_000, 8))) {
+            assertNotNull(cache(server, directory).filter(BlockType.LUMA));
+            long bytesOut = server.stats().bytesOut();
+
+            // a new cache on the same directory, as after a restart of the client
+            BloomFilter reloaded = cache(server, directory).filter(BlockType.LUMA);
+
+            assertTrue(blocks.stream().allMatch(block -> reloaded.mightContain(block.getHash())));
+            // the server confirmed the mapped version with an empty delta instead of sending the 12 KB snapshot
+            assertTrue(server.stats().bytesOut() - bytesOut < 1000);
+        }
+    }
+
+    @Test
+    void newGenerationReplacesTheSnapshot(@TempDir Path directory) throws Exception {
+        store.putAll(randomBlocks(50), BlockType.LUMA);
+        try (ReferenceBlockServer server = server(new BloomFilterOptions(100, 10, 3_600_000, 8))) {
+            BlockFilterCache cache = cache(server, directory);
+            cache.filter(BlockType.LUMA);
+            BloomFilterSnapshot.Header before = header(directory);
+
+            // more hashes than the filter is sized for: rebuilt twice as large at the next publish
+            List<BlockDto> added = randomBlocks(200);
+            new BlockClient(new RestTemplate(), server.baseUrl()).uploadBlocksBatch(added, BlockType.LUMA);
+            server.publishFilters();
+            BloomFilter filter = cache.filter(BlockType.LUMA);
+
+            BloomFilterSnapshot.Header after = header(directory);
+            assertNotEquals(before.generation(), after.generation());
+            assertTrue(after.wordCount() > before.wordCount());
+            assertEquals(after.wordCount(), filter.wordCount());
+            assertTrue(added.stream().allMatch(block -> filter.mightContain(block.getHash())));
+        }
+    }
+
+    @Test
+    void clientBehindTheHistoryGetsASnapshot(@TempDir Path directory) throws Exception {
+        try (ReferenceBlockServer server = server(new BloomFilterOptions(10_000, 10, 3_600_000, 1))) {
+            BlockClient client = new BlockClient(new RestTemplate(), server.baseUrl());
+            BlockFilterCache cache = cache(server, directory);
+            cache.filter(BlockType.LUMA);
+            long generation = header(directory).generation();
+
+            // two versions, of which the server keeps only the last
+            client.uploadBlocksBatch(randomBlocks(10), BlockType.LUMA);
+            server.publishFilters();
+            client.uploadBlocksBatch(randomBlocks(20), BlockType.LUMA);
+            server.publishFilters();
+            long bytesOut = server.stats().bytesOut();
+            BloomFilter filter = cache.filter(BlockType.LUMA);
+
+            BloomFilterSnapshot.Header header = header(directory);
+            assertEquals(generation, header.generation());
+            assertEquals(3, header.version());
+            assertTrue(server.stats().bytesOut() - bytesOut > (long) header.wordCount() * Long.BYTES);
+            assertTrue(randomBlocks(10).stream().allMatch(block -> filter.mightContain(block.getHash())));
+        }
+    }
+
+    @Test
+    void serverWithoutFiltersDisablesTheCache(@TempDir Path directory) throws Exception {
+        try (ReferenceBlockServer server = new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store)
+                .start()) {
+            BlockFilterCache cache = cache(server, directory);
+
+            assertNull(cache.filter(BlockType.LUMA));
+            long requests = server.stats().requests();
+            assertNull(cache.filter(BlockType.CHROMA_CB));
+            assertEquals(requests, server.stats().requests());
+            assertTrue(Files.notExists(directory.resolve("LUMA.blbf")));
+        }
+    }
+
+    @Test
+    void callersDoNotWaitForARefreshInProgress(@TempDir Path directory) throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ReferenceBlockServer server = server(new BloomFilterOptions(10_000, 10, 3_600_000, 8))) {
+            RestTemplate slow = new RestTemplate() {
+                @Override
+                public <T> ResponseEntity<T> getForEntity(String url, Class<T> responseType, Object... uriVariables) {
+                    requested.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.getForEntity(url, responseType, uriVariables);
+                }
+            };
+            BlockFilterCache cache = new BlockFilterCache(slow, server.baseUrl(), directory, Duration.ZERO);
+            CompletableFuture<BloomFilter> refreshing = CompletableFuture.supplyAsync(
+                    () -> cache.filter(BlockType.LUMA));
+            assertTrue(requested.await(10, TimeUnit.SECONDS));
+
+            // the first download is still running: no filter yet, but no waiting either
+            assertNull(CompletableFuture.supplyAsync(() -> cache.filter(BlockType.LUMA)).get(10, TimeUnit.SECONDS));
+            release.countDown();
+            assertNotNull(refreshing.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private ReferenceBlockServer server(BloomFilterOptions filterOptions) throws Exception {
+        return new ReferenceBlockServer(ReferenceServerOptions.ideal(0), store, filterOptions).start();
+    }
+
+    private static BlockFilterCache cache(ReferenceBlockServer server, Path directory) {
+        return new BlockFilterCache(new RestTemplate(), server.baseUrl(), directory, Duration.ZERO);
+    }
+
+    private static BloomFilterSnapshot.Header header(Path directory) throws Exception {
+        return BloomFilterSnapshot.header(ByteBuffer.wrap(Files.readAllBytes(directory.resolve("LUMA.blbf"))));
+    }
+}
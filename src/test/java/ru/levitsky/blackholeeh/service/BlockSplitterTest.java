@@ -0,0 +1,75 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.FsyncPolicy;
+import ru.levitsky.blackholeeh.model.RctImage;
+import ru.levitsky.blackholeeh.util.StripeParallelism;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlockSplitterTest {
+
+    @Test
+    void stripeParallelManifestsMatchSequential(@TempDir Path directory) throws Exception {
+        try (StripeParallelism stripes = new StripeParallelism(3, 0)) {
+            for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                    BufferedImage.TYPE_BYTE_GRAY}) {
+                BufferedImage image = repetitiveImage(203, 117, type);
+
+                RctImage sequential = BlockSplitter.splitIntoRctBlocks(image);
+                RctImage parallel = BlockSplitter.splitIntoRctBlocks(image, stripes);
+                assertEquals(sequential.blocks().size(), parallel.blocks().size());
+                for (int i = 0; i < sequential.blocks().size(); i++) {
+                    for (BlockType component : sequential.layout().components()) {
+                        assertArrayEquals(sequential.blocks().get(i).component(component),
+                                parallel.blocks().get(i).component(component), component + " block " + i);
+                    }
+                }
+
+                // the file name is part of the metadata, so both manifests get the same name
+                File sequentialFile = Files.createDirectories(directory.resolve("sequential")).resolve(type + ".png")
+                        .toFile();
+                File parallelFile = Files.createDirectories(directory.resolve("parallel")).resolve(type + ".png")
+                        .toFile();
+                new BlhoWriter().writeBlho(sequentialFile, sequential);
+                new BlhoWriter(null, FsyncPolicy.NONE, stripes).writeBlho(parallelFile, parallel);
+                assertArrayEquals(Files.readAllBytes(Path.of(sequentialFile + ".blho")),
+                        Files.readAllBytes(Path.of(parallelFile + ".blho")), "manifest of image type " + type);
+            }
+        }
+    }
+
+    /**
+     * Random 8x8 tiles drawn from a small set, so blocks repeat within and across stripes.
+     */
+    private static BufferedImage repetitiveImage(int width, int height, int type) {
+        Random random = new Random(7);
+        int[][] tiles = new int[5][64];
+        for (int[] tile : tiles) {
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = random.nextInt();
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int by = 0; by < height; by += 8) {
+            for (int bx = 0; bx < width; bx += 8) {
+                int[] tile = tiles[random.nextInt(tiles.length)];
+                for (int y = by; y < Math.min(height, by + 8); y++) {
+                    for (int x = bx; x < Math.min(width, bx + 8); x++) {
+                        image.setRGB(x, y, tile[(y - by) * 8 + (x - bx)]);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,57 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.model.CorpusReport;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomImage;
+
+class CorpusAnalyzerTest {
+
+    @Test
+    void reportsCrossImageDeduplication(@TempDir Path directory) throws Exception {
+        // two copies of a 2-block color image, one 1-block gray image and one unreadable file
+        BufferedImage color = randomImage(16, 8);
+        ImageIO.write(color, "png", directory.resolve("a.png").toFile());
+        Files.createDirectories(directory.resolve("nested"));
+        ImageIO.write(color, "png", directory.resolve("nested/b.png").toFile());
+        ImageIO.write(randomImage(8, 8, BufferedImage.TYPE_BYTE_GRAY), "png", directory.resolve("c.png").toFile());
+        Files.write(directory.resolve("broken.png"), new byte[]{1, 2, 3});
+        Files.write(directory.resolve("notes.txt"), new byte[]{1, 2, 3});
+
+        CorpusReport report = new CorpusAnalyzer(new BlhoWriter()).analyze(directory, 2);
+
+        assertEquals(3, report.filesAnalyzed());
+        assertEquals(1, report.filesFailed());
+        assertEquals(16 * 8 * 2 + 8 * 8, report.pixels());
+        assertEquals(5, report.totalBlocks());
+        assertEquals(Map.of(ChannelLayout.RGB, 2L, ChannelLayout.GRAY, 1L), report.channelLayouts());
+        assertFalse(report.components().containsKey(BlockType.ALPHA));
+
+        CorpusReport.ComponentReport luma = report.components().get(BlockType.LUMA);
+        assertEquals(5, luma.totalBlocks());
+        assertEquals(5, luma.uniqueWithinImages());
+        assertEquals(3, luma.uniqueGlobal());
+        assertEquals(2, luma.crossImageDuplicates());
+        assertEquals(64, luma.blockBytes());
+        assertEquals(3 * 64, luma.uploadBytes());
+        assertTrue(luma.entropyBitsPerSample() > 0 && luma.entropyBitsPerSample() <= 8);
+
+        CorpusReport.ComponentReport cb = report.components().get(BlockType.CHROMA_CB);
+        assertEquals(4, cb.totalBlocks());
+        assertEquals(2, cb.uniqueGlobal());
+        assertTrue(report.dedupRatio() > 0 && report.dedupRatio() < 1);
+        assertTrue(report.projectedBlhoBytes() > 0);
+    }
+}
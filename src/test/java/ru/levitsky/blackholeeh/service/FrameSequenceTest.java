@@ -0,0 +1,221 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.SequenceFrame;
+import ru.levitsky.blackholeeh.model.SequenceOptions;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.service.store.BlockStore;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+import ru.levitsky.blackholeeh.util.image.DihedralUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomImage;
+
+class FrameSequenceTest {
+
+    private final InMemoryBlockStore store = new InMemoryBlockStore();
+    private final BlhoReader blhoReader = new BlhoReader(new HashDictionaryRegistry(""));
+    private final ImageReconstructor reconstructor = new ImageReconstructor(store);
+
+    @Test
+    void storesFramesAsDeltasAndReconstructsThem(@TempDir Path directory) throws Exception {
+        FileProcessor processor = new FileProcessor(store, new BlhoWriter(), new PipelineMetrics())
+                .withSplitOptions(new SplitOptions(true, false))
+                .withSequenceOptions(new SequenceOptions(true, 3));
+        BufferedImage frame = randomImage(61, 37);
+        for (int i = 0; i < 5; i++) {
+            frame = changePatch(frame, i);
+            ImageIO.write(frame, "png", directory.resolve("frame" + i + ".png").toFile());
+        }
+
+        processor.processDirectory(directory.toString());
+
+        for (int i = 0; i < 5; i++) {
+            File file = directory.resolve("frame" + i + ".png").toFile();
+            BlhoFileDataV2 manifest = blhoReader.read(Path.of(file + ".blho"));
+            // keyframe interval 3: frames 0 and 3 are self-contained
+            assertEquals(i % 3 != 0, manifest.hasPreviousFrame(), "frame " + i);
+            if (manifest.hasPreviousFrame()) {
+                assertEquals("frame" + (i - 1) + ".png.blho", manifest.getPreviousFrame().manifest());
+                assertTrue(Files.size(Path.of(file + ".blho")) < Files.size(directory.resolve("frame0.png.blho")));
+            }
+
+            // expanded, a delta manifest holds what a self-contained one would
+            BlhoFileDataV2 standalone = new BlhoWriter().createHashStructure(
+                    DihedralUtils.canonicalize(BlockSplitter.splitIntoRctBlocks(file)), file.getName());
+            for (BlockType type : manifest.getChannelLayout().components()) {
+                assertEquals(standalone.positionMap(type), manifest.positionMap(type), type + " of frame " + i);
+                assertEquals(standalone.uniqueHashes(type).size(), manifest.uniqueHashes(type).size());
+                for (int h = 0; h < standalone.uniqueHashes(type).size(); h++) {
+                    assertArrayEquals(standalone.uniqueHashes(type).get(h), manifest.uniqueHashes(type).get(h));
+                }
+                assertArrayEquals(standalone.getOrientations().get(type), manifest.getOrientations().get(type));
+            }
+
+            BufferedImage source = ImageIO.read(file);
+            BufferedImage restored = reconstructor.reconstruct(manifest, null, 1, 2);
+            for (int y = 0; y < source.getHeight(); y++) {
+                for (int x = 0; x < source.getWidth(); x++) {
+                    assertEquals(source.getRGB(x, y), restored.getRGB(x, y), "frame " + i + " pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void skipsUnchangedBlocks(@TempDir Path directory) throws Exception {
+        FileProcessor processor = new FileProcessor(store, new BlhoWriter(), new PipelineMetrics())
+                .withSequenceOptions(new SequenceOptions(true, 30));
+        BufferedImage image = randomImage(40, 24);
+        File first = directory.resolve("a.png").toFile();
+        File same = directory.resolve("b.png").toFile();
+        File changed = directory.resolve("c.png").toFile();
+        ImageIO.write(image, "png", first);
+        ImageIO.write(image, "png", same);
+        image.setRGB(17, 9, image.getRGB(17, 9) ^ 0x010101);
+        ImageIO.write(image, "png", changed);
+
+        FileProcessor.ProcessedFile a = processor.processFrame(first, null);
+        assertEquals(0, a.frame().depth());
+        assertEquals(0, unchanged(a.frame(), BlockType.LUMA));
+        assertEquals(15, a.uploadedHashes().get(BlockType.LUMA).size());
+
+        FileProcessor.ProcessedFile b = processor.processFrame(same, a.frame());
+        assertEquals(1, b.frame().depth());
+        assertEquals(15, unchanged(b.frame(), BlockType.LUMA));
+        for (List<String> uploaded : b.uploadedHashes().values()) {
+            assertTrue(uploaded.isEmpty());
+        }
+
+        FileProcessor.ProcessedFile c = processor.processFrame(changed, b.frame());
+        assertEquals(2, c.frame().depth());
+        assertEquals(14, unchanged(c.frame(), BlockType.LUMA));
+        assertFalse(c.frame().unchanged().get(BlockType.LUMA)[5 + 2]);
+        assertEquals(1, c.uploadedHashes().get(BlockType.LUMA).size());
+    }
+
+    @Test
+    void ordersFramesByNumber(@TempDir Path directory) throws Exception {
+        FileProcessor processor = new FileProcessor(store, new BlhoWriter(), new PipelineMetrics())
+                .withSequenceOptions(new SequenceOptions(true, 30));
+        BufferedImage frame = randomImage(24, 16);
+        for (int i : new int[]{1, 2, 10}) {
+            ImageIO.write(frame, "png", directory.resolve("frame" + i + ".png").toFile());
+        }
+
+        processor.processDirectory(directory.toString());
+
+        assertFalse(blhoReader.read(directory.resolve("frame1.png.blho")).hasPreviousFrame());
+        assertEquals("frame1.png.blho",
+                blhoReader.read(directory.resolve("frame2.png.blho")).getPreviousFrame().manifest());
+        assertEquals("frame2.png.blho",
+                blhoReader.read(directory.resolve("frame10.png.blho")).getPreviousFrame().manifest());
+    }
+
+    @Test
+    void uploadsUnchangedBlocksAgainAfterFailedUpload(@TempDir Path directory) throws Exception {
+        FailingOnceBlockStore failing = new FailingOnceBlockStore(store);
+        FileProcessor processor = new FileProcessor(failing, new BlhoWriter(), new PipelineMetrics())
+                .withSequenceOptions(new SequenceOptions(true, 30));
+        BufferedImage image = randomImage(40, 24);
+        File first = directory.resolve("a.png").toFile();
+        File same = directory.resolve("b.png").toFile();
+        File again = directory.resolve("c.png").toFile();
+        ImageIO.write(image, "png", first);
+        ImageIO.write(image, "png", same);
+        ImageIO.write(image, "png", again);
+
+        FileProcessor.ProcessedFile a = processor.processFrame(first, null);
+        assertFalse(a.frame().confirmed());
+        assertEquals(0, store.size(BlockType.LUMA));
+
+        // the blocks are unchanged, but were never stored: they are checked and uploaded with the next frame
+        FileProcessor.ProcessedFile b = processor.processFrame(same, a.frame());
+        assertEquals(15, unchanged(b.frame(), BlockType.LUMA));
+        assertTrue(b.frame().confirmed());
+        assertEquals(15, b.uploadedHashes().get(BlockType.LUMA).size());
+        assertEquals(15, store.size(BlockType.LUMA));
+
+        FileProcessor.ProcessedFile c = processor.processFrame(again, b.frame());
+        for (List<String> uploaded : c.uploadedHashes().values()) {
+            assertTrue(uploaded.isEmpty());
+        }
+    }
+
+    private static int unchanged(SequenceFrame frame, BlockType type) {
+        int count = 0;
+        for (boolean same : frame.unchanged().get(type)) {
+            count += same ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy of the frame with a 6x6 patch moved along with the frame number
+     */
+    private static BufferedImage changePatch(BufferedImage frame, int number) {
+        BufferedImage next = new BufferedImage(frame.getWidth(), frame.getHeight(), frame.getType());
+        next.setData(frame.getData());
+        Random random = new Random(number);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 6; x++) {
+                next.setRGB(3 + number * 11 + x, 5 + number * 6 + y, random.nextInt(0x1000000));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Store that, like {@link BlockClient}, logs and skips the first failed upload instead of throwing.
+     */
+    private static final class FailingOnceBlockStore implements BlockStore {
+        private final BlockStore delegate;
+        private long failedRequests;
+
+        private FailingOnceBlockStore(BlockStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public List<String> findMissing(List<String> hashes, BlockType type) {
+            return delegate.findMissing(hashes, type);
+        }
+
+        @Override
+        public void putAll(List<BlockDto> blocks, BlockType type) {
+            if (failedRequests == 0) {
+                failedRequests++;
+                return;
+            }
+            delegate.putAll(blocks, type);
+        }
+
+        @Override
+        public Map<String, byte[]> getAll(Collection<String> hashes, BlockType type) {
+            return delegate.getAll(hashes, type);
+        }
+
+        @Override
+        public long failedRequests() {
+            return failedRequests;
+        }
+    }
+}
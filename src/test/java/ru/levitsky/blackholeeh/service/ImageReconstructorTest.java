@@ -0,0 +1,237 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.enumeration.ChannelLayout;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomImage;
+
+class ImageReconstructorTest {
+
+    private final InMemoryBlockStore store = new InMemoryBlockStore();
+    private final FileProcessor fileProcessor = new FileProcessor(store, new BlhoWriter(), new PipelineMetrics());
+    private final ImageReconstructor reconstructor = new ImageReconstructor(store);
+
+    @Test
+    void reconstructsWholeImageAndRegion(@TempDir Path directory) throws Exception {
+        BufferedImage source = randomImage(61, 37);
+        BlhoFileDataV2 manifest = ingest(source, directory);
+
+        BufferedImage full = reconstructor.reconstruct(manifest, null, 1, 2);
+        assertPixelsEqual(source, 0, 0, full);
+
+        Rectangle roi = new Rectangle(13, 9, 30, 20);
+        BufferedImage crop = reconstructor.reconstruct(manifest, roi, 1, 2);
+        assertEquals(30, crop.getWidth());
+        assertEquals(20, crop.getHeight());
+        assertPixelsEqual(source, roi.x, roi.y, crop);
+    }
+
+    @Test
+    void roundTripsGrayImages(@TempDir Path directory) throws Exception {
+        BufferedImage source = randomImage(21, 13, BufferedImage.TYPE_BYTE_GRAY);
+        BlhoFileDataV2 manifest = ingest(source, directory);
+
+        assertEquals(ChannelLayout.GRAY, manifest.getChannelLayout());
+        assertTrue(manifest.uniqueHashes(BlockType.CHROMA_CB).isEmpty());
+        assertTrue(manifest.uniqueHashes(BlockType.ALPHA).isEmpty());
+        assertSamplesEqual(source, reconstructor.reconstruct(manifest, null, 1, 2));
+    }
+
+    @Test
+    void roundTripsGrayAlphaImages(@TempDir Path directory) throws Exception {
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        BufferedImage source = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(21, 13),
+                false, null);
+        Random random = new Random(5);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.getRaster().setSample(x, y, 0, random.nextInt(256));
+                source.getRaster().setSample(x, y, 1, random.nextInt(256));
+            }
+        }
+        BlhoFileDataV2 manifest = ingest(source, directory);
+
+        assertEquals(ChannelLayout.GRAY_ALPHA, manifest.getChannelLayout());
+        assertTrue(manifest.uniqueHashes(BlockType.CHROMA_CB).isEmpty());
+        assertSamplesEqual(source, reconstructor.reconstruct(manifest, null, 1, 2));
+    }
+
+    @Test
+    void roundTripsRgbaImages(@TempDir Path directory) throws Exception {
+        BufferedImage source = randomImage(21, 13, BufferedImage.TYPE_INT_ARGB);
+        BlhoFileDataV2 manifest = ingest(source, directory);
+
+        assertEquals(ChannelLayout.RGBA, manifest.getChannelLayout());
+        assertEquals(manifest.totalBlocks(), manifest.positionMap(BlockType.ALPHA).size());
+        assertPixelsEqual(source, 0, 0, reconstructor.reconstruct(manifest, null, 1, 2));
+    }
+
+    @Test
+    void reconstructsCanonicalizedBlocks(@TempDir Path directory) throws Exception {
+        FileProcessor canonicalizing = fileProcessor.withSplitOptions(new SplitOptions(true, false));
+        // every row of blocks holds one random block, its mirror image and its clockwise rotation
+        BufferedImage source = new BufferedImage(24, 16, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(3);
+        for (int row = 0; row < 2; row++) {
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    int argb = random.nextInt();
+                    source.setRGB(x, row * 8 + y, argb);
+                    source.setRGB(15 - x, row * 8 + y, argb);
+                    source.setRGB(23 - y, row * 8 + x, argb);
+                }
+            }
+        }
+        BlhoFileDataV2 manifest = ingest(source, directory, canonicalizing);
+
+        assertTrue(manifest.hasOrientations());
+        assertEquals(6, manifest.totalBlocks());
+        assertEquals(2, manifest.getUniqueYHashes().size());
+        assertEquals(2, manifest.getUniqueAHashes().size());
+        assertPixelsEqual(source, 0, 0, reconstructor.reconstruct(manifest, null, 1, 2));
+    }
+
+    @Test
+    void restoresJpegFromCoefficientBlocks(@TempDir Path directory) throws Exception {
+        FileProcessor coefficientSplitting = fileProcessor.withSplitOptions(new SplitOptions(false, true));
+        File file = directory.resolve("image.jpg").toFile();
+        BufferedImage source = new BufferedImage(45, 29, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, (x * 5) << 16 | (y * 8) << 8 | (x * y) & 0xFF);
+            }
+        }
+        ImageIO.write(source, "jpg", file);
+        coefficientSplitting.processFile(file);
+        BlhoFileDataV2 manifest = new BlhoReader(new HashDictionaryRegistry("")).read(Path.of(file.getPath() + ".blho"));
+
+        assertTrue(manifest.hasJpegSegments());
+        // 4:2:0 subsampling: luma grid of 6x4 blocks, chroma grids of 3x2
+        assertEquals(24, manifest.getYPositionMap().size());
+        assertEquals(6, manifest.getUPositionMap().size());
+        assertArrayEquals(Files.readAllBytes(file.toPath()), reconstructor.restoreJpeg(manifest));
+
+        BufferedImage decoded = ImageIO.read(file);
+        Rectangle roi = new Rectangle(7, 3, 20, 20);
+        assertPixelsEqual(decoded, roi.x, roi.y, reconstructor.reconstruct(manifest, roi, 1, 2));
+    }
+
+    @Test
+    void downscalesWithBoxAverage(@TempDir Path directory) throws Exception {
+        BufferedImage source = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 16; x++) {
+                // left half black, right half alternating 100/200 gray
+                int value = x < 8 ? 0 : ((x + y) % 2 == 0 ? 100 : 200);
+                source.setRGB(x, y, value * 0x010101);
+            }
+        }
+        BufferedImage thumbnail = reconstructor.reconstruct(ingest(source, directory), null, 8, 1);
+
+        assertEquals(2, thumbnail.getWidth());
+        assertEquals(1, thumbnail.getHeight());
+        assertEquals(0x000000, thumbnail.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(150 * 0x010101, thumbnail.getRGB(1, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    void downscalesRegionNotAlignedToBlockRows(@TempDir Path directory) throws Exception {
+        BufferedImage source = randomImage(61, 37);
+        Rectangle roi = new Rectangle(5, 11, 41, 23);
+        int scale = 3;
+
+        BufferedImage thumbnail = reconstructor.reconstruct(ingest(source, directory), roi, scale, 3);
+
+        assertEquals(14, thumbnail.getWidth());
+        assertEquals(8, thumbnail.getHeight());
+        for (int oy = 0; oy < thumbnail.getHeight(); oy++) {
+            for (int ox = 0; ox < thumbnail.getWidth(); ox++) {
+                int x0 = roi.x + ox * scale;
+                int y0 = roi.y + oy * scale;
+                int x1 = Math.min(roi.x + roi.width, x0 + scale);
+                int y1 = Math.min(roi.y + roi.height, y0 + scale);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int sum = 0;
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = x0; x < x1; x++) {
+                            sum += (source.getRGB(x, y) >> shift) & 0xFF;
+                        }
+                    }
+                    int n = (x1 - x0) * (y1 - y0);
+                    assertEquals((sum + n / 2) / n, (thumbnail.getRGB(ox, oy) >> shift) & 0xFF,
+                            "pixel " + ox + "," + oy);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsRegionOutsideImage(@TempDir Path directory) throws Exception {
+        BlhoFileDataV2 manifest = ingest(randomImage(8, 8), directory);
+        assertThrows(IllegalArgumentException.class,
+                () -> reconstructor.reconstruct(manifest, new Rectangle(100, 100, 5, 5), 1, 1));
+    }
+
+    private BlhoFileDataV2 ingest(BufferedImage image, Path directory) throws Exception {
+        return ingest(image, directory, fileProcessor);
+    }
+
+    private BlhoFileDataV2 ingest(BufferedImage image, Path directory, FileProcessor processor) throws Exception {
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(image, "png", file);
+        processor.processFile(file);
+        return new BlhoReader(new HashDictionaryRegistry("")).read(Path.of(file.getPath() + ".blho"));
+    }
+
+    /**
+     * Compares the raster samples of a gray source with the reconstructed image, gray samples with gray samples
+     * and gray-alpha samples with ARGB pixels, so the color space conversion of
+     * {@link BufferedImage#getRGB(int, int)} on gray rasters does not blur the comparison.
+     */
+    private static void assertSamplesEqual(BufferedImage source, BufferedImage actual) {
+        boolean alpha = source.getColorModel().hasAlpha();
+        assertEquals(alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_BYTE_GRAY, actual.getType());
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int gray = source.getRaster().getSample(x, y, 0);
+                if (alpha) {
+                    int argb = source.getRaster().getSample(x, y, 1) << 24 | gray * 0x010101;
+                    assertEquals(argb, actual.getRGB(x, y), "pixel " + x + "," + y);
+                } else {
+                    assertEquals(gray, actual.getRaster().getSample(x, y, 0), "pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    private static void assertPixelsEqual(BufferedImage source, int x0, int y0, BufferedImage actual) {
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                assertEquals(source.getRGB(x0 + x, y0 + y), actual.getRGB(x, y), "pixel " + x + "," + y);
+            }
+        }
+    }
+}
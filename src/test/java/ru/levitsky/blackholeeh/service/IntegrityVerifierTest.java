@@ -0,0 +1,105 @@
+package ru.levitsky.blackholeeh.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.IntegrityReport;
+import ru.levitsky.blackholeeh.model.SplitOptions;
+import ru.levitsky.blackholeeh.service.dictionary.HashDictionaryRegistry;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntegrityVerifierTest {
+
+    private final InMemoryBlockStore store = new InMemoryBlockStore();
+    private final BlhoReader blhoReader = new BlhoReader(new HashDictionaryRegistry(""));
+    private final IntegrityVerifier verifier = new IntegrityVerifier(blhoReader, store);
+
+    @Test
+    void verifiesPixelCanonicalAndJpegManifests(@TempDir Path directory) throws Exception {
+        ingest(directory, "rgb.png", BufferedImage.TYPE_INT_RGB, SplitOptions.DEFAULT);
+        ingest(directory, "rgba.png", BufferedImage.TYPE_INT_ARGB, new SplitOptions(true, false));
+        ingest(directory, "photo.jpg", BufferedImage.TYPE_INT_RGB, new SplitOptions(false, true));
+
+        IntegrityReport report = verifier.verify(directory, 1.0, 0, 2);
+
+        assertEquals(3, report.manifests());
+        assertEquals(3, report.verified());
+        assertTrue(report.failures().isEmpty(), () -> report.failures().toString());
+    }
+
+    @Test
+    void pinpointsCorruptedBand(@TempDir Path directory) throws Exception {
+        File image = ingest(directory, "rgb.png", BufferedImage.TYPE_INT_RGB, SplitOptions.DEFAULT);
+        BlhoFileDataV2 manifest = blhoReader.read(Path.of(image.getPath() + ".blho"));
+
+        // the Y block at the first position of the third block row, used only there in a random image
+        int position = 2 * ((manifest.getWidth() + 7) / 8);
+        String key = HexFormat.of().formatHex(manifest.getUniqueYHashes().get(manifest.getYPositionMap().get(position)));
+        byte[] corrupted = store.getAll(List.of(key), BlockType.LUMA).get(key).clone();
+        corrupted[5] ^= 1;
+        // stores never replace a block, so the corrupted one goes into a copy first
+        InMemoryBlockStore corruptedStore = new InMemoryBlockStore();
+        corruptedStore.putAll(List.of(new BlockDto(key, corrupted, BlockType.LUMA)), BlockType.LUMA);
+        for (BlockType type : BlockType.values()) {
+            List<String> hashes = new ArrayList<>();
+            store.forEachHash(type, hashes::add);
+            List<BlockDto> blocks = new ArrayList<>();
+            store.getAll(hashes, type).forEach((hash, data) -> blocks.add(new BlockDto(hash, data, type)));
+            corruptedStore.putAll(blocks, type);
+        }
+
+        IntegrityReport report = new IntegrityVerifier(blhoReader, corruptedStore).verify(directory, 1.0, 0, 1);
+
+        assertEquals(1, report.failures().size());
+        IntegrityReport.ManifestFailure failure = report.failures().getFirst();
+        assertEquals(0, failure.missingBlocks());
+        assertEquals(1, failure.bands().size());
+        assertEquals(2, failure.bands().getFirst().band());
+        assertEquals(16, failure.bands().getFirst().firstRow());
+        assertEquals(23, failure.bands().getFirst().lastRow());
+    }
+
+    @Test
+    void samplesDeterministically(@TempDir Path directory) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            ingest(directory, "image" + i + ".png", BufferedImage.TYPE_BYTE_GRAY, SplitOptions.DEFAULT);
+        }
+
+        IntegrityReport first = verifier.verify(directory, 0.3, 42, 2);
+        IntegrityReport second = verifier.verify(directory, 0.3, 42, 2);
+
+        assertEquals(20, first.manifests());
+        assertEquals(first.verified(), second.verified());
+        assertTrue(first.verified() > 0 && first.verified() < 20, () -> "sampled " + first.verified());
+    }
+
+    private File ingest(Path directory, String name, int type, SplitOptions options) throws Exception {
+        FileProcessor processor = new FileProcessor(store, new BlhoWriter(), new PipelineMetrics())
+                .withSplitOptions(options);
+        Random random = new Random(name.hashCode());
+        BufferedImage source = new BufferedImage(45, 29, type);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, random.nextInt());
+            }
+        }
+        File file = directory.resolve(name).toFile();
+        ImageIO.write(source, name.endsWith(".jpg") ? "jpg" : "png", file);
+        processor.processFile(file);
+        return file;
+    }
+}
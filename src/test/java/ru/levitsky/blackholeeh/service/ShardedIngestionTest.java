@@ -0,0 +1,155 @@
+package ru.levitsky.blackholeeh.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+import ru.levitsky.blackholeeh.model.MergedShardReport;
+import ru.levitsky.blackholeeh.model.ShardReport;
+import ru.levitsky.blackholeeh.model.ShardSpec;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+
+import javax.imageio.ImageIO;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomImage;
+
+class ShardedIngestionTest {
+
+    private final InMemoryBlockStore store = new InMemoryBlockStore();
+
+    @Test
+    void resumesShardAfterRestart(@TempDir Path root) throws Exception {
+        writeImages(root, 8);
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        ShardSpec shard = new ShardSpec(0, 2);
+
+        ShardReport first = ingestion(store).ingest(root, shard, stateDir);
+        assertTrue(first.filesAssigned() > 0);
+        assertEquals(first.filesAssigned(), first.filesDone());
+        assertEquals(0, first.filesSkipped());
+        assertEquals(0, first.filesFailed());
+        assertEquals(store.size(BlockType.LUMA), (long) first.uploadedBlocks().get(BlockType.LUMA));
+
+        // a restarted process skips journaled files and redoes one whose manifest was lost
+        Path journal = stateDir.resolve(first.journal());
+        String firstFile = journaledFile(Files.readAllLines(journal).getFirst());
+        Files.delete(root.resolve(firstFile + ".blho"));
+        Files.writeString(journal, "{\"file\":\"torn", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        ShardReport second = ingestion(store).ingest(root, shard, stateDir);
+
+        assertEquals(first.filesAssigned() - 1, second.filesSkipped());
+        assertEquals(first.filesDone(), second.filesDone());
+        assertEquals(first.sourceBytes(), second.sourceBytes());
+        assertEquals(first.uploadedBlocks(), second.uploadedBlocks());
+        assertTrue(Files.exists(root.resolve(firstFile + ".blho")));
+    }
+
+    @Test
+    void mergesReportsOfAllShards(@TempDir Path root) throws Exception {
+        writeImages(root, 9);
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        long done = 0;
+        for (int i = 0; i < 3; i++) {
+            done += ingestion(store).ingest(root, new ShardSpec(i, 3), stateDir).filesDone();
+        }
+
+        MergedShardReport merged = ingestion(store).mergeReports(stateDir);
+
+        assertEquals(9, done);
+        assertEquals(List.of(0, 1, 2), merged.shardsPresent());
+        assertTrue(merged.shardsMissing().isEmpty());
+        assertEquals(9, merged.filesAssigned());
+        assertEquals(9, merged.filesDone());
+        assertEquals(0, merged.filesFailed());
+        assertEquals(store.size(BlockType.LUMA), (long) merged.uploadedBlocks().get(BlockType.LUMA));
+        assertTrue(merged.duplicateUploads().isEmpty());
+        assertTrue(merged.filesInMultipleShards().isEmpty());
+    }
+
+    @Test
+    void reportsMissingShards(@TempDir Path root) throws Exception {
+        writeImages(root, 6);
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        ingestion(store).ingest(root, new ShardSpec(0, 3), stateDir);
+        ingestion(store).ingest(root, new ShardSpec(2, 3), stateDir);
+
+        MergedShardReport merged = ingestion(store).mergeReports(stateDir);
+
+        assertEquals(List.of(0, 2), merged.shardsPresent());
+        assertEquals(List.of(1), merged.shardsMissing());
+    }
+
+    @Test
+    void detectsBlocksUploadedBySeveralShards(@TempDir Path root) throws Exception {
+        // identical images in both shards, uploaded by nodes that do not share a store
+        int[] owners = new int[2];
+        for (int i = 0; i < 8; i++) {
+            Path file = root.resolve("same-" + i + ".png");
+            ImageIO.write(randomImage(16, 16), "png", file.toFile());
+            owners[new ShardSpec(0, 2).owns(root.relativize(file)) ? 0 : 1]++;
+        }
+        assertTrue(owners[0] > 0 && owners[1] > 0, "both shards need a copy");
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        ingestion(new InMemoryBlockStore()).ingest(root, new ShardSpec(0, 2), stateDir);
+        ingestion(new InMemoryBlockStore()).ingest(root, new ShardSpec(1, 2), stateDir);
+
+        MergedShardReport merged = ingestion(store).mergeReports(stateDir);
+
+        // a 16x16 image has 4 luma blocks, uploaded once by each shard
+        assertEquals(8L, (long) merged.uploadedBlocks().get(BlockType.LUMA));
+        assertEquals(4L, (long) merged.duplicateUploads().get(BlockType.LUMA));
+        assertTrue(merged.filesInMultipleShards().isEmpty());
+    }
+
+    @Test
+    void detectsFilesOfSeveralShards(@TempDir Path root) throws Exception {
+        writeImages(root, 6);
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        ShardReport shard0 = ingestion(store).ingest(root, new ShardSpec(0, 2), stateDir);
+        ShardReport shard1 = ingestion(store).ingest(root, new ShardSpec(1, 2), stateDir);
+        // a file journaled by both shards, e.g. after a rerun with a changed tree
+        String line = Files.readAllLines(stateDir.resolve(shard0.journal())).getFirst();
+        Files.writeString(stateDir.resolve(shard1.journal()), line + "\n", StandardOpenOption.APPEND);
+
+        MergedShardReport merged = ingestion(store).mergeReports(stateDir);
+
+        assertEquals(List.of(journaledFile(line)), merged.filesInMultipleShards());
+    }
+
+    @Test
+    void rejectsReportsOfDifferentRuns(@TempDir Path root) throws Exception {
+        writeImages(root, 4);
+        Path stateDir = ShardedIngestion.defaultStateDirectory(root);
+        ingestion(store).ingest(root, new ShardSpec(0, 2), stateDir);
+        ingestion(store).ingest(root, new ShardSpec(0, 3), stateDir);
+
+        assertThrows(IllegalArgumentException.class, () -> ingestion(store).mergeReports(stateDir));
+    }
+
+    private static ShardedIngestion ingestion(InMemoryBlockStore store) {
+        return new ShardedIngestion(new FileProcessor(store, new BlhoWriter(), new PipelineMetrics()));
+    }
+
+    private static String journaledFile(String journalLine) throws Exception {
+        return new ObjectMapper().readTree(journalLine).get("file").asText();
+    }
+
+    /**
+     * Writes {@code count} distinct images, half of them in a subdirectory.
+     */
+    private static void writeImages(Path root, int count) throws Exception {
+        Files.createDirectories(root.resolve("nested"));
+        for (int i = 0; i < count; i++) {
+            Path dir = i % 2 == 0 ? root : root.resolve("nested");
+            ImageIO.write(randomImage(16 + i, 16), "png", dir.resolve("image-" + i + ".png").toFile());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.levitsky.blackholeeh.service.dictionary;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.model.BlhoFileDataV2;
+import ru.levitsky.blackholeeh.model.DictionaryCheckReport;
+import ru.levitsky.blackholeeh.service.BlhoReader;
+import ru.levitsky.blackholeeh.service.BlhoWriter;
+import ru.levitsky.blackholeeh.service.FileProcessor;
+import ru.levitsky.blackholeeh.service.ImageReconstructor;
+import ru.levitsky.blackholeeh.service.PipelineMetrics;
+import ru.levitsky.blackholeeh.service.store.InMemoryBlockStore;
+import ru.levitsky.blackholeeh.util.HashUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashDictionaryTest {
+
+    @Test
+    void idsAreStableAcrossReopen(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("hashes.blhd");
+        List<byte[]> hashes = hashes(0, 100);
+        int[] ids;
+        UUID id;
+        try (HashDictionary dictionary = HashDictionary.open(file)) {
+            ids = dictionary.idsFor(hashes);
+            id = dictionary.id();
+            assertArrayEquals(ids, dictionary.idsFor(hashes));
+        }
+        try (HashDictionary dictionary = HashDictionary.open(file)) {
+            assertEquals(id, dictionary.id());
+            assertEquals(100, dictionary.size());
+            assertArrayEquals(ids, dictionary.idsFor(hashes));
+            assertArrayEquals(hashes.get(42), dictionary.hash(ids[42]));
+            assertEquals(-1, dictionary.find(hash(1000)));
+        }
+    }
+
+    @Test
+    void growsBeyondOneSegment(@TempDir Path directory) throws Exception {
+        try (HashDictionary dictionary = HashDictionary.open(directory.resolve("hashes.blhd"))) {
+            int[] ids = dictionary.idsFor(hashes(0, 70_000));
+            assertEquals(69_999, ids[69_999]);
+            assertArrayEquals(hash(69_999), dictionary.hash(69_999));
+            assertEquals(69_999, dictionary.find(hash(69_999)));
+            assertEquals(0, dictionary.duplicates());
+        }
+    }
+
+    @Test
+    void manifestsRoundTripThroughDictionary(@TempDir Path directory) throws Exception {
+        HashDictionaryRegistry registry = new HashDictionaryRegistry(HashDictionaryRegistry.PER_DIRECTORY);
+        InMemoryBlockStore store = new InMemoryBlockStore();
+        FileProcessor fileProcessor = new FileProcessor(store, new BlhoWriter(registry), new PipelineMetrics());
+        BlhoReader reader = new BlhoReader(registry);
+
+        BufferedImage source = new BufferedImage(40, 24, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, (x / 8) * 0x203040 + y * 0x010203);
+            }
+        }
+        File first = directory.resolve("a.png").toFile();
+        File second = directory.resolve("b.png").toFile();
+        ImageIO.write(source, "png", first);
+        ImageIO.write(source, "png", second);
+        fileProcessor.processFile(first);
+        fileProcessor.processFile(second);
+
+        BlhoFileDataV2 manifest = reader.read(Path.of(second.getPath() + ".blho"));
+        BufferedImage restored = new ImageReconstructor(store).reconstruct(manifest, null, 1, 1);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                assertEquals(source.getRGB(x, y) & 0xFFFFFF, restored.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+
+        DictionaryCheckReport report = new ManifestChecker(reader, registry).check(directory);
+        assertEquals(2, report.dictionaryManifests());
+        assertEquals(1, report.dictionaries().size());
+        assertTrue(report.problems().isEmpty(), report.problems()::toString);
+        registry.close();
+    }
+
+    private static List<byte[]> hashes(int from, int to) {
+        List<byte[]> hashes = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            hashes.add(hash(i));
+        }
+        return hashes;
+    }
+
+    /**
+     * @return a block key like the real ones: the SHA-256 of the value
+     */
+    private static byte[] hash(int value) {
+        return HashUtils.sha256Bytes(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+    }
+}
@@ -0,0 +1,114 @@
+package ru.levitsky.blackholeeh.service.similarity;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.model.SimilarImage;
+import ru.levitsky.blackholeeh.util.MinHashUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimilarityIndexTest {
+
+    private final Random random = new Random(38);
+
+    @Test
+    void findsNearDuplicatesThroughBandsAfterReopen(@TempDir Path directory) throws Exception {
+        List<byte[]> original = randomHashes(400);
+        List<byte[]> edited = new ArrayList<>(original.subList(0, 360));
+        edited.addAll(randomHashes(40));
+
+        try (SimilarityIndex index = SimilarityIndex.open(directory)) {
+            index.add("edited.blho", signature(edited), edited.size());
+            for (int i = 0; i < 200; i++) {
+                List<byte[]> unrelated = randomHashes(400);
+                index.add("unrelated-" + i + ".blho", signature(unrelated), unrelated.size());
+            }
+            index.commit();
+        }
+
+        try (SimilarityIndex index = SimilarityIndex.open(directory)) {
+            assertEquals(201, index.size());
+            List<SimilarImage> similar = index.query(signature(original), original.size(), 0.5, 10, null);
+
+            assertEquals(1, similar.size());
+            assertEquals("edited.blho", similar.getFirst().manifest());
+            assertTrue(similar.getFirst().sharedFraction() > 0.8, () -> similar.getFirst().toString());
+        }
+    }
+
+    @Test
+    void uncommittedImagesAreSearchedDirectly(@TempDir Path directory) throws Exception {
+        List<byte[]> hashes = randomHashes(100);
+        try (SimilarityIndex index = SimilarityIndex.open(directory)) {
+            index.add("a.blho", signature(hashes), hashes.size());
+            index.commit();
+            index.add("b.blho", signature(hashes), hashes.size());
+
+            List<SimilarImage> similar = index.query(signature(hashes), hashes.size(), 0.9, 10, "a.blho");
+
+            assertEquals(List.of("b.blho"), similar.stream().map(SimilarImage::manifest).toList());
+            assertEquals(1.0, similar.getFirst().jaccard());
+            assertEquals(0, index.add("a.blho", signature(hashes), hashes.size()));
+        }
+    }
+
+    @Test
+    void incrementalCommitsMergeIntoTheSameBandFile(@TempDir Path directory) throws Exception {
+        List<List<byte[]>> images = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            images.add(randomHashes(50));
+        }
+        Path incremental = Files.createDirectory(directory.resolve("incremental"));
+        Path full = Files.createDirectory(directory.resolve("full"));
+
+        // small runs force several sorted runs per commit and a merge with the existing band file
+        try (SimilarityIndex index = SimilarityIndex.open(incremental)) {
+            for (int i = 0; i < 50; i++) {
+                index.add(i + ".blho", signature(images.get(i)), images.get(i).size());
+            }
+            index.commit(7);
+            for (int i = 50; i < 80; i++) {
+                index.add(i + ".blho", signature(images.get(i)), images.get(i).size());
+            }
+            index.commit(7);
+        }
+        try (SimilarityIndex index = SimilarityIndex.open(full)) {
+            for (int i = 0; i < 80; i++) {
+                index.add(i + ".blho", signature(images.get(i)), images.get(i).size());
+            }
+            index.commit();
+        }
+
+        assertArrayEquals(Files.readAllBytes(full.resolve("bands.bin")),
+                Files.readAllBytes(incremental.resolve("bands.bin")));
+        try (SimilarityIndex index = SimilarityIndex.open(incremental)) {
+            for (int i : new int[]{0, 49, 50, 79}) {
+                List<SimilarImage> similar = index.query(signature(images.get(i)), images.get(i).size(), 0.9, 10,
+                        null);
+                assertEquals(List.of(i + ".blho"), similar.stream().map(SimilarImage::manifest).toList());
+            }
+        }
+    }
+
+    private static int[] signature(List<byte[]> hashes) {
+        return MinHashUtils.signature(hashes, SimilarityIndex.DEFAULT_HASHES);
+    }
+
+    private List<byte[]> randomHashes(int count) {
+        List<byte[]> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+}
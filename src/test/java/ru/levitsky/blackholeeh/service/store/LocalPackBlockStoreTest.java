@@ -0,0 +1,80 @@
+package ru.levitsky.blackholeeh.service.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomBlocks;
+
+class LocalPackBlockStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storesAndReloadsBlocks() throws Exception {
+        List<BlockDto> blocks = randomBlocks(1000, 64, BlockType.LUMA);
+        List<String> hashes = blocks.stream().map(BlockDto::getHash).toList();
+
+        try (LocalPackBlockStore store = new LocalPackBlockStore(directory, 100)) {
+            assertEquals(hashes, store.findMissing(hashes, BlockType.LUMA));
+            store.putAll(blocks, BlockType.LUMA);
+            assertTrue(store.findMissing(hashes, BlockType.LUMA).isEmpty());
+            assertEquals(hashes.size(), store.findMissing(hashes, BlockType.CHROMA_CB).size());
+        }
+
+        try (LocalPackBlockStore store = new LocalPackBlockStore(directory, 100)) {
+            assertContainsAll(store, blocks, BlockType.LUMA);
+        }
+    }
+
+    @Test
+    void recoversFromTornTailWithoutCleanClose() throws Exception {
+        List<BlockDto> blocks = randomBlocks(100, 72, BlockType.CHROMA_CR);
+
+        LocalPackBlockStore crashed = new LocalPackBlockStore(directory, 0);
+        crashed.putAll(blocks, BlockType.CHROMA_CR);
+        try (Stream<Path> files = Files.list(directory)) {
+            Path pack = files.filter(p -> p.toString().endsWith(".pack")).findFirst().orElseThrow();
+            Files.write(pack, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        try (LocalPackBlockStore store = new LocalPackBlockStore(directory, 0)) {
+            assertContainsAll(store, blocks, BlockType.CHROMA_CR);
+        }
+    }
+
+    @Test
+    void compactionKeepsLiveBlocks() throws Exception {
+        List<BlockDto> blocks = randomBlocks(500, 64, BlockType.ALPHA);
+
+        try (LocalPackBlockStore store = new LocalPackBlockStore(directory, 0)) {
+            store.putAll(blocks.subList(0, 250), BlockType.ALPHA);
+            store.putAll(blocks, BlockType.ALPHA);
+
+            LocalPackBlockStore.CompactionResult result = store.compact();
+
+            assertEquals(500, result.liveBlocks());
+            assertContainsAll(store, blocks, BlockType.ALPHA);
+        }
+    }
+
+    private static void assertContainsAll(LocalPackBlockStore store, List<BlockDto> blocks, BlockType type) {
+        Map<String, byte[]> loaded = store.getAll(blocks.stream().map(BlockDto::getHash).toList(), type);
+        assertEquals(blocks.size(), loaded.size());
+        for (BlockDto block : blocks) {
+            assertArrayEquals(block.getData(), loaded.get(block.getHash()));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.levitsky.blackholeeh.util;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+import ru.levitsky.blackholeeh.enumeration.BlockType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomBlocks;
+
+class BloomFilterSnapshotTest {
+
+    @Test
+    void snapshotRoundTrips() {
+        BloomFilter filter = BloomFilter.allocate(200, 10);
+        List<String> hashes = randomBlocks(200).stream().map(BlockDto::getHash).toList();
+        hashes.forEach(filter::put);
+
+        byte[] message = BloomFilterSnapshot.snapshot(BlockType.CHROMA_CB, filter.hashCount(), 7, 3, 200,
+                words(filter));
+        BloomFilterSnapshot.Header header = BloomFilterSnapshot.header(ByteBuffer.wrap(message));
+
+        assertEquals(new BloomFilterSnapshot.Header(BloomFilterSnapshot.KIND_SNAPSHOT, BlockType.CHROMA_CB,
+                filter.hashCount(), 7, 3, 0, filter.wordCount(), 0, 200), header);
+        BloomFilter restored = BloomFilter.wrap(ByteBuffer.wrap(message, BloomFilterSnapshot.HEADER_SIZE,
+                message.length - BloomFilterSnapshot.HEADER_SIZE), header.hashCount());
+        assertTrue(hashes.stream().allMatch(restored::mightContain));
+    }
+
+    @Test
+    void deltaBringsAFilterToTheNewVersion() {
+        BloomFilter published = BloomFilter.allocate(500, 10);
+        randomBlocks(100).forEach(block -> published.put(block.getHash()));
+        long[] base = words(published);
+        BloomFilter client = BloomFilter.wrap(ByteBuffer.allocate(base.length * Long.BYTES), published.hashCount());
+        for (int i = 0; i < base.length; i++) {
+            client.setWord(i, base[i]);
+        }
+        randomBlocks(20).forEach(block -> published.put(block.getHash()));
+        long[] current = words(published);
+        int[] changed = changedWords(base, current);
+
+        byte[] delta = BloomFilterSnapshot.delta(BlockType.LUMA, published.hashCount(), 7, 4, 3, 120, current,
+                changed);
+        BloomFilterSnapshot.Header header = BloomFilterSnapshot.header(ByteBuffer.wrap(delta));
+        BloomFilterSnapshot.applyDelta(ByteBuffer.wrap(delta), client);
+
+        assertEquals(BloomFilterSnapshot.KIND_DELTA, header.kind());
+        assertEquals(3, header.baseVersion());
+        assertEquals(4, header.version());
+        assertEquals(changed.length, header.changedWords());
+        assertEquals(BloomFilterSnapshot.HEADER_SIZE + changed.length * 12, delta.length);
+        assertArrayEquals(current, words(client));
+    }
+
+    @Test
+    void rejectsInvalidMessages() {
+        long[] words = new long[4];
+        byte[] snapshot = BloomFilterSnapshot.snapshot(BlockType.LUMA, 3, 1, 1, 0, words);
+        byte[] delta = BloomFilterSnapshot.delta(BlockType.LUMA, 3, 1, 2, 1, 0, words, new int[]{0, 3});
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BloomFilterSnapshot.header(ByteBuffer.wrap(Arrays.copyOf(snapshot, 63))));
+        assertThrows(IllegalArgumentException.class,
+                () -> BloomFilterSnapshot.header(ByteBuffer.wrap(Arrays.copyOf(snapshot, snapshot.length - 1))));
+        assertThrows(IllegalArgumentException.class,
+                () -> BloomFilterSnapshot.header(ByteBuffer.wrap(Arrays.copyOf(delta, delta.length + 1))));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.header(patched(snapshot, 0, 'X')));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.header(patched(snapshot, 4, 2)));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.header(patched(snapshot, 5, 2)));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.header(patched(snapshot, 6, 99)));
+
+        BloomFilter filter = BloomFilter.wrap(ByteBuffer.allocate(32), 3);
+        // a snapshot is no delta, a delta for another filter size does not fit
+        assertThrows(IllegalArgumentException.class,
+                () -> BloomFilterSnapshot.applyDelta(ByteBuffer.wrap(snapshot), filter));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.applyDelta(ByteBuffer.wrap(
+                BloomFilterSnapshot.delta(BlockType.LUMA, 3, 1, 2, 1, 0, new long[8], new int[]{0})), filter));
+        // index of the second entry, after the 64-byte header and the first 12-byte entry
+        ByteBuffer outOfRange = ByteBuffer.wrap(delta.clone()).putInt(BloomFilterSnapshot.HEADER_SIZE + 12, 4);
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.applyDelta(outOfRange, filter));
+        ByteBuffer negative = ByteBuffer.wrap(delta.clone()).putInt(BloomFilterSnapshot.HEADER_SIZE, -1);
+        assertThrows(IllegalArgumentException.class, () -> BloomFilterSnapshot.applyDelta(negative, filter));
+    }
+
+    private static ByteBuffer patched(byte[] message, int offset, int value) {
+        byte[] copy = message.clone();
+        copy[offset] = (byte) value;
+        return ByteBuffer.wrap(copy);
+    }
+
+    private static long[] words(BloomFilter filter) {
+        long[] words = new long[filter.wordCount()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = filter.word(i);
+        }
+        return words;
+    }
+
+    private static int[] changedWords(long[] before, long[] after) {
+        return IntStream.range(0, after.length).filter(i -> before[i] != after[i]).toArray();
+    }
+}
@@ -0,0 +1,75 @@
+package ru.levitsky.blackholeeh.util;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.dto.BlockDto;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.levitsky.blackholeeh.TestFixtures.randomBlocks;
+
+class BloomFilterTest {
+
+    @Test
+    void containsAddedHashesWithFewFalsePositives() {
+        BloomFilter filter = BloomFilter.allocate(1000, 10);
+        List<String> added = randomBlocks(1000).stream().map(BlockDto::getHash).toList();
+        // a hash whose bits were all set already reports no change, like a false positive
+        long changed = added.stream().filter(filter::put).count();
+
+        assertEquals(7, filter.hashCount());
+        assertTrue(changed > 990, () -> changed + " hashes changed the filter");
+        for (String hash : added) {
+            assertTrue(filter.mightContain(hash));
+            assertFalse(filter.put(hash));
+        }
+        // about 1% at 10 bits per hash
+        long falsePositives = randomBlocks(10_000).stream().map(BlockDto::getHash)
+                .filter(filter::mightContain).count();
+        assertTrue(falsePositives < 300, () -> falsePositives + " false positives");
+    }
+
+    @Test
+    void treatsHashesThatCannotBePlacedAsContained() {
+        BloomFilter filter = BloomFilter.allocate(100, 10);
+        String hash = randomBlocks(1).getFirst().getHash();
+
+        assertFalse(filter.mightContain(hash));
+        for (String invalid : new String[]{null, "", hash.substring(1), hash + "0", "g" + hash.substring(1)}) {
+            assertFalse(filter.put(invalid));
+            assertTrue(filter.mightContain(invalid));
+        }
+        assertFalse(filter.mightContain(hash));
+
+        filter.put(hash);
+        assertTrue(filter.mightContain(hash.toUpperCase()));
+    }
+
+    @Test
+    void wrappedWordsWriteThrough() {
+        ByteBuffer words = ByteBuffer.allocate(128);
+        String hash = randomBlocks(1).getFirst().getHash();
+
+        BloomFilter.wrap(words, 3).put(hash);
+        BloomFilter copy = BloomFilter.wrap(words, 3);
+
+        assertEquals(16, copy.wordCount());
+        assertTrue(copy.mightContain(hash));
+        copy.setWord(0, -1L);
+        assertEquals(-1L, words.getLong(0));
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.allocate(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.allocate(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.allocate(Integer.MAX_VALUE, 64));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.wrap(ByteBuffer.allocate(12), 3));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.wrap(ByteBuffer.allocate(0), 3));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.wrap(ByteBuffer.allocate(64), 17));
+    }
+}
@@ -0,0 +1,35 @@
+package ru.levitsky.blackholeeh.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EntropyUtilsTest {
+
+    @Test
+    void entropyOfKnownDistributions() {
+        long[] constant = new long[256];
+        constant[42] = 1000;
+        assertEquals(0.0, EntropyUtils.shannonEntropy(constant), 1e-12);
+
+        long[] uniform = new long[256];
+        Arrays.fill(uniform, 17);
+        assertEquals(8.0, EntropyUtils.shannonEntropy(uniform), 1e-12);
+
+        long[] coin = new long[256];
+        coin[0] = 5;
+        coin[255] = 5;
+        assertEquals(1.0, EntropyUtils.shannonEntropy(coin), 1e-12);
+
+        // p = 1/2, 1/4, 1/4
+        assertEquals(1.5, EntropyUtils.shannonEntropy(new long[]{2, 1, 1}), 1e-12);
+    }
+
+    @Test
+    void emptyHistogramHasNoEntropy() {
+        assertEquals(0.0, EntropyUtils.shannonEntropy(new long[256]));
+        assertEquals(0.0, EntropyUtils.shannonEntropy(new long[0]));
+    }
+}
@@ -0,0 +1,51 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.enumeration.ChromaPacking;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChromaPackingUtilsTest {
+
+    @Test
+    void roundTripsEveryPacking() {
+        Random random = new Random(42);
+        for (ChromaPacking packing : ChromaPacking.values()) {
+            for (int run = 0; run < 100; run++) {
+                short[] samples = new short[64];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = (short) (random.nextInt(511) - 255);
+                }
+
+                byte[] packed = ChromaPackingUtils.pack(samples, packing);
+
+                assertEquals(packing.packedLength(), packed.length);
+                assertArrayEquals(samples, ChromaPackingUtils.unpack(packed));
+            }
+        }
+    }
+
+    @Test
+    void keepsExtremeValues() {
+        short[] samples = new short[64];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i % 2 == 0 ? -255 : 255);
+        }
+
+        assertArrayEquals(samples,
+                ChromaPackingUtils.unpack(ChromaPackingUtils.pack(samples, ChromaPacking.SIGNED_9BIT)));
+    }
+
+    @Test
+    void rejectsSamplesWiderThanNineBits() {
+        short[] samples = new short[64];
+        samples[7] = 300;
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ChromaPackingUtils.pack(samples, ChromaPacking.SIGNED_9BIT));
+    }
+}
@@ -0,0 +1,87 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DihedralUtilsTest {
+
+    @Test
+    void transformsMatchGeometry() {
+        byte[] block = new byte[64];
+        for (int i = 0; i < 64; i++) {
+            block[i] = (byte) i;
+        }
+
+        // 90° clockwise: the first output row is the first input column, bottom to top
+        byte[] rotated = DihedralUtils.apply(block, 1);
+        for (int col = 0; col < 8; col++) {
+            assertEquals((7 - col) * 8, rotated[col]);
+        }
+        // mirror: every row reversed
+        byte[] mirrored = DihedralUtils.apply(block, 4);
+        for (int col = 0; col < 8; col++) {
+            assertEquals(7 - col, mirrored[col]);
+        }
+
+        Set<String> variants = new HashSet<>();
+        for (int t = 0; t < DihedralUtils.ORIENTATIONS; t++) {
+            byte[] variant = DihedralUtils.apply(block, t);
+            variants.add(Arrays.toString(variant));
+            assertArrayEquals(block, DihedralUtils.invert(variant, t));
+        }
+        assertEquals(8, variants.size());
+        assertArrayEquals(block, DihedralUtils.apply(block, 0));
+    }
+
+    @Test
+    void canonicalFormIsOrientationInvariant() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            byte[] block = new byte[64];
+            random.nextBytes(block);
+            short[] chroma = new short[64];
+            for (int i = 0; i < 64; i++) {
+                chroma[i] = (short) (random.nextInt(511) - 255);
+            }
+
+            byte[] canonical = DihedralUtils.apply(block, DihedralUtils.canonicalOrientation(block));
+            short[] canonicalChroma = DihedralUtils.apply(chroma, DihedralUtils.canonicalOrientation(chroma));
+            for (int t = 0; t < DihedralUtils.ORIENTATIONS; t++) {
+                byte[] variant = DihedralUtils.apply(block, t);
+                assertArrayEquals(canonical, DihedralUtils.apply(variant, DihedralUtils.canonicalOrientation(variant)));
+                short[] chromaVariant = DihedralUtils.apply(chroma, t);
+                assertArrayEquals(canonicalChroma,
+                        DihedralUtils.apply(chromaVariant, DihedralUtils.canonicalOrientation(chromaVariant)));
+            }
+        }
+    }
+
+    @Test
+    void symmetricBlockKeepsIdentity() {
+        assertEquals(0, DihedralUtils.canonicalOrientation(new byte[64]));
+        assertEquals(0, DihedralUtils.canonicalOrientation(new short[64]));
+    }
+
+    @Test
+    void packsOrientationsInThreeBits() {
+        Random random = new Random(7);
+        for (int count : new int[]{0, 1, 7, 8, 9, 1001}) {
+            byte[] orientations = new byte[count];
+            for (int i = 0; i < count; i++) {
+                orientations[i] = (byte) random.nextInt(DihedralUtils.ORIENTATIONS);
+            }
+
+            byte[] packed = DihedralUtils.packOrientations(orientations);
+
+            assertEquals((count * 3 + 7) / 8, packed.length);
+            assertArrayEquals(orientations, DihedralUtils.unpackOrientations(packed, count));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ru.levitsky.blackholeeh.util.image;
+
+import org.junit.jupiter.api.Test;
+import ru.levitsky.blackholeeh.util.image.component.RctComponents;
+import ru.levitsky.blackholeeh.util.image.component.RgbComponents;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RctTransformUtilsTest {
+
+    /**
+     * Channel values at the edges of the value range and around the midpoint, where rounding is most fragile
+     */
+    private static final int[] EXTREMES = {0, 1, 2, 126, 127, 128, 129, 253, 254, 255};
+
+    @Test
+    void inverseRestoresExtremeColors() {
+        for (int r : EXTREMES) {
+            for (int g : EXTREMES) {
+                for (int b : EXTREMES) {
+                    assertRoundTrip(r, g, b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void inverseRestoresSampledColors() {
+        // a coarse grid of the whole cube plus random colors, instead of all 16.7M
+        for (int r = 0; r < 256; r += 15) {
+            for (int g = 0; g < 256; g += 15) {
+                for (int b = 0; b < 256; b += 15) {
+                    assertRoundTrip(r, g, b);
+                }
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int rgb = random.nextInt(0x1000000);
+            assertRoundTrip(rgb >> 16, (rgb >> 8) & 0xFF, rgb & 0xFF);
+        }
+    }
+
+    @Test
+    void inverseReturnsComponents() {
+        RctComponents rct = RctTransformUtils.forwardRctTransform(200, 10, 77);
+        assertEquals(new RgbComponents(200, 10, 77), RctTransformUtils.inverseRctTransform(rct.y(), rct.u(), rct.v()));
+    }
+
+    private static void assertRoundTrip(int r, int g, int b) {
+        RctComponents rct = RctTransformUtils.forwardRctTransform(r, g, b);
+        assertEquals((r << 16) | (g << 8) | b, RctTransformUtils.inverseRctToRgb(rct.y(), rct.u(), rct.v()),
+                "color " + r + "," + g + "," + b);
+    }
+}
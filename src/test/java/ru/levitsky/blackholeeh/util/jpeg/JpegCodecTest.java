@@ -0,0 +1,236 @@
+package ru.levitsky.blackholeeh.util.jpeg;
+
+import org.junit.jupiter.api.Test;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JpegCodecTest {
+
+    private static final String NATIVE_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    @Test
+    void roundTripsBaselineJpegs() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            // odd sizes leave partial MCUs at the right and bottom edges
+            for (int[] size : new int[][]{{1, 1}, {61, 37}, {128, 64}}) {
+                byte[] jpeg = write(image(size[0], size[1], type), false);
+                JpegCoefficients coefficients = JpegCodec.decode(jpeg);
+
+                assertEquals(size[0], coefficients.frame().width());
+                assertEquals(size[1], coefficients.frame().height());
+                assertEquals(type == BufferedImage.TYPE_BYTE_GRAY ? 1 : 3, coefficients.frame().components().size());
+                assertArrayEquals(jpeg, JpegCodec.encode(coefficients.segments(), coefficients.coefficients()),
+                        "type " + type + ", " + size[0] + "x" + size[1]);
+            }
+        }
+    }
+
+    @Test
+    void roundTripsProgressiveJpegs() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] jpeg = write(image(97, 45, type), true);
+            JpegCoefficients coefficients = JpegCodec.decode(jpeg);
+
+            assertTrue(coefficients.frame().progressive());
+            // DC and AC first and refinement scans
+            assertTrue(coefficients.segments().size() > 4);
+            assertArrayEquals(jpeg, JpegCodec.encode(coefficients.segments(), coefficients.coefficients()));
+        }
+    }
+
+    @Test
+    void roundTripsRestartIntervals() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            // an interval of 3 MCUs ends mid-row and leaves a shorter last interval
+            for (int interval : new int[]{1, 3}) {
+                byte[] jpeg = write(image(61, 37, type), 0, interval);
+                assertTrue(containsMarker(jpeg, 0xDD));
+                assertTrue(containsMarker(jpeg, 0xD0));
+
+                JpegCoefficients coefficients = JpegCodec.decode(jpeg);
+
+                assertArrayEquals(jpeg, JpegCodec.encode(coefficients.segments(), coefficients.coefficients()),
+                        "type " + type + ", interval " + interval);
+            }
+        }
+    }
+
+    @Test
+    void roundTripsChromaSamplings() throws IOException {
+        // 4:2:2 and 4:4:4; the default 4:2:0 is covered by the baseline test
+        for (int lumaH : new int[]{2, 1}) {
+            byte[] jpeg = write(image(61, 37, BufferedImage.TYPE_INT_RGB), lumaH, 0);
+            JpegCoefficients coefficients = JpegCodec.decode(jpeg);
+
+            JpegFrame.Component luma = coefficients.frame().components().getFirst();
+            assertEquals(lumaH, luma.h());
+            assertEquals(1, luma.v());
+            assertArrayEquals(jpeg, JpegCodec.encode(coefficients.segments(), coefficients.coefficients()),
+                    "luma sampling " + lumaH + "x1");
+        }
+    }
+
+    @Test
+    void roundTripsMultiScanBaselineJpegs() throws IOException {
+        // ImageIO writes several scans only for progressive files, so the interleaved scan of a baseline file
+        // is split into one non-interleaved scan per component
+        byte[] interleaved = write(image(61, 37, BufferedImage.TYPE_INT_RGB), false);
+        JpegCoefficients original = JpegCodec.decode(interleaved);
+        byte[] header = original.segments().getFirst();
+        int sos = header.length - 14;
+        assertEquals(3, header[sos + 4]);
+        List<byte[]> segments = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            byte[] scan = {(byte) 0xFF, (byte) 0xDA, 0, 8, 1, header[sos + 5 + 2 * c], header[sos + 6 + 2 * c], 0, 63, 0};
+            segments.add(c == 0 ? concat(Arrays.copyOf(header, sos), scan) : scan);
+        }
+        segments.add(original.segments().getLast());
+        byte[] jpeg = JpegCodec.encode(segments, original.coefficients());
+        // a valid file with the same image
+        assertArrayEquals(pixels(interleaved), pixels(jpeg));
+
+        JpegCoefficients coefficients = JpegCodec.decode(jpeg);
+
+        assertEquals(JpegFrame.BASELINE, coefficients.frame().marker());
+        assertEquals(4, coefficients.segments().size());
+        assertArrayEquals(jpeg, JpegCodec.encode(coefficients.segments(), coefficients.coefficients()));
+    }
+
+    @Test
+    void packsBlocksCompactly() {
+        short[] coefficients = new short[128];
+        coefficients[64] = -1024;
+        coefficients[65] = 3;
+        coefficients[80] = -1;
+        Random random = new Random(5);
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = (short) (random.nextInt(4096) - 2048);
+        }
+
+        for (int offset : new int[]{0, 64}) {
+            byte[] packed = JpegCodec.packBlock(coefficients, offset);
+            short[] unpacked = new short[64];
+            JpegCodec.unpackBlock(packed, unpacked, 0);
+            for (int k = 0; k < 64; k++) {
+                assertEquals(coefficients[offset + k], unpacked[k]);
+            }
+        }
+        // count, DC as two varint bytes, one byte each for the 16 coefficients up to the last non-zero one
+        assertEquals(1 + 2 + 16, JpegCodec.packBlock(coefficients, 64).length);
+        assertArrayEquals(new byte[]{0}, JpegCodec.packBlock(new short[64], 0));
+        assertThrows(IllegalArgumentException.class, () -> JpegCodec.unpackBlock(new byte[]{2, 1}, new short[64], 0));
+    }
+
+    @Test
+    void rejectsNonJpegData() {
+        assertThrows(IllegalArgumentException.class, () -> JpegCodec.decode(new byte[]{(byte) 0x89, 'P', 'N', 'G'}));
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // smooth gradients with noise, so blocks have both zero and non-zero AC coefficients
+                int noise = random.nextInt(24);
+                image.setRGB(x, y, ((x * 4 + noise) & 0xFF) << 16 | ((y * 5 + noise) & 0xFF) << 8 | ((x + y) & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes a baseline JPEG through the native metadata tree.
+     *
+     * @param lumaH           horizontal luma sampling factor with vertical factor 1, {@code 0} for the default
+     * @param restartInterval MCUs per restart interval, {@code 0} for none
+     */
+    private static byte[] write(BufferedImage image, int lumaH, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(NATIVE_FORMAT);
+        if (lumaH > 0) {
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for (int i = 0; i < components.getLength(); i++) {
+                IIOMetadataNode component = (IIOMetadataNode) components.item(i);
+                component.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? lumaH : 1));
+                component.setAttribute("VsamplingFactor", "1");
+            }
+        }
+        if (restartInterval > 0) {
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            Node markers = root.getElementsByTagName("markerSequence").item(0);
+            markers.insertBefore(dri, root.getElementsByTagName("sos").item(0));
+        }
+        metadata.setFromTree(NATIVE_FORMAT, root);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int[] pixels(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static boolean containsMarker(byte[] jpeg, int marker) {
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] write(BufferedImage image, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}